@@ -11,6 +11,10 @@ import ro.marcman.mixer.adapters.ui.RecipesView;
 import ro.marcman.mixer.adapters.ui.MixControlView;
 import ro.marcman.mixer.adapters.ui.PinMapperView;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
+import ro.marcman.mixer.sqlite.CachingIngredientRepository;
+import ro.marcman.mixer.sqlite.DatabaseExecutor;
+import ro.marcman.mixer.sqlite.DatabaseMaintenance;
+import ro.marcman.mixer.sqlite.DatabaseManager;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,6 +47,7 @@ public class App extends Application {
     
     private ArduinoView arduinoView;  // Keep reference for cleanup
     private static ArduinoView staticArduinoViewRef;  // Static reference for shutdown hook
+    private DatabaseMaintenance databaseMaintenance;
     
     @Override
     public void start(Stage primaryStage) {
@@ -134,6 +139,10 @@ public class App extends Application {
             
             primaryStage.show();
             
+            // WAL checkpoints, planner statistics and daily backups in the background
+            databaseMaintenance = new DatabaseMaintenance(DatabaseManager.getInstance());
+            databaseMaintenance.start();
+            
             System.out.println("Application started successfully");
             
         } catch (Exception e) {
@@ -145,6 +154,13 @@ public class App extends Application {
     @Override
     public void stop() throws Exception {
         System.out.println("JavaFX stop() called - final cleanup...");
+        // Finish queued background writes before the catalog snapshot is taken
+        DatabaseExecutor.getInstance().shutdown();
+        // Lets the next start fill the ingredient cache without querying every row
+        CachingIngredientRepository.getInstance().writeSnapshot();
+        if (databaseMaintenance != null) {
+            databaseMaintenance.stop();
+        }
         performCleanup();
         super.stop();
     }
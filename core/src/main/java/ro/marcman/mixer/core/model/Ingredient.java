@@ -10,7 +10,7 @@ import lombok.NoArgsConstructor;
  * Each ingredient can be controlled via Arduino pins.
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Ingredient {
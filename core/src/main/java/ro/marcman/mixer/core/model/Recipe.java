@@ -14,7 +14,7 @@ import java.util.List;
  * A recipe contains multiple ingredients with specific durations.
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Recipe {
@@ -28,6 +28,7 @@ public class Recipe {
     private Integer batchSize;
     private String notes;
     private boolean active;
+    private Integer currentVersion;  // Latest entry in the recipe's version history (see RecipeVersion)
     
     // Recipe ingredients with their specific durations
     @Builder.Default
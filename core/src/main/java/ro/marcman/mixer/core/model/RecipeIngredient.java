@@ -9,7 +9,7 @@ import lombok.NoArgsConstructor;
  * Represents an ingredient within a recipe with its specific duration.
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class RecipeIngredient {
@@ -0,0 +1,35 @@
+package ro.marcman.mixer.core.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One saved state of a recipe in its version history.
+ * Versions are numbered from 1 per recipe and never change once written.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecipeVersion {
+    private Long id;
+    private Long recipeId;
+    private Integer version;
+    private String name;
+    private String description;
+    private String category;
+    private Integer batchSize;
+    private String notes;
+    private LocalDateTime createdAt;
+    private int ingredientChanges;  // Ingredient rows added, changed or removed by this version
+    
+    // The full formula of this version; only filled when a single version is loaded
+    @Builder.Default
+    private List<RecipeIngredient> ingredients = new ArrayList<>();
+}
@@ -0,0 +1,25 @@
+package ro.marcman.mixer.core.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One change to an ingredient's stock, as recorded in the stock ledger.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockMovement {
+    private Long id;
+    private Long ingredientId;
+    private Long recipeId;  // Recipe whose mix consumed the stock, if any
+    private Double quantity;  // Grams added (positive) or consumed (negative), as applied to the stock
+    private Double stockAfter;  // Stock quantity after the change (never below 0)
+    private String reason;  // e.g. "mix", "restock", "correction"
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,68 @@
+package ro.marcman.mixer.core.ports.repository;
+
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of IngredientRepository for callers that must not wait on the database,
+ * such as UI event handlers. Futures complete on a database thread, with the same results the
+ * blocking methods return (empty or null on a database error).
+ * 
+ * Identical reads issued while one is still running share its result; copy a returned list
+ * before modifying it.
+ */
+public interface AsyncIngredientRepository {
+    
+    /**
+     * Find all ingredients
+     */
+    CompletableFuture<List<Ingredient>> findAll();
+    
+    /**
+     * One keyset page ordered by name, then id (see IngredientRepository.findPage)
+     */
+    CompletableFuture<List<Ingredient>> findPage(String afterName, Long afterId, int limit);
+    
+    /**
+     * Number of ingredients
+     */
+    CompletableFuture<Long> count();
+    
+    /**
+     * Distinct non-empty categories, sorted
+     */
+    CompletableFuture<List<String>> findCategories();
+    
+    /**
+     * Find ingredients by category
+     */
+    CompletableFuture<List<Ingredient>> findByCategory(String category);
+    
+    /**
+     * Find ingredient by ID
+     */
+    CompletableFuture<Optional<Ingredient>> findById(Long id);
+    
+    /**
+     * Full-text search, best matches first (see IngredientRepository.search)
+     */
+    CompletableFuture<List<Ingredient>> search(String query, int limit);
+    
+    /**
+     * Find ingredients by CAS number
+     */
+    CompletableFuture<List<Ingredient>> findByCasNumber(String casNumber);
+    
+    /**
+     * Save or update an ingredient
+     */
+    CompletableFuture<Ingredient> save(Ingredient ingredient);
+    
+    /**
+     * Delete ingredient by ID
+     */
+    CompletableFuture<Void> deleteById(Long id);
+}
@@ -0,0 +1,40 @@
+package ro.marcman.mixer.core.ports.repository;
+
+import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.RecipeVersion;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of RecipeRepository, with the same threading and sharing rules as
+ * AsyncIngredientRepository.
+ */
+public interface AsyncRecipeRepository {
+    
+    /**
+     * Find all recipes
+     */
+    CompletableFuture<List<Recipe>> findAll();
+    
+    /**
+     * Find recipe by ID
+     */
+    CompletableFuture<Optional<Recipe>> findById(Long id);
+    
+    /**
+     * Version history of a recipe, newest first
+     */
+    CompletableFuture<List<RecipeVersion>> findVersions(Long recipeId);
+    
+    /**
+     * Save or update a recipe
+     */
+    CompletableFuture<Recipe> save(Recipe recipe);
+    
+    /**
+     * Delete recipe by ID
+     */
+    CompletableFuture<Void> deleteById(Long id);
+}
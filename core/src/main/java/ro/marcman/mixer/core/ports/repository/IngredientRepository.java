@@ -4,6 +4,7 @@ import ro.marcman.mixer.core.model.Ingredient;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository interface for Ingredient persistence.
@@ -22,6 +23,58 @@ public interface IngredientRepository {
      * Used internally for counting pins to avoid double-counting.
      */
     List<Ingredient> findAllWithoutMasterApply();
+    
+    /**
+     * Find ingredients whose stored LARGE or SMALL pump is wired to the given UID and pin,
+     * ordered by name. Matching uses the stored columns (not master configuration) and
+     * compares UIDs trimmed and case-insensitively. Callers check which pump matched.
+     */
+    List<Ingredient> findByUidAndPin(String arduinoUid, Integer pin);
+    
+    /**
+     * Count LARGE and SMALL pins stored on the given UID (same rules as findByUidAndPin).
+     * 
+     * @param excludeId Ingredient whose own pins are not counted (e.g. the one being edited), or null
+     */
+    int countPinsByUid(String arduinoUid, Long excludeId);
+    
+    /**
+     * Find ingredients by CAS number (trimmed, case-insensitive), ordered by name.
+     */
+    List<Ingredient> findByCasNumber(String casNumber);
+    
+    /**
+     * Find the slave ingredients that use the given master ingredient, ordered by name.
+     */
+    List<Ingredient> findByMasterIngredientId(Long masterIngredientId);
+    
+    /**
+     * One page of ingredients ordered by name, then id, with master configuration applied.
+     * Keyset pagination: pass the name and id of the last ingredient of the previous page,
+     * or nulls for the first page.
+     */
+    List<Ingredient> findPage(String afterName, Long afterId, int limit);
+    
+    /**
+     * All ingredients ordered by name, then id, with master configuration applied, read as the stream
+     * is consumed. The stream may hold a database connection until closed: use try-with-resources.
+     */
+    Stream<Ingredient> streamAll();
+    
+    /**
+     * Number of ingredients, active or not (the size of findAll()).
+     */
+    long count();
+    
+    /**
+     * Distinct non-empty categories of all ingredients, sorted.
+     */
+    List<String> findCategories();
+    
+    /**
+     * Full-text search over name, CAS number, category, NCS category and description, best matches
+     * first, with master configuration applied. Every word of the query must match a word of the
+     * ingredient; the last word also matches as a prefix.
+     */
+    List<Ingredient> search(String query, int limit);
 }
-
-
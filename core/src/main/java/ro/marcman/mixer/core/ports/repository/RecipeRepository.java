@@ -1,6 +1,7 @@
 package ro.marcman.mixer.core.ports.repository;
 
 import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.RecipeVersion;
 
 import java.util.List;
 import java.util.Optional;
@@ -49,4 +50,22 @@ public interface RecipeRepository {
      * Check if recipe exists by ID
      */
     boolean existsById(Long id);
+    
+    /**
+     * Version history of a recipe, newest first, without ingredients
+     */
+    List<RecipeVersion> findVersions(Long recipeId);
+    
+    /**
+     * One version of a recipe with the full ingredient list it had
+     */
+    Optional<RecipeVersion> findVersion(Long recipeId, int version);
+    
+    /**
+     * Make the formula of an earlier version current again. It is saved as a new version,
+     * so the versions after it stay in the history.
+     * 
+     * @return The saved recipe, or empty if the recipe or version does not exist or saving failed
+     */
+    Optional<Recipe> restoreVersion(Long recipeId, int version);
 }
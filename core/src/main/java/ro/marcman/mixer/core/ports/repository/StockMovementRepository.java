@@ -0,0 +1,31 @@
+package ro.marcman.mixer.core.ports.repository;
+
+import ro.marcman.mixer.core.model.StockMovement;
+
+import java.util.List;
+
+/**
+ * Repository interface for the stock ledger.
+ */
+public interface StockMovementRepository {
+    
+    /**
+     * Apply the movements to the ingredients' stock and record them in the ledger, all in one transaction.
+     * Stock never goes below zero; a consumption larger than the stock is recorded with the quantity
+     * actually removed. Movements for unknown ingredients are skipped.
+     * 
+     * @return The recorded movements with id, applied quantity, stockAfter and createdAt set;
+     *         empty if nothing was written
+     */
+    List<StockMovement> record(List<StockMovement> movements);
+    
+    /**
+     * Movements of one ingredient, newest first
+     */
+    List<StockMovement> findByIngredientId(Long ingredientId);
+    
+    /**
+     * Movements recorded for mixes of one recipe, newest first
+     */
+    List<StockMovement> findByRecipeId(Long recipeId);
+}
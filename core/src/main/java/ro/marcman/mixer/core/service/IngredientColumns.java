@@ -0,0 +1,271 @@
+package ro.marcman.mixer.core.service;
+
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.ports.repository.IngredientRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, column-oriented copy of the ingredient catalog for analytics over every ingredient.
+ * 
+ * Each numeric field is a primitive array with a bitmap of the rows where it is set (null otherwise);
+ * category and supplier are dictionary-encoded as int codes. Row i of every column is the i-th
+ * ingredient given to of(). Scans touch only the columns they need instead of one boxed object per field.
+ * Build a new instance after the catalog changes.
+ */
+public final class IngredientColumns {
+    
+    /**
+     * Code of a null category or supplier.
+     */
+    public static final int NONE = -1;
+    
+    private final int size;
+    private final long[] ids;
+    private final BitSet active;
+    private final BitSet hasNcs;
+    
+    private final double[] stock;
+    private final BitSet stockSet;
+    private final double[] cost;
+    private final BitSet costSet;
+    private final int[] msPerGramLarge;
+    private final BitSet msPerGramLargeSet;
+    private final int[] msPerGramSmall;
+    private final BitSet msPerGramSmallSet;
+    
+    private final int[] categoryCodes;
+    private final List<String> categories;
+    private final int[] supplierCodes;
+    private final List<String> suppliers;
+    
+    private IngredientColumns(int size) {
+        this.size = size;
+        this.ids = new long[size];
+        this.active = new BitSet(size);
+        this.hasNcs = new BitSet(size);
+        this.stock = new double[size];
+        this.stockSet = new BitSet(size);
+        this.cost = new double[size];
+        this.costSet = new BitSet(size);
+        this.msPerGramLarge = new int[size];
+        this.msPerGramLargeSet = new BitSet(size);
+        this.msPerGramSmall = new int[size];
+        this.msPerGramSmallSet = new BitSet(size);
+        this.categoryCodes = new int[size];
+        this.categories = new ArrayList<>();
+        this.supplierCodes = new int[size];
+        this.suppliers = new ArrayList<>();
+    }
+    
+    /**
+     * Columns of every ingredient in the repository (findAll(), master configuration applied).
+     */
+    public static IngredientColumns load(IngredientRepository repository) {
+        return of(repository.findAll());
+    }
+    
+    public static IngredientColumns of(Collection<Ingredient> ingredients) {
+        IngredientColumns columns = new IngredientColumns(ingredients.size());
+        Map<String, Integer> categoryDictionary = new HashMap<>();
+        Map<String, Integer> supplierDictionary = new HashMap<>();
+        int row = 0;
+        for (Ingredient ingredient : ingredients) {
+            columns.ids[row] = ingredient.getId() != null ? ingredient.getId() : 0;
+            columns.active.set(row, ingredient.isActive());
+            columns.hasNcs.set(row, ingredient.getIfraNaturalsCategory() != null
+                    && !ingredient.getIfraNaturalsCategory().isEmpty());
+            if (ingredient.getStockQuantity() != null) {
+                columns.stock[row] = ingredient.getStockQuantity();
+                columns.stockSet.set(row);
+            }
+            if (ingredient.getCostPerUnit() != null) {
+                columns.cost[row] = ingredient.getCostPerUnit();
+                columns.costSet.set(row);
+            }
+            if (ingredient.getMsPerGramLarge() != null) {
+                columns.msPerGramLarge[row] = ingredient.getMsPerGramLarge();
+                columns.msPerGramLargeSet.set(row);
+            }
+            if (ingredient.getMsPerGramSmall() != null) {
+                columns.msPerGramSmall[row] = ingredient.getMsPerGramSmall();
+                columns.msPerGramSmallSet.set(row);
+            }
+            columns.categoryCodes[row] = encode(ingredient.getCategory(), categoryDictionary, columns.categories);
+            columns.supplierCodes[row] = encode(ingredient.getSupplier(), supplierDictionary, columns.suppliers);
+            row++;
+        }
+        return columns;
+    }
+    
+    private static int encode(String value, Map<String, Integer> dictionary, List<String> values) {
+        if (value == null) {
+            return NONE;
+        }
+        return dictionary.computeIfAbsent(value, v -> {
+            values.add(v);
+            return values.size() - 1;
+        });
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long id(int row) {
+        return ids[row];
+    }
+    
+    public boolean isActive(int row) {
+        return active.get(row);
+    }
+    
+    public boolean hasNcs(int row) {
+        return hasNcs.get(row);
+    }
+    
+    public boolean hasStock(int row) {
+        return stockSet.get(row);
+    }
+    
+    /**
+     * Stock quantity, 0 where it is not set
+     */
+    public double stock(int row) {
+        return stock[row];
+    }
+    
+    public boolean hasCost(int row) {
+        return costSet.get(row);
+    }
+    
+    /**
+     * Cost per unit, 0 where it is not set
+     */
+    public double cost(int row) {
+        return cost[row];
+    }
+    
+    /**
+     * Milliseconds per gram for the large pump, or defaultValue where it is not set
+     */
+    public int msPerGramLarge(int row, int defaultValue) {
+        return msPerGramLargeSet.get(row) ? msPerGramLarge[row] : defaultValue;
+    }
+    
+    /**
+     * Milliseconds per gram for the small pump, or defaultValue where it is not set
+     */
+    public int msPerGramSmall(int row, int defaultValue) {
+        return msPerGramSmallSet.get(row) ? msPerGramSmall[row] : defaultValue;
+    }
+    
+    public int categoryCode(int row) {
+        return categoryCodes[row];
+    }
+    
+    /**
+     * Code of a category, or NONE if no ingredient has it (or it is null)
+     */
+    public int categoryCode(String category) {
+        return category != null ? categories.indexOf(category) : NONE;
+    }
+    
+    public String category(int code) {
+        return code == NONE ? null : categories.get(code);
+    }
+    
+    public int supplierCode(int row) {
+        return supplierCodes[row];
+    }
+    
+    public String supplier(int code) {
+        return code == NONE ? null : suppliers.get(code);
+    }
+    
+    public int countInCategory(String category) {
+        int code = categoryCode(category);
+        if (code == NONE) {
+            return 0;
+        }
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (categoryCodes[row] == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    public int countWithNcs() {
+        return hasNcs.cardinality();
+    }
+    
+    /**
+     * Sum of stock times cost per unit over the ingredients where both are set.
+     */
+    public double totalStockValue() {
+        BitSet priced = (BitSet) stockSet.clone();
+        priced.and(costSet);
+        double total = 0;
+        for (int row = priced.nextSetBit(0); row >= 0; row = priced.nextSetBit(row + 1)) {
+            total += stock[row] * cost[row];
+        }
+        return total;
+    }
+    
+    /**
+     * Stock value (as in totalStockValue) per category, in order of first appearance; null for no category.
+     */
+    public Map<String, Double> stockValueByCategory() {
+        return stockValueBy(categoryCodes, categories);
+    }
+    
+    /**
+     * Stock value (as in totalStockValue) per supplier, in order of first appearance; null for no supplier.
+     */
+    public Map<String, Double> stockValueBySupplier() {
+        return stockValueBy(supplierCodes, suppliers);
+    }
+    
+    private Map<String, Double> stockValueBy(int[] codes, List<String> dictionary) {
+        // One slot per code, plus the last one for NONE
+        double[] totals = new double[dictionary.size() + 1];
+        boolean[] seen = new boolean[totals.length];
+        for (int row = 0; row < size; row++) {
+            if (stockSet.get(row) && costSet.get(row)) {
+                int slot = codes[row] == NONE ? dictionary.size() : codes[row];
+                totals[slot] += stock[row] * cost[row];
+                seen[slot] = true;
+            }
+        }
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int slot = 0; slot < totals.length; slot++) {
+            if (seen[slot]) {
+                result.put(slot < dictionary.size() ? dictionary.get(slot) : null, totals[slot]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Rows of the active ingredients whose stock is set and below the threshold, in row order.
+     */
+    public int[] lowStockRows(double threshold) {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = stockSet.nextSetBit(0); row >= 0; row = stockSet.nextSetBit(row + 1)) {
+            if (stock[row] < threshold && active.get(row)) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+}
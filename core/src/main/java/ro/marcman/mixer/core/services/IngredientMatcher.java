@@ -4,7 +4,10 @@ import lombok.extern.slf4j.Slf4j;
 import ro.marcman.mixer.core.model.Ingredient;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -68,20 +71,23 @@ public class IngredientMatcher {
      */
     public MatchedIngredient matchIngredient(PdfRecipeParser.PdfIngredient pdfIngredient, 
                                             List<Ingredient> allIngredients) {
+        return matchIngredient(pdfIngredient, allIngredients, new ExactMatchIndex(allIngredients));
+    }
+    
+    private MatchedIngredient matchIngredient(PdfRecipeParser.PdfIngredient pdfIngredient, 
+                                             List<Ingredient> allIngredients,
+                                             ExactMatchIndex exactMatches) {
         
         boolean hasPdfCas = pdfIngredient.getCasNumber() != null && !pdfIngredient.getCasNumber().trim().isEmpty();
         
         // First, try exact CAS match (most reliable)
         if (hasPdfCas) {
-            for (Ingredient ing : allIngredients) {
-                String dbCas = ing.getCasNumber();
-                if (dbCas != null && !dbCas.trim().isEmpty() && 
-                    pdfIngredient.getCasNumber().equalsIgnoreCase(dbCas)) {
-                    // CAS matches - return this as EXACT_CAS match
-                    log.debug("Exact CAS match: '{}' (CAS: {}) -> '{}'", 
-                             pdfIngredient.getName(), pdfIngredient.getCasNumber(), ing.getName());
-                    return new MatchedIngredient(pdfIngredient, ing, MatchedIngredient.MatchType.EXACT_CAS, 1.0);
-                }
+            Ingredient ing = exactMatches.byCas.get(pdfIngredient.getCasNumber().toLowerCase(Locale.ROOT));
+            if (ing != null) {
+                // CAS matches - return this as EXACT_CAS match
+                log.debug("Exact CAS match: '{}' (CAS: {}) -> '{}'", 
+                         pdfIngredient.getName(), pdfIngredient.getCasNumber(), ing.getName());
+                return new MatchedIngredient(pdfIngredient, ing, MatchedIngredient.MatchType.EXACT_CAS, 1.0);
             }
             // If we have CAS but no match found, DO NOT fall through to name matching
             log.warn("No CAS match found for: '{}' (CAS: {})", 
@@ -91,12 +97,10 @@ public class IngredientMatcher {
         
         // Second, try exact name match (case-insensitive) - ONLY if no CAS in PDF
         String pdfName = pdfIngredient.getName().toLowerCase().trim();
-        for (Ingredient ing : allIngredients) {
-            String dbName = ing.getName() != null ? ing.getName().toLowerCase().trim() : "";
-            if (!dbName.isEmpty() && pdfName.equals(dbName)) {
-                log.debug("✓ Exact name match: '{}' -> '{}'", pdfIngredient.getName(), ing.getName());
-                return new MatchedIngredient(pdfIngredient, ing, MatchedIngredient.MatchType.EXACT_NAME, 0.95);
-            }
+        Ingredient exactName = exactMatches.byName.get(pdfName);
+        if (exactName != null) {
+            log.debug("✓ Exact name match: '{}' -> '{}'", pdfIngredient.getName(), exactName.getName());
+            return new MatchedIngredient(pdfIngredient, exactName, MatchedIngredient.MatchType.EXACT_NAME, 0.95);
         }
         
         // Third, try fuzzy name match (contains or partial match) - ONLY if no CAS in PDF
@@ -129,9 +133,11 @@ public class IngredientMatcher {
         log.info("Matching {} PDF ingredients with {} database ingredients", 
                  pdfIngredients.size(), allIngredients.size());
         
+        // Build the exact-match lookups once for the whole batch
+        ExactMatchIndex index = new ExactMatchIndex(allIngredients);
         List<MatchedIngredient> matches = new ArrayList<>();
         for (PdfRecipeParser.PdfIngredient pdfIng : pdfIngredients) {
-            matches.add(matchIngredient(pdfIng, allIngredients));
+            matches.add(matchIngredient(pdfIng, allIngredients, index));
         }
         
         long exactMatches = matches.stream().filter(m -> m.getMatchType() == MatchedIngredient.MatchType.EXACT_CAS || 
@@ -144,6 +150,28 @@ public class IngredientMatcher {
         return matches;
     }
     
+    /**
+     * Exact CAS and name lookups over the database ingredients.
+     * The first ingredient in list order wins, like the linear scans these replace.
+     */
+    private static class ExactMatchIndex {
+        private final Map<String, Ingredient> byCas = new HashMap<>();
+        private final Map<String, Ingredient> byName = new HashMap<>();
+        
+        ExactMatchIndex(List<Ingredient> allIngredients) {
+            for (Ingredient ing : allIngredients) {
+                String dbCas = ing.getCasNumber();
+                if (dbCas != null && !dbCas.trim().isEmpty()) {
+                    byCas.putIfAbsent(dbCas.toLowerCase(Locale.ROOT), ing);
+                }
+                String dbName = ing.getName() != null ? ing.getName().toLowerCase().trim() : "";
+                if (!dbName.isEmpty()) {
+                    byName.putIfAbsent(dbName, ing);
+                }
+            }
+        }
+    }
+    
     /**
      * Calculate similarity between two strings (Levenshtein-based)
      * Note: If strings are exactly equal, they should already be matched as EXACT_NAME before this function is called
@@ -0,0 +1,20 @@
+package ro.marcman.mixer.serial;
+
+import ro.marcman.mixer.serial.model.ArduinoCommand;
+
+/**
+ * Order in which queued commands are written to the MASTER; lower ordinals go first.
+ */
+public enum CommandPriority {
+    EMERGENCY,      // batchabort: never waits behind other commands, never refused; drops queued EXECUTION commands
+    EXECUTION,      // Mixing, pump tests and everything the user asked for
+    MONITORING;     // Heartbeats and polling: dropped when the queue is full
+    
+    /**
+     * Priority for a command sent without one: batchabort is an emergency, everything else is execution.
+     */
+    public static CommandPriority of(ArduinoCommand command) {
+        String raw = command.getRawCommand();
+        return raw != null && raw.trim().equalsIgnoreCase("batchabort") ? EMERGENCY : EXECUTION;
+    }
+}
@@ -0,0 +1,104 @@
+package ro.marcman.mixer.serial;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.util.Arrays;
+
+/**
+ * Splits the bytes read from the MASTER into lines.
+ * 
+ * The read buffer and the line buffer are allocated once and reused: each read is scanned for '\n'
+ * and the bytes before it are appended to the current line, so nothing is decoded, copied again or
+ * shifted until a whole line is there. The line buffer only grows (doubling) when a line is longer
+ * than any line before it.
+ * 
+ * Not thread-safe; SerialManager only uses it from the jSerialComm event thread.
+ */
+final class LineFramer {
+    
+    /**
+     * Receives each complete line, without its terminator and surrounding whitespace.
+     * The bytes are only valid during the call.
+     */
+    @FunctionalInterface
+    interface LineHandler {
+        void onLine(byte[] bytes, int offset, int length);
+    }
+    
+    private final byte[] readBuffer;
+    private byte[] line;
+    private int length;
+    
+    LineFramer(int readBufferSize, int initialLineCapacity) {
+        this.readBuffer = new byte[readBufferSize];
+        this.line = new byte[initialLineCapacity];
+    }
+    
+    /**
+     * Read what the port has available and pass on every line it completes.
+     * 
+     * @return Number of bytes read
+     */
+    int readFrom(SerialPort port, LineHandler handler) {
+        int read = port.readBytes(readBuffer, readBuffer.length);
+        if (read > 0) {
+            feed(readBuffer, 0, read, handler);
+        }
+        return read;
+    }
+    
+    /**
+     * Append received bytes and pass on every line they complete. Blank lines are skipped.
+     */
+    void feed(byte[] bytes, int offset, int count, LineHandler handler) {
+        int end = offset + count;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == '\n') {
+                if (length == 0) {
+                    // Common case: the whole line arrived in this read, pass it on without copying
+                    emit(bytes, start, i - start, handler);
+                } else {
+                    append(bytes, start, i - start);
+                    emit(line, 0, length, handler);
+                    length = 0;
+                }
+                start = i + 1;
+            }
+        }
+        append(bytes, start, end - start);
+    }
+    
+    /**
+     * Drop a partially received line, e.g. after disconnecting.
+     */
+    void reset() {
+        length = 0;
+    }
+    
+    private void append(byte[] bytes, int offset, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(bytes, offset, line, length, count);
+        length += count;
+    }
+    
+    private static void emit(byte[] bytes, int offset, int count, LineHandler handler) {
+        // Same whitespace as String.trim(), which also strips the '\r' of "\r\n"
+        int from = offset;
+        int to = offset + count;
+        while (from < to && (bytes[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        if (to > from) {
+            handler.onLine(bytes, from, to - from);
+        }
+    }
+}
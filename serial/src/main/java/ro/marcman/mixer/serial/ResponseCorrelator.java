@@ -0,0 +1,117 @@
+package ro.marcman.mixer.serial;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.serial.model.ArduinoCommand;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commands sent with SerialManager.sendAndAwait that are still waiting for their response.
+ * 
+ * The MASTER's text protocol carries no request ids, so responses are correlated by order: each
+ * received line is offered to the waiting commands oldest first, and the first whose matcher
+ * accepts it (COMPLETE or FAIL) takes it.
+ */
+@Slf4j
+final class ResponseCorrelator {
+    
+    // Oldest first (guarded by itself)
+    private final List<PendingCommand> pending = new ArrayList<>();
+    
+    /**
+     * Start waiting for the response to a command. Register before sending: a fast MASTER can answer
+     * before the write returns.
+     * 
+     * @return Completes with the matching line; fails with SerialCommandException on an error reply and
+     *         with TimeoutException after the timeout. Completing or cancelling it stops waiting.
+     */
+    CompletableFuture<SerialResponse> register(ArduinoCommand command, ResponseMatcher matcher, Duration timeout) {
+        PendingCommand waiting = new PendingCommand(command, matcher);
+        synchronized (pending) {
+            pending.add(waiting);
+        }
+        waiting.future.whenComplete((response, error) -> {
+            synchronized (pending) {
+                pending.remove(waiting);
+            }
+        });
+        return waiting.future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Hand a received line to the oldest waiting command that accepts it.
+     */
+    void complete(SerialResponse response) {
+        PendingCommand matched = null;
+        ResponseMatcher.Match match = ResponseMatcher.Match.IGNORE;
+        synchronized (pending) {
+            Iterator<PendingCommand> it = pending.iterator();
+            while (it.hasNext() && matched == null) {
+                PendingCommand candidate = it.next();
+                try {
+                    match = candidate.matcher.match(response);
+                } catch (RuntimeException e) {
+                    log.error("Error in response matcher for {}", candidate.command.getRawCommand(), e);
+                    continue;
+                }
+                if (match != ResponseMatcher.Match.IGNORE) {
+                    it.remove();
+                    matched = candidate;
+                }
+            }
+        }
+        // Completed outside the lock: callers may send the next command from their continuation
+        if (matched != null) {
+            log.debug("Response to '{}' after {} ms: {}", matched.command.getRawCommand().trim(),
+                    (System.nanoTime() - matched.sentAt) / 1_000_000, response.getRawResponse());
+            if (match == ResponseMatcher.Match.COMPLETE) {
+                matched.future.complete(response);
+            } else {
+                matched.future.completeExceptionally(new SerialCommandException(
+                        "MASTER reported an error for '" + matched.command.getRawCommand().trim() + "': "
+                                + response.getRawResponse(), response));
+            }
+        }
+    }
+    
+    /**
+     * Fail every waiting command with IllegalStateException, e.g. on disconnect.
+     */
+    void failAll(String reason) {
+        List<PendingCommand> failed;
+        synchronized (pending) {
+            failed = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (PendingCommand command : failed) {
+            command.future.completeExceptionally(new IllegalStateException(reason));
+        }
+    }
+    
+    int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+    
+    /**
+     * A command sent with sendAndAwait and the matcher for its response.
+     */
+    private static final class PendingCommand {
+        private final ArduinoCommand command;
+        private final ResponseMatcher matcher;
+        private final CompletableFuture<SerialResponse> future = new CompletableFuture<>();
+        private final long sentAt = System.nanoTime();
+        
+        private PendingCommand(ArduinoCommand command, ResponseMatcher matcher) {
+            this.command = command;
+            this.matcher = matcher;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ro.marcman.mixer.serial;
+
+import ro.marcman.mixer.serial.model.MasterEvent;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.util.Locale;
+
+/**
+ * Decides which line received from the MASTER answers a command sent with SerialManager.sendAndAwait.
+ * 
+ * Only an error reply of the MASTER's protocol (MasterEvent.Error) can fail a command. Other lines the
+ * heuristics classify as errors, such as CAN recovery chatter or another node's failure report, do not
+ * answer this command and are ignored. A matcher may keep state, so each command gets a new one.
+ */
+@FunctionalInterface
+public interface ResponseMatcher {
+    
+    enum Match {
+        IGNORE,     // Not an answer to this command
+        COMPLETE,   // The command succeeded; this line is its response
+        FAIL        // The command failed; this line is the error
+    }
+    
+    Match match(SerialResponse response);
+    
+    /**
+     * Called once the command has been written to the port, before or while its responses are matched.
+     */
+    default void sent() {
+    }
+    
+    /**
+     * Completes on the first acknowledgement, fails on an error reply received before it.
+     */
+    static ResponseMatcher ack() {
+        return response -> {
+            if (response.getEvent() instanceof MasterEvent.Error) {
+                return Match.FAIL;
+            }
+            return response.getType() == SerialResponse.ResponseType.ACK ? Match.COMPLETE : Match.IGNORE;
+        };
+    }
+    
+    /**
+     * Completes when the MASTER reports a batch prepared (MasterEvent.BatchPrepared) for this SLAVE, fails
+     * on an error reply received before it. A plain "OK", e.g. a late reply to an earlier command, does
+     * not complete it.
+     */
+    static ResponseMatcher batchPrepared(String uid) {
+        return response -> {
+            MasterEvent event = response.getEvent();
+            if (event instanceof MasterEvent.Error) {
+                return Match.FAIL;
+            }
+            return event instanceof MasterEvent.BatchPrepared prepared && sameUid(uid, prepared.uid())
+                    ? Match.COMPLETE : Match.IGNORE;
+        };
+    }
+    
+    /**
+     * Whether two UIDs name the same SLAVE: equal as hexadecimal numbers (with or without 0x), or as text.
+     */
+    private static boolean sameUid(String expected, String actual) {
+        if (expected == null || actual == null) {
+            return false;
+        }
+        try {
+            return Long.parseUnsignedLong(stripHexPrefix(expected), 16) == Long.parseUnsignedLong(stripHexPrefix(actual), 16);
+        } catch (NumberFormatException e) {
+            return expected.equalsIgnoreCase(actual);
+        }
+    }
+    
+    private static String stripHexPrefix(String uid) {
+        return uid.startsWith("0x") || uid.startsWith("0X") ? uid.substring(2) : uid;
+    }
+    
+    /**
+     * Completes on the first line containing one of the markers (ignoring case), fails on an error reply
+     * received before it.
+     */
+    static ResponseMatcher containing(String... markers) {
+        return response -> {
+            if (response.getEvent() instanceof MasterEvent.Error) {
+                return Match.FAIL;
+            }
+            String line = response.getRawResponse().toLowerCase(Locale.ROOT);
+            for (String marker : markers) {
+                if (line.contains(marker.toLowerCase(Locale.ROOT))) {
+                    return Match.COMPLETE;
+                }
+            }
+            return Match.IGNORE;
+        };
+    }
+    
+    /**
+     * Completes when the MASTER reports that a batch started with batchrun has finished
+     * (MasterEvent.BatchDone). Fails on an error reply received before batchrun was acknowledged;
+     * once the batch runs, errors come from the nodes and are left to the listeners. Only an Ack received
+     * after batchrun was written counts, so a late reply to an earlier command cannot stand in for it.
+     */
+    static ResponseMatcher batchComplete() {
+        return new ResponseMatcher() {
+            // sent() runs on the writer thread, match on the reader thread
+            private volatile boolean written;
+            private boolean acknowledged;
+            
+            @Override
+            public void sent() {
+                written = true;
+            }
+            
+            @Override
+            public Match match(SerialResponse response) {
+                MasterEvent event = response.getEvent();
+                if (event instanceof MasterEvent.BatchDone) {
+                    return Match.COMPLETE;
+                }
+                if (event instanceof MasterEvent.Ack && written) {
+                    acknowledged = true;
+                } else if (event instanceof MasterEvent.Error && !acknowledged) {
+                    return Match.FAIL;
+                }
+                return Match.IGNORE;
+            }
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package ro.marcman.mixer.serial;
+
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+/**
+ * A command sent with SerialManager.sendAndAwait could not be sent or was answered with an error.
+ */
+public class SerialCommandException extends RuntimeException {
+    
+    private final SerialResponse response;
+    
+    public SerialCommandException(String message, SerialResponse response) {
+        super(message);
+        this.response = response;
+    }
+    
+    /**
+     * The error line from the MASTER, or null if the command was never sent.
+     */
+    public SerialResponse getResponse() {
+        return response;
+    }
+}
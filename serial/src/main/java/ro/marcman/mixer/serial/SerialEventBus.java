@@ -0,0 +1,195 @@
+package ro.marcman.mixer.serial;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Delivers serial events to SerialListeners off the thread that produced them.
+ * 
+ * Each listener has its own queue, drained by a virtual thread while it has events. Publishing only
+ * enqueues, so a slow listener never stalls serial reads or the other listeners. A listener sees its
+ * events in the order they were published; consecutive data lines are handed over together through
+ * onDataReceived(List), up to maxBatchSize at a time.
+ * 
+ * Each queue holds at most capacity data lines. Lines arriving for a listener whose queue is full are
+ * dropped for that listener and counted; errors and connection events are always queued.
+ */
+@Slf4j
+public class SerialEventBus {
+    
+    private final int capacity;
+    private final int maxBatchSize;
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("serial-listener-", 0).factory());
+    private final Map<SerialListener, Subscription> subscriptions = new ConcurrentHashMap<>();
+    
+    public SerialEventBus(int capacity, int maxBatchSize) {
+        this.capacity = Math.max(1, capacity);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+    
+    public void subscribe(SerialListener listener) {
+        subscriptions.putIfAbsent(listener, new Subscription(listener));
+    }
+    
+    /**
+     * Stop delivering to a listener. Events already queued for it are dropped.
+     */
+    public void unsubscribe(SerialListener listener) {
+        Subscription subscription = subscriptions.remove(listener);
+        if (subscription != null) {
+            subscription.queue.clear();
+        }
+    }
+    
+    public void clear() {
+        for (SerialListener listener : List.copyOf(subscriptions.keySet())) {
+            unsubscribe(listener);
+        }
+    }
+    
+    public void publishData(SerialResponse response) {
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offerData(response);
+        }
+    }
+    
+    public void publishError(String error) {
+        publish(listener -> listener.onError(error));
+    }
+    
+    public void publishConnected(String portName) {
+        publish(listener -> listener.onConnected(portName));
+    }
+    
+    public void publishDisconnected() {
+        publish(SerialListener::onDisconnected);
+    }
+    
+    private void publish(Consumer<SerialListener> event) {
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offer(event);
+        }
+    }
+    
+    /**
+     * Data lines dropped so far because this listener's queue was full.
+     */
+    public long getDroppedCount(SerialListener listener) {
+        Subscription subscription = subscriptions.get(listener);
+        return subscription == null ? 0 : subscription.dropped.get();
+    }
+    
+    /**
+     * Events waiting for this listener.
+     */
+    public int getQueueDepth(SerialListener listener) {
+        Subscription subscription = subscriptions.get(listener);
+        return subscription == null ? 0 : subscription.queue.size();
+    }
+    
+    /**
+     * A listener's queue. Holds SerialResponses for data lines and Consumer&lt;SerialListener&gt; for
+     * every other event, so both stay in one order.
+     */
+    private final class Subscription {
+        private final SerialListener listener;
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedData = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        
+        private Subscription(SerialListener listener) {
+            this.listener = listener;
+        }
+        
+        void offerData(SerialResponse response) {
+            if (queuedData.incrementAndGet() > capacity) {
+                queuedData.decrementAndGet();
+                if (dropped.getAndIncrement() % 1000 == 0) {
+                    log.warn("Serial listener {} is not keeping up, dropped {} lines",
+                            listener.getClass().getName(), dropped.get());
+                }
+                return;
+            }
+            queue.add(response);
+            schedule();
+        }
+        
+        void offer(Consumer<SerialListener> event) {
+            queue.add(event);
+            schedule();
+        }
+        
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                    log.error("Cannot deliver serial events to {}", listener.getClass().getName(), e);
+                }
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            List<SerialResponse> batch = new ArrayList<>();
+            try {
+                Object next;
+                while ((next = queue.poll()) != null) {
+                    if (next instanceof SerialResponse response) {
+                        queuedData.decrementAndGet();
+                        batch.add(response);
+                        if (batch.size() >= maxBatchSize) {
+                            deliver(batch);
+                            batch = new ArrayList<>();
+                        }
+                    } else {
+                        // Lines published before this event go first
+                        if (!batch.isEmpty()) {
+                            deliver(batch);
+                            batch = new ArrayList<>();
+                        }
+                        try {
+                            ((Consumer<SerialListener>) next).accept(listener);
+                        } catch (Exception e) {
+                            log.error("Error in listener callback", e);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                }
+            } finally {
+                draining.set(false);
+            }
+            // An event queued after the last poll but before draining was cleared would wait for the next one
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+        
+        private void deliver(List<SerialResponse> batch) {
+            try {
+                listener.onDataReceived(batch);
+            } catch (Exception e) {
+                log.error("Error in listener callback", e);
+            }
+        }
+    }
+}
@@ -2,8 +2,13 @@ package ro.marcman.mixer.serial;
 
 import ro.marcman.mixer.serial.model.SerialResponse;
 
+import java.util.List;
+
 /**
  * Listener interface for serial communication events.
+ * 
+ * Callbacks run on a virtual thread of SerialEventBus, one at a time per listener and in the order
+ * the events happened, never on the serial port's own thread.
  */
 public interface SerialListener {
     
@@ -12,6 +17,16 @@ public interface SerialListener {
      */
     void onDataReceived(SerialResponse response);
     
+    /**
+     * Called with the lines received since the previous call, oldest first. Override to handle them
+     * together, e.g. in one Platform.runLater; by default each is passed to onDataReceived(SerialResponse).
+     */
+    default void onDataReceived(List<SerialResponse> responses) {
+        for (SerialResponse response : responses) {
+            onDataReceived(response);
+        }
+    }
+    
     /**
      * Called when an error occurs during serial communication.
      */
@@ -5,6 +5,9 @@ import com.fazecast.jSerialComm.SerialPortDataListener;
 import com.fazecast.jSerialComm.SerialPortEvent;
 import lombok.extern.slf4j.Slf4j;
 import ro.marcman.mixer.serial.model.ArduinoCommand;
+import ro.marcman.mixer.serial.model.MasterEvent;
+import ro.marcman.mixer.serial.model.MasterLineParser;
+import ro.marcman.mixer.serial.model.ResponseClassifier;
 import ro.marcman.mixer.serial.model.SerialResponse;
 
 import java.io.File;
@@ -12,9 +15,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Serial communication manager for Arduino MASTER.
@@ -24,7 +28,9 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * 2. Open connection at 115200 baud
  * 3. Send text commands terminated with \n
  * 4. Asynchronous read of responses
- * 5. Parse output and provide callbacks
+ * 5. Parse output and provide callbacks (SerialEventBus, off the serial thread)
+ * 6. Write commands from one thread, in priority order (SerialWriter)
+ * 7. Correlate responses with the commands that caused them (sendAndAwait)
  */
 @Slf4j
 public class SerialManager {
@@ -37,9 +43,15 @@ public class SerialManager {
     // SerialPort.NO_PARITY = 0
     
     private SerialPort serialPort;
-    private final List<SerialListener> listeners = new CopyOnWriteArrayList<>();
-    private final StringBuilder buffer = new StringBuilder();
+    private static final int LISTENER_QUEUE_CAPACITY = 10_000;
+    private static final int LISTENER_BATCH_SIZE = 256;
+    private final SerialEventBus eventBus = new SerialEventBus(LISTENER_QUEUE_CAPACITY, LISTENER_BATCH_SIZE);
+    private final LineFramer framer = new LineFramer(1024, 256);
     private boolean connected = false;
+    // Commands sent with sendAndAwait that are still waiting for their response
+    private final ResponseCorrelator correlator = new ResponseCorrelator();
+    private static final int WRITE_QUEUE_CAPACITY = 256;
+    private final SerialWriter writer = new SerialWriter(WRITE_QUEUE_CAPACITY, this::notifyError);
     
     // Static initializer to ALWAYS clean jSerialComm DLLs on Windows to force correct extraction
     // This is necessary because Java 25 sometimes reports wrong architecture after Windows updates
@@ -538,6 +550,7 @@ public class SerialManager {
             }
         });
         
+        writer.start(serialPort::writeBytes);
         connected = true;
         log.info("Connected to Arduino on port: {} at {} baud", 
                  serialPort.getSystemPortName(), BAUD_RATE);
@@ -550,38 +563,34 @@ public class SerialManager {
     /**
      * 3. SEND COMMAND to Arduino (terminated with \n)
      * 
-     * Sends a text command to the Arduino MASTER.
+     * Queues a text command for the MASTER at its default priority (see CommandPriority.of).
      * Commands are automatically terminated with newline character.
+     * 
+     * @return true if the command was queued; write failures are reported to the listeners' onError
      */
     public boolean sendCommand(ArduinoCommand command) {
+        return sendCommand(command, CommandPriority.of(command));
+    }
+    
+    /**
+     * Queue a command at the given priority (see sendCommand).
+     */
+    public boolean sendCommand(ArduinoCommand command, CommandPriority priority) {
+        // Still pending means queued; already false means refused, or the write has failed already
+        return submit(command, priority).getNow(true);
+    }
+    
+    /**
+     * Queue a command and return a future for its write: true once the whole line is on the wire,
+     * false if it was not connected, refused by a full queue, dropped on disconnect or failed to write.
+     */
+    public CompletableFuture<Boolean> submit(ArduinoCommand command, CommandPriority priority) {
         if (!connected || serialPort == null) {
             log.error("Not connected to Arduino");
             notifyError("Not connected to Arduino");
-            return false;
-        }
-        
-        String cmd = command.getRawCommand();
-        if (!cmd.endsWith("\n")) {
-            cmd += "\n";
-        }
-        
-        try {
-            byte[] bytes = cmd.getBytes(StandardCharsets.UTF_8);
-            int written = serialPort.writeBytes(bytes, bytes.length);
-            
-            if (written == bytes.length) {
-                log.debug("Sent command: {}", command.getRawCommand().trim());
-                return true;
-            } else {
-                log.error("Failed to write complete command. Wrote {} of {} bytes", written, bytes.length);
-                notifyError("Failed to write complete command");
-                return false;
-            }
-        } catch (Exception e) {
-            log.error("Error sending command: {}", e.getMessage(), e);
-            notifyError("Error sending command: " + e.getMessage());
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
+        return writer.submit(command, priority);
     }
     
     /**
@@ -591,6 +600,54 @@ public class SerialManager {
         return sendCommand(ArduinoCommand.custom(command));
     }
     
+    /**
+     * Send raw string command at the given priority
+     */
+    public boolean sendRawCommand(String command, CommandPriority priority) {
+        return sendCommand(ArduinoCommand.custom(command), priority);
+    }
+    
+    /**
+     * Send a command and wait for its response without blocking the caller.
+     * 
+     * The MASTER's text protocol carries no request ids, so responses are correlated by order (see
+     * ResponseCorrelator). Lines are still delivered to the listeners as well.
+     * 
+     * @param matcher Recognizes the line that answers this command
+     * @param timeout How long to wait for that line
+     * @return Completes with the matching line; fails with SerialCommandException if the MASTER reported
+     *         an error or the command could not be sent, with TimeoutException after the timeout,
+     *         or with IllegalStateException on disconnect. Cancelling it stops waiting.
+     */
+    public CompletableFuture<SerialResponse> sendAndAwait(ArduinoCommand command, ResponseMatcher matcher,
+                                                          Duration timeout) {
+        // Registered before sending: a fast MASTER can answer before writeBytes returns
+        CompletableFuture<SerialResponse> response = correlator.register(command, matcher, timeout);
+        submit(command, CommandPriority.of(command)).thenAccept(written -> {
+            if (written) {
+                matcher.sent();
+            } else {
+                response.completeExceptionally(new SerialCommandException(
+                        "Could not send command: " + command.getRawCommand().trim(), null));
+            }
+        });
+        return response;
+    }
+    
+    /**
+     * Send a raw string command and wait for its response (see sendAndAwait).
+     */
+    public CompletableFuture<SerialResponse> sendRawAndAwait(String command, ResponseMatcher matcher, Duration timeout) {
+        return sendAndAwait(ArduinoCommand.custom(command), matcher, timeout);
+    }
+    
+    /**
+     * Number of commands sent with sendAndAwait that are still waiting for a response.
+     */
+    public int getPendingCommandCount() {
+        return correlator.size();
+    }
+    
     /**
      * 4. READ DATA asynchronously from Arduino
      * 
@@ -602,42 +659,32 @@ public class SerialManager {
             return;
         }
         
-        byte[] readBuffer = new byte[1024];
-        int numRead = serialPort.readBytes(readBuffer, readBuffer.length);
-        
-        if (numRead > 0) {
-            String data = new String(readBuffer, 0, numRead, StandardCharsets.UTF_8);
-            buffer.append(data);
-            
-            // Process complete lines
-            processBuffer();
-        }
+        framer.readFrom(serialPort, this::processLine);
     }
     
     /**
      * 5. PARSE OUTPUT and notify listeners
      * 
-     * Processes buffered data line by line and creates SerialResponse objects.
-     * Notifies all registered listeners with parsed responses.
+     * Parses a complete line into its MasterEvent, creates the SerialResponse and
+     * notifies all registered listeners with it.
      */
-    private void processBuffer() {
-        int newlineIndex;
-        while ((newlineIndex = buffer.indexOf("\n")) != -1) {
-            String line = buffer.substring(0, newlineIndex).trim();
-            buffer.delete(0, newlineIndex + 1);
-            
-            if (!line.isEmpty()) {
-                SerialResponse response = SerialResponse.fromRaw(line);
-                log.debug("Received: {}", line);
-                notifyDataReceived(response);
-            }
-        }
+    private void processLine(byte[] bytes, int offset, int length) {
+        String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        MasterEvent event = MasterLineParser.parse(line);
+        // Lines outside the grammar keep the keyword heuristics, applied to the bytes
+        SerialResponse.ResponseType type = event instanceof MasterEvent.Text
+                ? ResponseClassifier.classify(bytes, offset, length) : event.type();
+        SerialResponse response = SerialResponse.of(line, type, event);
+        log.debug("Received: {}", line);
+        correlator.complete(response);
+        notifyDataReceived(response);
     }
     
     /**
      * Disconnect from Arduino
      */
     public void disconnect() {
+        writer.stop();
         if (serialPort != null) {
             try {
                 // Remove all data listeners first
@@ -662,7 +709,8 @@ public class SerialManager {
         }
         connected = false;
         serialPort = null;
-        buffer.setLength(0);
+        framer.reset();
+        correlator.failAll("Disconnected from Arduino");
     }
     
     /**
@@ -672,6 +720,13 @@ public class SerialManager {
         return connected && serialPort != null && serialPort.isOpen();
     }
     
+    /**
+     * Queue depth, refused commands and write latency of the serial writer thread.
+     */
+    public SerialWriter getWriter() {
+        return writer;
+    }
+    
     /**
      * Get current port name
      */
@@ -682,56 +737,37 @@ public class SerialManager {
     // ==================== LISTENER MANAGEMENT ====================
     
     public void addListener(SerialListener listener) {
-        listeners.add(listener);
+        eventBus.subscribe(listener);
     }
     
     public void removeListener(SerialListener listener) {
-        listeners.remove(listener);
+        eventBus.unsubscribe(listener);
     }
     
     public void clearListeners() {
-        listeners.clear();
+        eventBus.clear();
+    }
+    
+    /**
+     * Per-listener queue depth and dropped lines.
+     */
+    public SerialEventBus getEventBus() {
+        return eventBus;
     }
     
     private void notifyDataReceived(SerialResponse response) {
-        for (SerialListener listener : listeners) {
-            try {
-                listener.onDataReceived(response);
-            } catch (Exception e) {
-                log.error("Error in listener callback", e);
-            }
-        }
+        eventBus.publishData(response);
     }
     
     private void notifyError(String error) {
-        for (SerialListener listener : listeners) {
-            try {
-                listener.onError(error);
-            } catch (Exception e) {
-                log.error("Error in listener callback", e);
-            }
-        }
+        eventBus.publishError(error);
     }
     
     private void notifyConnected(String portName) {
-        for (SerialListener listener : listeners) {
-            try {
-                listener.onConnected(portName);
-            } catch (Exception e) {
-                log.error("Error in listener callback", e);
-            }
-        }
+        eventBus.publishConnected(portName);
     }
     
     private void notifyDisconnected() {
-        for (SerialListener listener : listeners) {
-            try {
-                listener.onDisconnected();
-            } catch (Exception e) {
-                log.error("Error in listener callback", e);
-            }
-        }
+        eventBus.publishDisconnected();
     }
 }
-
-
@@ -0,0 +1,389 @@
+package ro.marcman.mixer.serial;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.serial.model.ArduinoCommand;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Writes commands to the serial port from a single "serial-writer" thread.
+ * 
+ * Callers only queue; the writer thread sends one whole line at a time, so commands from the FX thread,
+ * the heartbeat and the mixing threads never interleave on the wire and a slow write blocks only the
+ * writer. The queue is ordered by CommandPriority, then by submission order.
+ * 
+ * The queue is bounded. When it is full an EMERGENCY command is still accepted, an EXECUTION command
+ * waits up to executionOfferTimeoutMs for space, and a MONITORING command is refused at once.
+ * 
+ * An EMERGENCY command (batchabort) drops every queued EXECUTION command, and refuses those still
+ * waiting for space, so nothing submitted before the abort can start the pumps after it.
+ * 
+ * A line is never left half written: if the port stops accepting bytes partway, the writer ends the
+ * line with '\n' (the MASTER rejects the fragment) before the next command, and fails commands until it can.
+ */
+@Slf4j
+public class SerialWriter {
+    
+    private static final byte[] NEWLINE = {'\n'};
+    
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final PriorityQueue<QueuedCommand> queue = new PriorityQueue<>();
+    private final Consumer<String> errorHandler;
+    private final WriterStats stats = new WriterStats();
+    private long executionOfferTimeoutMs = 2000;
+    private long sequence;
+    // Incremented by every EMERGENCY command, so EXECUTION commands waiting for space can see one passed
+    private long emergencies;
+    private Output port;
+    private Thread thread;
+    // Part of a line was written and its '\n' is still missing (current writer thread only)
+    private volatile boolean midLine;
+    
+    /**
+     * Where the writer thread sends bytes; SerialManager passes SerialPort.writeBytes.
+     */
+    @FunctionalInterface
+    interface Output {
+        /**
+         * @return Number of bytes written, or 0 or less if none could be
+         */
+        int write(byte[] bytes, int length, int offset);
+    }
+    
+    /**
+     * @param capacity Most commands queued at once (EMERGENCY commands may exceed it)
+     * @param errorHandler Receives a message for every command that could not be written
+     */
+    SerialWriter(int capacity, Consumer<String> errorHandler) {
+        this.capacity = Math.max(1, capacity);
+        this.errorHandler = errorHandler;
+    }
+    
+    /**
+     * Start writing to a newly opened port.
+     */
+    void start(Output port) {
+        lock.lock();
+        try {
+            this.port = port;
+            Thread writer = new Thread(() -> writeLoop(port), "serial-writer");
+            writer.setDaemon(true);
+            thread = writer;
+            writer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Stop the writer thread and drop every queued command; their futures complete with false.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            port = null;
+            thread = null;
+            QueuedCommand dropped;
+            while ((dropped = queue.poll()) != null) {
+                dropped.result.complete(false);
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Queue a command for the writer thread.
+     * 
+     * @return Completes with true once the whole line is written, false if it was refused, dropped or
+     *         failed to write. Returns an already completed future when the command was not queued.
+     */
+    CompletableFuture<Boolean> submit(ArduinoCommand command, CommandPriority priority) {
+        String line = command.getRawCommand();
+        if (!line.endsWith("\n")) {
+            line += "\n";
+        }
+        QueuedCommand queued = new QueuedCommand(command, line.getBytes(StandardCharsets.UTF_8), priority);
+        
+        lock.lock();
+        try {
+            if (port == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            if (priority == CommandPriority.EMERGENCY) {
+                emergencies++;
+                dropExecutionCommands(command);
+            } else if (queue.size() >= capacity) {
+                long waitNanos = priority == CommandPriority.EXECUTION
+                        ? TimeUnit.MILLISECONDS.toNanos(executionOfferTimeoutMs) : 0;
+                long emergenciesBefore = emergencies;
+                while (queue.size() >= capacity && port != null && waitNanos > 0 && emergencies == emergenciesBefore) {
+                    waitNanos = notFull.awaitNanos(waitNanos);
+                }
+                if (emergencies != emergenciesBefore) {
+                    log.warn("Refused {} command that waited across an emergency command: {}",
+                            priority, command.getRawCommand().trim());
+                    return CompletableFuture.completedFuture(false);
+                }
+                if (queue.size() >= capacity || port == null) {
+                    stats.recordRejected();
+                    log.warn("Serial queue full ({} commands), refused {} command: {}",
+                            queue.size(), priority, command.getRawCommand().trim());
+                    return CompletableFuture.completedFuture(false);
+                }
+            }
+            queued.sequence = sequence++;
+            queue.add(queued);
+            stats.recordDepth(queue.size());
+            notEmpty.signal();
+            return queued.result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Complete every queued EXECUTION command with false (lock held).
+     */
+    private void dropExecutionCommands(ArduinoCommand emergency) {
+        int dropped = 0;
+        Iterator<QueuedCommand> it = queue.iterator();
+        while (it.hasNext()) {
+            QueuedCommand queued = it.next();
+            if (queued.priority == CommandPriority.EXECUTION) {
+                it.remove();
+                queued.result.complete(false);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.warn("{} dropped {} queued commands", emergency.getRawCommand().trim(), dropped);
+            notFull.signalAll();
+        }
+    }
+    
+    private void writeLoop(Output target) {
+        // A new port starts at the beginning of a line
+        midLine = false;
+        while (true) {
+            QueuedCommand next;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && port == target) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (port != target) {
+                    return;
+                }
+                next = queue.poll();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            next.result.complete(write(target, next));
+        }
+    }
+    
+    private boolean write(Output target, QueuedCommand command) {
+        long startedAt = System.nanoTime();
+        byte[] bytes = command.bytes;
+        int offset = 0;
+        try {
+            // A fragment of an earlier line must be ended first, or this command would join it
+            if (midLine && writeFully(target, NEWLINE) == NEWLINE.length) {
+                midLine = false;
+            }
+            if (!midLine) {
+                // writeBytes may return after part of the line; the rest follows before any other command
+                offset = writeFully(target, bytes);
+            }
+        } catch (Exception e) {
+            log.error("Error sending command: {}", e.getMessage(), e);
+            errorHandler.accept("Error sending command: " + e.getMessage());
+        }
+        
+        boolean complete = offset == bytes.length;
+        if (complete) {
+            log.debug("Sent command: {}", command.command.getRawCommand().trim());
+        } else {
+            if (offset > 0) {
+                midLine = true;
+                terminateLine(target);
+            }
+            log.error("Failed to write complete command. Wrote {} of {} bytes", offset, bytes.length);
+            errorHandler.accept("Failed to write complete command");
+        }
+        stats.recordWrite(command, startedAt, complete);
+        return complete;
+    }
+    
+    /**
+     * @return Number of bytes written before the port stopped accepting them
+     */
+    private static int writeFully(Output target, byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int written = target.write(bytes, bytes.length - offset, offset);
+            if (written <= 0) {
+                break;
+            }
+            offset += written;
+        }
+        return offset;
+    }
+    
+    /**
+     * End a partly written line, so the MASTER rejects the fragment instead of joining it to the next command.
+     */
+    private void terminateLine(Output target) {
+        try {
+            if (writeFully(target, NEWLINE) == NEWLINE.length) {
+                midLine = false;
+            }
+        } catch (Exception e) {
+            log.error("Error ending partly written command: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Number of commands waiting for the writer thread.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Whether an EXECUTION command is waiting for space in the full queue.
+     */
+    boolean hasWaitingSubmitters() {
+        lock.lock();
+        try {
+            return lock.hasWaiters(notFull);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public WriterStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * How long an EXECUTION command waits for space in a full queue before it is refused.
+     */
+    public void setExecutionOfferTimeoutMs(long executionOfferTimeoutMs) {
+        this.executionOfferTimeoutMs = executionOfferTimeoutMs;
+    }
+    
+    private static final class QueuedCommand implements Comparable<QueuedCommand> {
+        private final ArduinoCommand command;
+        private final byte[] bytes;
+        private final CommandPriority priority;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private long sequence;
+        
+        private QueuedCommand(ArduinoCommand command, byte[] bytes, CommandPriority priority) {
+            this.command = command;
+            this.bytes = bytes;
+            this.priority = priority;
+        }
+        
+        @Override
+        public int compareTo(QueuedCommand other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    /**
+     * Counters for the writer: queue depth, refused commands and write latency.
+     * Latency is measured from submission to the last byte written, so it includes time spent queued.
+     */
+    public static final class WriterStats {
+        private long written;
+        private long failed;
+        private long rejected;
+        private int maxDepth;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long totalWriteNanos;
+        
+        private synchronized void recordDepth(int depth) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        
+        private synchronized void recordRejected() {
+            rejected++;
+        }
+        
+        private synchronized void recordWrite(QueuedCommand command, long startedAt, boolean ok) {
+            long now = System.nanoTime();
+            if (ok) {
+                written++;
+            } else {
+                failed++;
+            }
+            long latency = now - command.queuedAt;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            totalWriteNanos += now - startedAt;
+        }
+        
+        public synchronized long getWritten() {
+            return written;
+        }
+        
+        public synchronized long getFailed() {
+            return failed;
+        }
+        
+        public synchronized long getRejected() {
+            return rejected;
+        }
+        
+        public synchronized int getMaxQueueDepth() {
+            return maxDepth;
+        }
+        
+        public synchronized double getAverageLatencyMillis() {
+            long count = written + failed;
+            return count == 0 ? 0 : totalLatencyNanos / 1e6 / count;
+        }
+        
+        public synchronized double getMaxLatencyMillis() {
+            return maxLatencyNanos / 1e6;
+        }
+        
+        public synchronized double getAverageWriteMillis() {
+            long count = written + failed;
+            return count == 0 ? 0 : totalWriteNanos / 1e6 / count;
+        }
+        
+        @Override
+        public synchronized String toString() {
+            return String.format("written=%d, failed=%d, rejected=%d, maxDepth=%d, avgLatency=%.2f ms, maxLatency=%.2f ms, avgWrite=%.2f ms",
+                    written, failed, rejected, maxDepth, getAverageLatencyMillis(), getMaxLatencyMillis(), getAverageWriteMillis());
+        }
+    }
+}
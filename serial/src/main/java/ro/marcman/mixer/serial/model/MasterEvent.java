@@ -0,0 +1,101 @@
+package ro.marcman.mixer.serial.model;
+
+import java.util.Map;
+
+/**
+ * A line from the MASTER, parsed by MasterLineParser into what it reports.
+ */
+public sealed interface MasterEvent {
+    
+    /**
+     * How SerialResponse classifies this event.
+     */
+    SerialResponse.ResponseType type();
+    
+    /**
+     * "OK ..." / "ACK ..." / "SUCCESS ...": a command was accepted.
+     */
+    record Ack(String message) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.ACK;
+        }
+    }
+    
+    /**
+     * "[OK] batchprep &lt;uid&gt; [&lt;commands&gt; ...]": a batch was queued on a SLAVE, waiting for batchrun.
+     * commands is null when the MASTER does not print it.
+     */
+    record BatchPrepared(String uid, Integer commands) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.ACK;
+        }
+    }
+    
+    /**
+     * "[OK] batch|batchrun done|complete|completed|finished [in &lt;ms&gt; ms]": every prepared batch has run.
+     * elapsedMs is null when the MASTER does not print it.
+     */
+    record BatchDone(Long elapsedMs) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.ACK;
+        }
+    }
+    
+    /**
+     * "LOG RAW: key=value ...": a pulse logged by a _log command. uid, pin and duration come from the
+     * uid=, pin= and dur= (or duration=) fields and are null when missing; fields has every key=value pair.
+     */
+    record PulseLog(String uid, Integer pin, Integer durationMs, Map<String, String> fields) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.LOG;
+        }
+    }
+    
+    /**
+     * "ID &lt;n&gt;: UID=&lt;uid&gt; FW=&lt;version&gt;": one SLAVE in the discover/scan table.
+     */
+    record NodeTableRow(int id, String uid, String firmware) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.TABLE;
+        }
+    }
+    
+    /**
+     * "Online count: &lt;n&gt;": the last line of the discover/scan table.
+     */
+    record OnlineCount(int count) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.DATA;
+        }
+    }
+    
+    /**
+     * CAN bus auto-recovery report ("CAN recover ...", "EFLG ...", or TEC=/REC= counters).
+     * normal reports ("CAN recover", EFLG=0x40, "EFLG before", "EFLG after=0x0", or TEC=0 / REC below
+     * 127) are informational data. Any other report, e.g. bus-off flags or an error-passive REC=127,
+     * is an error.
+     */
+    record CanRecovery(String message, Integer tec, Integer rec, boolean normal) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return normal ? SerialResponse.ResponseType.DATA : SerialResponse.ResponseType.ERROR;
+        }
+    }
+    
+    /**
+     * "ERROR [&lt;code&gt;]: &lt;message&gt;" or "ERR [&lt;code&gt;]: &lt;message&gt;". code is null when the MASTER gives none.
+     */
+    record Error(String code, String message) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.ResponseType.ERROR;
+        }
+    }
+    
+    /**
+     * Any other line. Its type falls back to the keyword heuristics of SerialResponse.parseType.
+     */
+    record Text(String line) implements MasterEvent {
+        public SerialResponse.ResponseType type() {
+            return SerialResponse.parseType(line);
+        }
+    }
+}
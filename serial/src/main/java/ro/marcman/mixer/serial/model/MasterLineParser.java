@@ -0,0 +1,461 @@
+package ro.marcman.mixer.serial.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses lines from the MASTER into MasterEvents.
+ * 
+ * A line is split into whitespace-separated words once, kept as offsets into the line; its first word
+ * (ignoring case, a trailing ':' and anything from '=') selects the rule for the rest, from a table
+ * built once. Words are compared in place, and only the values an event keeps become strings. The grammar, as the
+ * MASTER prints it:
+ * 
+ *   OK|ACK|SUCCESS [&lt;line&gt;]                               Ack, or the event of &lt;line&gt; (e.g. "OK batch done")
+ *   batchprep &lt;uid&gt; [&lt;commands&gt;] ...                     BatchPrepared
+ *   batch|batchrun done|complete|completed|finished [in &lt;n&gt; ms]   BatchDone
+ *   LOG RAW: key=value ...                                 PulseLog
+ *   ID &lt;n&gt;: UID=&lt;uid&gt; FW=&lt;version&gt;                         NodeTableRow
+ *   Online count: &lt;n&gt;                                     OnlineCount
+ *   CAN recover... | EFLG... | ... TEC=&lt;n&gt; ... REC=&lt;n&gt;        CanRecovery
+ *   ERROR|ERR [&lt;code&gt;][:] &lt;message&gt;                        Error
+ * 
+ * A line that does not fit its rule, e.g. "batchprep failed", becomes Text, whose type still comes
+ * from the keyword heuristics. Only a recognized line gets its type from the grammar, so pulse logs
+ * and normal CAN recovery reports are never mistaken for errors (see CanRecovery).
+ */
+public final class MasterLineParser {
+    
+    @FunctionalInterface
+    private interface Rule {
+        /**
+         * @return The event for the words from index first on, or null if they do not fit the rule
+         */
+        MasterEvent parse(Words words, int first);
+    }
+    
+    // First words, matched ignoring case, and the rule each selects
+    private static final String[] KEYWORDS = {
+            "ok", "ack", "success", "batchprep", "batch", "batchrun", "log", "id", "online", "can", "eflg", "error", "err"};
+    private static final Rule[] RULES = {
+            MasterLineParser::ack, MasterLineParser::ack, MasterLineParser::ack, MasterLineParser::batchPrepared,
+            MasterLineParser::batchDone, MasterLineParser::batchDone, MasterLineParser::pulseLog,
+            MasterLineParser::nodeTableRow, MasterLineParser::onlineCount, MasterLineParser::canRecovery,
+            MasterLineParser::canRecovery, MasterLineParser::error, MasterLineParser::error};
+    
+    // EFLG value the MASTER prints while recovering normally (receive buffer overflow flag only)
+    private static final int EFLG_RECOVERING = 0x40;
+    // Receive error counter at which a node becomes error passive
+    private static final int REC_ERROR_PASSIVE = 127;
+    
+    private MasterLineParser() {
+    }
+    
+    public static MasterEvent parse(String line) {
+        Words words = Words.split(line);
+        MasterEvent event = words.size() == 0 ? null : parseFrom(words, 0);
+        if (event == null && line.indexOf('=') >= 0) {
+            event = counters(words);
+        }
+        return event != null ? event : new MasterEvent.Text(line);
+    }
+    
+    private static MasterEvent parseFrom(Words words, int first) {
+        int length = words.headLength(first);
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (KEYWORDS[i].length() == length && words.headIs(first, KEYWORDS[i])) {
+                return RULES[i].parse(words, first);
+            }
+        }
+        return null;
+    }
+    
+    private static MasterEvent ack(Words words, int first) {
+        if (first + 1 >= words.size()) {
+            return new MasterEvent.Ack("");
+        }
+        MasterEvent inner = parseFrom(words, first + 1);
+        if (inner instanceof MasterEvent.BatchPrepared || inner instanceof MasterEvent.BatchDone) {
+            return inner;
+        }
+        return new MasterEvent.Ack(words.rest(first + 1));
+    }
+    
+    private static MasterEvent batchPrepared(Words words, int first) {
+        if (first + 1 >= words.size() || words.containsFailure(first + 1)) {
+            return null;
+        }
+        Integer commands = first + 2 < words.size() ? words.intValue(first + 2) : null;
+        return new MasterEvent.BatchPrepared(words.get(first + 1), commands);
+    }
+    
+    private static MasterEvent batchDone(Words words, int first) {
+        if (first + 1 >= words.size() || !(words.headIs(first + 1, "done") || words.headIs(first + 1, "complete")
+                || words.headIs(first + 1, "completed") || words.headIs(first + 1, "finished"))) {
+            return null;
+        }
+        Long elapsedMs = null;
+        for (int i = first + 2; i < words.size() && elapsedMs == null; i++) {
+            if (words.length(i) > 2 && words.endsWith(i, "ms")) {
+                elapsedMs = words.longValue(i, 2);
+            } else if (i + 1 < words.size() && words.is(i + 1, "ms")) {
+                elapsedMs = words.longValue(i, 0);
+            }
+        }
+        return new MasterEvent.BatchDone(elapsedMs);
+    }
+    
+    private static MasterEvent pulseLog(Words words, int first) {
+        if (first + 1 >= words.size() || !words.headIs(first + 1, "raw")) {
+            return null;
+        }
+        Map<String, String> fields = words.fields(first + 2);
+        String duration = fields.containsKey("dur") ? fields.get("dur") : fields.get("duration");
+        return new MasterEvent.PulseLog(fields.get("uid"), parseInt(fields.get("pin")), parseInt(duration), fields);
+    }
+    
+    private static MasterEvent nodeTableRow(Words words, int first) {
+        if (first + 1 >= words.size()) {
+            return null;
+        }
+        Integer id = parseInt(words.head(first + 1));
+        String uid = words.field(first + 2, "uid");
+        if (id == null || uid == null) {
+            return null;
+        }
+        return new MasterEvent.NodeTableRow(id, uid, words.field(first + 2, "fw"));
+    }
+    
+    private static MasterEvent onlineCount(Words words, int first) {
+        if (first + 2 >= words.size() || !words.headIs(first + 1, "count")) {
+            return null;
+        }
+        Integer count = words.intValue(first + 2);
+        return count == null ? null : new MasterEvent.OnlineCount(count);
+    }
+    
+    private static MasterEvent canRecovery(Words words, int first) {
+        boolean recovering = words.headIs(first, "can");
+        if (recovering && (first + 1 >= words.size() || !words.startsWith(first + 1, "recover"))) {
+            return null;
+        }
+        Integer tec = parseInt(words.field(first, "tec"));
+        String rec = words.field(first, "rec");
+        boolean normal = recovering || isNormalEflg(words, first) || isNormalCounters(tec, rec);
+        return new MasterEvent.CanRecovery(words.rest(first), tec, parseInt(rec), normal);
+    }
+    
+    /**
+     * "EFLG=0x40", "EFLG before: ..." and "EFLG after=0x0" are printed during a normal recovery.
+     */
+    private static boolean isNormalEflg(Words words, int first) {
+        if (!words.headIs(first, "eflg")) {
+            return false;
+        }
+        Integer flags = parseInt(words.field(first, "eflg"));
+        if (flags != null && flags == EFLG_RECOVERING) {
+            return true;
+        }
+        if (first + 1 < words.size() && words.headIs(first + 1, "before")) {
+            return true;
+        }
+        Integer after = first + 1 < words.size() && words.headIs(first + 1, "after")
+                ? parseInt(words.field(first + 1, "after")) : null;
+        return after != null && after == 0;
+    }
+    
+    /**
+     * Counters are normal while the transmit counter is 0 or the receive counter is below error passive.
+     */
+    private static boolean isNormalCounters(Integer tec, String rec) {
+        if (rec == null) {
+            return false;
+        }
+        Integer receiveErrors = parseInt(rec);
+        return (tec != null && tec == 0) || (receiveErrors != null && receiveErrors < REC_ERROR_PASSIVE);
+    }
+    
+    /**
+     * A line carrying both CAN error counters (TEC= and REC=) anywhere is a recovery report.
+     */
+    private static MasterEvent counters(Words words) {
+        String tec = words.field(0, "tec");
+        String rec = words.field(0, "rec");
+        if (tec == null || rec == null) {
+            return null;
+        }
+        Integer transmitErrors = parseInt(tec);
+        return new MasterEvent.CanRecovery(words.rest(0), transmitErrors, parseInt(rec),
+                isNormalCounters(transmitErrors, rec));
+    }
+    
+    private static MasterEvent error(Words words, int first) {
+        int messageStart = first + 1;
+        String code = null;
+        // "ERROR 12: ..." or "ERR E_PIN: ..." - a code is a word with a digit or an underscore before the message
+        if (messageStart < words.size() && !words.endsWith(first, ":") && words.isCode(messageStart)) {
+            code = words.head(messageStart);
+            messageStart++;
+        }
+        String message = messageStart < words.size() ? words.rest(messageStart) : "";
+        return new MasterEvent.Error(code, message);
+    }
+    
+    private static Integer parseInt(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        return parseInt(text, 0, text.length());
+    }
+    
+    /**
+     * Decimal, or hexadecimal with a 0x prefix; null if the range is not a number.
+     */
+    private static Integer parseInt(CharSequence text, int from, int to) {
+        boolean hex = to - from > 2 && text.charAt(from) == '0' && (text.charAt(from + 1) == 'x' || text.charAt(from + 1) == 'X');
+        int radix = hex ? 16 : 10;
+        int digits = hex ? from + 2 : from;
+        if (!isNumber(text, digits, to, radix)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(text, digits, to, radix);
+        } catch (NumberFormatException e) {
+            return null;  // out of range
+        }
+    }
+    
+    /**
+     * Whether the range is digits of the radix with an optional sign, checked first so that the many
+     * words that are not numbers do not cost a NumberFormatException each.
+     */
+    private static boolean isNumber(CharSequence text, int from, int to, int radix) {
+        if (from < to && (text.charAt(from) == '-' || text.charAt(from) == '+')) {
+            from++;
+        }
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (Character.digit(text.charAt(i), radix) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The whitespace-separated words of a line, as start and end offsets into it. Nothing is copied
+     * out of the line until an event needs a value.
+     */
+    private static final class Words {
+        private final String line;
+        private int[] bounds = new int[16];  // start and end of each word
+        private int size;
+        
+        private Words(String line) {
+            this.line = line;
+        }
+        
+        static Words split(String line) {
+            Words words = new Words(line);
+            int length = line.length();
+            int i = 0;
+            while (i < length) {
+                while (i < length && Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                int start = i;
+                while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                if (i > start) {
+                    words.add(start, i);
+                }
+            }
+            return words;
+        }
+        
+        private void add(int start, int end) {
+            if (2 * size + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[2 * size] = start;
+            bounds[2 * size + 1] = end;
+            size++;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        private int start(int index) {
+            return bounds[2 * index];
+        }
+        
+        private int end(int index) {
+            return bounds[2 * index + 1];
+        }
+        
+        int length(int index) {
+            return end(index) - start(index);
+        }
+        
+        String get(int index) {
+            return line.substring(start(index), end(index));
+        }
+        
+        /**
+         * End of the word without anything from '=' on and without a trailing ':',
+         * e.g. "EFLG=0x40" ends before '=', "Online:" before ':'.
+         */
+        private int headEnd(int index) {
+            int end = keyEnd(index);
+            while (end > start(index) && line.charAt(end - 1) == ':') {
+                end--;
+            }
+            return end;
+        }
+        
+        /**
+         * Index of the word's first '=', or its end if it has none.
+         */
+        private int keyEnd(int index) {
+            int end = start(index);
+            while (end < end(index) && line.charAt(end) != '=') {
+                end++;
+            }
+            return end;
+        }
+        
+        int headLength(int index) {
+            return headEnd(index) - start(index);
+        }
+        
+        String head(int index) {
+            return line.substring(start(index), headEnd(index));
+        }
+        
+        /**
+         * Whether the word's head (see headEnd) is the keyword, ignoring case.
+         */
+        boolean headIs(int index, String keyword) {
+            int start = start(index);
+            return headEnd(index) - start == keyword.length() && line.regionMatches(true, start, keyword, 0, keyword.length());
+        }
+        
+        boolean is(int index, String word) {
+            return length(index) == word.length() && line.regionMatches(true, start(index), word, 0, word.length());
+        }
+        
+        private boolean headStartsWith(int index, String prefix) {
+            return headEnd(index) - start(index) >= prefix.length()
+                    && line.regionMatches(true, start(index), prefix, 0, prefix.length());
+        }
+        
+        boolean startsWith(int index, String prefix) {
+            return length(index) >= prefix.length() && line.regionMatches(true, start(index), prefix, 0, prefix.length());
+        }
+        
+        boolean endsWith(int index, String suffix) {
+            return length(index) >= suffix.length()
+                    && line.regionMatches(true, end(index) - suffix.length(), suffix, 0, suffix.length());
+        }
+        
+        Integer intValue(int index) {
+            return parseInt(line, start(index), end(index));
+        }
+        
+        /**
+         * The word as a decimal number, ignoring its last suffixLength characters; null if it is none.
+         */
+        Long longValue(int index, int suffixLength) {
+            int end = end(index) - suffixLength;
+            if (!isNumber(line, start(index), end, 10)) {
+                return null;
+            }
+            try {
+                return Long.parseLong(line, start(index), end, 10);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        
+        /**
+         * The line from the word at index on, as printed.
+         */
+        String rest(int index) {
+            return line.substring(start(index));
+        }
+        
+        /**
+         * The value of the first key=value word from index on whose key is the given one (ignoring case),
+         * without a trailing ','; null if there is none.
+         */
+        String field(int index, String key) {
+            for (int i = index; i < size; i++) {
+                int start = start(i);
+                int equals = start + key.length();
+                if (equals < end(i) && line.charAt(equals) == '=' && line.regionMatches(true, start, key, 0, key.length())) {
+                    return value(i, equals + 1);
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Every key=value word from index on, keys lowercased, in order.
+         */
+        Map<String, String> fields(int index) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            for (int i = index; i < size; i++) {
+                int start = start(i);
+                int equals = keyEnd(i);
+                if (equals > start && equals < end(i)) {
+                    fields.putIfAbsent(line.substring(start, equals).toLowerCase(Locale.ROOT), value(i, equals + 1));
+                }
+            }
+            return Collections.unmodifiableMap(fields);
+        }
+        
+        private String value(int index, int from) {
+            int end = end(index);
+            if (end > from && line.charAt(end - 1) == ',') {
+                end--;
+            }
+            return line.substring(from, end);
+        }
+        
+        /**
+         * A code is a word of letters with at least one digit or underscore, e.g. "12" or "E_PIN".
+         */
+        boolean isCode(int index) {
+            int end = headEnd(index);
+            if (end == start(index)) {
+                return false;
+            }
+            boolean marked = false;
+            for (int i = start(index); i < end; i++) {
+                char c = line.charAt(i);
+                if (Character.isDigit(c) || c == '_') {
+                    marked = true;
+                } else if (!(c >= 'A' && c <= 'Z') && !(c >= 'a' && c <= 'z')) {
+                    return false;
+                }
+            }
+            return marked;
+        }
+        
+        boolean containsFailure(int index) {
+            for (int i = index; i < size; i++) {
+                if (headStartsWith(i, "fail") || headStartsWith(i, "error") || headStartsWith(i, "invalid")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
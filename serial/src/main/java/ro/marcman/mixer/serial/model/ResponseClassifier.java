@@ -0,0 +1,108 @@
+package ro.marcman.mixer.serial.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Classifies a received line straight from its bytes, with the same rules as SerialResponse.parseType
+ * but without lowercasing the line into new Strings or searching it once per keyword: a single pass
+ * checks, at each position, only the keywords starting with that letter and records which were found.
+ * For ASCII lines, which is all the MASTER prints, both give the same type.
+ */
+public final class ResponseClassifier {
+    
+    // Keywords of parseType; the bit of each is 1 << its index
+    private static final String[] KEYWORDS = {
+            "eflg", "can recover", "tec=", "rec=",  // CAN recovery
+            "error", "fail", "invalid",             // ERROR
+            "ok", "success", "ack",                 // ACK
+            "log raw:", "event",                    // LOG
+            "id", "uid", "|"                        // TABLE
+    };
+    private static final int CAN_RECOVERY = 0b11;
+    private static final int TEC_REC = 0b1100;
+    private static final int ERROR = 0b111 << 4;
+    private static final int ACK = 0b111 << 7;
+    private static final int LOG = 0b11 << 10;
+    private static final int TABLE = 0b111 << 12;
+    
+    // For each lowercase first byte, the indexes of the keywords starting with it
+    private static final int[][] BY_FIRST_BYTE = new int[256][];
+    private static final byte[][] KEYWORD_BYTES = new byte[KEYWORDS.length][];
+    // ASCII lowercase of every byte value, indexed by b & 0xFF
+    private static final byte[] LOWER = new byte[256];
+    
+    static {
+        for (int b = 0; b < 256; b++) {
+            LOWER[b] = (byte) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b);
+        }
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            KEYWORD_BYTES[i] = KEYWORDS[i].getBytes(StandardCharsets.US_ASCII);
+            int first = KEYWORD_BYTES[i][0];
+            int[] previous = BY_FIRST_BYTE[first] == null ? new int[0] : BY_FIRST_BYTE[first];
+            int[] updated = Arrays.copyOf(previous, previous.length + 1);
+            updated[previous.length] = i;
+            BY_FIRST_BYTE[first] = updated;
+        }
+    }
+    
+    private ResponseClassifier() {
+    }
+    
+    public static SerialResponse.ResponseType classify(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int found = 0;
+        boolean blank = true;
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b > ' ') {
+                blank = false;
+            }
+            int[] candidates = BY_FIRST_BYTE[LOWER[b] & 0xFF];
+            if (candidates == null) {
+                continue;
+            }
+            for (int keyword : candidates) {
+                if ((found & (1 << keyword)) == 0 && matches(bytes, i, end, KEYWORD_BYTES[keyword])) {
+                    found |= 1 << keyword;
+                }
+            }
+        }
+        
+        if (blank) {
+            return SerialResponse.ResponseType.UNKNOWN;
+        }
+        // Skip CAN recovery messages - these are NORMAL, not errors!
+        if ((found & CAN_RECOVERY) != 0 || (found & TEC_REC) == TEC_REC) {
+            return SerialResponse.ResponseType.DATA;
+        }
+        if ((found & ERROR) != 0) {
+            return SerialResponse.ResponseType.ERROR;
+        }
+        if ((found & ACK) != 0) {
+            return SerialResponse.ResponseType.ACK;
+        }
+        if ((found & LOG) != 0) {
+            return SerialResponse.ResponseType.LOG;
+        }
+        if ((found & TABLE) == TABLE) {
+            return SerialResponse.ResponseType.TABLE;
+        }
+        return SerialResponse.ResponseType.DATA;
+    }
+    
+    /**
+     * Whether the lowercase ASCII keyword starts at position start, ignoring case.
+     */
+    private static boolean matches(byte[] bytes, int start, int end, byte[] keyword) {
+        if (end - start < keyword.length) {
+            return false;
+        }
+        for (int j = 1; j < keyword.length; j++) {
+            if (LOWER[bytes[start + j] & 0xFF] != keyword[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -15,6 +15,7 @@ public class SerialResponse {
     private LocalDateTime timestamp;
     private ResponseType type;
     private boolean error;
+    private MasterEvent event;
     
     public enum ResponseType {
         ACK,            // Command acknowledged
@@ -59,12 +60,20 @@ public class SerialResponse {
     }
     
     public static SerialResponse fromRaw(String raw) {
-        ResponseType type = parseType(raw);
+        MasterEvent event = MasterLineParser.parse(raw);
+        return of(raw, event.type(), event);
+    }
+    
+    /**
+     * Response for a line already parsed (see MasterLineParser) and classified
+     */
+    public static SerialResponse of(String raw, ResponseType type, MasterEvent event) {
         return SerialResponse.builder()
                 .rawResponse(raw)
                 .timestamp(LocalDateTime.now())
                 .type(type)
                 .error(type == ResponseType.ERROR)
+                .event(event)
                 .build();
     }
 }
@@ -0,0 +1,154 @@
+package ro.marcman.mixer.serial;
+
+import ro.marcman.mixer.serial.model.MasterEvent;
+import ro.marcman.mixer.serial.model.MasterLineParser;
+import ro.marcman.mixer.serial.model.ResponseClassifier;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the old receive path (decode each read, StringBuilder, indexOf/substring/delete, then
+ * SerialResponse.parseType) with LineFramer and ResponseClassifier, on a synthetic stream shaped like
+ * the MASTER's output during a parallel run with _log commands. The stream is fed in reads of
+ * random size up to 1024 bytes, as jSerialComm delivers it. Before measuring, both paths must
+ * produce the same lines and types. The last path adds MasterLineParser, as SerialManager.processLine
+ * runs it; its types come from the grammar, so only its lines are checked. Allocation is measured per
+ * line with the HotSpot thread MXBean.
+ * 
+ * Usage: LineFramerBenchmark [lines] [rounds]
+ */
+public class LineFramerBenchmark {
+    
+    private static final String[] LINES = {
+            "LOG RAW: uid=0x1A2B3C4D pin=13 dur=500 t=123456",
+            "EVENT pulse start uid=0x1A2B3C4D pin=14",
+            "OK batchprep 0x1A2B3C4D 2 cmds",
+            "ERROR: invalid pin 99",
+            "CAN recover: EFLG=0x15 TEC=0 REC=12",
+            "CAN error: EFLG=0x2D TEC=96 REC=127",
+            " ID | UID        | PINS | STATUS",
+            "Online count: 4",
+            "Batch done in 1532 ms",
+    };
+    
+    // Results are accumulated here so the JIT cannot drop the work
+    static long sink;
+    
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < lineCount; i++) {
+            out.writeBytes((LINES[random.nextInt(LINES.length)] + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] stream = out.toByteArray();
+        int[] reads = new int[stream.length / 64 + 1];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = 1 + random.nextInt(1024);
+        }
+        
+        List<String> expected = new ArrayList<>();
+        stringPath(stream, reads, (line, type) -> expected.add(line + "=" + type));
+        List<String> actual = new ArrayList<>();
+        framerPath(stream, reads, (line, type) -> actual.add(line + "=" + type));
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Receive paths disagree: " + expected.size() + " vs " + actual.size() + " lines");
+        }
+        List<String> parsed = new ArrayList<>();
+        parserPath(stream, reads, (line, type) -> parsed.add(line));
+        if (!parsed.equals(expected.stream().map(line -> line.substring(0, line.lastIndexOf('='))).toList())) {
+            throw new IllegalStateException("Parser path lost lines: " + parsed.size() + " vs " + expected.size());
+        }
+        
+        System.out.printf(Locale.ROOT, "%d lines, %d KiB%n%n", lineCount, stream.length / 1024);
+        System.out.printf(Locale.ROOT, "%-28s %14s %14s %14s%n", "path", "lines/s", "ms/round", "bytes/line");
+        measure("StringBuilder + parseType", rounds, lineCount, () -> stringPath(stream, reads, LineFramerBenchmark::consume));
+        measure("LineFramer + classifier", rounds, lineCount, () -> framerPath(stream, reads, LineFramerBenchmark::consume));
+        measure("LineFramer + parser", rounds, lineCount, () -> parserPath(stream, reads, LineFramerBenchmark::consume));
+    }
+    
+    private interface Sink {
+        void accept(String line, SerialResponse.ResponseType type);
+    }
+    
+    private static void consume(String line, SerialResponse.ResponseType type) {
+        sink += line.length() + type.ordinal();
+    }
+    
+    /**
+     * The receive path as SerialManager had it before LineFramer.
+     */
+    private static void stringPath(byte[] stream, int[] reads, Sink out) {
+        StringBuilder buffer = new StringBuilder();
+        int position = 0;
+        for (int i = 0; position < stream.length; i++) {
+            int count = Math.min(reads[i % reads.length], stream.length - position);
+            byte[] readBuffer = new byte[1024];
+            System.arraycopy(stream, position, readBuffer, 0, count);
+            position += count;
+            buffer.append(new String(readBuffer, 0, count, StandardCharsets.UTF_8));
+            int newlineIndex;
+            while ((newlineIndex = buffer.indexOf("\n")) != -1) {
+                String line = buffer.substring(0, newlineIndex).trim();
+                buffer.delete(0, newlineIndex + 1);
+                if (!line.isEmpty()) {
+                    out.accept(line, SerialResponse.parseType(line));
+                }
+            }
+        }
+    }
+    
+    private static void framerPath(byte[] stream, int[] reads, Sink out) {
+        feed(stream, reads, (bytes, offset, length) -> out.accept(
+                new String(bytes, offset, length, StandardCharsets.UTF_8),
+                ResponseClassifier.classify(bytes, offset, length)));
+    }
+    
+    /**
+     * The receive path as SerialManager.processLine has it: parse, and classify only lines outside the grammar.
+     */
+    private static void parserPath(byte[] stream, int[] reads, Sink out) {
+        feed(stream, reads, (bytes, offset, length) -> {
+            String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            MasterEvent event = MasterLineParser.parse(line);
+            out.accept(line, event instanceof MasterEvent.Text
+                    ? ResponseClassifier.classify(bytes, offset, length) : event.type());
+        });
+    }
+    
+    private static void feed(byte[] stream, int[] reads, LineFramer.LineHandler handler) {
+        LineFramer framer = new LineFramer(1024, 256);
+        // Reused like LineFramer's own read buffer, so both paths pay for the copy out of the port
+        byte[] readBuffer = new byte[1024];
+        int position = 0;
+        for (int i = 0; position < stream.length; i++) {
+            int count = Math.min(reads[i % reads.length], stream.length - position);
+            System.arraycopy(stream, position, readBuffer, 0, count);
+            position += count;
+            framer.feed(readBuffer, 0, count, handler);
+        }
+    }
+    
+    private static void measure(String name, int rounds, int lineCount, Runnable path) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        path.run();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            path.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double bytesPerLine = (double) (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / lineCount / rounds;
+        System.out.printf(Locale.ROOT, "%-28s %14.0f %14.1f %14.1f%n", name, (double) lineCount * rounds / seconds,
+                seconds * 1000 / rounds, bytesPerLine);
+    }
+}
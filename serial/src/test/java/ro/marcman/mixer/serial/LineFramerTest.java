@@ -0,0 +1,77 @@
+package ro.marcman.mixer.serial;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineFramerTest {
+    
+    private final LineFramer framer = new LineFramer(64, 4);
+    private final List<String> lines = new ArrayList<>();
+    
+    @Test
+    void splitsSeveralLinesOfOneRead() {
+        feed("OK\nOnline count: 2\nbatch done\n");
+        
+        assertEquals(List.of("OK", "Online count: 2", "batch done"), lines);
+    }
+    
+    @Test
+    void joinsALineSplitAcrossReads() {
+        feed("LOG RAW: uid=0x1A ");
+        feed("pin=5 ");
+        assertTrue(lines.isEmpty());
+        feed("dur=1200\nOK");
+        feed("\n");
+        
+        assertEquals(List.of("LOG RAW: uid=0x1A pin=5 dur=1200", "OK"), lines);
+    }
+    
+    @Test
+    void stripsCarriageReturnsAndSkipsBlankLines() {
+        feed("  OK\r\n\r\n\n   \r");
+        feed("\nERROR 12: invalid pin\r");
+        feed("\n");
+        
+        assertEquals(List.of("OK", "ERROR 12: invalid pin"), lines);
+    }
+    
+    @Test
+    void growsForLinesLongerThanItsBuffer() {
+        String longLine = "ID 1: UID=0x1A FW=2.1 ".repeat(20).trim();
+        feed(longLine.substring(0, 50));
+        feed(longLine.substring(50) + "\n");
+        
+        assertEquals(List.of(longLine), lines);
+    }
+    
+    @Test
+    void passesLinesAtTheirOffsetWithinTheRead() {
+        byte[] read = "xxOK\nbatchprep 0x1A 3\nyy".getBytes(StandardCharsets.US_ASCII);
+        framer.feed(read, 2, read.length - 4, this::collect);
+        
+        assertEquals(List.of("OK", "batchprep 0x1A 3"), lines);
+    }
+    
+    @Test
+    void resetDropsAPartialLine() {
+        feed("batchpr");
+        framer.reset();
+        feed("OK\n");
+        
+        assertEquals(List.of("OK"), lines);
+    }
+    
+    private void feed(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        framer.feed(bytes, 0, bytes.length, this::collect);
+    }
+    
+    private void collect(byte[] bytes, int offset, int length) {
+        lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,101 @@
+package ro.marcman.mixer.serial;
+
+import org.junit.jupiter.api.Test;
+import ro.marcman.mixer.serial.model.ArduinoCommand;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCorrelatorTest {
+    
+    private static final Duration LONG = Duration.ofSeconds(10);
+    
+    private final ResponseCorrelator correlator = new ResponseCorrelator();
+    
+    @Test
+    void linesGoToTheOldestCommandThatAcceptsThem() throws Exception {
+        CompletableFuture<SerialResponse> prep = correlator.register(command("batchprep 0x1A"), ResponseMatcher.ack(), LONG);
+        CompletableFuture<SerialResponse> run = correlator.register(command("batchrun"), ResponseMatcher.batchComplete(), LONG);
+        
+        correlator.complete(SerialResponse.fromRaw("Online count: 2"));
+        correlator.complete(SerialResponse.fromRaw("OK"));
+        assertEquals("OK", prep.get(1, TimeUnit.SECONDS).getRawResponse());
+        assertFalse(run.isDone());
+        
+        correlator.complete(SerialResponse.fromRaw("OK"));
+        correlator.complete(SerialResponse.fromRaw("batch done"));
+        assertEquals("batch done", run.get(1, TimeUnit.SECONDS).getRawResponse());
+        assertEquals(0, correlator.size());
+    }
+    
+    @Test
+    void errorReplyFailsTheCommandWithTheLine() {
+        CompletableFuture<SerialResponse> future = correlator.register(command("set 99 1"), ResponseMatcher.ack(), LONG);
+        
+        correlator.complete(SerialResponse.fromRaw("ERROR 12: invalid pin"));
+        
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        SerialCommandException cause = assertInstanceOf(SerialCommandException.class, error.getCause());
+        assertEquals("ERROR 12: invalid pin", cause.getResponse().getRawResponse());
+    }
+    
+    @Test
+    void unansweredCommandTimesOutAndStopsWaiting() {
+        CompletableFuture<SerialResponse> future = correlator.register(command("batchprep 0x1A"),
+                ResponseMatcher.ack(), Duration.ofMillis(20));
+        
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        assertEquals(0, correlator.size());
+    }
+    
+    @Test
+    void cancelledCommandNoLongerTakesLines() {
+        CompletableFuture<SerialResponse> cancelled = correlator.register(command("a"), ResponseMatcher.ack(), LONG);
+        CompletableFuture<SerialResponse> next = correlator.register(command("b"), ResponseMatcher.ack(), LONG);
+        
+        cancelled.cancel(false);
+        correlator.complete(SerialResponse.fromRaw("OK"));
+        
+        assertTrue(next.isDone());
+        assertFalse(next.isCompletedExceptionally());
+    }
+    
+    @Test
+    void failingMatcherIsSkipped() {
+        CompletableFuture<SerialResponse> broken = correlator.register(command("a"), response -> {
+            throw new IllegalStateException("broken matcher");
+        }, LONG);
+        CompletableFuture<SerialResponse> next = correlator.register(command("b"), ResponseMatcher.ack(), LONG);
+        
+        correlator.complete(SerialResponse.fromRaw("OK"));
+        
+        assertFalse(broken.isDone());
+        assertTrue(next.isDone());
+    }
+    
+    @Test
+    void failAllFailsEveryWaitingCommand() {
+        CompletableFuture<SerialResponse> first = correlator.register(command("a"), ResponseMatcher.ack(), LONG);
+        CompletableFuture<SerialResponse> second = correlator.register(command("b"), ResponseMatcher.ack(), LONG);
+        
+        correlator.failAll("Disconnected");
+        
+        for (CompletableFuture<SerialResponse> future : List.of(first, second)) {
+            ExecutionException error = assertThrows(ExecutionException.class, future::get);
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+        }
+        assertEquals(0, correlator.size());
+    }
+    
+    private static ArduinoCommand command(String raw) {
+        return ArduinoCommand.custom(raw);
+    }
+}
@@ -0,0 +1,76 @@
+package ro.marcman.mixer.serial;
+
+import org.junit.jupiter.api.Test;
+import ro.marcman.mixer.serial.ResponseMatcher.Match;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseMatcherTest {
+    
+    @Test
+    void ackCompletesOnAcknowledgementAndFailsOnErrorReply() {
+        ResponseMatcher matcher = ResponseMatcher.ack();
+        
+        assertEquals(Match.COMPLETE, matcher.match(line("OK")));
+        assertEquals(Match.COMPLETE, matcher.match(line("OK batchprep 0x1A 3")));
+        assertEquals(Match.FAIL, matcher.match(line("ERROR 12: invalid pin")));
+        assertEquals(Match.FAIL, matcher.match(line("ERR: unknown command")));
+        assertEquals(Match.IGNORE, matcher.match(line("Online count: 2")));
+    }
+    
+    @Test
+    void errorsThatDoNotAnswerTheCommandAreIgnored() {
+        for (ResponseMatcher matcher : new ResponseMatcher[] {
+                ResponseMatcher.ack(), ResponseMatcher.batchComplete(), ResponseMatcher.containing("done")}) {
+            assertEquals(Match.IGNORE, matcher.match(line("CAN error: TEC=96 REC=127")));
+            assertEquals(Match.IGNORE, matcher.match(line("EFLG=0x15 bus error")));
+            assertEquals(Match.IGNORE, matcher.match(line("Slave 0x2B failed to respond")));
+        }
+    }
+    
+    @Test
+    void batchCompleteFailsOnlyOnAnErrorBeforeTheAcknowledgement() {
+        ResponseMatcher beforeAck = ResponseMatcher.batchComplete();
+        assertEquals(Match.FAIL, beforeAck.match(line("ERROR: no batch prepared")));
+        
+        ResponseMatcher afterAck = ResponseMatcher.batchComplete();
+        afterAck.sent();
+        assertEquals(Match.IGNORE, afterAck.match(line("OK batchrun")));
+        assertEquals(Match.IGNORE, afterAck.match(line("ERROR 7: node 0x2B timeout")));
+        assertEquals(Match.COMPLETE, afterAck.match(line("batch done in 1200 ms")));
+    }
+    
+    @Test
+    void batchCompleteIgnoresAnAcknowledgementBeforeBatchrunWasWritten() {
+        ResponseMatcher matcher = ResponseMatcher.batchComplete();
+        // A late OK for a batchprep that timed out
+        assertEquals(Match.IGNORE, matcher.match(line("OK")));
+        matcher.sent();
+        assertEquals(Match.FAIL, matcher.match(line("ERROR: no batch prepared")));
+    }
+    
+    @Test
+    void batchPreparedCompletesOnlyForItsOwnSlave() {
+        ResponseMatcher matcher = ResponseMatcher.batchPrepared("0x1A2B");
+        
+        assertEquals(Match.IGNORE, matcher.match(line("OK")));
+        assertEquals(Match.IGNORE, matcher.match(line("OK batchprep 0x3C 2")));
+        assertEquals(Match.COMPLETE, matcher.match(line("OK batchprep 0x1a2b 2 cmds")));
+        assertEquals(Match.COMPLETE, matcher.match(line("batchprep 1A2B")));
+        assertEquals(Match.FAIL, matcher.match(line("ERROR 3: batch full")));
+    }
+    
+    @Test
+    void containingMatchesMarkersIgnoringCase() {
+        ResponseMatcher matcher = ResponseMatcher.containing("Ready");
+        
+        assertEquals(Match.COMPLETE, matcher.match(line("MASTER READY")));
+        assertEquals(Match.IGNORE, matcher.match(line("booting")));
+        assertEquals(Match.FAIL, matcher.match(line("ERROR: CAN init")));
+    }
+    
+    private static SerialResponse line(String raw) {
+        return SerialResponse.fromRaw(raw);
+    }
+}
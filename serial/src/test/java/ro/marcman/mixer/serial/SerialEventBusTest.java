@@ -0,0 +1,205 @@
+package ro.marcman.mixer.serial;
+
+import org.junit.jupiter.api.Test;
+import ro.marcman.mixer.serial.model.SerialResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerialEventBusTest {
+    
+    @Test
+    void deliversEventsInPublishOrder() throws Exception {
+        SerialEventBus bus = new SerialEventBus(1000, 16);
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener);
+        
+        List<String> expected = new ArrayList<>();
+        bus.publishConnected("COM3");
+        expected.add("connected COM3");
+        for (int i = 0; i < 100; i++) {
+            bus.publishData(line(i));
+            expected.add("line " + i);
+            if (i % 30 == 0) {
+                bus.publishError("error " + i);
+                expected.add("error error " + i);
+            }
+        }
+        bus.publishDisconnected();
+        expected.add("disconnected");
+        
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, listener.events());
+    }
+    
+    @Test
+    void batchesConsecutiveLinesUpToMaxBatchSize() throws Exception {
+        SerialEventBus bus = new SerialEventBus(1000, 10);
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener);
+        listener.holdConnected();
+        
+        bus.publishConnected("COM3");
+        assertTrue(listener.connectedEntered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 25; i++) {
+            bus.publishData(line(i));
+        }
+        bus.publishError("boom");
+        bus.publishData(line(25));
+        bus.publishData(line(26));
+        bus.publishDisconnected();
+        listener.release.countDown();
+        
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        // An error between lines ends the batch before it, so the lines still arrive in order
+        assertEquals(List.of(10, 10, 5, 2), listener.batchSizes());
+    }
+    
+    @Test
+    void dropsLinesPastCapacityButQueuesOtherEvents() throws Exception {
+        SerialEventBus bus = new SerialEventBus(5, 100);
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener);
+        listener.holdConnected();
+        
+        bus.publishConnected("COM3");
+        assertTrue(listener.connectedEntered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 8; i++) {
+            bus.publishData(line(i));
+        }
+        bus.publishError("boom");
+        bus.publishDisconnected();
+        assertEquals(3, bus.getDroppedCount(listener));
+        assertEquals(7, bus.getQueueDepth(listener));
+        
+        listener.release.countDown();
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("connected COM3", "line 0", "line 1", "line 2", "line 3", "line 4", "error boom", "disconnected"),
+                listener.events());
+        assertEquals(0, bus.getQueueDepth(listener));
+        assertEquals(3, bus.getDroppedCount(listener));
+    }
+    
+    @Test
+    void slowListenerDoesNotHoldBackOthers() throws Exception {
+        SerialEventBus bus = new SerialEventBus(2, 100);
+        RecordingListener slow = new RecordingListener();
+        RecordingListener fast = new RecordingListener();
+        bus.subscribe(slow);
+        bus.subscribe(fast);
+        slow.holdConnected();
+        
+        bus.publishConnected("COM3");
+        assertTrue(slow.connectedEntered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            bus.publishData(line(i));
+        }
+        bus.publishDisconnected();
+        
+        // The fast listener is done while the slow one is still held; it may only drop lines if its own thread lags
+        assertTrue(fast.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(6 - bus.getDroppedCount(fast), fast.events().size());
+        assertEquals("disconnected", fast.events().getLast());
+        assertEquals(2, bus.getDroppedCount(slow));
+        assertEquals(3, bus.getQueueDepth(slow));
+        slow.release.countDown();
+        assertTrue(slow.disconnected.await(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void unsubscribeDropsQueuedEvents() throws Exception {
+        SerialEventBus bus = new SerialEventBus(100, 100);
+        RecordingListener listener = new RecordingListener();
+        bus.subscribe(listener);
+        listener.holdConnected();
+        
+        bus.publishConnected("COM3");
+        assertTrue(listener.connectedEntered.await(5, TimeUnit.SECONDS));
+        bus.publishData(line(0));
+        bus.unsubscribe(listener);
+        bus.publishDisconnected();
+        assertEquals(0, bus.getQueueDepth(listener));
+        
+        listener.release.countDown();
+        assertFalse(listener.disconnected.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(List.of("connected COM3"), listener.events());
+    }
+    
+    private static SerialResponse line(int n) {
+        return SerialResponse.fromRaw("line " + n);
+    }
+    
+    /**
+     * Records every callback; can hold the delivery thread in onConnected so events pile up behind it.
+     */
+    private static final class RecordingListener implements SerialListener {
+        private final List<String> events = new ArrayList<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final CountDownLatch connectedEntered = new CountDownLatch(1);
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        
+        void holdConnected() {
+            release = new CountDownLatch(1);
+        }
+        
+        @Override
+        public void onDataReceived(SerialResponse response) {
+            synchronized (events) {
+                events.add(response.getRawResponse());
+            }
+        }
+        
+        @Override
+        public void onDataReceived(List<SerialResponse> responses) {
+            synchronized (events) {
+                batchSizes.add(responses.size());
+            }
+            SerialListener.super.onDataReceived(responses);
+        }
+        
+        @Override
+        public void onError(String error) {
+            synchronized (events) {
+                events.add("error " + error);
+            }
+        }
+        
+        @Override
+        public void onConnected(String portName) {
+            synchronized (events) {
+                events.add("connected " + portName);
+            }
+            connectedEntered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        @Override
+        public void onDisconnected() {
+            synchronized (events) {
+                events.add("disconnected");
+            }
+            disconnected.countDown();
+        }
+        
+        List<String> events() {
+            synchronized (events) {
+                return List.copyOf(events);
+            }
+        }
+        
+        List<Integer> batchSizes() {
+            synchronized (events) {
+                return List.copyOf(batchSizes);
+            }
+        }
+    }
+}
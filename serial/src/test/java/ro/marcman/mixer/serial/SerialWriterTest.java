@@ -0,0 +1,197 @@
+package ro.marcman.mixer.serial;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ro.marcman.mixer.serial.model.ArduinoCommand;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SerialWriterTest {
+    
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+    private final FakePort port = new FakePort();
+    private SerialWriter writer = new SerialWriter(8, errors::add);
+    
+    @AfterEach
+    void tearDown() {
+        port.release();
+        writer.stop();
+    }
+    
+    @Test
+    void writesByPriorityThenSubmissionOrder() throws Exception {
+        writer.start(port);
+        CompletableFuture<Boolean> first = blockOn("first");
+        List<CompletableFuture<Boolean>> queued = List.of(
+                submit("m1", CommandPriority.MONITORING), submit("e1", CommandPriority.EXECUTION),
+                submit("m2", CommandPriority.MONITORING), submit("e2", CommandPriority.EXECUTION));
+        port.release();
+        
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Boolean> future : queued) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals("first\ne1\ne2\nm1\nm2\n", port.wire());
+        assertEquals(5, writer.getStats().getWritten());
+    }
+    
+    @Test
+    void fullQueueRefusesMonitoringAndLetsExecutionWaitForSpace() throws Exception {
+        writer = new SerialWriter(1, errors::add);
+        writer.setExecutionOfferTimeoutMs(20);
+        writer.start(port);
+        blockOn("first");
+        CompletableFuture<Boolean> queued = submit("e1", CommandPriority.EXECUTION);
+        
+        assertFalse(submit("m1", CommandPriority.MONITORING).getNow(true));
+        assertFalse(submit("e2", CommandPriority.EXECUTION).getNow(true));
+        assertEquals(2, writer.getStats().getRejected());
+        assertFalse(queued.isDone());
+        
+        port.release();
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void emergencyCommandDropsQueuedExecutionCommands() throws Exception {
+        writer.start(port);
+        blockOn("first");
+        CompletableFuture<Boolean> prep = submit("batchprep 0x1A", CommandPriority.EXECUTION);
+        CompletableFuture<Boolean> run = submit("batchrun", CommandPriority.EXECUTION);
+        CompletableFuture<Boolean> status = submit("status", CommandPriority.MONITORING);
+        
+        CompletableFuture<Boolean> abort = submit("batchabort", CommandPriority.EMERGENCY);
+        
+        assertFalse(prep.getNow(true));
+        assertFalse(run.getNow(true));
+        port.release();
+        assertTrue(abort.get(5, TimeUnit.SECONDS));
+        assertTrue(status.get(5, TimeUnit.SECONDS));
+        assertEquals("first\nbatchabort\nstatus\n", port.wire());
+    }
+    
+    @Test
+    void emergencyCommandRefusesExecutionCommandsWaitingForSpace() throws Exception {
+        writer = new SerialWriter(1, errors::add);
+        writer.setExecutionOfferTimeoutMs(5_000);
+        writer.start(port);
+        blockOn("first");
+        submit("e1", CommandPriority.EXECUTION);
+        CompletableFuture<CompletableFuture<Boolean>> waiting =
+                CompletableFuture.supplyAsync(() -> submit("batchrun", CommandPriority.EXECUTION));
+        while (!writer.hasWaitingSubmitters()) {
+            Thread.onSpinWait();
+        }
+        
+        submit("batchabort", CommandPriority.EMERGENCY);
+        
+        assertFalse(waiting.get(5, TimeUnit.SECONDS).getNow(true));
+        port.release();
+    }
+    
+    @Test
+    void stopDropsQueuedCommandsAndRefusesNewOnes() throws Exception {
+        writer.start(port);
+        blockOn("first");
+        CompletableFuture<Boolean> queued = submit("e1", CommandPriority.EXECUTION);
+        
+        writer.stop();
+        
+        assertFalse(queued.getNow(true));
+        assertFalse(submit("e2", CommandPriority.EXECUTION).getNow(true));
+        assertEquals(0, writer.getQueueDepth());
+    }
+    
+    @Test
+    void shortWriteEndsTheLineBeforeTheNextCommand() throws Exception {
+        port.allow(3, 0);
+        writer.start(port);
+        
+        assertFalse(submit("set 5 1", CommandPriority.EXECUTION).get(5, TimeUnit.SECONDS));
+        assertTrue(submit("set 5 0", CommandPriority.EXECUTION).get(5, TimeUnit.SECONDS));
+        
+        assertEquals("set\nset 5 0\n", port.wire());
+        assertEquals(1, writer.getStats().getFailed());
+        assertFalse(errors.isEmpty());
+    }
+    
+    @Test
+    void commandsFailUntilAFragmentCanBeEnded() throws Exception {
+        port.allow(3, 0, 0, 0);
+        writer.start(port);
+        
+        assertFalse(submit("set 5 1", CommandPriority.EXECUTION).get(5, TimeUnit.SECONDS));
+        assertFalse(submit("set 6 1", CommandPriority.EXECUTION).get(5, TimeUnit.SECONDS));
+        assertTrue(submit("set 5 0", CommandPriority.EXECUTION).get(5, TimeUnit.SECONDS));
+        
+        assertEquals("set\nset 5 0\n", port.wire());
+    }
+    
+    private CompletableFuture<Boolean> blockOn(String command) throws InterruptedException {
+        port.block();
+        CompletableFuture<Boolean> future = submit(command, CommandPriority.EXECUTION);
+        assertTrue(port.entered.await(5, TimeUnit.SECONDS));
+        return future;
+    }
+    
+    private CompletableFuture<Boolean> submit(String command, CommandPriority priority) {
+        return writer.submit(ArduinoCommand.custom(command), priority);
+    }
+    
+    /**
+     * Records what is written. Can hold the first write until released, and limit how many bytes
+     * each write call accepts.
+     */
+    private static final class FakePort implements SerialWriter.Output {
+        private final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        private final Deque<Integer> allowances = new ArrayDeque<>();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile boolean blocking;
+        
+        void block() {
+            blocking = true;
+        }
+        
+        void release() {
+            gate.countDown();
+        }
+        
+        synchronized void allow(Integer... bytesPerCall) {
+            allowances.addAll(List.of(bytesPerCall));
+        }
+        
+        synchronized String wire() {
+            return wire.toString(StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        public int write(byte[] bytes, int length, int offset) {
+            if (blocking) {
+                blocking = false;
+                entered.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                Integer allowed = allowances.poll();
+                int count = allowed == null ? length : Math.min(allowed, length);
+                wire.write(bytes, offset, count);
+                return count;
+            }
+        }
+    }
+}
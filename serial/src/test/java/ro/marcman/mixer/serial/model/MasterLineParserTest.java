@@ -0,0 +1,97 @@
+package ro.marcman.mixer.serial.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MasterLineParserTest {
+    
+    @Test
+    void parsesAcknowledgements() {
+        assertEquals(new MasterEvent.Ack(""), MasterLineParser.parse("OK"));
+        assertEquals(new MasterEvent.Ack("pin 13 set"), MasterLineParser.parse("ack pin 13 set"));
+        assertEquals(new MasterEvent.Ack("stored"), MasterLineParser.parse("  SUCCESS:  stored"));
+    }
+    
+    @Test
+    void parsesBatches() {
+        assertEquals(new MasterEvent.BatchPrepared("0x1A2B", 3), MasterLineParser.parse("OK batchprep 0x1A2B 3 cmds"));
+        assertEquals(new MasterEvent.BatchPrepared("0x1A2B", null), MasterLineParser.parse("batchprep 0x1A2B"));
+        assertEquals(new MasterEvent.BatchDone(1532L), MasterLineParser.parse("Batch done in 1532 ms"));
+        assertEquals(new MasterEvent.BatchDone(87L), MasterLineParser.parse("OK batchrun complete 87ms"));
+        assertEquals(new MasterEvent.BatchDone(null), MasterLineParser.parse("batch finished"));
+    }
+    
+    @Test
+    void lineNotFittingItsRuleIsText() {
+        for (String line : List.of("batchprep 0x1A2B failed", "batch started", "LOG pump", "ID | UID | FW",
+                "Online 4", "CAN init", "video", "")) {
+            assertEquals(new MasterEvent.Text(line), MasterLineParser.parse(line), line);
+        }
+    }
+    
+    @Test
+    void parsesPulseLogs() {
+        MasterEvent.PulseLog log = (MasterEvent.PulseLog) MasterLineParser.parse("LOG RAW: uid=0x1A pin=13 dur=500, t=99");
+        assertEquals("0x1A", log.uid());
+        assertEquals(13, log.pin());
+        assertEquals(500, log.durationMs());
+        assertEquals(Map.of("uid", "0x1A", "pin", "13", "dur", "500", "t", "99"), log.fields());
+        assertEquals(SerialResponse.ResponseType.LOG, log.type());
+        
+        MasterEvent.PulseLog partial = (MasterEvent.PulseLog) MasterLineParser.parse("log raw Duration=20");
+        assertNull(partial.uid());
+        assertNull(partial.pin());
+        assertEquals(20, partial.durationMs());
+    }
+    
+    @Test
+    void parsesNodeTableAndOnlineCount() {
+        assertEquals(new MasterEvent.NodeTableRow(1, "0x1A2B", "1.4"), MasterLineParser.parse("ID 1: UID=0x1A2B FW=1.4"));
+        assertEquals(new MasterEvent.NodeTableRow(2, "0x3C", null), MasterLineParser.parse("id 2 uid=0x3C"));
+        assertEquals(new MasterEvent.OnlineCount(4), MasterLineParser.parse("Online count: 4"));
+        assertEquals(new MasterEvent.Text("Online count: 99999999999"), MasterLineParser.parse("Online count: 99999999999"));
+        assertEquals(new MasterEvent.Text("Online count: 4x"), MasterLineParser.parse("Online count: 4x"));
+    }
+    
+    @Test
+    void parsesErrorsWithAndWithoutCode() {
+        assertEquals(new MasterEvent.Error("12", "invalid pin"), MasterLineParser.parse("ERROR 12: invalid pin"));
+        assertEquals(new MasterEvent.Error("E_PIN", "pin 99"), MasterLineParser.parse("ERR E_PIN pin 99"));
+        assertEquals(new MasterEvent.Error(null, "invalid pin 99"), MasterLineParser.parse("ERROR: invalid pin 99"));
+        assertEquals(new MasterEvent.Error(null, "timeout"), MasterLineParser.parse("error timeout"));
+        assertEquals(new MasterEvent.Error(null, ""), MasterLineParser.parse("ERR"));
+    }
+    
+    @Test
+    void normalCanRecoveryIsData() {
+        for (String line : List.of("CAN recover: EFLG=0x15 TEC=0 REC=12", "EFLG=0x40", "EFLG before: 0x15",
+                "EFLG after=0x0", "CAN error: TEC=0 REC=130", "TEC=96 REC=12")) {
+            MasterEvent.CanRecovery recovery = (MasterEvent.CanRecovery) MasterLineParser.parse(line);
+            assertTrue(recovery.normal(), line);
+            assertEquals(SerialResponse.ResponseType.DATA, recovery.type(), line);
+        }
+    }
+    
+    @Test
+    void abnormalCanRecoveryIsError() {
+        for (String line : List.of("EFLG=0x2D", "EFLG=0x20 TEC=255", "EFLG after=0x15",
+                "CAN error: TEC=96 REC=127", "bus state TEC=200 REC=127")) {
+            MasterEvent.CanRecovery recovery = (MasterEvent.CanRecovery) MasterLineParser.parse(line);
+            assertFalse(recovery.normal(), line);
+            assertEquals(SerialResponse.ResponseType.ERROR, recovery.type(), line);
+        }
+    }
+    
+    @Test
+    void canRecoveryKeepsCounters() {
+        MasterEvent.CanRecovery recovery = (MasterEvent.CanRecovery) MasterLineParser.parse("x CAN error: TEC=0x60 REC=127,");
+        assertEquals("x CAN error: TEC=0x60 REC=127,", recovery.message());
+        assertEquals(96, recovery.tec());
+        assertEquals(127, recovery.rec());
+        assertEquals(new MasterEvent.Text("TEC=1 only"), MasterLineParser.parse("TEC=1 only"));
+    }
+}
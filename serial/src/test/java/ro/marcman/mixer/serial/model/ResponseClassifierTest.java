@@ -0,0 +1,58 @@
+package ro.marcman.mixer.serial.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseClassifierTest {
+    
+    private static final List<String> LINES = List.of(
+            "", "   ", "OK", "ok batchprep 0x1A 3", "SUCCESS", "ACK", "token", "Online count: 2",
+            "ERROR 12: invalid pin", "err", "Slave 0x2B FAILED", "Invalid command", "fAiL",
+            "EFLG=0x40 before", "CAN recover done", "CAN error: TEC=96 REC=127", "rec=1 tec=2", "tec=1",
+            "LOG RAW: uid=0x1A pin=5 dur=1200", "Log Raw:", "EVENT pump", "ID | UID | FW", "ID 1: UID=0x1A",
+            "video", "Température: erreur", "Température OK", "éèç", "batch done in 1200 ms");
+    
+    // Fragments of the keywords, so that random lines hit partial and overlapping matches
+    private static final String[] FRAGMENTS = {
+            "e", "er", "err", "error", "fa", "fail", "inv", "invalid", "o", "ok", "succ", "success", "ac", "ack",
+            "log", "log raw", ":", "ev", "event", "i", "id", "u", "uid", "|", "eflg", "can", "can recover", "t",
+            "tec=", "rec=", "re", " ", "x", "é", "E", "OK", "FAIL", "Uid", "CAN RECOVER", "TEC=", "REC="};
+    
+    @Test
+    void classifiesLikeParseType() {
+        for (String line : LINES) {
+            assertSame(SerialResponse.parseType(line), classify(line), line);
+        }
+    }
+    
+    @Test
+    void classifiesRandomLinesLikeParseType() {
+        Random random = new Random(42);
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder line = new StringBuilder();
+            int parts = random.nextInt(8);
+            for (int i = 0; i < parts; i++) {
+                line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSame(SerialResponse.parseType(line.toString()), classify(line.toString()), line.toString());
+        }
+    }
+    
+    @Test
+    void classifiesOnlyTheGivenRange() {
+        byte[] bytes = "ERROR|OK|xx".getBytes(StandardCharsets.US_ASCII);
+        
+        assertSame(SerialResponse.ResponseType.ACK, ResponseClassifier.classify(bytes, 6, 2));
+        assertSame(SerialResponse.ResponseType.ERROR, ResponseClassifier.classify(bytes, 0, 5));
+    }
+    
+    private static SerialResponse.ResponseType classify(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return ResponseClassifier.classify(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,92 @@
+package ro.marcman.mixer.sqlite;
+
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.ports.repository.AsyncIngredientRepository;
+import ro.marcman.mixer.core.ports.repository.IngredientRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncIngredientRepository that runs a blocking IngredientRepository on a DatabaseExecutor.
+ * Callers that join a coalesced read get their own copies of the ingredients.
+ */
+public class AsyncIngredientRepositoryImpl implements AsyncIngredientRepository {
+    
+    private final IngredientRepository delegate;
+    private final DatabaseExecutor executor;
+    
+    public AsyncIngredientRepositoryImpl(IngredientRepository delegate, DatabaseExecutor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+    
+    /**
+     * The shared ingredient cache on the shared database executor.
+     */
+    public static AsyncIngredientRepositoryImpl create() {
+        return new AsyncIngredientRepositoryImpl(CachingIngredientRepository.getInstance(), DatabaseExecutor.getInstance());
+    }
+    
+    @Override
+    public CompletableFuture<List<Ingredient>> findAll() {
+        return executor.read(Arrays.asList("ingredients.findAll"), delegate::findAll,
+                CachingIngredientRepository::copies);
+    }
+    
+    @Override
+    public CompletableFuture<List<Ingredient>> findPage(String afterName, Long afterId, int limit) {
+        return executor.read(Arrays.asList("ingredients.findPage", afterName, afterId, limit),
+                () -> delegate.findPage(afterName, afterId, limit), CachingIngredientRepository::copies);
+    }
+    
+    @Override
+    public CompletableFuture<Long> count() {
+        return executor.read(Arrays.asList("ingredients.count"), delegate::count);
+    }
+    
+    @Override
+    public CompletableFuture<List<String>> findCategories() {
+        return executor.read(Arrays.asList("ingredients.findCategories"), delegate::findCategories, ArrayList::new);
+    }
+    
+    @Override
+    public CompletableFuture<List<Ingredient>> findByCategory(String category) {
+        return executor.read(Arrays.asList("ingredients.findByCategory", category), () -> delegate.findByCategory(category),
+                CachingIngredientRepository::copies);
+    }
+    
+    @Override
+    public CompletableFuture<Optional<Ingredient>> findById(Long id) {
+        return executor.read(Arrays.asList("ingredients.findById", id), () -> delegate.findById(id),
+                found -> found.map(CachingIngredientRepository::copy));
+    }
+    
+    @Override
+    public CompletableFuture<List<Ingredient>> search(String query, int limit) {
+        return executor.read(Arrays.asList("ingredients.search", query, limit), () -> delegate.search(query, limit),
+                CachingIngredientRepository::copies);
+    }
+    
+    @Override
+    public CompletableFuture<List<Ingredient>> findByCasNumber(String casNumber) {
+        return executor.read(Arrays.asList("ingredients.findByCasNumber", casNumber), () -> delegate.findByCasNumber(casNumber),
+                CachingIngredientRepository::copies);
+    }
+    
+    @Override
+    public CompletableFuture<Ingredient> save(Ingredient ingredient) {
+        return executor.write(() -> delegate.save(ingredient));
+    }
+    
+    @Override
+    public CompletableFuture<Void> deleteById(Long id) {
+        return executor.write(() -> {
+            delegate.deleteById(id);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package ro.marcman.mixer.sqlite;
+
+import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.model.RecipeVersion;
+import ro.marcman.mixer.core.ports.repository.AsyncRecipeRepository;
+import ro.marcman.mixer.core.ports.repository.RecipeRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * AsyncRecipeRepository that runs a blocking RecipeRepository on a DatabaseExecutor.
+ * Callers that join a coalesced read get their own copies of the recipes and their lines.
+ */
+public class AsyncRecipeRepositoryImpl implements AsyncRecipeRepository {
+    
+    private final RecipeRepository delegate;
+    private final DatabaseExecutor executor;
+    
+    public AsyncRecipeRepositoryImpl(RecipeRepository delegate, DatabaseExecutor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+    
+    /**
+     * Recipes of the application database on the shared database executor.
+     */
+    public static AsyncRecipeRepositoryImpl create() {
+        return new AsyncRecipeRepositoryImpl(new RecipeRepositoryImpl(DatabaseManager.getInstance()),
+                DatabaseExecutor.getInstance());
+    }
+    
+    @Override
+    public CompletableFuture<List<Recipe>> findAll() {
+        return executor.read(Arrays.asList("recipes.findAll"), delegate::findAll,
+                AsyncRecipeRepositoryImpl::copies);
+    }
+    
+    @Override
+    public CompletableFuture<Optional<Recipe>> findById(Long id) {
+        return executor.read(Arrays.asList("recipes.findById", id), () -> delegate.findById(id),
+                found -> found.map(AsyncRecipeRepositoryImpl::copy));
+    }
+    
+    @Override
+    public CompletableFuture<List<RecipeVersion>> findVersions(Long recipeId) {
+        return executor.read(Arrays.asList("recipes.findVersions", recipeId), () -> delegate.findVersions(recipeId),
+                versions -> versions.stream().map(AsyncRecipeRepositoryImpl::copy).collect(Collectors.toList()));
+    }
+    
+    @Override
+    public CompletableFuture<Recipe> save(Recipe recipe) {
+        return executor.write(() -> delegate.save(recipe));
+    }
+    
+    @Override
+    public CompletableFuture<Void> deleteById(Long id) {
+        return executor.write(() -> {
+            delegate.deleteById(id);
+            return null;
+        });
+    }
+    
+    private static List<Recipe> copies(List<Recipe> recipes) {
+        return recipes.stream().map(AsyncRecipeRepositoryImpl::copy).collect(Collectors.toList());
+    }
+    
+    private static Recipe copy(Recipe recipe) {
+        return recipe.toBuilder().ingredients(copyLines(recipe.getIngredients())).build();
+    }
+    
+    private static RecipeVersion copy(RecipeVersion version) {
+        return version.toBuilder().ingredients(copyLines(version.getIngredients())).build();
+    }
+    
+    private static List<RecipeIngredient> copyLines(List<RecipeIngredient> lines) {
+        if (lines == null) {
+            return null;
+        }
+        List<RecipeIngredient> result = new ArrayList<>(lines.size());
+        for (RecipeIngredient line : lines) {
+            RecipeIngredient lineCopy = line.toBuilder().build();
+            if (line.getIngredient() != null) {
+                lineCopy.setIngredient(line.getIngredient().toBuilder().build());
+            }
+            result.add(lineCopy);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,533 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.StockMovement;
+import ro.marcman.mixer.core.ports.repository.IngredientRepository;
+import ro.marcman.mixer.core.ports.repository.StockMovementRepository;
+import ro.marcman.mixer.core.service.IngredientColumns;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache in front of an IngredientRepository.
+ * 
+ * Keeps a single id-indexed snapshot of the raw ingredient rows (loaded once with
+ * findAllWithoutMasterApply) and resolves master-ingredient configuration in memory.
+ * save() and deleteById() write through to the delegate and update only the affected entry.
+ * Lookups by UID+pin, CAS number and master ingredient are answered from an IngredientIndex
+ * that is updated incrementally on save instead of being rebuilt.
+ * 
+ * findPage(), streamAll(), count() and findCategories() do not load the cache: until something else has loaded it
+ * they are answered by the delegate, so a view that pages through the catalog only reads the
+ * rows it shows.
+ * 
+ * Callers always receive copies, so editing a returned ingredient does not change the cache
+ * until it is saved. Code that writes to the ingredients table without going through this
+ * repository must call invalidate().
+ * 
+ * With an IngredientSnapshot, the first load reads the raw rows from the snapshot file when it
+ * matches the database, and a fresh snapshot is written after loading from the database and by
+ * writeSnapshot() (on application exit).
+ */
+@Slf4j
+public class CachingIngredientRepository implements IngredientRepository {
+    
+    private static volatile CachingIngredientRepository instance;
+    
+    private static final Comparator<Ingredient> BY_NAME =
+            Comparator.comparing(Ingredient::getName, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(Ingredient::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+    private static final Comparator<Ingredient> BY_PIN =
+            Comparator.comparing(Ingredient::getArduinoPin, Comparator.nullsFirst(Comparator.naturalOrder()));
+    
+    private final IngredientRepository delegate;
+    private final IngredientSnapshot snapshot;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    // Raw rows as stored in the database, by id (guarded by this)
+    private Map<Long, Ingredient> rawById;
+    private IngredientIndex index;
+    // Derived from rawById on demand, dropped on every write (guarded by this)
+    private Map<Long, Ingredient> resolvedById;
+    private List<Ingredient> resolvedByName;
+    private List<Ingredient> rawByName;
+    private IngredientColumns columns;
+    // Catalog version (see IngredientSnapshot) rawById matches, or -1 if unknown (guarded by this)
+    private long catalogVersion = -1;
+    
+    public CachingIngredientRepository(IngredientRepository delegate) {
+        this(delegate, null);
+    }
+    
+    /**
+     * @param snapshot Snapshot file used to load the cache at startup, or null for none
+     */
+    CachingIngredientRepository(IngredientRepository delegate, IngredientSnapshot snapshot) {
+        this.delegate = delegate;
+        this.snapshot = snapshot;
+    }
+    
+    /**
+     * Get the shared cache over the application database.
+     * All views should use this instance so they see each other's changes.
+     */
+    public static CachingIngredientRepository getInstance() {
+        if (instance == null) {
+            synchronized (CachingIngredientRepository.class) {
+                if (instance == null) {
+                    DatabaseManager dbManager = DatabaseManager.getInstance();
+                    instance = new CachingIngredientRepository(new IngredientRepositoryImpl(dbManager),
+                            new IngredientSnapshot(dbManager, Path.of(dbManager.getDatabasePath() + ".catalog")));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findAll() {
+        ensureLoaded();
+        return copies(resolvedByName());
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findPage(String afterName, Long afterId, int limit) {
+        if (rawById == null) {
+            return delegate.findPage(afterName, afterId, limit);
+        }
+        ensureLoaded();
+        List<Ingredient> ordered = resolvedByName();
+        int from = 0;
+        if (afterName != null) {
+            Ingredient last = Ingredient.builder().name(afterName).id(afterId != null ? afterId : 0L).build();
+            int position = Collections.binarySearch(ordered, last, BY_NAME);
+            from = position >= 0 ? position + 1 : -position - 1;
+        }
+        return copies(ordered.subList(from, Math.min(ordered.size(), from + Math.max(0, limit))));
+    }
+    
+    /**
+     * Streams copies of the cached snapshot taken when the stream is created; holds no connection.
+     */
+    @Override
+    public synchronized Stream<Ingredient> streamAll() {
+        if (rawById == null) {
+            return delegate.streamAll();
+        }
+        ensureLoaded();
+        return resolvedByName().stream().map(CachingIngredientRepository::copy);
+    }
+    
+    /**
+     * Searched in the database's full-text index, which is current because writes go through.
+     */
+    @Override
+    public List<Ingredient> search(String query, int limit) {
+        return delegate.search(query, limit);
+    }
+    
+    @Override
+    public synchronized long count() {
+        if (rawById == null) {
+            return delegate.count();
+        }
+        ensureLoaded();
+        return rawById.size();
+    }
+    
+    @Override
+    public synchronized List<String> findCategories() {
+        if (rawById == null) {
+            return delegate.findCategories();
+        }
+        ensureLoaded();
+        Set<String> categories = new HashSet<>();
+        for (Ingredient ingredient : rawById.values()) {
+            if (ingredient.getCategory() != null && !ingredient.getCategory().isEmpty()) {
+                categories.add(ingredient.getCategory());
+            }
+        }
+        List<String> result = new ArrayList<>(categories);
+        Collections.sort(result);
+        return result;
+    }
+    
+    /**
+     * Whether the catalog is in memory, so that getColumns() and findAll() are answered without a query.
+     */
+    public synchronized boolean isLoaded() {
+        return rawById != null;
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findAllWithoutMasterApply() {
+        ensureLoaded();
+        if (rawByName == null) {
+            rawByName = sorted(rawById.values(), BY_NAME);
+        }
+        return copies(rawByName);
+    }
+    
+    @Override
+    public synchronized Optional<Ingredient> findById(Long id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        ensureLoaded();
+        return Optional.ofNullable(resolved().get(id)).map(CachingIngredientRepository::copy);
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findByCategory(String category) {
+        ensureLoaded();
+        List<Ingredient> result = new ArrayList<>();
+        for (Ingredient ingredient : resolved().values()) {
+            if (ingredient.isActive() && Objects.equals(category, ingredient.getCategory())) {
+                result.add(ingredient);
+            }
+        }
+        return copies(sorted(result, BY_NAME));
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findByArduinoUid(String arduinoUid) {
+        ensureLoaded();
+        // Like the SQL query: filter and order on the stored columns, return resolved ingredients
+        List<Ingredient> matches = new ArrayList<>();
+        for (Ingredient raw : rawById.values()) {
+            if (raw.isActive() && arduinoUid != null && arduinoUid.equals(raw.getArduinoUid())) {
+                matches.add(raw);
+            }
+        }
+        matches.sort(BY_PIN);
+        
+        Map<Long, Ingredient> resolved = resolved();
+        List<Ingredient> result = new ArrayList<>(matches.size());
+        for (Ingredient raw : matches) {
+            result.add(copy(resolved.get(raw.getId())));
+        }
+        return result;
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findByUidAndPin(String arduinoUid, Integer pin) {
+        ensureLoaded();
+        return resolvedCopies(index.idsByUidAndPin(arduinoUid, pin));
+    }
+    
+    @Override
+    public synchronized int countPinsByUid(String arduinoUid, Long excludeId) {
+        ensureLoaded();
+        int count = index.countPins(arduinoUid);
+        Ingredient excluded = excludeId != null ? rawById.get(excludeId) : null;
+        return excluded != null ? count - IngredientIndex.pinsOn(excluded, arduinoUid) : count;
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findByCasNumber(String casNumber) {
+        ensureLoaded();
+        return resolvedCopies(index.idsByCasNumber(casNumber));
+    }
+    
+    @Override
+    public synchronized List<Ingredient> findByMasterIngredientId(Long masterIngredientId) {
+        ensureLoaded();
+        return resolvedCopies(index.idsByMaster(masterIngredientId));
+    }
+    
+    @Override
+    public synchronized boolean existsById(Long id) {
+        ensureLoaded();
+        Ingredient ingredient = id != null ? rawById.get(id) : null;
+        return ingredient != null && ingredient.isActive();
+    }
+    
+    @Override
+    public synchronized Ingredient save(Ingredient ingredient) {
+        IngredientSnapshot.Tracked<Ingredient> write = tracked(() -> delegate.save(ingredient));
+        Ingredient saved = write.result();
+        // An update of an id the database does not have changes nothing, so there is nothing to cache
+        if (rawById != null && saved != null && saved.getId() != null && write.changed()) {
+            // The stored row now holds exactly the fields that were saved
+            Ingredient stored = copy(saved);
+            Ingredient previous = rawById.put(saved.getId(), stored);
+            if (previous != null) {
+                index.remove(previous);
+            }
+            index.add(stored);
+            dropDerived();
+        }
+        return saved;
+    }
+    
+    @Override
+    public synchronized void deleteById(Long id) {
+        try {
+            tracked(() -> {
+                delegate.deleteById(id);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Error deleting ingredient with id: {}", id, e);
+            return;
+        }
+        if (rawById != null && id != null) {
+            // Soft delete: the row stays, only the active flag changes
+            Ingredient stored = rawById.get(id);
+            if (stored != null) {
+                stored.setActive(false);
+            }
+            dropDerived();
+        }
+    }
+    
+    /**
+     * Record movements in the stock ledger, which writes the ingredients table directly, and bring
+     * cached stock quantities in line with them.
+     * 
+     * @return The movements recorded (see StockMovementRepository.record)
+     */
+    public synchronized List<StockMovement> recordStockMovements(StockMovementRepository ledger,
+                                                                 List<StockMovement> movements) {
+        List<StockMovement> recorded;
+        try {
+            recorded = tracked(() -> ledger.record(movements)).result();
+        } catch (RuntimeException e) {
+            log.error("Error recording stock movements, none were applied", e);
+            return new ArrayList<>();
+        }
+        updateStock(recorded);
+        return recorded;
+    }
+    
+    /**
+     * Bring cached stock quantities in line with movements already recorded in the stock ledger.
+     * The cache cannot tell what else changed, so it writes no snapshot until it is reloaded;
+     * prefer recordStockMovements.
+     */
+    public synchronized void applyStockMovements(List<StockMovement> movements) {
+        catalogVersion = -1;
+        updateStock(movements);
+    }
+    
+    private void updateStock(List<StockMovement> movements) {
+        if (rawById == null) {
+            return;
+        }
+        for (StockMovement movement : movements) {
+            Ingredient stored = rawById.get(movement.getIngredientId());
+            if (stored != null) {
+                stored.setStockQuantity(movement.getStockAfter());
+            }
+        }
+        dropDerived();
+    }
+    
+    /**
+     * Drop the whole snapshot. The next read reloads it from the database.
+     */
+    public synchronized void invalidate() {
+        rawById = null;
+        index = null;
+        catalogVersion = -1;
+        dropDerived();
+        log.debug("Ingredient cache invalidated");
+    }
+    
+    /**
+     * Column-oriented view of findAll() for catalog-wide statistics. Built on first use and
+     * kept until the next write, so repeated reports do not rebuild it.
+     */
+    public synchronized IngredientColumns getColumns() {
+        ensureLoaded();
+        if (columns == null) {
+            columns = IngredientColumns.of(resolvedByName());
+        }
+        return columns;
+    }
+    
+    /**
+     * Write the cached rows as the snapshot for the next startup. Does nothing without a snapshot,
+     * before the cache is loaded, or when the cache may differ from the database.
+     */
+    public synchronized void writeSnapshot() {
+        if (snapshot != null && rawById != null && catalogVersion >= 0) {
+            snapshot.write(catalogVersion, rawById.values());
+        }
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    /**
+     * Fraction of reads served without touching the database (0.0 - 1.0).
+     */
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+    
+    private void ensureLoaded() {
+        if (rawById != null) {
+            hits.incrementAndGet();
+            return;
+        }
+        
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        IngredientSnapshot.Loaded fromSnapshot = snapshot != null ? snapshot.load() : null;
+        List<Ingredient> rows;
+        String source;
+        if (fromSnapshot != null) {
+            rows = fromSnapshot.getRows();
+            catalogVersion = fromSnapshot.getCatalogVersion();
+            source = "snapshot";
+        } else {
+            // A change between the two version reads leaves the version unknown
+            long before = snapshot != null ? snapshot.currentCatalogVersion() : -1;
+            rows = delegate.findAllWithoutMasterApply();
+            catalogVersion = before >= 0 && before == snapshot.currentCatalogVersion() ? before : -1;
+            source = "database";
+        }
+        Map<Long, Ingredient> loaded = new HashMap<>(rows.size() * 2);
+        IngredientIndex loadedIndex = new IngredientIndex();
+        for (Ingredient row : rows) {
+            loaded.put(row.getId(), row);
+            loadedIndex.add(row);
+        }
+        rawById = loaded;
+        index = loadedIndex;
+        log.debug("Loaded {} ingredients into cache from {} in {} ms (hits: {}, misses: {})",
+                loaded.size(), source, (System.nanoTime() - start) / 1_000_000, hits.get(), misses.get());
+        if (fromSnapshot == null) {
+            writeSnapshot();
+        }
+    }
+    
+    /**
+     * Run a write through to the database and follow the catalog version it moved to, read in the
+     * write's own transaction. The cache stays current only if the version before the write is the one
+     * it holds; otherwise something wrote behind its back and the version becomes unknown (-1).
+     */
+    private <T> IngredientSnapshot.Tracked<T> tracked(Supplier<T> write) {
+        if (snapshot == null || rawById == null) {
+            return new IngredientSnapshot.Tracked<>(write.get(), -1, -1);
+        }
+        IngredientSnapshot.Tracked<T> tracked = snapshot.tracked(write);
+        catalogVersion = catalogVersion >= 0 && tracked.before() == catalogVersion ? tracked.after() : -1;
+        return tracked;
+    }
+    
+    /**
+     * Ingredients by id with master configuration applied from the end of each master chain,
+     * like IngredientRepositoryImpl.masterChainCtes.
+     */
+    private Map<Long, Ingredient> resolved() {
+        if (resolvedById == null) {
+            Map<Long, Ingredient> result = new HashMap<>(rawById.size() * 2);
+            for (Ingredient raw : rawById.values()) {
+                Ingredient master = chainEnd(raw);
+                if (master == raw) {
+                    result.put(raw.getId(), raw);
+                } else {
+                    Ingredient resolved = copy(raw);
+                    IngredientRepositoryImpl.copyMasterConfiguration(master, resolved);
+                    result.put(raw.getId(), resolved);
+                }
+            }
+            resolvedById = result;
+        }
+        return resolvedById;
+    }
+    
+    /**
+     * Follow an ingredient's masters until one has no master, a missing master, or a master already
+     * visited (a cycle). Returns the ingredient itself when it has no usable master.
+     */
+    private Ingredient chainEnd(Ingredient raw) {
+        Ingredient current = raw;
+        Set<Long> visited = new HashSet<>();
+        visited.add(raw.getId());
+        while (current.getMasterIngredientId() != null) {
+            Ingredient next = rawById.get(current.getMasterIngredientId());
+            if (next == null) {
+                break;
+            }
+            if (!visited.add(next.getId())) {
+                log.warn("Master chain of ingredient {} (id {}) loops back on itself, stopping before the loop",
+                        raw.getName(), raw.getId());
+                break;
+            }
+            current = next;
+        }
+        return current;
+    }
+    
+    private List<Ingredient> resolvedByName() {
+        if (resolvedByName == null) {
+            resolvedByName = sorted(resolved().values(), BY_NAME);
+        }
+        return resolvedByName;
+    }
+    
+    /**
+     * Resolved copies of the given ingredients, ordered by name.
+     */
+    private List<Ingredient> resolvedCopies(Iterable<Long> ids) {
+        Map<Long, Ingredient> resolved = resolved();
+        List<Ingredient> result = new ArrayList<>();
+        for (Long id : ids) {
+            result.add(resolved.get(id));
+        }
+        return copies(sorted(result, BY_NAME));
+    }
+    
+    private void dropDerived() {
+        resolvedById = null;
+        resolvedByName = null;
+        rawByName = null;
+        columns = null;
+    }
+    
+    private static List<Ingredient> sorted(Iterable<Ingredient> ingredients, Comparator<Ingredient> order) {
+        List<Ingredient> result = new ArrayList<>();
+        ingredients.forEach(result::add);
+        result.sort(order);
+        return result;
+    }
+    
+    /**
+     * Copies of the ingredients, as handed to callers (also used by AsyncIngredientRepositoryImpl for coalesced reads).
+     */
+    static List<Ingredient> copies(List<Ingredient> ingredients) {
+        List<Ingredient> result = new ArrayList<>(ingredients.size());
+        for (Ingredient ingredient : ingredients) {
+            result.add(copy(ingredient));
+        }
+        return result;
+    }
+    
+    static Ingredient copy(Ingredient ingredient) {
+        return ingredient.toBuilder().build();
+    }
+}
@@ -0,0 +1,300 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small pool of SQLite connections to one database file.
+ * 
+ * Connections handed out by borrow() are handles: close() returns the physical connection to the
+ * pool instead of closing it. While a thread holds a connection, further borrows on that thread get
+ * the same physical connection (nested repository calls and transactions share it); it goes back to
+ * the pool when the outermost handle is closed. Under WAL, readers on other threads keep their own
+ * connections and are not blocked by a writer.
+ * 
+ * Each physical connection keeps its prepared statements (see StatementCache), so a handle's
+ * prepareStatement(sql) reuses the statement an earlier borrower prepared for the same SQL.
+ */
+@Slf4j
+class ConnectionPool {
+    
+    /**
+     * Opens and configures a new physical connection.
+     */
+    @FunctionalInterface
+    interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+    
+    private final ConnectionFactory factory;
+    private final long borrowTimeoutMillis;
+    private final Semaphore permits;
+    private final int statementCacheSize;
+    private final BlockingDeque<StatementCache> idle = new LinkedBlockingDeque<>();
+    private final ThreadLocal<Lease> currentLease = new ThreadLocal<>();
+    
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong nested = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private volatile boolean closed;
+    
+    /**
+     * @param statementCacheSize Prepared statements kept per physical connection
+     */
+    ConnectionPool(ConnectionFactory factory, int maxSize, long borrowTimeoutMillis, int statementCacheSize) {
+        this.factory = factory;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+    
+    /**
+     * Borrow a connection. Callers close it (try-with-resources) to give it back.
+     * 
+     * @throws SQLException if the pool is closed, no connection frees up within the timeout,
+     *                      or a new connection cannot be opened
+     */
+    Connection borrow() throws SQLException {
+        Lease lease = currentLease.get();
+        if (lease != null && !lease.released) {
+            lease.depth++;
+            nested.incrementAndGet();
+            return lease.handle();
+        }
+        
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        
+        try {
+            StatementCache pooled = takeIdle();
+            if (pooled != null) {
+                reused.incrementAndGet();
+            } else {
+                pooled = new StatementCache(factory.open(), statementCacheSize, statementHits, statementMisses);
+                opened.incrementAndGet();
+                log.debug("Opened database connection #{}", opened.get());
+            }
+            lease = new Lease(pooled);
+            currentLease.set(lease);
+            return lease.handle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Close all idle connections. Connections in use are kept and returned to the pool as usual.
+     */
+    void closeIdle() {
+        StatementCache pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+    
+    /**
+     * Close the pool. Idle connections are closed now, connections in use when they are returned.
+     */
+    void close() {
+        closed = true;
+        closeIdle();
+        log.info("Connection pool closed ({})", this);
+    }
+    
+    long getOpenedCount() {
+        return opened.get();
+    }
+    
+    long getReusedCount() {
+        return reused.get();
+    }
+    
+    long getNestedCount() {
+        return nested.get();
+    }
+    
+    int getIdleCount() {
+        return idle.size();
+    }
+    
+    long getStatementHitCount() {
+        return statementHits.get();
+    }
+    
+    long getStatementMissCount() {
+        return statementMisses.get();
+    }
+    
+    private StatementCache takeIdle() {
+        StatementCache pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            try {
+                if (!pooled.getPhysical().isClosed()) {
+                    return pooled;
+                }
+            } catch (SQLException e) {
+                log.debug("Discarding broken pooled connection", e);
+            }
+        }
+        return null;
+    }
+    
+    private void release(Lease lease) {
+        lease.released = true;
+        if (currentLease.get() == lease) {
+            currentLease.remove();
+        }
+        StatementCache pooled = lease.pooled;
+        Connection physical = pooled.getPhysical();
+        try {
+            if (physical.isClosed()) {
+                return;
+            }
+            // Statements left open by the borrower are closed with its handle (and their result sets reset)
+            pooled.releaseAll();
+            // Never hand an open transaction to the next borrower
+            if (!physical.getAutoCommit()) {
+                log.warn("Connection returned to pool inside a transaction, rolling back");
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (closed) {
+                closeQuietly(pooled);
+            } else {
+                // LIFO: the most recently used connection is the next one handed out
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            log.warn("Discarding database connection that could not be reset", e);
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+    
+    private static void closeQuietly(StatementCache pooled) {
+        try {
+            pooled.clear();
+            pooled.getPhysical().close();
+        } catch (SQLException e) {
+            log.warn("Error closing database connection", e);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "opened=" + opened.get() + ", reused=" + reused.get() + ", nested=" + nested.get()
+                + ", idle=" + idle.size() + ", statement hits=" + statementHits.get()
+                + ", statement misses=" + statementMisses.get();
+    }
+    
+    /**
+     * One thread's use of a physical connection, counting the open handles.
+     */
+    private final class Lease {
+        private final StatementCache pooled;
+        private final Connection physical;
+        private int depth = 1;
+        // Set when returned; guards against a handle being closed on another thread
+        private volatile boolean released;
+        
+        private Lease(StatementCache pooled) {
+            this.pooled = pooled;
+            this.physical = pooled.getPhysical();
+        }
+        
+        private Connection handle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+        
+        private void closeHandle() {
+            if (--depth == 0) {
+                release(this);
+            }
+        }
+    }
+    
+    /**
+     * prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys); other variants are not cached.
+     */
+    private static boolean isCacheablePrepare(Method method, Object[] args) {
+        return method.getName().equals("prepareStatement")
+                && (args.length == 1 || (args.length == 2 && method.getParameterTypes()[1] == int.class));
+    }
+    
+    /**
+     * Connection handle: close() gives the connection back, everything else goes to the physical connection.
+     */
+    private static final class Handle implements InvocationHandler {
+        private final Lease lease;
+        private boolean handleClosed;
+        
+        private Handle(Lease lease) {
+            this.lease = lease;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!handleClosed) {
+                        handleClosed = true;
+                        lease.closeHandle();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return handleClosed || lease.physical.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled[" + lease.physical + "]";
+                }
+                default -> {
+                    if (handleClosed) {
+                        throw new SQLException("Connection is closed");
+                    }
+                    if (isCacheablePrepare(method, args)) {
+                        int keys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                        return lease.pooled.prepare((Connection) proxy, (String) args[0], keys);
+                    }
+                    try {
+                        return method.invoke(lease.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ro.marcman.mixer.sqlite;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming CSV parser following RFC 4180.
+ * 
+ * Fields are separated by commas and may be enclosed in double quotes. Inside quotes, commas and
+ * line breaks are part of the field and a doubled quote ("") is a literal quote. Records end with
+ * CRLF, LF or CR. A leading UTF-8 byte order mark is ignored. Quotes inside an unquoted field are
+ * kept as-is rather than rejected, since scraped files are not always clean.
+ */
+final class CsvParser {
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder record = new StringBuilder();
+    private int position;
+    private int limit;
+    private boolean firstRead = true;
+    
+    private long lineNumber = 1;
+    private long recordLineNumber;
+    
+    CsvParser(Reader reader) {
+        this.reader = reader;
+    }
+    
+    /**
+     * Read the next record.
+     * 
+     * @return The fields of the record, or null at end of input
+     */
+    List<String> next() throws IOException {
+        String record = nextRecord();
+        return record == null ? null : splitFields(record);
+    }
+    
+    /**
+     * Read the next record without splitting it, so the fields can be split later with splitFields(),
+     * possibly on another thread. Quoted line breaks stay in the text; the record's own terminator does not.
+     * 
+     * @return The raw record, or null at end of input
+     */
+    String nextRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        recordLineNumber = lineNumber;
+        record.setLength(0);
+        boolean quoted = false;
+        boolean fieldStart = true;
+        
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    return record.toString();
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        record.append('"');
+                        c = read();
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                    lineNumber++;
+                }
+                record.append((char) c);
+            } else if (c == ',') {
+                record.append(',');
+                fieldStart = true;
+                c = read();
+                continue;
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (c != -1) {
+                    lineNumber++;
+                }
+                return record.toString();
+            } else {
+                if (c == '"' && fieldStart) {
+                    quoted = true;
+                }
+                record.append((char) c);
+            }
+            fieldStart = false;
+            c = read();
+        }
+    }
+    
+    /**
+     * Split a record returned by nextRecord() into its fields, removing quotes and unescaping "".
+     */
+    static List<String> splitFields(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+        
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+                continue;
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+            fieldStart = false;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    /**
+     * Line number (1-based) on which the record last returned by next() started.
+     */
+    long getRecordLineNumber() {
+        return recordLineNumber;
+    }
+    
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+    
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+    
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        if (firstRead) {
+            firstRead = false;
+            if (buffer[0] == '\uFEFF') {
+                position = 1;
+                return position < limit || fill();
+            }
+        }
+        return true;
+    }
+}
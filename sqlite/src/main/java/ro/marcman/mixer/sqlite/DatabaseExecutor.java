@@ -0,0 +1,160 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs repository calls off the caller's thread: writes one at a time on a single "db-writer"
+ * thread, reads concurrently on virtual threads.
+ * 
+ * SQLite allows one writer at a time anyway, so queuing writes here keeps them from waiting on each
+ * other's locks inside the connection pool. Reads run in parallel under WAL; at most
+ * maxConcurrentReads run at once, so these reads alone never take every pooled connection. Other
+ * borrowers (DatabaseMaintenance, open streamAll cursors, synchronous repository calls) share the
+ * pool, so the writer can still wait for a connection.
+ * 
+ * Reads are coalesced: a read with the same key as one still running joins it instead of querying
+ * again. Keys are compared with equals and may contain nulls. A caller that joins receives its own
+ * copy of the result, made with the read's copy function, so callers may change what they get
+ * without affecting each other. A finished write ends coalescing for the reads already running, so a
+ * read issued after a write completes always sees it. Nothing orders a read against a write still in
+ * progress; chain the read on the write's future when it must see the write.
+ */
+@Slf4j
+public class DatabaseExecutor {
+    
+    private static volatile DatabaseExecutor instance;
+    
+    private final ExecutorService writer;
+    private final ExecutorService readers;
+    private final Semaphore readPermits;
+    private final Map<Object, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedReads = new AtomicLong();
+    
+    public DatabaseExecutor(int maxConcurrentReads) {
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "db-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.readers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("db-read-", 0).factory());
+        this.readPermits = new Semaphore(Math.max(1, maxConcurrentReads));
+    }
+    
+    /**
+     * Shared executor for the application database, running at most one read fewer than its pooled connections.
+     */
+    public static DatabaseExecutor getInstance() {
+        if (instance == null) {
+            synchronized (DatabaseExecutor.class) {
+                if (instance == null) {
+                    instance = new DatabaseExecutor(DatabaseManager.getInstance().getMaxConnections() - 1);
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Run a query whose result is immutable (a count, a string) on a virtual thread, or join the running
+     * query with the same key. Callers that join share the result.
+     * 
+     * @see #read(Object, Supplier, UnaryOperator)
+     */
+    public <T> CompletableFuture<T> read(Object key, Supplier<T> query) {
+        return read(key, query, UnaryOperator.identity());
+    }
+    
+    /**
+     * Run a query on a virtual thread, or join the running query with the same key.
+     * 
+     * @param key Identifies the query and its parameters, e.g. List.of("ingredients.search", text, limit)
+     * @param copy Copies the result for each caller that joins the query
+     * @return The query's result; every caller gets its own future, so cancelling one affects no other
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> read(Object key, Supplier<T> query, UnaryOperator<T> copy) {
+        CompletableFuture<T> started = new CompletableFuture<>();
+        CompletableFuture<T> future = (CompletableFuture<T>) inFlight.putIfAbsent(key, started);
+        if (future != null) {
+            coalescedReads.incrementAndGet();
+            return future.thenApply(copy);
+        }
+        
+        try {
+            readers.execute(() -> {
+                try {
+                    readPermits.acquire();
+                    try {
+                        T result = query.get();
+                        // Removed first, so a caller that reacts to the result by reading again gets a fresh query
+                        inFlight.remove(key, started);
+                        started.complete(result);
+                    } finally {
+                        readPermits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(key, started, e);
+                } catch (Throwable e) {
+                    // Errors too: a future left incomplete would stay in inFlight and hang every later read of the key
+                    fail(key, started, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(key, started, e);
+        }
+        return started.copy();
+    }
+    
+    /**
+     * Run an update on the writer thread, after every write submitted before it.
+     */
+    public <T> CompletableFuture<T> write(Supplier<T> update) {
+        try {
+            return CompletableFuture.supplyAsync(update, writer)
+                    .whenComplete((result, error) -> inFlight.clear());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    private void fail(Object key, CompletableFuture<?> future, Throwable error) {
+        inFlight.remove(key, future);
+        future.completeExceptionally(error);
+        log.warn("Database read {} failed", key, error);
+    }
+    
+    /**
+     * Number of reads that joined a query already running instead of starting their own.
+     */
+    public long getCoalescedReadCount() {
+        return coalescedReads.get();
+    }
+    
+    /**
+     * Stop accepting work and wait briefly for queued writes to finish.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        readers.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Database writes still queued at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Background upkeep of the application database on one daemon thread:
+ * 
+ * - checkpoint: PRAGMA wal_checkpoint(PASSIVE), copying committed WAL pages into the database
+ *   without waiting for readers or writers, so the WAL does not grow without bound.
+ * - optimize: PRAGMA optimize (ANALYZE where the statistics are stale) and, on databases created
+ *   with auto_vacuum=INCREMENTAL, PRAGMA incremental_vacuum to return free pages to the file system.
+ * - backup: an online copy through the SQLite backup API into backupDir, when the newest backup is
+ *   older than the backup interval. Only the newest backupsToKeep files are kept.
+ * 
+ * Every task uses its own pooled connection and, under WAL, never blocks the writer, so mixing
+ * carries on while maintenance runs. Timings per task are available from getStats().
+ */
+@Slf4j
+public class DatabaseMaintenance {
+    
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String OPTIMIZE = "optimize";
+    public static final String BACKUP = "backup";
+    
+    private static final DateTimeFormatter BACKUP_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    // Copy in small steps; between steps the backup releases its lock and other connections carry on
+    private static final int BACKUP_PAGES_PER_STEP = 256;
+    private static final int BACKUP_SLEEP_MS = 50;
+    private static final int BACKUP_BUSY_RETRIES = 100;
+    // Free pages returned per incremental_vacuum run
+    private static final int VACUUM_PAGES = 1000;
+    
+    private final DatabaseManager dbManager;
+    private final Path backupDir;
+    private final String backupPrefix;
+    private final Map<String, TaskStats> stats = new LinkedHashMap<>();
+    
+    private Duration checkpointInterval = Duration.ofMinutes(5);
+    private Duration optimizeInterval = Duration.ofHours(6);
+    private Duration backupInterval = Duration.ofHours(24);
+    private int backupsToKeep = 7;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * Maintenance of the database, with backups in a "backups" directory next to it.
+     */
+    public DatabaseMaintenance(DatabaseManager dbManager) {
+        this(dbManager, Path.of(dbManager.getDatabasePath()).toAbsolutePath().resolveSibling("backups"));
+    }
+    
+    public DatabaseMaintenance(DatabaseManager dbManager, Path backupDir) {
+        this.dbManager = dbManager;
+        this.backupDir = backupDir;
+        String fileName = Path.of(dbManager.getDatabasePath()).getFileName().toString();
+        this.backupPrefix = (fileName.endsWith(".db") ? fileName.substring(0, fileName.length() - 3) : fileName) + "-";
+        for (String task : List.of(CHECKPOINT, OPTIMIZE, BACKUP)) {
+            stats.put(task, new TaskStats());
+        }
+    }
+    
+    public void setCheckpointInterval(Duration checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    public void setOptimizeInterval(Duration optimizeInterval) {
+        this.optimizeInterval = optimizeInterval;
+    }
+    
+    public void setBackupInterval(Duration backupInterval) {
+        this.backupInterval = backupInterval;
+    }
+    
+    public void setBackupsToKeep(int backupsToKeep) {
+        this.backupsToKeep = Math.max(1, backupsToKeep);
+    }
+    
+    public Path getBackupDir() {
+        return backupDir;
+    }
+    
+    /**
+     * Start the periodic tasks. The first checkpoint and backup check run a minute after start,
+     * the first optimize after ten minutes, so they stay out of the way of application startup.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        scheduler.scheduleWithFixedDelay(this::checkpoint, minute, checkpointInterval.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::optimize, 10 * minute, optimizeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        // Checked hourly (or more often for short intervals); a backup is only taken when one is due
+        long backupCheck = Math.min(TimeUnit.HOURS.toMillis(1), backupInterval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::backupIfDue, minute, backupCheck, TimeUnit.MILLISECONDS);
+        log.info("Database maintenance started (checkpoint every {}, optimize every {}, backup every {} to {})",
+                checkpointInterval, optimizeInterval, backupInterval, backupDir);
+    }
+    
+    /**
+     * Stop the periodic tasks, waiting briefly for a running task to finish.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Database maintenance task still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+        log.info("Database maintenance stopped ({})", getStats());
+    }
+    
+    /**
+     * Run a passive WAL checkpoint.
+     * 
+     * @return true if it ran; pages still in use by readers are left for a later checkpoint
+     */
+    public boolean checkpoint() {
+        return run(CHECKPOINT, conn -> {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(PASSIVE)")) {
+                if (rs.next()) {
+                    log.debug("WAL checkpoint: {} of {} frames checkpointed", rs.getInt(3), rs.getInt(2));
+                }
+            }
+        });
+    }
+    
+    /**
+     * Refresh query planner statistics where needed and, if the database uses incremental
+     * auto-vacuum, return up to VACUUM_PAGES free pages to the file system.
+     */
+    public boolean optimize() {
+        return run(OPTIMIZE, conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA optimize");
+                int autoVacuum;
+                try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                    autoVacuum = rs.next() ? rs.getInt(1) : 0;
+                }
+                // 2 = INCREMENTAL; other databases would need a blocking full VACUUM to switch
+                if (autoVacuum == 2) {
+                    stmt.execute("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+                }
+            }
+        });
+    }
+    
+    /**
+     * Back up now if the newest backup is older than the backup interval (or there is none).
+     */
+    public boolean backupIfDue() {
+        try {
+            List<Path> backups = listBackups();
+            if (!backups.isEmpty()) {
+                long age = System.currentTimeMillis() - Files.getLastModifiedTime(backups.get(0)).toMillis();
+                if (age < backupInterval.toMillis()) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list database backups in {}", backupDir, e);
+        }
+        return backup() != null;
+    }
+    
+    /**
+     * Copy the database to a new timestamped file in the backup directory with the SQLite online
+     * backup API, then delete the oldest backups beyond backupsToKeep. The copy is written under a
+     * temporary name first, so an interrupted backup never replaces a good one.
+     * 
+     * @return The backup file, or null if the backup failed
+     */
+    public Path backup() {
+        Path[] result = new Path[1];
+        boolean ok = run(BACKUP, conn -> {
+            Path target = backupDir.resolve(backupPrefix + LocalDateTime.now().format(BACKUP_TIMESTAMP) + ".db");
+            Path temp = backupDir.resolve(target.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(backupDir);
+                int rc = conn.unwrap(SQLiteConnection.class).getDatabase().backup("main", temp.toString(),
+                        (remaining, pageCount) -> { }, BACKUP_SLEEP_MS, BACKUP_BUSY_RETRIES, BACKUP_PAGES_PER_STEP);
+                if (rc != 0) {
+                    throw new SQLException("Backup to " + temp + " failed with SQLite result code " + rc);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Database backed up to {}", target);
+                result[0] = target;
+                rotateBackups();
+            } catch (IOException e) {
+                throw new SQLException("Could not write backup " + target, e);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        });
+        return ok ? result[0] : null;
+    }
+    
+    /**
+     * Backups in the backup directory, newest first.
+     */
+    public List<Path> listBackups() throws IOException {
+        if (!Files.isDirectory(backupDir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(backupDir)) {
+            // Timestamped names sort chronologically
+            return files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(backupPrefix) && name.endsWith(".db");
+                    })
+                    .sorted((a, b) -> b.getFileName().toString().compareTo(a.getFileName().toString()))
+                    .toList();
+        }
+    }
+    
+    private void rotateBackups() throws IOException {
+        List<Path> backups = listBackups();
+        for (Path old : backups.subList(Math.min(backupsToKeep, backups.size()), backups.size())) {
+            Files.deleteIfExists(old);
+            log.info("Deleted old database backup {}", old);
+        }
+    }
+    
+    /**
+     * Timings of each task (CHECKPOINT, OPTIMIZE, BACKUP) since construction.
+     */
+    public Map<String, TaskStats> getStats() {
+        return stats;
+    }
+    
+    @FunctionalInterface
+    private interface Task {
+        void run(Connection conn) throws SQLException, IOException;
+    }
+    
+    private boolean run(String name, Task task) {
+        TaskStats taskStats = stats.get(name);
+        long start = System.nanoTime();
+        boolean ok;
+        try (Connection conn = dbManager.getConnection()) {
+            task.run(conn);
+            ok = true;
+        } catch (SQLException | IOException | RuntimeException e) {
+            log.warn("Database maintenance task {} failed", name, e);
+            ok = false;
+        }
+        long nanos = System.nanoTime() - start;
+        taskStats.record(nanos, ok);
+        log.debug("Database maintenance task {} took {} ms", name, nanos / 1_000_000);
+        return ok;
+    }
+    
+    /**
+     * Run count and timings of one maintenance task.
+     */
+    public static final class TaskStats {
+        private long runs;
+        private long failures;
+        private long totalNanos;
+        private long lastNanos;
+        private long maxNanos;
+        private LocalDateTime lastRun;
+        
+        private synchronized void record(long nanos, boolean ok) {
+            runs++;
+            if (!ok) {
+                failures++;
+            }
+            totalNanos += nanos;
+            lastNanos = nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastRun = LocalDateTime.now();
+        }
+        
+        public synchronized long getRuns() {
+            return runs;
+        }
+        
+        public synchronized long getFailures() {
+            return failures;
+        }
+        
+        public synchronized double getLastMillis() {
+            return lastNanos / 1e6;
+        }
+        
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+        
+        public synchronized double getAverageMillis() {
+            return runs == 0 ? 0 : totalNanos / 1e6 / runs;
+        }
+        
+        public synchronized LocalDateTime getLastRun() {
+            return lastRun;
+        }
+        
+        @Override
+        public synchronized String toString() {
+            return String.format("runs=%d, failures=%d, last=%.1f ms, avg=%.1f ms, max=%.1f ms",
+                    runs, failures, lastNanos / 1e6, getAverageMillis(), maxNanos / 1e6);
+        }
+    }
+}
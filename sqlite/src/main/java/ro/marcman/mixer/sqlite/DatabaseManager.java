@@ -9,25 +9,36 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 /**
- * Manages SQLite database connection and initialization.
+ * Manages SQLite database connections and initialization.
  * Singleton pattern to ensure only one database instance throughout the application.
+ * 
+ * Connections come from a small ConnectionPool: closing them (try-with-resources) returns them
+ * to the pool, and nested getConnection() calls on one thread share a connection.
+ * The schema is brought up to date once, when the first connection is opened (see SchemaMigrator).
  */
 @Slf4j
 public class DatabaseManager {
     
     private static volatile DatabaseManager instance;
     private static final String DB_PATH;
-    private static final String DB_DIR;
-    private static final String DB_URL;
+    
+    // One writer plus readers is plenty for a desktop app; WAL lets readers run beside the writer
+    private static final int MAX_CONNECTIONS = 4;
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+    // Per connection; the repositories use a few dozen distinct statements
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    private static final int BUSY_TIMEOUT_MS = 5_000;
     
     static {
-        // Initialize static paths once when class is loaded
+        // Initialize static path once when class is loaded
         DB_PATH = findDatabasePath();
-        DB_DIR = new File(DB_PATH).getParent();
-        DB_URL = "jdbc:sqlite:" + DB_PATH;
     }
     
-    private Connection connection;
+    private final String databasePath;
+    private final String databaseDir;
+    private final String databaseUrl;
+    private ConnectionPool pool;
+    private volatile boolean schemaInitialized;
     
     /**
      * Find the correct database path.
@@ -68,6 +79,17 @@ public class DatabaseManager {
      * Private constructor for singleton pattern
      */
     private DatabaseManager() {
+        this(DB_PATH);
+    }
+    
+    /**
+     * Create a manager for a specific database file.
+     * Used by tests and tools that must not touch the user's production database.
+     */
+    DatabaseManager(String databasePath) {
+        this.databasePath = databasePath;
+        this.databaseDir = new File(databasePath).getAbsoluteFile().getParent();
+        this.databaseUrl = "jdbc:sqlite:" + databasePath;
         ensureDatabaseDirectoryExists();
     }
     
@@ -90,7 +112,14 @@ public class DatabaseManager {
      * @return Absolute path to the database file
      */
     public String getDatabasePath() {
-        return DB_PATH;
+        return databasePath;
+    }
+    
+    /**
+     * Most connections in use at once; further getConnection() calls wait for one to be returned.
+     */
+    public int getMaxConnections() {
+        return MAX_CONNECTIONS;
     }
     
     /**
@@ -98,285 +127,141 @@ public class DatabaseManager {
      */
     private void ensureDatabaseDirectoryExists() {
         try {
-            File dbDir = new File(DB_DIR);
+            File dbDir = new File(databaseDir);
             if (!dbDir.exists()) {
                 boolean created = dbDir.mkdirs();
                 if (created) {
-                    log.info("Created database directory: {}", DB_DIR);
+                    log.info("Created database directory: {}", databaseDir);
                 } else {
-                    log.error("Failed to create database directory: {}", DB_DIR);
+                    log.error("Failed to create database directory: {}", databaseDir);
                 }
             } else {
-                log.debug("Database directory exists: {}", DB_DIR);
+                log.debug("Database directory exists: {}", databaseDir);
             }
             
             // Check write permissions
             if (!dbDir.canWrite()) {
-                log.error("Database directory is not writable: {}", DB_DIR);
-                throw new RuntimeException("Database directory is not writable: " + DB_DIR);
+                log.error("Database directory is not writable: {}", databaseDir);
+                throw new RuntimeException("Database directory is not writable: " + databaseDir);
             }
         } catch (Exception e) {
             log.error("Error ensuring database directory exists", e);
-            throw new RuntimeException("Failed to create database directory: " + DB_DIR, e);
+            throw new RuntimeException("Failed to create database directory: " + databaseDir, e);
         }
     }
     
+    /**
+     * Get a pooled connection. Close it when done (try-with-resources); that returns it to the pool.
+     * While the calling thread holds a connection, further calls return the same connection.
+     */
     public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(DB_URL);
-            initializeTables();
-            // Enable WAL mode and force immediate writes for fresh data
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute("PRAGMA foreign_keys=ON");
-                stmt.execute("PRAGMA journal_mode=WAL");
-                stmt.execute("PRAGMA synchronous=NORMAL");
-            } catch (SQLException e) {
-                log.warn("Could not set PRAGMA settings", e);
+        Connection connection = pool().borrow();
+        if (!schemaInitialized) {
+            synchronized (this) {
+                if (!schemaInitialized) {
+                    try {
+                        new SchemaMigrator().migrate(connection);
+                    } catch (SQLException | RuntimeException e) {
+                        connection.close();
+                        throw e;
+                    }
+                    schemaInitialized = true;
+                }
             }
         }
         return connection;
     }
     
-    /**
-     * Force close current connection to ensure fresh data on next access
-     */
-    public void resetConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                connection = null;
-                log.info("Database connection reset");
-            }
-        } catch (SQLException e) {
-            log.warn("Error closing connection", e);
+    private synchronized ConnectionPool pool() {
+        if (pool == null) {
+            pool = new ConnectionPool(this::openConnection, MAX_CONNECTIONS, BORROW_TIMEOUT_MS, STATEMENT_CACHE_SIZE);
         }
+        return pool;
     }
     
-    private void initializeTables() {
+    private Connection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(databaseUrl);
+        // Enable WAL mode and force immediate writes for fresh data
         try (Statement stmt = connection.createStatement()) {
-            // Ingredients table with IFRA data
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS ingredients (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    name TEXT NOT NULL,
-                    description TEXT,
-                    category TEXT,
-                    cas_number TEXT,
-                    ifra_naturals_category TEXT,
-                    ifra_status TEXT,
-                    arduino_uid TEXT,
-                    arduino_pin INTEGER,
-                    arduino_uid_small TEXT,
-                    arduino_pin_small INTEGER,
-                    default_duration INTEGER,
-                    ms_per_gram_large INTEGER,
-                    ms_per_gram_small INTEGER,
-                    pump_threshold_grams REAL,
-                    concentration REAL,
-                    unit TEXT,
-                    cost_per_unit REAL,
-                    stock_quantity REAL,
-                    supplier TEXT,
-                    batch_number TEXT,
-                    master_ingredient_id INTEGER,
-                    active INTEGER DEFAULT 1,
-                    FOREIGN KEY (master_ingredient_id) REFERENCES ingredients(id) ON DELETE SET NULL
-                )
-            """);
-            
-            // Recipes table
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS recipes (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    name TEXT NOT NULL,
-                    description TEXT,
-                    category TEXT,
-                    created_at TEXT,
-                    updated_at TEXT,
-                    created_by TEXT,
-                    batch_size INTEGER,
-                    notes TEXT,
-                    active INTEGER DEFAULT 1
-                )
-            """);
-            
-            // Recipe Ingredients table
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS recipe_ingredients (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    recipe_id INTEGER NOT NULL,
-                    ingredient_id INTEGER NOT NULL,
-                    quantity REAL,
-                    unit TEXT,
-                    pulse_duration INTEGER,
-                    sequence_order INTEGER,
-                    notes TEXT,
-                    FOREIGN KEY (recipe_id) REFERENCES recipes(id) ON DELETE CASCADE,
-                    FOREIGN KEY (ingredient_id) REFERENCES ingredients(id) ON DELETE CASCADE
-                )
-            """);
-            
-            // Migrate existing tables to add new columns if they don't exist
-            migrateIngredientsTable();
-            
-            log.info("Database tables initialized successfully");
+            stmt.execute("PRAGMA foreign_keys=ON");
+            // Only takes effect on a new, empty database; lets DatabaseMaintenance free pages incrementally
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            // Several connections share the file: wait for a competing writer instead of failing with SQLITE_BUSY
+            stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
         } catch (SQLException e) {
-            log.error("Error initializing database tables", e);
+            log.warn("Could not set PRAGMA settings", e);
         }
+        return connection;
     }
     
-    private void migrateIngredientsTable() {
-        try (Statement stmt = connection.createStatement()) {
-            // Check and add arduino_uid_small column
-            try {
-                stmt.execute("ALTER TABLE ingredients ADD COLUMN arduino_uid_small TEXT");
-                log.info("Added column arduino_uid_small to ingredients table");
-            } catch (SQLException e) {
-                if (e.getMessage().contains("duplicate column")) {
-                    log.debug("Column arduino_uid_small already exists");
-                } else {
-                    throw e;
-                }
-            }
-            
-            // Check and add ms_per_gram_large column
-            try {
-                stmt.execute("ALTER TABLE ingredients ADD COLUMN ms_per_gram_large INTEGER");
-                log.info("Added column ms_per_gram_large to ingredients table");
-            } catch (SQLException e) {
-                if (e.getMessage().contains("duplicate column")) {
-                    log.debug("Column ms_per_gram_large already exists");
-                } else {
-                    throw e;
-                }
-            }
-            
-            // Check and add ms_per_gram_small column
-            try {
-                stmt.execute("ALTER TABLE ingredients ADD COLUMN ms_per_gram_small INTEGER");
-                log.info("Added column ms_per_gram_small to ingredients table");
-            } catch (SQLException e) {
-                if (e.getMessage().contains("duplicate column")) {
-                    log.debug("Column ms_per_gram_small already exists");
-                } else {
-                    throw e;
-                }
-            }
-            
-            // Check and add pump_threshold_grams column
-            try {
-                stmt.execute("ALTER TABLE ingredients ADD COLUMN pump_threshold_grams REAL");
-                log.info("Added column pump_threshold_grams to ingredients table");
-            } catch (SQLException e) {
-                if (e.getMessage().contains("duplicate column")) {
-                    log.debug("Column pump_threshold_grams already exists");
-                } else {
-                    throw e;
-                }
-            }
-            
-            // Check and add master_ingredient_id column
-            try {
-                stmt.execute("ALTER TABLE ingredients ADD COLUMN master_ingredient_id INTEGER");
-                log.info("Added column master_ingredient_id to ingredients table");
-            } catch (SQLException e) {
-                if (e.getMessage().contains("duplicate column")) {
-                    log.debug("Column master_ingredient_id already exists");
-                } else {
-                    throw e;
-                }
-            }
-            
-            // Remove UNIQUE constraint on cas_number if it exists (SQLite doesn't support DROP CONSTRAINT directly)
-            // We need to recreate the table. Check if we need to do this migration.
-            try {
-                // Try to insert duplicate CAS to see if UNIQUE constraint exists
-                stmt.execute("PRAGMA table_info(ingredients)");
-            } catch (SQLException e) {
-                log.debug("Could not check table info", e);
-            }
-        } catch (SQLException e) {
-            log.error("Error migrating ingredients table", e);
+    /**
+     * Close idle pooled connections; connections in use are closed when they are returned.
+     * Not needed to see fresh data: every pooled connection reads the latest committed state.
+     */
+    public void resetConnection() {
+        ConnectionPool current;
+        synchronized (this) {
+            current = pool;
         }
-        
-        // Remove UNIQUE constraint on cas_number by recreating table if needed
-        try (Statement migrateStmt = connection.createStatement()) {
-            // Check if we need to migrate (old schema with UNIQUE constraint)
-            boolean needsMigration = false;
-            try (java.sql.ResultSet rs = migrateStmt.executeQuery(
-                    "SELECT sql FROM sqlite_master WHERE type='table' AND name='ingredients'")) {
-                if (rs.next()) {
-                    String createSql = rs.getString("sql");
-                    if (createSql != null && createSql.contains("cas_number TEXT UNIQUE")) {
-                        needsMigration = true;
-                        log.info("Detected UNIQUE constraint on cas_number, will migrate table");
-                    }
-                }
-            }
-            
-            if (needsMigration) {
-                log.info("Migrating ingredients table to remove UNIQUE constraint on cas_number");
-                
-                // Create new table without UNIQUE
-                migrateStmt.execute("""
-                    CREATE TABLE ingredients_new (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        name TEXT NOT NULL,
-                        description TEXT,
-                        category TEXT,
-                        cas_number TEXT,
-                        ifra_naturals_category TEXT,
-                        ifra_status TEXT,
-                        arduino_uid TEXT,
-                        arduino_pin INTEGER,
-                        arduino_uid_small TEXT,
-                        arduino_pin_small INTEGER,
-                        default_duration INTEGER,
-                        ms_per_gram_large INTEGER,
-                        ms_per_gram_small INTEGER,
-                        pump_threshold_grams REAL,
-                        concentration REAL,
-                        unit TEXT,
-                        cost_per_unit REAL,
-                        stock_quantity REAL,
-                        supplier TEXT,
-                        batch_number TEXT,
-                        master_ingredient_id INTEGER,
-                        active INTEGER DEFAULT 1,
-                        FOREIGN KEY (master_ingredient_id) REFERENCES ingredients_new(id) ON DELETE SET NULL
-                    )
-                """);
-                
-                // Copy data
-                migrateStmt.execute("""
-                    INSERT INTO ingredients_new 
-                    SELECT id, name, description, category, cas_number, ifra_naturals_category, ifra_status,
-                           arduino_uid, arduino_pin, arduino_uid_small, arduino_pin_small, default_duration,
-                           ms_per_gram_large, ms_per_gram_small, pump_threshold_grams, concentration, unit,
-                           cost_per_unit, stock_quantity, supplier, batch_number, NULL as master_ingredient_id, active
-                    FROM ingredients
-                """);
-                
-                // Drop old table
-                migrateStmt.execute("DROP TABLE ingredients");
-                
-                // Rename new table
-                migrateStmt.execute("ALTER TABLE ingredients_new RENAME TO ingredients");
-                
-                log.info("Successfully migrated ingredients table - removed UNIQUE constraint on cas_number");
-            }
-        } catch (SQLException e) {
-            log.error("Error removing UNIQUE constraint from cas_number", e);
+        if (current != null) {
+            current.closeIdle();
+            log.info("Idle database connections closed");
         }
     }
     
-    public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            log.error("Error closing database connection", e);
+    /**
+     * Number of physical connections opened so far.
+     */
+    public synchronized long getOpenedConnectionCount() {
+        return pool != null ? pool.getOpenedCount() : 0;
+    }
+    
+    /**
+     * Number of getConnection() calls served by an idle pooled connection.
+     */
+    public synchronized long getReusedConnectionCount() {
+        return pool != null ? pool.getReusedCount() : 0;
+    }
+    
+    /**
+     * Number of getConnection() calls that shared the connection already held by the calling thread.
+     */
+    public synchronized long getNestedConnectionCount() {
+        return pool != null ? pool.getNestedCount() : 0;
+    }
+    
+    /**
+     * Number of prepareStatement() calls that reused a statement cached on the connection.
+     */
+    public synchronized long getStatementCacheHitCount() {
+        return pool != null ? pool.getStatementHitCount() : 0;
+    }
+    
+    /**
+     * Number of prepareStatement() calls that had SQLite parse and plan the statement.
+     */
+    public synchronized long getStatementCacheMissCount() {
+        return pool != null ? pool.getStatementMissCount() : 0;
+    }
+    
+    /**
+     * Fraction of prepareStatement() calls served by the statement cache (0.0 - 1.0).
+     */
+    public synchronized double getStatementCacheHitRatio() {
+        long hits = getStatementCacheHitCount();
+        long total = hits + getStatementCacheMissCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+    
+    /**
+     * Close all pooled connections. A later getConnection() starts a new pool.
+     */
+    public synchronized void close() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
     }
 }
@@ -5,28 +5,140 @@ import ro.marcman.mixer.core.model.Ingredient;
 import ro.marcman.mixer.core.ports.repository.IngredientRepository;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 /**
  * Utility to import IFRA Transparency List data from CSV into database.
  * 
- * CSV format: cas_number,name,ifra_naturals_category,category,description
+ * Columns are found by header name (name, cas_number, category, ifra_ncs or ifra_naturals_category,
+ * description); files without a recognised header are read as name,cas_number,category,ifra_ncs,description.
+ * 
+ * importBulk() streams the file and inserts in batched transactions, skipping rows whose CAS number
+ * and name are already in the database. importDelta() also updates changed rows and deactivates
+ * missing ones. Both write to the ingredients table directly, so a running application must invalidate
+ * its ingredient cache afterwards.
+ * 
+ * Both imports are a pipeline: a reader thread cuts the file into chunks of raw records, a pool of
+ * parser threads splits and validates the chunks, and the calling thread writes them in file order on
+ * one connection. The queue between reader and writer is bounded, so the reader stops getting ahead
+ * when the writer falls behind, and import time is bounded by SQLite write speed rather than parsing.
  */
 @Slf4j
 public class IfraDataImporter {
     
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    
+    // Chunks waiting to be written, per parser thread
+    private static final int QUEUED_CHUNKS_PER_PARSER = 2;
+    private static final long QUEUE_POLL_MS = 100;
+    
+    // Marks the end of the file in the chunk queue
+    private static final ParsedChunk END_OF_FILE = new ParsedChunk(0);
+    
+    private static final Pattern CAS_NUMBER = Pattern.compile("\\d{2,7}-\\d{2}-\\d");
+    
+    private static final String INSERT_SQL = """
+        INSERT INTO ingredients (name, cas_number, category, ifra_naturals_category, ifra_status, description,
+                                 import_hash, active)
+        VALUES (?, ?, ?, ?, ?, ?, ?, 1)
+    """;
+    
+    private static final String INSERT_IF_ABSENT_SQL = """
+        INSERT INTO ingredients (name, cas_number, category, ifra_naturals_category, ifra_status, description,
+                                 import_hash, active)
+        SELECT ?, ?, ?, ?, ?, ?, ?, 1
+        WHERE NOT EXISTS (
+            SELECT 1 FROM ingredients
+            WHERE lower(trim(cas_number)) = lower(trim(?)) AND lower(trim(name)) = lower(trim(?))
+        )
+    """;
+    
+    // Only the columns that come from the IFRA list; pins, calibration, stock and master links are kept
+    private static final String UPDATE_IMPORTED_SQL = """
+        UPDATE ingredients SET name = ?, cas_number = ?, category = ?, ifra_naturals_category = ?,
+                               ifra_status = ?, description = ?, import_hash = ?, active = 1
+        WHERE id = ?
+    """;
+    
     private final IngredientRepository repository;
+    private final DatabaseManager dbManager;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
     
     public IfraDataImporter(IngredientRepository repository) {
         this.repository = repository;
+        this.dbManager = null;
+    }
+    
+    /**
+     * Importer that can also use importBulk(), which needs direct database access.
+     */
+    public IfraDataImporter(DatabaseManager dbManager) {
+        this.repository = new IngredientRepositoryImpl(dbManager);
+        this.dbManager = dbManager;
+    }
+    
+    /**
+     * Rows read per chunk by importBulk(). The valid rows of a chunk are inserted in one transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * Number of threads parsing and validating chunks in importBulk().
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
     }
     
     /**
-     * Import ingredients from IFRA CSV file.
+     * Import ingredients from IFRA CSV file, saving each row through the repository.
      * 
      * @param csvFilePath Path to CSV file
      * @return Number of ingredients imported
@@ -44,22 +156,26 @@ public class IfraDataImporter {
         int skipped = 0;
         int errors = 0;
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
-            // Skip header line
-            String header = reader.readLine();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            CsvParser parser = new CsvParser(reader);
+            List<String> header = parser.next();
             log.debug("CSV header: {}", header);
+            Columns columns = Columns.fromHeader(header);
             
-            String line;
-            while ((line = reader.readLine()) != null) {
+            List<String> fields;
+            while ((fields = parser.next()) != null) {
+                Ingredient ingredient = toIngredient(fields, columns);
+                if (ingredient == null) {
+                    log.debug("Skipping line {}: missing CAS number or name", parser.getRecordLineNumber());
+                    skipped++;
+                    continue;
+                }
                 try {
-                    if (importLine(line)) {
-                        imported++;
-                    } else {
-                        skipped++;
-                    }
+                    repository.save(ingredient);
+                    imported++;
                 } catch (Exception e) {
                     errors++;
-                    log.error("Error importing line: {}", line, e);
+                    log.error("Error importing line {}: {}", parser.getRecordLineNumber(), fields, e);
                 }
             }
             
@@ -72,28 +188,491 @@ public class IfraDataImporter {
         return imported;
     }
     
-    private boolean importLine(String line) {
-        // Parse CSV line
-        String[] parts = parseCsvLine(line);
-        if (parts.length < 3) {
-            log.warn("Invalid CSV line (too few columns): {}", line);
-            return false;
+    /**
+     * Import ingredients from IFRA CSV file in batched transactions.
+     * 
+     * Rows whose CAS number and name (both compared case-insensitively) already exist, in the database
+     * or earlier in the file, are skipped, so importing a file twice adds nothing the second time.
+     * A batch that fails is rolled back and reported; batches committed before it are kept.
+     * 
+     * @param csvFile Path to CSV file
+     * @return Counts and timing of the import
+     */
+    public ImportResult importBulk(Path csvFile) {
+        return runPipeline(csvFile, "bulk", BulkWriter::new);
+    }
+    
+    /**
+     * Bring the database in line with an updated IFRA CSV file, touching only the rows that changed.
+     * 
+     * Each row is matched to a stored ingredient by CAS number and name and compared by content hash:
+     * <ul>
+     *   <li>same hash: left alone</li>
+     *   <li>different hash: IFRA columns (name, CAS, categories, status, description) are updated;
+     *       Arduino pins, pump calibration, stock and master links are kept</li>
+     *   <li>no match: inserted, or taken as a rename when it is the only new row for a CAS number
+     *       whose only unmatched imported ingredient has another name</li>
+     *   <li>imported ingredients missing from the file: deactivated, and reactivated if they come back</li>
+     * </ul>
+     * Only rows written by an import carry a hash, so ingredients created by hand are never deactivated.
+     * Rows imported before hashes were stored get their hash on the first delta import.
+     * Nothing is deactivated if a batch failed, since its rows would look missing.
+     * 
+     * @param csvFile Path to CSV file
+     * @return Counts and timing of the import
+     */
+    public ImportResult importDelta(Path csvFile) {
+        return runPipeline(csvFile, "delta", DeltaWriter::new);
+    }
+    
+    private ImportResult runPipeline(Path csvFile, String mode, ChunkWriterFactory writerFactory) {
+        if (dbManager == null) {
+            throw new IllegalStateException("Bulk import needs an importer created with a DatabaseManager");
+        }
+        log.info("Starting {} IFRA import from: {} (batch size {}, {} parser threads)",
+                mode, csvFile, batchSize, parallelism);
+        ImportResult result = new ImportResult();
+        long start = System.nanoTime();
+        
+        ForkJoinPool parsers = new ForkJoinPool(parallelism);
+        BlockingQueue<Future<ParsedChunk>> chunks = new ArrayBlockingQueue<>(parallelism * QUEUED_CHUNKS_PER_PARSER);
+        AtomicBoolean stopped = new AtomicBoolean();
+        
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)) {
+            CsvParser parser = new CsvParser(reader);
+            String header = parser.nextRecord();
+            Columns columns = Columns.fromHeader(header == null ? null : CsvParser.splitFields(header));
+            
+            Thread readerThread = Thread.ofPlatform().name("ifra-import-reader").daemon().start(
+                    () -> readChunks(parser, columns, parsers, chunks, stopped));
+            try (Connection conn = dbManager.getConnection();
+                 ChunkWriter writer = writerFactory.open(conn)) {
+                
+                ParsedChunk chunk;
+                while ((chunk = chunks.take().get()) != END_OF_FILE) {
+                    result.rowsRead += chunk.rowsRead;
+                    result.invalid += chunk.errors.size();
+                    chunk.errors.forEach(result::addError);
+                    if (!chunk.rows.isEmpty()) {
+                        List<ImportRow> rows = chunk.rows;
+                        inTransaction(conn, rows, result, batch -> writer.write(rows, batch));
+                    }
+                }
+                long failed = result.failed;
+                inTransaction(conn, List.of(), result, batch -> writer.finish(batch, failed));
+            } finally {
+                // Release a reader blocked on a full queue if the writer stopped early
+                stopped.set(true);
+                chunks.clear();
+                readerThread.join();
+            }
+            
+        } catch (IOException | SQLException e) {
+            log.error("IFRA import of {} failed", csvFile, e);
+            result.addError(e.getMessage());
+        } catch (ExecutionException e) {
+            log.error("IFRA import of {} failed", csvFile, e.getCause());
+            result.addError(e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.addError("import interrupted");
+        } finally {
+            parsers.shutdownNow();
+        }
+        
+        result.elapsedNanos = System.nanoTime() - start;
+        log.info("IFRA {} import completed: {}", mode, result);
+        return result;
+    }
+    
+    /**
+     * Reader stage: cut the file into chunks of raw records and hand each to a parser thread. The
+     * futures are queued in file order, so the writer sees the rows in the order of the file.
+     */
+    private void readChunks(CsvParser parser, Columns columns, ForkJoinPool parsers,
+                            BlockingQueue<Future<ParsedChunk>> chunks, AtomicBoolean stopped) {
+        try {
+            Future<ParsedChunk> end;
+            try {
+                List<String> records = new ArrayList<>(batchSize);
+                long[] lineNumbers = new long[batchSize];
+                String record;
+                // Stop reading as soon as the writer gives up; nothing more would be written
+                while (!stopped.get() && (record = parser.nextRecord()) != null) {
+                    lineNumbers[records.size()] = parser.getRecordLineNumber();
+                    records.add(record);
+                    if (records.size() == batchSize) {
+                        enqueue(parsers.submit(parseTask(records, lineNumbers, columns)), chunks, stopped);
+                        records = new ArrayList<>(batchSize);
+                        lineNumbers = new long[batchSize];
+                    }
+                }
+                if (!records.isEmpty() && !stopped.get()) {
+                    enqueue(parsers.submit(parseTask(records, lineNumbers, columns)), chunks, stopped);
+                }
+                end = CompletableFuture.completedFuture(END_OF_FILE);
+            } catch (IOException e) {
+                // The writer rethrows it when it reaches this point of the file
+                end = CompletableFuture.failedFuture(e);
+            }
+            enqueue(end, chunks, stopped);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void enqueue(Future<ParsedChunk> chunk, BlockingQueue<Future<ParsedChunk>> chunks,
+                                AtomicBoolean stopped) throws InterruptedException {
+        while (!stopped.get()) {
+            if (chunks.offer(chunk, QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        chunk.cancel(false);
+    }
+    
+    /**
+     * Parser stage: split, validate and hash one chunk of records.
+     */
+    private static Callable<ParsedChunk> parseTask(List<String> records, long[] lineNumbers, Columns columns) {
+        return () -> {
+            ParsedChunk chunk = new ParsedChunk(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                chunk.rowsRead++;
+                try {
+                    Ingredient ingredient = toIngredient(CsvParser.splitFields(records.get(i)), columns);
+                    if (ingredient == null) {
+                        chunk.errors.add(ImportResult.lineError(lineNumbers[i], "missing CAS number or name"));
+                    } else {
+                        chunk.rows.add(new ImportRow(lineNumbers[i], ingredient));
+                    }
+                } catch (RuntimeException e) {
+                    chunk.errors.add(ImportResult.lineError(lineNumbers[i], e.toString()));
+                }
+            }
+            return chunk;
+        };
+    }
+    
+    /**
+     * Writer stage: run one batch of writes in a transaction. Its counts are added to the result only
+     * once it commits; if it fails, it is rolled back and its rows are counted as failed.
+     */
+    private static void inTransaction(Connection conn, List<ImportRow> rows, ImportResult result,
+                                      BatchWork work) throws SQLException {
+        long start = System.nanoTime();
+        ImportResult batch = new ImportResult();
+        conn.setAutoCommit(false);
+        try {
+            work.write(batch);
+            conn.commit();
+            result.add(batch);
+            if (!rows.isEmpty()) {
+                result.batches++;
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            result.failed += rows.size();
+            String lines = rows.isEmpty() ? "final step"
+                    : "lines " + rows.get(0).lineNumber + "-" + rows.get(rows.size() - 1).lineNumber;
+            result.addError(lines + " rolled back: " + e.getMessage());
+            log.error("Error writing import batch, {} rolled back", lines, e);
+        } finally {
+            conn.setAutoCommit(true);
+            result.writeNanos += System.nanoTime() - start;
+        }
+    }
+    
+    /**
+     * Hex SHA-256 of the imported columns of a row. Unit separators keep adjacent fields apart.
+     */
+    static String contentHash(Ingredient ingredient) {
+        String content = String.join("\u001f",
+                ingredient.getName(),
+                ingredient.getCasNumber(),
+                Objects.toString(ingredient.getCategory(), ""),
+                Objects.toString(ingredient.getIfraNaturalsCategory(), ""),
+                Objects.toString(ingredient.getIfraStatus(), ""),
+                Objects.toString(ingredient.getDescription(), ""));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static void setImportParameters(PreparedStatement pstmt, ImportRow row) throws SQLException {
+        Ingredient ingredient = row.ingredient;
+        pstmt.setString(1, ingredient.getName());
+        pstmt.setString(2, ingredient.getCasNumber());
+        pstmt.setString(3, ingredient.getCategory());
+        pstmt.setString(4, ingredient.getIfraNaturalsCategory());
+        pstmt.setString(5, ingredient.getIfraStatus());
+        pstmt.setString(6, ingredient.getDescription());
+        pstmt.setString(7, row.hash);
+    }
+    
+    @FunctionalInterface
+    private interface BatchWork {
+        void write(ImportResult batch) throws SQLException;
+    }
+    
+    /**
+     * Writer stage of one import mode. write() is called once per chunk and finish() once after the
+     * last chunk, each inside its own transaction.
+     */
+    private interface ChunkWriter extends AutoCloseable {
+        void write(List<ImportRow> rows, ImportResult batch) throws SQLException;
+        
+        /**
+         * @param failedRows Rows of earlier chunks that were rolled back
+         */
+        default void finish(ImportResult batch, long failedRows) throws SQLException {
+        }
+        
+        @Override
+        void close() throws SQLException;
+    }
+    
+    @FunctionalInterface
+    private interface ChunkWriterFactory {
+        ChunkWriter open(Connection conn) throws SQLException;
+    }
+    
+    /**
+     * Inserts rows not yet in the database; see importBulk().
+     */
+    private static final class BulkWriter implements ChunkWriter {
+        private final PreparedStatement insert;
+        
+        private BulkWriter(Connection conn) throws SQLException {
+            this.insert = conn.prepareStatement(INSERT_IF_ABSENT_SQL);
+        }
+        
+        @Override
+        public void write(List<ImportRow> rows, ImportResult batch) throws SQLException {
+            try {
+                for (ImportRow row : rows) {
+                    setImportParameters(insert, row);
+                    insert.setString(8, row.ingredient.getCasNumber());
+                    insert.setString(9, row.ingredient.getName());
+                    insert.addBatch();
+                }
+                for (int count : insert.executeBatch()) {
+                    if (count > 0) {
+                        batch.inserted++;
+                    } else {
+                        batch.duplicates++;
+                    }
+                }
+            } finally {
+                insert.clearBatch();
+            }
+        }
+        
+        @Override
+        public void close() throws SQLException {
+            insert.close();
+        }
+    }
+    
+    /**
+     * Applies only the differences between the file and the database; see importDelta().
+     * The CAS number, name, hash and state of every ingredient with a CAS number are held in memory.
+     */
+    private static final class DeltaWriter implements ChunkWriter {
+        private final PreparedStatement insert;
+        private final PreparedStatement update;
+        private final Map<String, List<StoredRow>> storedByCas = new HashMap<>();
+        // Rows without a stored match, kept until the whole file is known to tell renames from new rows
+        private final Map<String, List<ImportRow>> unmatchedByCas = new LinkedHashMap<>();
+        
+        private DeltaWriter(Connection conn) throws SQLException {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("""
+                     SELECT id, name, cas_number, import_hash, active FROM ingredients
+                     WHERE cas_number IS NOT NULL
+                 """)) {
+                while (rs.next()) {
+                    String cas = key(rs.getString("cas_number"));
+                    if (!cas.isEmpty()) {
+                        storedByCas.computeIfAbsent(cas, k -> new ArrayList<>()).add(new StoredRow(
+                                rs.getLong("id"), key(rs.getString("name")),
+                                rs.getString("import_hash"), rs.getBoolean("active")));
+                    }
+                }
+            }
+            this.insert = conn.prepareStatement(INSERT_SQL);
+            this.update = conn.prepareStatement(UPDATE_IMPORTED_SQL);
+        }
+        
+        @Override
+        public void write(List<ImportRow> rows, ImportResult batch) throws SQLException {
+            for (ImportRow row : rows) {
+                String cas = key(row.ingredient.getCasNumber());
+                String name = key(row.ingredient.getName());
+                StoredRow stored = find(cas, name);
+                if (stored == null) {
+                    List<ImportRow> unmatched = unmatchedByCas.computeIfAbsent(cas, k -> new ArrayList<>());
+                    if (unmatched.stream().anyMatch(r -> key(r.ingredient.getName()).equals(name))) {
+                        batch.duplicates++;
+                    } else {
+                        unmatched.add(row);
+                    }
+                } else if (stored.seen) {
+                    batch.duplicates++;
+                } else {
+                    apply(stored, row, batch);
+                }
+            }
+            flush(update);
+        }
+        
+        @Override
+        public void finish(ImportResult batch, long failedRows) throws SQLException {
+            for (Map.Entry<String, List<ImportRow>> entry : unmatchedByCas.entrySet()) {
+                List<ImportRow> rows = entry.getValue();
+                List<StoredRow> renameCandidates = storedByCas.getOrDefault(entry.getKey(), List.of()).stream()
+                        .filter(stored -> !stored.seen && stored.hash != null)
+                        .toList();
+                if (rows.size() == 1 && renameCandidates.size() == 1) {
+                    apply(renameCandidates.get(0), rows.get(0), batch);
+                    continue;
+                }
+                for (ImportRow row : rows) {
+                    setImportParameters(insert, row);
+                    insert.addBatch();
+                    batch.inserted++;
+                }
+            }
+            flush(insert);
+            flush(update);
+            unmatchedByCas.clear();
+            
+            if (failedRows > 0) {
+                log.warn("Skipping deactivation because {} rows failed to import", failedRows);
+                return;
+            }
+            List<Long> missing = new ArrayList<>();
+            for (List<StoredRow> rows : storedByCas.values()) {
+                for (StoredRow stored : rows) {
+                    if (!stored.seen && stored.hash != null && stored.active) {
+                        missing.add(stored.id);
+                    }
+                }
+            }
+            try (PreparedStatement deactivate = insert.getConnection().prepareStatement(
+                    "UPDATE ingredients SET active = 0 WHERE id = ?")) {
+                for (Long id : missing) {
+                    deactivate.setLong(1, id);
+                    deactivate.addBatch();
+                }
+                deactivate.executeBatch();
+            }
+            batch.deactivated += missing.size();
+        }
+        
+        private StoredRow find(String cas, String name) {
+            for (StoredRow stored : storedByCas.getOrDefault(cas, List.of())) {
+                if (stored.name.equals(name)) {
+                    return stored;
+                }
+            }
+            return null;
+        }
+        
+        private void apply(StoredRow stored, ImportRow row, ImportResult batch) throws SQLException {
+            stored.seen = true;
+            if (row.hash.equals(stored.hash) && stored.active) {
+                batch.unchanged++;
+                return;
+            }
+            setImportParameters(update, row);
+            update.setLong(8, stored.id);
+            update.addBatch();
+            batch.updated++;
+        }
+        
+        private static void flush(PreparedStatement statement) throws SQLException {
+            try {
+                statement.executeBatch();
+            } finally {
+                statement.clearBatch();
+            }
+        }
+        
+        private static String key(String value) {
+            return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        }
+        
+        @Override
+        public void close() throws SQLException {
+            try {
+                insert.close();
+            } finally {
+                update.close();
+            }
+        }
+    }
+    
+    /**
+     * An ingredient already in the database, as seen by the delta import.
+     */
+    private static final class StoredRow {
+        private final long id;
+        private final String name;
+        private final String hash;
+        private final boolean active;
+        // Matched by a row of the file
+        private boolean seen;
+        
+        private StoredRow(long id, String name, String hash, boolean active) {
+            this.id = id;
+            this.name = name;
+            this.hash = hash;
+            this.active = active;
+        }
+    }
+    
+    /**
+     * A valid CSV row with the line it starts on and its content hash.
+     */
+    private static final class ImportRow {
+        private final long lineNumber;
+        private final Ingredient ingredient;
+        private final String hash;
+        
+        private ImportRow(long lineNumber, Ingredient ingredient) {
+            this.lineNumber = lineNumber;
+            this.ingredient = ingredient;
+            this.hash = contentHash(ingredient);
         }
+    }
+    
+    /**
+     * Build the ingredient for one CSV record, or null when it has no CAS number or name.
+     */
+    static Ingredient toIngredient(List<String> fields, Columns columns) {
+        String name = columns.get(fields, columns.name);
+        String casNumber = columns.get(fields, columns.casNumber);
+        String category = columns.get(fields, columns.category);
+        String ifraNaturalsCategory = columns.get(fields, columns.ifraNaturalsCategory);
+        String description = columns.get(fields, columns.description);
         
-        String name = parts[0].trim();  // FIXED: First column is NAME
-        String casNumber = parts[1].trim();  // FIXED: Second column is CAS NUMBER
-        String category = parts.length > 2 ? parts[2].trim() : "";
-        String ifraNaturalsCategory = parts.length > 3 ? parts[3].trim() : "";
-        String description = parts.length > 4 ? parts[4].trim() : "";
+        // Some exported files label the columns name,cas_number but hold CAS first
+        if (CAS_NUMBER.matcher(name).matches() && !CAS_NUMBER.matcher(casNumber).matches()) {
+            String swap = name;
+            name = casNumber;
+            casNumber = swap;
+        }
         
-        // Skip if CAS number or name is empty
         if (casNumber.isEmpty() || name.isEmpty()) {
-            log.debug("Skipping line with empty CAS or name: {}", line);
-            return false;
+            return null;
         }
         
-        // Create ingredient
-        Ingredient ingredient = Ingredient.builder()
+        return Ingredient.builder()
                 .name(name)
                 .casNumber(casNumber)
                 .ifraNaturalsCategory(ifraNaturalsCategory.isEmpty() ? null : ifraNaturalsCategory)
@@ -102,43 +681,181 @@ public class IfraDataImporter {
                 .description(description.isEmpty() ? null : description)
                 .active(true)
                 .build();
+    }
+    
+    /**
+     * Positions of the IFRA columns in a CSV file.
+     */
+    static final class Columns {
+        private int name = 0;
+        private int casNumber = 1;
+        private int category = 2;
+        private int ifraNaturalsCategory = 3;
+        private int description = 4;
         
-        try {
-            repository.save(ingredient);
-            log.debug("Imported: {} (CAS: {})", name, casNumber);
-            return true;
-        } catch (Exception e) {
-            // Might be duplicate CAS number
-            log.warn("Failed to import {} (CAS: {}): {}", name, casNumber, e.getMessage());
-            return false;
+        /**
+         * Map columns by header name, keeping the default position for any column not found.
+         */
+        static Columns fromHeader(List<String> header) {
+            Columns columns = new Columns();
+            if (header == null) {
+                return columns;
+            }
+            List<String> names = new ArrayList<>(header.size());
+            for (String column : header) {
+                names.add(column.trim().toLowerCase(Locale.ROOT));
+            }
+            if (!names.contains("name") || !names.contains("cas_number")) {
+                return columns;
+            }
+            columns.name = names.indexOf("name");
+            columns.casNumber = names.indexOf("cas_number");
+            columns.category = names.indexOf("category");
+            columns.ifraNaturalsCategory = names.contains("ifra_ncs")
+                    ? names.indexOf("ifra_ncs") : names.indexOf("ifra_naturals_category");
+            columns.description = names.indexOf("description");
+            return columns;
+        }
+        
+        private String get(List<String> fields, int index) {
+            return index >= 0 && index < fields.size() ? fields.get(index).trim() : "";
         }
     }
     
     /**
-     * Parse CSV line handling quoted fields and commas within quotes.
+     * Rows of one chunk after parsing, with the errors of the rows that were left out.
      */
-    private String[] parseCsvLine(String line) {
-        java.util.List<String> result = new java.util.ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder field = new StringBuilder();
+    private static final class ParsedChunk {
+        private final List<ImportRow> rows;
+        private final List<String> errors = new ArrayList<>();
+        private long rowsRead;
         
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(field.toString());
-                field = new StringBuilder();
-            } else {
-                field.append(c);
+        private ParsedChunk(int size) {
+            this.rows = new ArrayList<>(size);
+        }
+    }
+    
+    /**
+     * Outcome of a bulk import.
+     */
+    public static final class ImportResult {
+        private static final int MAX_ERRORS = 100;
+        
+        private long rowsRead;
+        private long inserted;
+        private long updated;
+        private long unchanged;
+        private long deactivated;
+        private long duplicates;
+        private long invalid;
+        private long failed;
+        private long batches;
+        private long elapsedNanos;
+        private long writeNanos;
+        private final List<String> errors = new ArrayList<>();
+        
+        private static String lineError(long lineNumber, String message) {
+            return "line " + lineNumber + ": " + message;
+        }
+        
+        private void addError(String error) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
             }
         }
         
-        // Add last field
-        result.add(field.toString());
+        private void add(ImportResult batch) {
+            inserted += batch.inserted;
+            updated += batch.updated;
+            unchanged += batch.unchanged;
+            deactivated += batch.deactivated;
+            duplicates += batch.duplicates;
+        }
+        
+        public long getRowsRead() {
+            return rowsRead;
+        }
+        
+        public long getInserted() {
+            return inserted;
+        }
+        
+        /**
+         * Delta import: stored ingredients whose IFRA columns were rewritten.
+         */
+        public long getUpdated() {
+            return updated;
+        }
+        
+        /**
+         * Delta import: rows whose content hash matched the stored ingredient.
+         */
+        public long getUnchanged() {
+            return unchanged;
+        }
+        
+        /**
+         * Delta import: imported ingredients missing from the file.
+         */
+        public long getDeactivated() {
+            return deactivated;
+        }
+        
+        /**
+         * Rows skipped because their CAS number and name were already imported.
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+        
+        /**
+         * Rows skipped because they have no CAS number or name.
+         */
+        public long getInvalid() {
+            return invalid;
+        }
+        
+        /**
+         * Rows lost to batches that were rolled back.
+         */
+        public long getFailed() {
+            return failed;
+        }
+        
+        public long getBatches() {
+            return batches;
+        }
+        
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+        
+        /**
+         * Time the writer spent in insert transactions. Close to the elapsed time when parsing keeps up.
+         */
+        public long getWriteMillis() {
+            return writeNanos / 1_000_000;
+        }
+        
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsRead * 1_000_000_000.0 / elapsedNanos;
+        }
         
-        return result.toArray(new String[0]);
+        /**
+         * First errors of the import, with the CSV line number where known.
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d rows read, %d inserted, %d updated, %d unchanged, %d deactivated, %d duplicates, %d invalid, "
+                            + "%d failed in %d ms, %d ms writing (%.0f rows/s)",
+                    rowsRead, inserted, updated, unchanged, deactivated, duplicates, invalid, failed,
+                    getElapsedMillis(), getWriteMillis(), getRowsPerSecond());
+        }
     }
     
     /**
@@ -146,7 +863,7 @@ public class IfraDataImporter {
      */
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Usage: java IfraDataImporter <csv_file_path>");
+            System.out.println("Usage: java IfraDataImporter <csv_file_path> [batch_size]");
             System.out.println("Example: java IfraDataImporter data/ifra_ingredients_sample.csv");
             System.exit(1);
         }
@@ -155,11 +872,14 @@ public class IfraDataImporter {
         
         try {
             DatabaseManager dbManager = DatabaseManager.getInstance();
-            IngredientRepository repository = new IngredientRepositoryImpl(dbManager);
-            IfraDataImporter importer = new IfraDataImporter(repository);
+            IfraDataImporter importer = new IfraDataImporter(dbManager);
+            if (args.length > 1) {
+                importer.setBatchSize(Integer.parseInt(args[1]));
+            }
             
-            int imported = importer.importFromCsv(csvPath);
-            System.out.println("Successfully imported " + imported + " ingredients from IFRA Transparency List");
+            ImportResult result = importer.importBulk(Paths.get(csvPath));
+            System.out.println("Successfully imported " + result.getInserted() + " ingredients from IFRA Transparency List");
+            System.out.println(result);
             
             dbManager.close();
         } catch (Exception e) {
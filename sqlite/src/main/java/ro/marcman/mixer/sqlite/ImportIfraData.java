@@ -1,8 +1,11 @@
 package ro.marcman.mixer.sqlite;
 
+import java.nio.file.Paths;
+
 /**
  * Simple wrapper to import IFRA data.
- * Run this class to populate the database with IFRA ingredients.
+ * Run this class to populate the database with IFRA ingredients. Running it again with an updated
+ * file only applies the changes (see IfraDataImporter.importDelta).
  */
 public class ImportIfraData {
     public static void main(String[] args) {
@@ -18,15 +21,16 @@ public class ImportIfraData {
         
         try {
             DatabaseManager dbManager = DatabaseManager.getInstance();
-            IngredientRepositoryImpl repository = new IngredientRepositoryImpl(dbManager);
-            IfraDataImporter importer = new IfraDataImporter(repository);
+            IfraDataImporter importer = new IfraDataImporter(dbManager);
             
             System.out.println("Starting import...");
-            int imported = importer.importFromCsv(csvPath);
+            IfraDataImporter.ImportResult result = importer.importDelta(Paths.get(csvPath));
             
             System.out.println();
             System.out.println("============================================================");
-            System.out.println("SUCCESS! Imported " + imported + " ingredients from IFRA Transparency List");
+            System.out.println("SUCCESS! Imported " + result.getInserted() + " new and " + result.getUpdated()
+                    + " changed ingredients from IFRA Transparency List");
+            System.out.println(result);
             System.out.println("============================================================");
             System.out.println();
             System.out.println("Database file: " + dbManager.getDatabasePath());
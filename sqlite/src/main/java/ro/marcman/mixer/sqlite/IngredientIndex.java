@@ -0,0 +1,157 @@
+package ro.marcman.mixer.sqlite;
+
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary in-memory indexes over the raw ingredient rows held by CachingIngredientRepository.
+ * 
+ * Indexes are built from the stored columns (master configuration is NOT applied) and are
+ * updated incrementally: remove the old row and add the new one whenever an ingredient is saved.
+ * Inactive ingredients are indexed too, matching the full-table scans they replace.
+ */
+final class IngredientIndex {
+    
+    private final Map<String, Set<Long>> byLargePin = new HashMap<>();
+    private final Map<String, Set<Long>> bySmallPin = new HashMap<>();
+    private final Map<String, Set<Long>> byCasNumber = new HashMap<>();
+    private final Map<Long, Set<Long>> slavesByMaster = new HashMap<>();
+    private final Map<String, Integer> pinCountByUid = new HashMap<>();
+    
+    /**
+     * Normalize an Arduino UID for lookups ("0X1A " and "0x1a" are the same SLAVE).
+     * Must stay in sync with the SQL expression lower(trim(...)) used by IngredientRepositoryImpl.
+     */
+    static String normalizeUid(String uid) {
+        return normalize(uid);
+    }
+    
+    /**
+     * Normalize a CAS number for lookups (trimmed, case-insensitive).
+     */
+    static String normalizeCas(String casNumber) {
+        return normalize(casNumber);
+    }
+    
+    void add(Ingredient ingredient) {
+        Long id = ingredient.getId();
+        String uidLarge = normalizeUid(ingredient.getArduinoUid());
+        String uidSmall = normalizeUid(ingredient.getArduinoUidSmall());
+        
+        if (uidLarge != null && ingredient.getArduinoPin() != null) {
+            byLargePin.computeIfAbsent(pinKey(uidLarge, ingredient.getArduinoPin()), k -> new HashSet<>()).add(id);
+            pinCountByUid.merge(uidLarge, 1, Integer::sum);
+        }
+        if (uidSmall != null && ingredient.getArduinoPinSmall() != null) {
+            bySmallPin.computeIfAbsent(pinKey(uidSmall, ingredient.getArduinoPinSmall()), k -> new HashSet<>()).add(id);
+            pinCountByUid.merge(uidSmall, 1, Integer::sum);
+        }
+        
+        String cas = normalizeCas(ingredient.getCasNumber());
+        if (cas != null) {
+            byCasNumber.computeIfAbsent(cas, k -> new HashSet<>()).add(id);
+        }
+        if (ingredient.getMasterIngredientId() != null) {
+            slavesByMaster.computeIfAbsent(ingredient.getMasterIngredientId(), k -> new HashSet<>()).add(id);
+        }
+    }
+    
+    void remove(Ingredient ingredient) {
+        Long id = ingredient.getId();
+        String uidLarge = normalizeUid(ingredient.getArduinoUid());
+        String uidSmall = normalizeUid(ingredient.getArduinoUidSmall());
+        
+        if (uidLarge != null && ingredient.getArduinoPin() != null) {
+            removeId(byLargePin, pinKey(uidLarge, ingredient.getArduinoPin()), id);
+            pinCountByUid.computeIfPresent(uidLarge, (k, count) -> count > 1 ? count - 1 : null);
+        }
+        if (uidSmall != null && ingredient.getArduinoPinSmall() != null) {
+            removeId(bySmallPin, pinKey(uidSmall, ingredient.getArduinoPinSmall()), id);
+            pinCountByUid.computeIfPresent(uidSmall, (k, count) -> count > 1 ? count - 1 : null);
+        }
+        
+        String cas = normalizeCas(ingredient.getCasNumber());
+        if (cas != null) {
+            removeId(byCasNumber, cas, id);
+        }
+        if (ingredient.getMasterIngredientId() != null) {
+            removeId(slavesByMaster, ingredient.getMasterIngredientId(), id);
+        }
+    }
+    
+    /**
+     * Ids of ingredients whose LARGE or SMALL pump is stored on the given UID and pin.
+     */
+    Set<Long> idsByUidAndPin(String uid, Integer pin) {
+        String normalizedUid = normalizeUid(uid);
+        if (normalizedUid == null || pin == null) {
+            return Set.of();
+        }
+        String key = pinKey(normalizedUid, pin);
+        Set<Long> ids = new HashSet<>(byLargePin.getOrDefault(key, Set.of()));
+        ids.addAll(bySmallPin.getOrDefault(key, Set.of()));
+        return ids;
+    }
+    
+    /**
+     * Number of LARGE and SMALL pins stored on the given UID.
+     */
+    int countPins(String uid) {
+        String normalizedUid = normalizeUid(uid);
+        return normalizedUid == null ? 0 : pinCountByUid.getOrDefault(normalizedUid, 0);
+    }
+    
+    /**
+     * Number of pins the given ingredient row itself contributes to countPins(uid).
+     */
+    static int pinsOn(Ingredient ingredient, String uid) {
+        String normalizedUid = normalizeUid(uid);
+        if (normalizedUid == null) {
+            return 0;
+        }
+        int count = 0;
+        if (ingredient.getArduinoPin() != null && normalizedUid.equals(normalizeUid(ingredient.getArduinoUid()))) {
+            count++;
+        }
+        if (ingredient.getArduinoPinSmall() != null && normalizedUid.equals(normalizeUid(ingredient.getArduinoUidSmall()))) {
+            count++;
+        }
+        return count;
+    }
+    
+    Set<Long> idsByCasNumber(String casNumber) {
+        String cas = normalizeCas(casNumber);
+        return cas == null ? Set.of() : byCasNumber.getOrDefault(cas, Set.of());
+    }
+    
+    Set<Long> idsByMaster(Long masterId) {
+        return masterId == null ? Set.of() : slavesByMaster.getOrDefault(masterId, Set.of());
+    }
+    
+    private static String normalize(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    private static String pinKey(String normalizedUid, int pin) {
+        return normalizedUid + '#' + pin;
+    }
+    
+    private static <K> void removeId(Map<K, Set<Long>> index, K key, Long id) {
+        Set<Long> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+}
@@ -8,6 +8,11 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * SQLite implementation of IngredientRepository.
@@ -15,6 +20,50 @@ import java.util.Optional;
 @Slf4j
 public class IngredientRepositoryImpl implements IngredientRepository {
     
+    /**
+     * Master ingredient columns inherited by slaves, aliased with an "m_" prefix.
+     * Use in a SELECT over masterChainCtes() that joins the end of each chain as "m", e.g.
+     * {@code LEFT JOIN master_root mr ON mr.id = i.id LEFT JOIN ingredients m ON m.id = mr.root_id AND mr.depth > 0}.
+     * m_cycle is true when the chain stopped because the next master had already been visited.
+     */
+    static final String MASTER_COLUMNS = """
+            m.id AS m_id, m.arduino_uid AS m_arduino_uid, m.arduino_pin AS m_arduino_pin,
+            m.arduino_uid_small AS m_arduino_uid_small, m.arduino_pin_small AS m_arduino_pin_small,
+            m.default_duration AS m_default_duration, m.ms_per_gram_large AS m_ms_per_gram_large,
+            m.ms_per_gram_small AS m_ms_per_gram_small, m.pump_threshold_grams AS m_pump_threshold_grams,
+            instr(mr.path, ',' || (SELECT e.master_ingredient_id FROM ingredients e WHERE e.id = mr.root_id) || ',') > 0
+                AS m_cycle""";
+    
+    /**
+     * Common table expressions that follow the master chain of each selected ingredient to its end,
+     * for use after WITH RECURSIVE. {@code anchorIds} is a SELECT returning the ids to resolve in a
+     * column named id.
+     * 
+     * master_root(id, root_id, depth, path) has one row per ingredient: the last ingredient of its chain
+     * (the ingredient itself at depth 0) and the ids visited on the way. A chain stops before an id it has
+     * already visited, so a cycle of masters ends at the last ingredient before the loop.
+     */
+    static String masterChainCtes(String anchorIds) {
+        return """
+            master_chain(id, root_id, depth, path) AS (
+                SELECT id, id, 0, ',' || id || ',' FROM (%s)
+                UNION ALL
+                SELECT c.id, m.id, c.depth + 1, c.path || m.id || ','
+                FROM master_chain c
+                JOIN ingredients cur ON cur.id = c.root_id
+                JOIN ingredients m ON m.id = cur.master_ingredient_id
+                WHERE instr(c.path, ',' || m.id || ',') = 0
+            ),
+            master_root(id, root_id, depth, path) AS (
+                -- SQLite takes bare columns from the row holding max(depth): the end of the chain
+                SELECT id, root_id, max(depth), path FROM master_chain GROUP BY id
+            )
+            """.formatted(anchorIds);
+    }
+    
+    // Rows the driver reads ahead while a stream is consumed
+    private static final int STREAM_FETCH_SIZE = 200;
+    
     private final DatabaseManager dbManager;
     
     public IngredientRepositoryImpl(DatabaseManager dbManager) {
@@ -23,28 +72,7 @@ public class IngredientRepositoryImpl implements IngredientRepository {
     
     @Override
     public List<Ingredient> findAll() {
-        List<Ingredient> ingredients = new ArrayList<>();
-        String sql = "SELECT * FROM ingredients ORDER BY name";  // Removed active filter
-        
-        // First, load all ingredients without master configuration
-        try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            while (rs.next()) {
-                Ingredient ingredient = mapResultSetToIngredient(rs);
-                ingredients.add(ingredient);
-            }
-        } catch (SQLException e) {
-            log.error("Error finding all ingredients", e);
-        }
-        
-        // Now, apply master configuration after ResultSet is closed
-        for (Ingredient ingredient : ingredients) {
-            applyMasterConfiguration(ingredient);
-        }
-        
-        return ingredients;
+        return findResolved(null, "name", "all");  // No active filter
     }
     
     @Override
@@ -55,85 +83,274 @@ public class IngredientRepositoryImpl implements IngredientRepository {
             return Optional.empty();
         }
         
-        String sql = "SELECT * FROM ingredients WHERE id = ?";
-        Ingredient ingredient = null;
+        List<Ingredient> found = findResolved("id = ?", "id", "id " + id, id);
+        return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+    }
+    
+    @Override
+    public List<Ingredient> findByCategory(String category) {
+        return findResolved("category = ? AND active = 1", "name", "category " + category, category);
+    }
+    
+    @Override
+    public List<Ingredient> findByArduinoUid(String arduinoUid) {
+        return findResolved("arduino_uid = ? AND active = 1", "arduino_pin", "Arduino UID " + arduinoUid, arduinoUid);
+    }
+    
+    @Override
+    public List<Ingredient> findByUidAndPin(String arduinoUid, Integer pin) {
+        if (arduinoUid == null || arduinoUid.isBlank() || pin == null) {
+            return new ArrayList<>();
+        }
+        String where = """
+            (lower(trim(arduino_uid)) = ? AND arduino_pin = ?)
+               OR (lower(trim(arduino_uid_small)) = ? AND arduino_pin_small = ?)""";
+        String uid = IngredientIndex.normalizeUid(arduinoUid);
+        return findResolved(where, "name", "UID " + arduinoUid + " pin " + pin, uid, pin, uid, pin);
+    }
+    
+    @Override
+    public int countPinsByUid(String arduinoUid, Long excludeId) {
+        if (arduinoUid == null || arduinoUid.isBlank()) {
+            return 0;
+        }
+        String sql = """
+            SELECT
+                (SELECT COUNT(*) FROM ingredients
+                 WHERE lower(trim(arduino_uid)) = ? AND arduino_pin IS NOT NULL AND id IS NOT ?)
+              + (SELECT COUNT(*) FROM ingredients
+                 WHERE lower(trim(arduino_uid_small)) = ? AND arduino_pin_small IS NOT NULL AND id IS NOT ?)
+            """;
+        String uid = IngredientIndex.normalizeUid(arduinoUid);
         
-        // First, load ingredient without master configuration
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setLong(1, id);
+            pstmt.setString(1, uid);
+            pstmt.setObject(2, excludeId);
+            pstmt.setString(3, uid);
+            pstmt.setObject(4, excludeId);
             ResultSet rs = pstmt.executeQuery();
             
             if (rs.next()) {
-                ingredient = mapResultSetToIngredient(rs);
+                return rs.getInt(1);
             }
-            rs.close(); // Close ResultSet before applying master config
         } catch (SQLException e) {
-            log.error("Error finding ingredient by id: {}", id, e);
-            return Optional.empty();
+            log.error("Error counting pins for Arduino UID: {}", arduinoUid, e);
         }
         
-        // Now apply master configuration after ResultSet is closed
-        if (ingredient != null) {
-            applyMasterConfiguration(ingredient);
-            return Optional.of(ingredient);
+        return 0;
+    }
+    
+    @Override
+    public List<Ingredient> findByCasNumber(String casNumber) {
+        if (casNumber == null || casNumber.isBlank()) {
+            return new ArrayList<>();
         }
-        
-        return Optional.empty();
+        return findResolved("lower(trim(cas_number)) = ?", "name", "CAS " + casNumber,
+                IngredientIndex.normalizeCas(casNumber));
     }
     
     @Override
-    public List<Ingredient> findByCategory(String category) {
-        List<Ingredient> ingredients = new ArrayList<>();
-        String sql = "SELECT * FROM ingredients WHERE category = ? AND active = 1 ORDER BY name";
+    public List<Ingredient> findByMasterIngredientId(Long masterIngredientId) {
+        if (masterIngredientId == null) {
+            return new ArrayList<>();
+        }
+        return findResolved("master_ingredient_id = ?", "name", "master " + masterIngredientId, masterIngredientId);
+    }
+    
+    @Override
+    public List<Ingredient> findPage(String afterName, Long afterId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // idx_ingredients_name holds (name, rowid), so the page is read from the index in order
+        if (afterName == null) {
+            return findResolvedFrom("SELECT id FROM ingredients ORDER BY name, id LIMIT ?",
+                    "i.name, i.id", "first page", limit);
+        }
+        return findResolvedFrom("SELECT id FROM ingredients WHERE (name, id) > (?, ?) ORDER BY name, id LIMIT ?",
+                "i.name, i.id", "page after " + afterName, afterName, afterId != null ? afterId : 0L, limit);
+    }
+    
+    @Override
+    public Stream<Ingredient> streamAll() {
+        String sql = resolvedSql("SELECT id FROM ingredients", "i.name, i.id");
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs;
+        try {
+            conn = dbManager.getConnection();
+            pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(STREAM_FETCH_SIZE);
+            rs = pstmt.executeQuery();
+        } catch (SQLException e) {
+            log.error("Error streaming ingredients", e);
+            closeAll(pstmt, conn);
+            return Stream.empty();
+        }
         
-        // First, load all ingredients without master configuration
+        ResultSet cursor = rs;
+        Spliterator<Ingredient> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Ingredient> action) {
+                try {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                    Ingredient ingredient = mapResultSetToIngredient(cursor);
+                    applyMasterConfiguration(ingredient, cursor);
+                    action.accept(ingredient);
+                    return true;
+                } catch (SQLException e) {
+                    log.error("Error streaming ingredients", e);
+                    return false;
+                }
+            }
+        };
+        AutoCloseable statement = pstmt;
+        AutoCloseable connection = conn;
+        return StreamSupport.stream(rows, false).onClose(() -> closeAll(cursor, statement, connection));
+    }
+    
+    @Override
+    public List<Ingredient> search(String query, int limit) {
+        String match = toFtsQuery(query);
+        if (match == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        // The ranked matches are materialized once and feed both the master chain and the final join
+        String sql = """
+            WITH RECURSIVE matches(id, score) AS MATERIALIZED (
+                SELECT rowid, rank FROM ingredients_fts WHERE ingredients_fts MATCH ? ORDER BY rank LIMIT ?
+            ),
+            """ + masterChainCtes("SELECT id FROM matches") + """
+            SELECT i.*, %s
+            FROM matches x
+            JOIN master_root mr ON mr.id = x.id
+            JOIN ingredients i ON i.id = x.id
+            LEFT JOIN ingredients m ON m.id = mr.root_id AND mr.depth > 0
+            ORDER BY x.score, i.name, i.id
+            """.formatted(MASTER_COLUMNS);
+        return queryResolved(sql, "search " + query, match, limit);
+    }
+    
+    /**
+     * FTS5 query for free text, or null if it has no words. Every word must match; the last one also
+     * matches as a prefix, since it may still be being typed. Words are quoted, so FTS5 syntax in the
+     * text is searched for literally.
+     */
+    static String toFtsQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        List<String> terms = new ArrayList<>();
+        // Same word characters as the unicode61 tokenizer; '-' in CAS numbers separates words
+        for (String word : text.split("[^\\p{L}\\p{N}\\p{M}]+")) {
+            if (!word.isEmpty()) {
+                terms.add("\"" + word + "\"");
+            }
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+        int last = terms.size() - 1;
+        terms.set(last, terms.get(last) + "*");
+        return String.join(" ", terms);
+    }
+    
+    @Override
+    public List<String> findCategories() {
+        List<String> categories = new ArrayList<>();
+        // Read in order from idx_ingredients_category
+        String sql = "SELECT DISTINCT category FROM ingredients WHERE category > '' ORDER BY category";
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, category);
-            ResultSet rs = pstmt.executeQuery();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
-                Ingredient ingredient = mapResultSetToIngredient(rs);
-                ingredients.add(ingredient);
+                categories.add(rs.getString(1));
             }
         } catch (SQLException e) {
-            log.error("Error finding ingredients by category: {}", category, e);
+            log.error("Error finding ingredient categories", e);
         }
-        
-        // Now, apply master configuration after ResultSet is closed
-        for (Ingredient ingredient : ingredients) {
-            applyMasterConfiguration(ingredient);
-        }
-        
-        return ingredients;
+        return categories;
     }
     
     @Override
-    public List<Ingredient> findByArduinoUid(String arduinoUid) {
+    public long count() {
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ingredients")) {
+            
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            log.error("Error counting ingredients", e);
+        }
+        return 0;
+    }
+    
+    private static void closeAll(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("Error closing ingredient stream", e);
+            }
+        }
+    }
+    
+    /**
+     * Load the ingredients matching {@code where} (a condition on the ingredients table, null for all)
+     * with master configuration resolved in the same statement.
+     */
+    private List<Ingredient> findResolved(String where, String orderBy, String description, Object... params) {
+        return findResolvedFrom("SELECT id FROM ingredients" + (where == null ? "" : " WHERE " + where),
+                "i." + orderBy, description, params);
+    }
+    
+    /**
+     * SELECT of the ingredients whose ids {@code anchorIds} returns, with the master columns joined.
+     */
+    private static String resolvedSql(String anchorIds, String orderBy) {
+        return "WITH RECURSIVE " + masterChainCtes(anchorIds) + """
+                SELECT i.*, %s
+                FROM master_root mr
+                JOIN ingredients i ON i.id = mr.id
+                LEFT JOIN ingredients m ON m.id = mr.root_id AND mr.depth > 0
+                ORDER BY %s
+                """.formatted(MASTER_COLUMNS, orderBy);
+    }
+    
+    private List<Ingredient> findResolvedFrom(String anchorIds, String orderBy, String description, Object... params) {
+        return queryResolved(resolvedSql(anchorIds, orderBy), description, params);
+    }
+    
+    /**
+     * Run a query selecting ingredient columns and MASTER_COLUMNS, applying master configuration to each row.
+     */
+    private List<Ingredient> queryResolved(String sql, String description, Object... params) {
         List<Ingredient> ingredients = new ArrayList<>();
-        String sql = "SELECT * FROM ingredients WHERE arduino_uid = ? AND active = 1 ORDER BY arduino_pin";
         
-        // First, load all ingredients without master configuration
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setString(1, arduinoUid);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
             ResultSet rs = pstmt.executeQuery();
             
             while (rs.next()) {
                 Ingredient ingredient = mapResultSetToIngredient(rs);
+                applyMasterConfiguration(ingredient, rs);
                 ingredients.add(ingredient);
             }
         } catch (SQLException e) {
-            log.error("Error finding ingredients by Arduino UID: {}", arduinoUid, e);
-        }
-        
-        // Now, apply master configuration after ResultSet is closed
-        for (Ingredient ingredient : ingredients) {
-            applyMasterConfiguration(ingredient);
+            log.error("Error finding ingredients by {}", description, e);
         }
         
         return ingredients;
@@ -330,7 +547,7 @@ public class IngredientRepositoryImpl implements IngredientRepository {
         pstmt.setInt(22, ingredient.isActive() ? 1 : 0);
     }
     
-    private Ingredient mapResultSetToIngredient(ResultSet rs) throws SQLException {
+    Ingredient mapResultSetToIngredient(ResultSet rs) throws SQLException {
         // Safe integer reading - handle NULL and invalid values
         Integer arduinoPin = null;
         try {
@@ -422,60 +639,62 @@ public class IngredientRepositoryImpl implements IngredientRepository {
         }
     }
     
+    private Integer getIntegerOrNull(ResultSet rs, String columnName) throws SQLException {
+        int value = rs.getInt(columnName);
+        return rs.wasNull() ? null : value;
+    }
+    
+    private Double getDoubleOrNull(ResultSet rs, String columnName) throws SQLException {
+        double value = rs.getDouble(columnName);
+        return rs.wasNull() ? null : value;
+    }
+    
     /**
-     * Apply master ingredient's Arduino configuration to an ingredient
+     * Apply the Arduino configuration of the last master in the ingredient's chain from the joined
+     * "m_" columns of the current row (see MASTER_COLUMNS).
      */
-    private void applyMasterConfiguration(Ingredient ingredient) {
-        if (ingredient != null && ingredient.getMasterIngredientId() != null) {
-            log.info("Applying master config for ingredient: {} (masterId: {})", 
-                     ingredient.getName(), ingredient.getMasterIngredientId());
-            // Load master without applying its master config (avoid recursion)
-            Ingredient masterIngredient = findByIdWithoutMasterApply(ingredient.getMasterIngredientId());
-            if (masterIngredient != null) {
-                log.info("Master found: {}, Arduino config: uid={}, pin={}, uidSmall={}, pinSmall={}", 
-                         masterIngredient.getName(), 
-                         masterIngredient.getArduinoUid(), masterIngredient.getArduinoPin(),
-                         masterIngredient.getArduinoUidSmall(), masterIngredient.getArduinoPinSmall());
-                
-                // Copy Arduino configuration from master
-                ingredient.setArduinoUid(masterIngredient.getArduinoUid());
-                ingredient.setArduinoPin(masterIngredient.getArduinoPin());
-                ingredient.setArduinoUidSmall(masterIngredient.getArduinoUidSmall());
-                ingredient.setArduinoPinSmall(masterIngredient.getArduinoPinSmall());
-                ingredient.setDefaultDuration(masterIngredient.getDefaultDuration());
-                ingredient.setMsPerGramLarge(masterIngredient.getMsPerGramLarge());
-                ingredient.setMsPerGramSmall(masterIngredient.getMsPerGramSmall());
-                ingredient.setPumpThresholdGrams(masterIngredient.getPumpThresholdGrams());
-                
-                log.info("After applying master config: uid={}, pin={}, uidSmall={}, pinSmall={}", 
-                         ingredient.getArduinoUid(), ingredient.getArduinoPin(),
-                         ingredient.getArduinoUidSmall(), ingredient.getArduinoPinSmall());
-            } else {
+    void applyMasterConfiguration(Ingredient ingredient, ResultSet rs) throws SQLException {
+        if (ingredient == null || ingredient.getMasterIngredientId() == null) {
+            return;
+        }
+        boolean cycle = rs.getBoolean("m_cycle");
+        if (cycle) {
+            log.warn("Master chain of ingredient {} (id {}) loops back on itself, stopping before the loop",
+                     ingredient.getName(), ingredient.getId());
+        }
+        if (getLongOrNull(rs, "m_id") == null) {
+            if (!cycle) {
                 log.warn("Master ingredient not found for ID: {}", ingredient.getMasterIngredientId());
             }
+            return;
         }
+        
+        ingredient.setArduinoUid(rs.getString("m_arduino_uid"));
+        ingredient.setArduinoPin(getIntegerOrNull(rs, "m_arduino_pin"));
+        ingredient.setArduinoUidSmall(rs.getString("m_arduino_uid_small"));
+        ingredient.setArduinoPinSmall(getIntegerOrNull(rs, "m_arduino_pin_small"));
+        ingredient.setDefaultDuration(getIntegerOrNull(rs, "m_default_duration"));
+        ingredient.setMsPerGramLarge(getIntegerOrNull(rs, "m_ms_per_gram_large"));
+        ingredient.setMsPerGramSmall(getIntegerOrNull(rs, "m_ms_per_gram_small"));
+        ingredient.setPumpThresholdGrams(getDoubleOrNull(rs, "m_pump_threshold_grams"));
+        
+        log.debug("Applied master config for ingredient: {} (masterId: {}): uid={}, pin={}", 
+                  ingredient.getName(), ingredient.getMasterIngredientId(),
+                  ingredient.getArduinoUid(), ingredient.getArduinoPin());
     }
     
     /**
-     * Find ingredient by ID without applying master configuration (used internally to avoid recursion)
+     * Copy the Arduino configuration a slave inherits from its master ingredient.
      */
-    private Ingredient findByIdWithoutMasterApply(Long id) {
-        String sql = "SELECT * FROM ingredients WHERE id = ?";
-        
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setLong(1, id);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                return mapResultSetToIngredient(rs);
-            }
-        } catch (SQLException e) {
-            log.error("Error finding ingredient by id: {}", id, e);
-        }
-        
-        return null;
+    static void copyMasterConfiguration(Ingredient master, Ingredient ingredient) {
+        ingredient.setArduinoUid(master.getArduinoUid());
+        ingredient.setArduinoPin(master.getArduinoPin());
+        ingredient.setArduinoUidSmall(master.getArduinoUidSmall());
+        ingredient.setArduinoPinSmall(master.getArduinoPinSmall());
+        ingredient.setDefaultDuration(master.getDefaultDuration());
+        ingredient.setMsPerGramLarge(master.getMsPerGramLarge());
+        ingredient.setMsPerGramSmall(master.getMsPerGramSmall());
+        ingredient.setPumpThresholdGrams(master.getPumpThresholdGrams());
     }
     
     /**
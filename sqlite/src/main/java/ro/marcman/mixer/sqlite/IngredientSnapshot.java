@@ -0,0 +1,377 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Binary copy of the raw ingredient rows, so CachingIngredientRepository can fill its cache at
+ * startup without reading and mapping every row from SQLite.
+ * 
+ * The file records the schema version (PRAGMA user_version) and the catalog version (a counter the
+ * database bumps on every change to ingredients, see SchemaMigrator.createCatalogVersion) it was
+ * taken at. load() returns the rows only if both still match the database, so a stale snapshot is
+ * never used; it is simply replaced by the next write().
+ * 
+ * Layout (big-endian): magic, format version, schema version, catalog version, row count, the rows,
+ * then a CRC32 of everything before it. Strings are a byte length (-1 for null) and UTF-8 bytes;
+ * nullable numbers are a presence byte followed by the value.
+ */
+@Slf4j
+class IngredientSnapshot {
+    
+    private static final int MAGIC = 0x4D584353;  // "MXCS"
+    private static final int FORMAT_VERSION = 1;
+    // Magic, format version, schema version, catalog version, row count
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+    
+    private static final String CATALOG_VERSION_SQL = "SELECT version FROM catalog_version WHERE id = 1";
+    // A no-op write: takes the database's write lock as the first statement and reads the version under it
+    private static final String LOCK_CATALOG_VERSION_SQL =
+            "UPDATE catalog_version SET version = version WHERE id = 1 RETURNING version";
+    
+    private final DatabaseManager dbManager;
+    private final Path file;
+    
+    IngredientSnapshot(DatabaseManager dbManager, Path file) {
+        this.dbManager = dbManager;
+        this.file = file;
+    }
+    
+    /**
+     * Rows read from a snapshot that matches the database.
+     */
+    static final class Loaded {
+        private final long catalogVersion;
+        private final List<Ingredient> rows;
+        
+        private Loaded(long catalogVersion, List<Ingredient> rows) {
+            this.catalogVersion = catalogVersion;
+            this.rows = rows;
+        }
+        
+        long getCatalogVersion() {
+            return catalogVersion;
+        }
+        
+        List<Ingredient> getRows() {
+            return rows;
+        }
+    }
+    
+    /**
+     * Result of a write run by tracked(), with the catalog version just before and just after it.
+     */
+    record Tracked<T>(T result, long before, long after) {
+        
+        /**
+         * Whether the write changed the catalog; true when that is unknown.
+         */
+        boolean changed() {
+            return before < 0 || after != before;
+        }
+    }
+    
+    Path getFile() {
+        return file;
+    }
+    
+    /**
+     * Run a write to the ingredients table in one transaction on this thread's connection, which the
+     * write's own getConnection() calls share, and read the catalog version before and after it in
+     * that transaction. The version row is locked first, so no other writer can move it in between.
+     * Joins a transaction the caller already has open instead of committing it.
+     * 
+     * @throws RuntimeException if the transaction cannot be run or committed (the write is rolled back)
+     */
+    <T> Tracked<T> tracked(Supplier<T> write) {
+        try (Connection conn = dbManager.getConnection()) {
+            boolean ownTransaction = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                long before;
+                try (PreparedStatement pstmt = conn.prepareStatement(LOCK_CATALOG_VERSION_SQL);
+                     ResultSet rs = pstmt.executeQuery()) {
+                    before = rs.next() ? rs.getLong(1) : -1;
+                }
+                T result = write.get();
+                long after = catalogVersion(conn);
+                if (ownTransaction) {
+                    conn.commit();
+                }
+                return new Tracked<>(result, before, after);
+            } catch (SQLException | RuntimeException e) {
+                if (ownTransaction) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to write ingredients: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Current catalog version of the database, or -1 if it cannot be read.
+     */
+    long currentCatalogVersion() {
+        try (Connection conn = dbManager.getConnection()) {
+            return catalogVersion(conn);
+        } catch (SQLException e) {
+            log.warn("Could not read ingredient catalog version", e);
+            return -1;
+        }
+    }
+    
+    /**
+     * Read the snapshot if it exists, is intact and matches the database's current versions.
+     * 
+     * @return The rows, or null if there is no usable snapshot
+     */
+    Loaded load() {
+        // Mapped in a confined arena so the file is unmapped as soon as it has been decoded;
+        // a mapping left for the garbage collector would keep the file locked on Windows
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Arena arena = Arena.ofConfined()) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena).asByteBuffer());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not read ingredient snapshot {}", file, e);
+            return null;
+        }
+    }
+    
+    private Loaded decode(ByteBuffer buffer) {
+        try {
+            if (buffer.remaining() < HEADER_BYTES + Long.BYTES
+                    || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                log.info("Ignoring ingredient snapshot {}: unknown format", file);
+                return null;
+            }
+            int schemaVersion = buffer.getInt();
+            long catalogVersion = buffer.getLong();
+            if (!crcMatches(buffer)) {
+                log.warn("Ignoring ingredient snapshot {}: checksum mismatch", file);
+                return null;
+            }
+            
+            try (Connection conn = dbManager.getConnection()) {
+                int currentSchema = SchemaMigrator.getUserVersion(conn);
+                long currentCatalog = catalogVersion(conn);
+                if (schemaVersion != currentSchema || catalogVersion != currentCatalog) {
+                    log.debug("Ingredient snapshot is stale (schema {} vs {}, catalog {} vs {})",
+                            schemaVersion, currentSchema, catalogVersion, currentCatalog);
+                    return null;
+                }
+            }
+            
+            int count = buffer.getInt();
+            List<Ingredient> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(readIngredient(buffer));
+            }
+            return new Loaded(catalogVersion, rows);
+            
+        } catch (BufferUnderflowException e) {
+            log.warn("Ignoring truncated ingredient snapshot {}", file, e);
+            return null;
+        } catch (SQLException e) {
+            log.warn("Could not validate ingredient snapshot against the database", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Write the rows as the snapshot for the given catalog version, replacing the file atomically.
+     * Nothing is written if the database has moved past that version, since the rows would be stale.
+     * 
+     * @return true if the snapshot was written
+     */
+    boolean write(long catalogVersion, Collection<Ingredient> rows) {
+        int schemaVersion;
+        try (Connection conn = dbManager.getConnection()) {
+            if (catalogVersion(conn) != catalogVersion) {
+                log.debug("Not writing ingredient snapshot: catalog changed since version {}", catalogVersion);
+                return false;
+            }
+            schemaVersion = SchemaMigrator.getUserVersion(conn);
+        } catch (SQLException e) {
+            log.warn("Could not read database versions for the ingredient snapshot", e);
+            return false;
+        }
+        
+        long start = System.nanoTime();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.size() * 256 + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(schemaVersion);
+            out.writeLong(catalogVersion);
+            out.writeInt(rows.size());
+            for (Ingredient row : rows) {
+                writeIngredient(out, row);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+            
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write ingredient snapshot {}", file, e);
+            return false;
+        }
+        log.debug("Wrote ingredient snapshot of {} rows (catalog version {}) in {} ms",
+                rows.size(), catalogVersion, (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+    
+    private static long catalogVersion(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(CATALOG_VERSION_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+    
+    /**
+     * Check the trailing CRC32 against the bytes before it, leaving the buffer's position unchanged.
+     */
+    private static boolean crcMatches(ByteBuffer buffer) {
+        int end = buffer.limit() - Long.BYTES;
+        if (end < buffer.position()) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(end));
+        return crc.getValue() == buffer.getLong(end);
+    }
+    
+    private static void writeIngredient(DataOutputStream out, Ingredient ingredient) throws IOException {
+        out.writeLong(ingredient.getId());
+        writeString(out, ingredient.getName());
+        writeString(out, ingredient.getDescription());
+        writeString(out, ingredient.getCategory());
+        writeString(out, ingredient.getCasNumber());
+        writeString(out, ingredient.getIfraNaturalsCategory());
+        writeString(out, ingredient.getIfraStatus());
+        writeString(out, ingredient.getArduinoUid());
+        writeInteger(out, ingredient.getArduinoPin());
+        writeString(out, ingredient.getArduinoUidSmall());
+        writeInteger(out, ingredient.getArduinoPinSmall());
+        writeInteger(out, ingredient.getDefaultDuration());
+        writeInteger(out, ingredient.getMsPerGramLarge());
+        writeInteger(out, ingredient.getMsPerGramSmall());
+        writeDouble(out, ingredient.getPumpThresholdGrams());
+        writeDouble(out, ingredient.getConcentration());
+        writeString(out, ingredient.getUnit());
+        writeDouble(out, ingredient.getCostPerUnit());
+        writeDouble(out, ingredient.getStockQuantity());
+        writeString(out, ingredient.getSupplier());
+        writeString(out, ingredient.getBatchNumber());
+        out.writeBoolean(ingredient.getMasterIngredientId() != null);
+        if (ingredient.getMasterIngredientId() != null) {
+            out.writeLong(ingredient.getMasterIngredientId());
+        }
+        out.writeBoolean(ingredient.isActive());
+    }
+    
+    private static Ingredient readIngredient(ByteBuffer in) {
+        return Ingredient.builder()
+            .id(in.getLong())
+            .name(readString(in))
+            .description(readString(in))
+            .category(readString(in))
+            .casNumber(readString(in))
+            .ifraNaturalsCategory(readString(in))
+            .ifraStatus(readString(in))
+            .arduinoUid(readString(in))
+            .arduinoPin(readInteger(in))
+            .arduinoUidSmall(readString(in))
+            .arduinoPinSmall(readInteger(in))
+            .defaultDuration(readInteger(in))
+            .msPerGramLarge(readInteger(in))
+            .msPerGramSmall(readInteger(in))
+            .pumpThresholdGrams(readDouble(in))
+            .concentration(readDouble(in))
+            .unit(readString(in))
+            .costPerUnit(readDouble(in))
+            .stockQuantity(readDouble(in))
+            .supplier(readString(in))
+            .batchNumber(readString(in))
+            .masterIngredientId(in.get() != 0 ? in.getLong() : null)
+            .active(in.get() != 0)
+            .build();
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+    
+    private static Integer readInteger(ByteBuffer in) {
+        return in.get() != 0 ? in.getInt() : null;
+    }
+    
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+    
+    private static Double readDouble(ByteBuffer in) {
+        return in.get() != 0 ? in.getDouble() : null;
+    }
+}
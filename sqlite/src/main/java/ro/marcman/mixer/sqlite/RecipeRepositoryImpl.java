@@ -4,12 +4,20 @@ import lombok.extern.slf4j.Slf4j;
 import ro.marcman.mixer.core.model.Ingredient;
 import ro.marcman.mixer.core.model.Recipe;
 import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.model.RecipeVersion;
 import ro.marcman.mixer.core.ports.repository.RecipeRepository;
 
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 @Slf4j
@@ -23,24 +31,78 @@ public class RecipeRepositoryImpl implements RecipeRepository {
         this.ingredientRepository = new IngredientRepositoryImpl(dbManager);
     }
     
+    /**
+     * Save the recipe header and its ingredients in one transaction.
+     * On update only the ingredient rows that changed are written (see syncRecipeIngredients).
+     * If anything in the formula changed, the same transaction records a new version and moves
+     * recipes.current_version to it (see recordVersion). Joins a transaction the calling thread
+     * already has open (see restoreVersion) under a savepoint instead of committing it.
+     * 
+     * @return The saved recipe, or null if saving failed (nothing is written in that case)
+     */
     @Override
     public Recipe save(Recipe recipe) {
-        if (recipe.getId() == null) {
-            return insert(recipe);
-        } else {
-            return update(recipe);
+        boolean isNew = recipe.getId() == null;
+        
+        try (Connection conn = dbManager.getConnection()) {
+            boolean ownTransaction = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            Savepoint savepoint = ownTransaction ? null : conn.setSavepoint();
+            try {
+                RecipeVersion previous = null;
+                if (isNew) {
+                    insert(conn, recipe);
+                } else {
+                    previous = loadCurrentVersion(conn, recipe.getId());
+                }
+                IngredientChanges changes = syncRecipeIngredients(conn, recipe, isNew);
+                int version = recordVersion(conn, recipe, previous, changes);
+                if (!isNew) {
+                    update(conn, recipe, version);
+                }
+                if (ownTransaction) {
+                    conn.commit();
+                } else {
+                    conn.releaseSavepoint(savepoint);
+                }
+                recipe.setCurrentVersion(version);
+            } catch (SQLException | RuntimeException e) {
+                if (ownTransaction) {
+                    conn.rollback();
+                } else {
+                    conn.rollback(savepoint);
+                }
+                if (isNew) {
+                    recipe.setId(null);
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+            
+            if (isNew) {
+                log.info("Inserted recipe: {} with {} ingredients", recipe.getName(), recipe.getIngredients().size());
+            } else {
+                log.info("Updated recipe: {}", recipe.getName());
+            }
+            return recipe;
+            
+        } catch (SQLException e) {
+            log.error(isNew ? "Error inserting recipe" : "Error updating recipe", e);
+            return null;
         }
     }
     
-    private Recipe insert(Recipe recipe) {
+    private void insert(Connection conn, Recipe recipe) throws SQLException {
         String sql = """
             INSERT INTO recipes (name, description, category, created_at, updated_at, 
-                               created_by, batch_size, notes, active)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                               created_by, batch_size, notes, active, current_version)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 1)
             """;
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             pstmt.setString(1, recipe.getName());
             pstmt.setString(2, recipe.getDescription());
@@ -58,29 +120,18 @@ public class RecipeRepositoryImpl implements RecipeRepository {
             if (rs.next()) {
                 recipe.setId(rs.getLong(1));
             }
-            
-            // Save recipe ingredients
-            saveRecipeIngredients(recipe);
-            
-            log.info("Inserted recipe: {} with {} ingredients", recipe.getName(), recipe.getIngredients().size());
-            return recipe;
-            
-        } catch (SQLException e) {
-            log.error("Error inserting recipe", e);
-            return null;
         }
     }
     
-    private Recipe update(Recipe recipe) {
+    private void update(Connection conn, Recipe recipe, int currentVersion) throws SQLException {
         String sql = """
             UPDATE recipes 
             SET name = ?, description = ?, category = ?, updated_at = ?,
-                created_by = ?, batch_size = ?, notes = ?, active = ?
+                created_by = ?, batch_size = ?, notes = ?, active = ?, current_version = ?
             WHERE id = ?
             """;
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
             pstmt.setString(1, recipe.getName());
             pstmt.setString(2, recipe.getDescription());
@@ -90,131 +141,334 @@ public class RecipeRepositoryImpl implements RecipeRepository {
             pstmt.setObject(6, recipe.getBatchSize());
             pstmt.setString(7, recipe.getNotes());
             pstmt.setInt(8, recipe.isActive() ? 1 : 0);
-            pstmt.setLong(9, recipe.getId());
+            pstmt.setInt(9, currentVersion);
+            pstmt.setLong(10, recipe.getId());
             
             pstmt.executeUpdate();
-            
-            // Delete old ingredients and save new ones
-            deleteRecipeIngredients(recipe.getId());
-            saveRecipeIngredients(recipe);
-            
-            log.info("Updated recipe: {}", recipe.getName());
-            return recipe;
-            
-        } catch (SQLException e) {
-            log.error("Error updating recipe", e);
-            return null;
         }
     }
     
-    private void saveRecipeIngredients(Recipe recipe) throws SQLException {
+    /**
+     * Ingredient rows written by one save, as recorded in the version history.
+     */
+    private static final class IngredientChanges {
+        private final List<RecipeIngredient> added;
+        private final List<RecipeIngredient> updated;
+        private final Collection<RecipeIngredient> removed;
+        
+        private IngredientChanges(List<RecipeIngredient> added, List<RecipeIngredient> updated,
+                                  Collection<RecipeIngredient> removed) {
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+        }
+        
+        int size() {
+            return added.size() + updated.size() + removed.size();
+        }
+    }
+    
+    /**
+     * Bring the recipe_ingredients rows of a recipe in line with recipe.getIngredients(),
+     * using one batch each for inserts, updates and deletes.
+     * 
+     * Rows are matched to stored rows by id; rows without an id are matched to an unclaimed stored row
+     * with the same ingredient and sequence order. Matched rows are only updated when a column changed.
+     * Every ingredient gets its row id and recipe id set.
+     * 
+     * @return The rows inserted, updated and deleted (the latter with their stored values)
+     */
+    private IngredientChanges syncRecipeIngredients(Connection conn, Recipe recipe, boolean isNew) throws SQLException {
+        Map<Long, RecipeIngredient> stored = isNew ? new HashMap<>() : loadStoredRows(conn, recipe.getId());
+        
+        List<RecipeIngredient> toInsert = new ArrayList<>();
+        List<RecipeIngredient> toUpdate = new ArrayList<>();
+        List<RecipeIngredient> unmatched = new ArrayList<>();
+        
+        for (RecipeIngredient ri : recipe.getIngredients()) {
+            ri.setRecipeId(recipe.getId());
+            RecipeIngredient old = ri.getId() != null ? stored.remove(ri.getId()) : null;
+            if (old != null) {
+                if (!sameColumns(old, ri)) {
+                    toUpdate.add(ri);
+                }
+            } else {
+                unmatched.add(ri);
+            }
+        }
+        for (RecipeIngredient ri : unmatched) {
+            RecipeIngredient old = claimStoredRow(stored, ri);
+            if (old == null) {
+                toInsert.add(ri);
+                continue;
+            }
+            ri.setId(old.getId());
+            if (!sameColumns(old, ri)) {
+                toUpdate.add(ri);
+            }
+        }
+        
+        deleteRecipeIngredients(conn, stored.keySet());
+        updateRecipeIngredients(conn, toUpdate);
+        insertRecipeIngredients(conn, toInsert);
+        
+        log.debug("Recipe {} ingredients: {} inserted, {} updated, {} deleted, {} unchanged", recipe.getId(),
+                  toInsert.size(), toUpdate.size(), stored.size(),
+                  recipe.getIngredients().size() - toInsert.size() - toUpdate.size());
+        return new IngredientChanges(toInsert, toUpdate, stored.values());
+    }
+    
+    /**
+     * Header of the recipe's current version, with version 0 (and no header) if it has none.
+     */
+    private RecipeVersion loadCurrentVersion(Connection conn, Long recipeId) throws SQLException {
+        String sql = """
+            SELECT r.current_version, v.name, v.description, v.category, v.batch_size, v.notes
+            FROM recipes r
+            LEFT JOIN recipe_versions v ON v.recipe_id = r.id AND v.version = r.current_version
+            WHERE r.id = ?
+            """;
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, recipeId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return RecipeVersion.builder()
+                    .recipeId(recipeId)
+                    .version(rs.getInt("current_version"))
+                    .name(rs.getString("name"))
+                    .description(rs.getString("description"))
+                    .category(rs.getString("category"))
+                    .batchSize(rs.getObject("batch_size") != null ? rs.getInt("batch_size") : null)
+                    .notes(rs.getString("notes"))
+                    .build();
+            }
+        }
+    }
+    
+    /**
+     * Append a version to the recipe's history if its header or ingredients differ from the current
+     * version. Versions are copy-on-write: earlier rows are never modified, and a new version stores
+     * only the ingredient changes of this save, so the full formula of version n is the replay of
+     * versions 1..n (see findVersion).
+     * 
+     * @param previous Current version before this save, or null for a new recipe
+     * @return The recipe's current version after this save
+     */
+    private int recordVersion(Connection conn, Recipe recipe, RecipeVersion previous, IngredientChanges changes)
+            throws SQLException {
+        int previousVersion = previous != null ? previous.getVersion() : 0;
+        if (previousVersion > 0 && changes.size() == 0 && sameHeader(previous, recipe)) {
+            return previousVersion;
+        }
+        int version = previousVersion + 1;
+        
+        String versionSql = """
+            INSERT INTO recipe_versions (recipe_id, version, name, description, category, batch_size, notes, created_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            RETURNING id
+            """;
+        long versionId;
+        try (PreparedStatement pstmt = conn.prepareStatement(versionSql)) {
+            pstmt.setLong(1, recipe.getId());
+            pstmt.setInt(2, version);
+            pstmt.setString(3, recipe.getName());
+            pstmt.setString(4, recipe.getDescription());
+            pstmt.setString(5, recipe.getCategory());
+            pstmt.setObject(6, recipe.getBatchSize());
+            pstmt.setString(7, recipe.getNotes());
+            pstmt.setString(8, LocalDateTime.now().toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No id returned for version " + version + " of recipe " + recipe.getId());
+                }
+                versionId = rs.getLong(1);
+            }
+        }
+        
+        if (changes.size() > 0) {
+            String changeSql = """
+                INSERT INTO recipe_version_changes (version_id, change_type, recipe_ingredient_id, ingredient_id,
+                                                    quantity, unit, pulse_duration, sequence_order, notes)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                """;
+            try (PreparedStatement pstmt = conn.prepareStatement(changeSql)) {
+                addChanges(pstmt, versionId, "add", changes.added);
+                addChanges(pstmt, versionId, "update", changes.updated);
+                addChanges(pstmt, versionId, "remove", changes.removed);
+                pstmt.executeBatch();
+            }
+        }
+        
+        log.debug("Recipe {} version {}: {} ingredient changes", recipe.getId(), version, changes.size());
+        return version;
+    }
+    
+    private void addChanges(PreparedStatement pstmt, long versionId, String changeType,
+                            Collection<RecipeIngredient> rows) throws SQLException {
+        for (RecipeIngredient ri : rows) {
+            pstmt.setLong(1, versionId);
+            pstmt.setString(2, changeType);
+            pstmt.setLong(3, ri.getId());
+            pstmt.setObject(4, ri.getIngredientId());
+            pstmt.setObject(5, ri.getQuantity());
+            pstmt.setString(6, ri.getUnit());
+            pstmt.setObject(7, ri.getPulseDuration());
+            pstmt.setObject(8, ri.getSequenceOrder());
+            pstmt.setString(9, ri.getNotes());
+            pstmt.addBatch();
+        }
+    }
+    
+    private boolean sameHeader(RecipeVersion version, Recipe recipe) {
+        return Objects.equals(version.getName(), recipe.getName())
+            && Objects.equals(version.getDescription(), recipe.getDescription())
+            && Objects.equals(version.getCategory(), recipe.getCategory())
+            && Objects.equals(version.getBatchSize(), recipe.getBatchSize())
+            && Objects.equals(version.getNotes(), recipe.getNotes());
+    }
+    
+    private Map<Long, RecipeIngredient> loadStoredRows(Connection conn, Long recipeId) throws SQLException {
+        String sql = """
+            SELECT id, recipe_id, ingredient_id, quantity, unit, pulse_duration, sequence_order, notes
+            FROM recipe_ingredients WHERE recipe_id = ?
+            ORDER BY sequence_order, id
+            """;
+        
+        Map<Long, RecipeIngredient> rows = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, recipeId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    RecipeIngredient ri = RecipeIngredient.builder()
+                        .id(rs.getLong("id"))
+                        .recipeId(rs.getLong("recipe_id"))
+                        .ingredientId(rs.getLong("ingredient_id"))
+                        .quantity(rs.getObject("quantity") != null ? rs.getDouble("quantity") : null)
+                        .unit(rs.getString("unit"))
+                        .pulseDuration(rs.getObject("pulse_duration") != null ? rs.getInt("pulse_duration") : null)
+                        .sequenceOrder(rs.getObject("sequence_order") != null ? rs.getInt("sequence_order") : null)
+                        .notes(rs.getString("notes"))
+                        .build();
+                    rows.put(ri.getId(), ri);
+                }
+            }
+        }
+        return rows;
+    }
+    
+    private RecipeIngredient claimStoredRow(Map<Long, RecipeIngredient> stored, RecipeIngredient ri) {
+        Iterator<RecipeIngredient> it = stored.values().iterator();
+        while (it.hasNext()) {
+            RecipeIngredient old = it.next();
+            if (Objects.equals(old.getIngredientId(), ri.getIngredientId())
+                    && Objects.equals(old.getSequenceOrder(), ri.getSequenceOrder())) {
+                it.remove();
+                return old;
+            }
+        }
+        return null;
+    }
+    
+    private boolean sameColumns(RecipeIngredient a, RecipeIngredient b) {
+        return Objects.equals(a.getIngredientId(), b.getIngredientId())
+            && Objects.equals(a.getQuantity(), b.getQuantity())
+            && Objects.equals(a.getUnit(), b.getUnit())
+            && Objects.equals(a.getPulseDuration(), b.getPulseDuration())
+            && Objects.equals(a.getSequenceOrder(), b.getSequenceOrder())
+            && Objects.equals(a.getNotes(), b.getNotes());
+    }
+    
+    private void insertRecipeIngredients(Connection conn, List<RecipeIngredient> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
         String sql = """
             INSERT INTO recipe_ingredients (recipe_id, ingredient_id, quantity, unit, 
                                           pulse_duration, sequence_order, notes)
             VALUES (?, ?, ?, ?, ?, ?, ?)
             """;
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            for (RecipeIngredient ri : recipe.getIngredients()) {
-                pstmt.setLong(1, recipe.getId());
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (RecipeIngredient ri : rows) {
+                pstmt.setLong(1, ri.getRecipeId());
                 pstmt.setLong(2, ri.getIngredientId());
                 pstmt.setObject(3, ri.getQuantity());
                 pstmt.setString(4, ri.getUnit());
                 pstmt.setObject(5, ri.getPulseDuration());
                 pstmt.setObject(6, ri.getSequenceOrder());
                 pstmt.setString(7, ri.getNotes());
-                pstmt.executeUpdate();
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        
+        // The batch ran inside our write transaction, so AUTOINCREMENT handed out consecutive ids
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+            long id = rs.next() ? rs.getLong(1) - rows.size() + 1 : 0;
+            for (RecipeIngredient ri : rows) {
+                ri.setId(id++);
             }
         }
     }
     
-    private void deleteRecipeIngredients(Long recipeId) throws SQLException {
-        String sql = "DELETE FROM recipe_ingredients WHERE recipe_id = ?";
+    private void updateRecipeIngredients(Connection conn, List<RecipeIngredient> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String sql = """
+            UPDATE recipe_ingredients
+            SET ingredient_id = ?, quantity = ?, unit = ?, pulse_duration = ?, sequence_order = ?, notes = ?
+            WHERE id = ?
+            """;
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, recipeId);
-            pstmt.executeUpdate();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (RecipeIngredient ri : rows) {
+                pstmt.setLong(1, ri.getIngredientId());
+                pstmt.setObject(2, ri.getQuantity());
+                pstmt.setString(3, ri.getUnit());
+                pstmt.setObject(4, ri.getPulseDuration());
+                pstmt.setObject(5, ri.getSequenceOrder());
+                pstmt.setString(6, ri.getNotes());
+                pstmt.setLong(7, ri.getId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
         }
     }
     
-    @Override
-    public Optional<Recipe> findById(Long id) {
-        String sql = "SELECT * FROM recipes WHERE id = ?";
+    private void deleteRecipeIngredients(Connection conn, Collection<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String sql = "DELETE FROM recipe_ingredients WHERE id = ?";
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setLong(1, id);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                Recipe recipe = mapResultSetToRecipe(rs);
-                loadRecipeIngredients(recipe);
-                return Optional.of(recipe);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Long id : ids) {
+                pstmt.setLong(1, id);
+                pstmt.addBatch();
             }
-            
-        } catch (SQLException e) {
-            log.error("Error finding recipe by id", e);
+            pstmt.executeBatch();
         }
-        
-        return Optional.empty();
+    }
+    
+    @Override
+    public Optional<Recipe> findById(Long id) {
+        List<Recipe> recipes = findRecipes("id = ?", id);
+        return recipes.isEmpty() ? Optional.empty() : Optional.of(recipes.get(0));
     }
     
     @Override
     public List<Recipe> findAll() {
-        List<Recipe> recipes = new ArrayList<>();
-        String sql = "SELECT * FROM recipes ORDER BY created_at DESC";
-        
-        try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            // First, load all recipes
-            while (rs.next()) {
-                Recipe recipe = mapResultSetToRecipe(rs);
-                recipes.add(recipe);
-            }
-            
-        } catch (SQLException e) {
-            log.error("Error finding all recipes", e);
-        }
-        
-        // Then load ingredients for each (separate connections)
-        for (Recipe recipe : recipes) {
-            loadRecipeIngredients(recipe);
-        }
-        
-        return recipes;
+        return findRecipes(null);
     }
     
     @Override
     public List<Recipe> findAllActive() {
-        List<Recipe> recipes = new ArrayList<>();
-        String sql = "SELECT * FROM recipes WHERE active = 1 ORDER BY created_at DESC";
-        
-        try (Connection conn = dbManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            // First, load all recipes
-            while (rs.next()) {
-                Recipe recipe = mapResultSetToRecipe(rs);
-                recipes.add(recipe);
-            }
-            
-        } catch (SQLException e) {
-            log.error("Error finding active recipes", e);
-        }
-        
-        // Then load ingredients for each (separate connections)
-        for (Recipe recipe : recipes) {
-            loadRecipeIngredients(recipe);
-        }
-        
-        return recipes;
+        return findRecipes("active = 1");
     }
     
     @Override
@@ -235,127 +489,313 @@ public class RecipeRepositoryImpl implements RecipeRepository {
     
     @Override
     public List<Recipe> searchByName(String name) {
-        List<Recipe> recipes = new ArrayList<>();
-        String sql = "SELECT * FROM recipes WHERE name LIKE ? ORDER BY created_at DESC";
+        return findRecipes("name LIKE ?", "%" + name + "%");
+    }
+    
+    @Override
+    public List<Recipe> findByCategory(String category) {
+        return findRecipes("category = ?", category);
+    }
+    
+    @Override
+    public boolean existsById(Long id) {
+        String sql = "SELECT COUNT(*) FROM recipes WHERE id = ?";
         
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setString(1, "%" + name + "%");
+            pstmt.setLong(1, id);
             ResultSet rs = pstmt.executeQuery();
             
-            // First, load all recipes
-            while (rs.next()) {
-                Recipe recipe = mapResultSetToRecipe(rs);
-                recipes.add(recipe);
+            if (rs.next()) {
+                return rs.getInt(1) > 0;
             }
             
         } catch (SQLException e) {
-            log.error("Error searching recipes by name", e);
-        }
-        
-        // Then load ingredients for each
-        for (Recipe recipe : recipes) {
-            loadRecipeIngredients(recipe);
+            log.error("Error checking if recipe exists", e);
         }
         
-        return recipes;
+        return false;
     }
     
-    @Override
-    public List<Recipe> findByCategory(String category) {
-        List<Recipe> recipes = new ArrayList<>();
-        String sql = "SELECT * FROM recipes WHERE category = ? ORDER BY created_at DESC";
+    /**
+     * Load recipes matching a WHERE condition on the recipes table, together with their ingredients.
+     * Always runs exactly two queries on one connection, regardless of how many recipes match:
+     * one for the recipe headers and one joined query for all their ingredients (see loadRecipeIngredients).
+     * 
+     * @param recipeFilter WHERE condition on recipes columns, or null for all recipes
+     * @param params Parameters for the condition placeholders
+     */
+    private List<Recipe> findRecipes(String recipeFilter, Object... params) {
+        String where = recipeFilter != null ? " WHERE " + recipeFilter : "";
+        String sql = "SELECT * FROM recipes" + where + " ORDER BY created_at DESC";
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, category);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Recipe recipe = mapResultSetToRecipe(rs);
-                loadRecipeIngredients(recipe);
-                recipes.add(recipe);
+        List<Recipe> recipes = new ArrayList<>();
+        try (Connection conn = dbManager.getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                setParameters(pstmt, params);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        recipes.add(mapResultSetToRecipe(rs));
+                    }
+                }
             }
             
+            if (!recipes.isEmpty()) {
+                loadRecipeIngredients(conn, recipes, where, params);
+            }
         } catch (SQLException e) {
-            log.error("Error finding recipes by category", e);
+            log.error("Error finding recipes ({})", recipeFilter != null ? recipeFilter : "all", e);
         }
         
         return recipes;
     }
     
+    /**
+     * Load the ingredients of all given recipes with a single query.
+     * Each row joins the recipe ingredient with its ingredient and the last master of that ingredient's
+     * master chain, so master configuration is applied in memory without further queries.
+     */
+    private void loadRecipeIngredients(Connection conn, List<Recipe> recipes, String where, Object... params)
+            throws SQLException {
+        String sql = "WITH RECURSIVE selected_recipes(id) AS (SELECT id FROM recipes%s),\n".formatted(where)
+                + IngredientRepositoryImpl.masterChainCtes("""
+                    SELECT ingredient_id AS id FROM recipe_ingredients
+                    WHERE recipe_id IN (SELECT id FROM selected_recipes)""")
+                + """
+            SELECT ri.id AS ri_id, ri.recipe_id AS ri_recipe_id, ri.ingredient_id AS ri_ingredient_id,
+                   ri.quantity AS ri_quantity, ri.unit AS ri_unit, ri.pulse_duration AS ri_pulse_duration,
+                   ri.sequence_order AS ri_sequence_order, ri.notes AS ri_notes,
+                   i.*, %s
+            FROM recipe_ingredients ri
+            LEFT JOIN ingredients i ON i.id = ri.ingredient_id
+            LEFT JOIN master_root mr ON mr.id = i.id
+            LEFT JOIN ingredients m ON m.id = mr.root_id AND mr.depth > 0
+            WHERE ri.recipe_id IN (SELECT id FROM selected_recipes)
+            ORDER BY ri.recipe_id, ri.sequence_order, ri.id
+            """.formatted(IngredientRepositoryImpl.MASTER_COLUMNS);
+        
+        Map<Long, List<RecipeIngredient>> ingredientsByRecipe = new HashMap<>();
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            setParameters(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    RecipeIngredient ri = RecipeIngredient.builder()
+                        .id(rs.getLong("ri_id"))
+                        .recipeId(rs.getLong("ri_recipe_id"))
+                        .ingredientId(rs.getLong("ri_ingredient_id"))
+                        .quantity(rs.getObject("ri_quantity") != null ? rs.getDouble("ri_quantity") : null)
+                        .unit(rs.getString("ri_unit"))
+                        .pulseDuration(rs.getObject("ri_pulse_duration") != null ? rs.getInt("ri_pulse_duration") : null)
+                        .sequenceOrder(rs.getObject("ri_sequence_order") != null ? rs.getInt("ri_sequence_order") : null)
+                        .notes(rs.getString("ri_notes"))
+                        .build();
+                    
+                    // LEFT JOIN: ingredient columns are NULL when the ingredient row is missing
+                    if (rs.getObject("id") != null) {
+                        Ingredient ingredient = ingredientRepository.mapResultSetToIngredient(rs);
+                        ingredientRepository.applyMasterConfiguration(ingredient, rs);
+                        ri.setIngredient(ingredient);
+                    }
+                    
+                    ingredientsByRecipe.computeIfAbsent(ri.getRecipeId(), k -> new ArrayList<>()).add(ri);
+                }
+            }
+        }
+        
+        for (Recipe recipe : recipes) {
+            recipe.setIngredients(ingredientsByRecipe.getOrDefault(recipe.getId(), new ArrayList<>()));
+        }
+    }
+    
     @Override
-    public boolean existsById(Long id) {
-        String sql = "SELECT COUNT(*) FROM recipes WHERE id = ?";
+    public List<RecipeVersion> findVersions(Long recipeId) {
+        String sql = """
+            SELECT v.*, (SELECT COUNT(*) FROM recipe_version_changes c WHERE c.version_id = v.id) AS ingredient_changes
+            FROM recipe_versions v
+            WHERE v.recipe_id = ?
+            ORDER BY v.version DESC
+            """;
         
+        List<RecipeVersion> versions = new ArrayList<>();
         try (Connection conn = dbManager.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
-            pstmt.setLong(1, id);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            pstmt.setObject(1, recipeId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    versions.add(mapResultSetToVersion(rs));
+                }
             }
             
         } catch (SQLException e) {
-            log.error("Error checking if recipe exists", e);
+            log.error("Error finding versions of recipe {}", recipeId, e);
         }
         
-        return false;
+        return versions;
     }
     
-    private void loadRecipeIngredients(Recipe recipe) {
-        String sql = """
-            SELECT id, recipe_id, ingredient_id, quantity, unit, pulse_duration, sequence_order, notes
-            FROM recipe_ingredients
-            WHERE recipe_id = ?
-            ORDER BY sequence_order
+    /**
+     * Load one version with its full formula, rebuilt by replaying the ingredient changes of every
+     * version up to it. One query for the header and one for the changes, joined with their
+     * ingredients and master configuration as in loadRecipeIngredients.
+     */
+    @Override
+    public Optional<RecipeVersion> findVersion(Long recipeId, int version) {
+        String headerSql = """
+            SELECT v.*, (SELECT COUNT(*) FROM recipe_version_changes c WHERE c.version_id = v.id) AS ingredient_changes
+            FROM recipe_versions v
+            WHERE v.recipe_id = ? AND v.version = ?
             """;
+        String changesSql = """
+            WITH RECURSIVE history AS (
+                SELECT vc.id AS h_id, v.version AS h_version, vc.change_type AS h_change_type,
+                       vc.recipe_ingredient_id AS h_recipe_ingredient_id, vc.ingredient_id AS h_ingredient_id,
+                       vc.quantity AS h_quantity, vc.unit AS h_unit, vc.pulse_duration AS h_pulse_duration,
+                       vc.sequence_order AS h_sequence_order, vc.notes AS h_notes
+                FROM recipe_versions v
+                JOIN recipe_version_changes vc ON vc.version_id = v.id
+                WHERE v.recipe_id = ? AND v.version <= ?
+            ),
+            """ + IngredientRepositoryImpl.masterChainCtes("SELECT DISTINCT h_ingredient_id AS id FROM history") + """
+            SELECT h.*, i.*, %s
+            FROM history h
+            LEFT JOIN ingredients i ON i.id = h.h_ingredient_id
+            LEFT JOIN master_root mr ON mr.id = i.id
+            LEFT JOIN ingredients m ON m.id = mr.root_id AND mr.depth > 0
+            ORDER BY h.h_version, h.h_id
+            """.formatted(IngredientRepositoryImpl.MASTER_COLUMNS);
         
-        // STEP 1: First, collect all RecipeIngredient data (without nested DB calls)
-        List<RecipeIngredient> ingredients = new ArrayList<>();
-        
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = dbManager.getConnection()) {
+            RecipeVersion found;
+            try (PreparedStatement pstmt = conn.prepareStatement(headerSql)) {
+                pstmt.setLong(1, recipeId);
+                pstmt.setInt(2, version);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return Optional.empty();
+                    }
+                    found = mapResultSetToVersion(rs);
+                }
+            }
             
-            pstmt.setLong(1, recipe.getId());
-            ResultSet rs = pstmt.executeQuery();
+            // Keyed by recipe_ingredients id, which stays the same while a row is changed
+            Map<Long, RecipeIngredient> rows = new LinkedHashMap<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(changesSql)) {
+                pstmt.setLong(1, recipeId);
+                pstmt.setInt(2, version);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long rowId = rs.getLong("h_recipe_ingredient_id");
+                        if ("remove".equals(rs.getString("h_change_type"))) {
+                            rows.remove(rowId);
+                            continue;
+                        }
+                        RecipeIngredient ri = RecipeIngredient.builder()
+                            .id(rowId)
+                            .recipeId(recipeId)
+                            .ingredientId(rs.getLong("h_ingredient_id"))
+                            .quantity(rs.getObject("h_quantity") != null ? rs.getDouble("h_quantity") : null)
+                            .unit(rs.getString("h_unit"))
+                            .pulseDuration(rs.getObject("h_pulse_duration") != null ? rs.getInt("h_pulse_duration") : null)
+                            .sequenceOrder(rs.getObject("h_sequence_order") != null ? rs.getInt("h_sequence_order") : null)
+                            .notes(rs.getString("h_notes"))
+                            .build();
+                        
+                        // LEFT JOIN: the ingredient may have been deleted since this version
+                        if (rs.getObject("id") != null) {
+                            Ingredient ingredient = ingredientRepository.mapResultSetToIngredient(rs);
+                            ingredientRepository.applyMasterConfiguration(ingredient, rs);
+                            ri.setIngredient(ingredient);
+                        }
+                        rows.put(rowId, ri);
+                    }
+                }
+            }
+            
+            List<RecipeIngredient> ingredients = new ArrayList<>(rows.values());
+            ingredients.sort(Comparator.comparing(RecipeIngredient::getSequenceOrder,
+                            Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparing(RecipeIngredient::getId));
+            found.setIngredients(ingredients);
+            return Optional.of(found);
             
-            while (rs.next()) {
-                Long ingredientId = rs.getLong("ingredient_id");
+        } catch (SQLException e) {
+            log.error("Error loading version {} of recipe {}", version, recipeId, e);
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Reads the current recipe and the old version and saves the result in one transaction on one
+     * connection (findById, findVersion and save share it), so a save by someone else cannot land in
+     * between and be overwritten, and the new version records the right base.
+     */
+    @Override
+    public Optional<Recipe> restoreVersion(Long recipeId, int version) {
+        try (Connection conn = dbManager.getConnection()) {
+            boolean ownTransaction = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                // Take the write lock before reading: a concurrent save waits for this one instead of
+                // invalidating what it read
+                try (PreparedStatement lock = conn.prepareStatement(
+                        "UPDATE recipes SET current_version = current_version WHERE id = ?")) {
+                    lock.setObject(1, recipeId);
+                    lock.executeUpdate();
+                }
+                Optional<Recipe> current = findById(recipeId);
+                Optional<RecipeVersion> restored = findVersion(recipeId, version);
+                if (current.isEmpty() || restored.isEmpty()) {
+                    if (ownTransaction) {
+                        conn.rollback();
+                    }
+                    return Optional.empty();
+                }
                 
-                RecipeIngredient ri = RecipeIngredient.builder()
-                    .id(rs.getLong("id"))
-                    .recipeId(rs.getLong("recipe_id"))
-                    .ingredientId(ingredientId)
-                    .quantity(rs.getObject("quantity") != null ? rs.getDouble("quantity") : null)
-                    .unit(rs.getString("unit"))
-                    .pulseDuration(rs.getObject("pulse_duration") != null ? rs.getInt("pulse_duration") : null)
-                    .sequenceOrder(rs.getObject("sequence_order") != null ? rs.getInt("sequence_order") : null)
-                    .notes(rs.getString("notes"))
-                    .build();
+                Recipe recipe = current.get();
+                RecipeVersion old = restored.get();
+                recipe.setName(old.getName());
+                recipe.setDescription(old.getDescription());
+                recipe.setCategory(old.getCategory());
+                recipe.setBatchSize(old.getBatchSize());
+                recipe.setNotes(old.getNotes());
+                // Rows still stored keep their id; rows removed since then are inserted again
+                recipe.setIngredients(old.getIngredients());
                 
-                ingredients.add(ri);
+                Recipe saved = save(recipe);
+                if (saved == null) {
+                    if (ownTransaction) {
+                        conn.rollback();
+                    }
+                    return Optional.empty();
+                }
+                if (ownTransaction) {
+                    conn.commit();
+                }
+                log.info("Restored recipe {} to version {} as version {}", recipeId, version, saved.getCurrentVersion());
+                return Optional.of(saved);
+            } catch (SQLException | RuntimeException e) {
+                if (ownTransaction) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
             }
-            // ResultSet is closed here automatically
-            
         } catch (SQLException e) {
-            log.error("Error loading recipe ingredients", e);
-            e.printStackTrace();
-            return;
+            log.error("Error restoring version {} of recipe {}", version, recipeId, e);
+            return Optional.empty();
         }
-        
-        // STEP 2: Now that ResultSet is closed, load ingredient details
-        // Note: ingredientRepository.findById() will automatically apply master configuration if needed
-        for (RecipeIngredient ri : ingredients) {
-            Ingredient ingredient = ingredientRepository.findById(ri.getIngredientId()).orElse(null);
-            ri.setIngredient(ingredient);
+    }
+    
+    private void setParameters(PreparedStatement pstmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            pstmt.setObject(i + 1, params[i]);
         }
-        
-        recipe.setIngredients(ingredients);
     }
     
     private Recipe mapResultSetToRecipe(ResultSet rs) throws SQLException {
@@ -370,6 +810,22 @@ public class RecipeRepositoryImpl implements RecipeRepository {
             .batchSize(rs.getInt("batch_size"))
             .notes(rs.getString("notes"))
             .active(rs.getInt("active") == 1)
+            .currentVersion(rs.getObject("current_version") != null ? rs.getInt("current_version") : null)
+            .build();
+    }
+    
+    private RecipeVersion mapResultSetToVersion(ResultSet rs) throws SQLException {
+        return RecipeVersion.builder()
+            .id(rs.getLong("id"))
+            .recipeId(rs.getLong("recipe_id"))
+            .version(rs.getInt("version"))
+            .name(rs.getString("name"))
+            .description(rs.getString("description"))
+            .category(rs.getString("category"))
+            .batchSize(rs.getObject("batch_size") != null ? rs.getInt("batch_size") : null)
+            .notes(rs.getString("notes"))
+            .createdAt(rs.getString("created_at") != null ? LocalDateTime.parse(rs.getString("created_at")) : null)
+            .ingredientChanges(rs.getInt("ingredient_changes"))
             .build();
     }
 }
@@ -0,0 +1,564 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Versioned schema migrations, tracked in PRAGMA user_version.
+ * 
+ * Each migration has a version number and runs once, in version order. All pending migrations run
+ * in a single transaction together with the user_version update, so a failed upgrade leaves the
+ * database untouched. Steps must be idempotent: databases created before versioning start at
+ * user_version 0 and may already contain some of the changes.
+ * 
+ * To change the schema, append a migration with the next version number. Never edit one that has shipped.
+ */
+@Slf4j
+final class SchemaMigrator {
+    
+    /**
+     * Receives progress of long-running migration steps (e.g. rows copied during a table rebuild).
+     */
+    @FunctionalInterface
+    interface ProgressListener {
+        void onProgress(Migration migration, long done, long total);
+    }
+    
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection connection, Progress progress) throws SQLException;
+    }
+    
+    /**
+     * Progress reporter handed to a running step.
+     */
+    @FunctionalInterface
+    interface Progress {
+        void report(long done, long total);
+    }
+    
+    static final class Migration {
+        private final int version;
+        private final String description;
+        private final Step step;
+        
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+        
+        int getVersion() {
+            return version;
+        }
+        
+        String getDescription() {
+            return description;
+        }
+        
+        @Override
+        public String toString() {
+            return "V" + version + " " + description;
+        }
+    }
+    
+    // Rows copied per statement when rebuilding a table
+    private static final int COPY_BATCH_SIZE = 1000;
+    
+    private static final String INGREDIENT_COLUMNS = """
+            id, name, description, category, cas_number, ifra_naturals_category, ifra_status,
+            arduino_uid, arduino_pin, arduino_uid_small, arduino_pin_small, default_duration,
+            ms_per_gram_large, ms_per_gram_small, pump_threshold_grams, concentration, unit,
+            cost_per_unit, stock_quantity, supplier, batch_number, master_ingredient_id, active""";
+    
+    static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create base tables", SchemaMigrator::createBaseTables),
+            new Migration(2, "Add pump calibration and master ingredient columns", SchemaMigrator::addIngredientColumns),
+            new Migration(3, "Remove UNIQUE constraint on ingredients.cas_number", SchemaMigrator::removeUniqueCasNumber),
+            new Migration(4, "Create indexes for repository lookups", SchemaMigrator::createLookupIndexes),
+            new Migration(5, "Add IFRA import content hash", SchemaMigrator::addImportHash),
+            new Migration(6, "Create full-text search index on ingredients", SchemaMigrator::createIngredientSearch),
+            new Migration(7, "Create stock movements ledger", SchemaMigrator::createStockMovements),
+            new Migration(8, "Add ingredient catalog version counter", SchemaMigrator::createCatalogVersion),
+            new Migration(9, "Create recipe version history", SchemaMigrator::createRecipeVersions)
+    );
+    
+    private final List<Migration> migrations;
+    private final ProgressListener progressListener;
+    
+    SchemaMigrator() {
+        this(MIGRATIONS, (migration, done, total) ->
+                log.info("Migration {}: {}/{} rows", migration, done, total));
+    }
+    
+    SchemaMigrator(List<Migration> migrations, ProgressListener progressListener) {
+        this.migrations = migrations;
+        this.progressListener = progressListener;
+    }
+    
+    /**
+     * Latest schema version known to this build.
+     */
+    int getLatestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+    
+    /**
+     * Bring the database up to the latest version. Does nothing (one PRAGMA read) when it is already current.
+     * 
+     * @return The schema version after migrating
+     * @throws SQLException if a migration fails; the transaction is rolled back and the version is unchanged
+     */
+    int migrate(Connection connection) throws SQLException {
+        int current = getUserVersion(connection);
+        int latest = getLatestVersion();
+        if (current >= latest) {
+            if (current > latest) {
+                log.warn("Database schema version {} is newer than this application ({})", current, latest);
+            }
+            return current;
+        }
+        
+        log.info("Migrating database schema from version {} to {}", current, latest);
+        long start = System.nanoTime();
+        
+        // Table rebuilds drop and recreate tables; with foreign keys enforced that would cascade
+        // into recipe_ingredients. The pragma is a no-op inside a transaction, so set it first.
+        setForeignKeys(connection, false);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (Migration migration : migrations) {
+                if (migration.getVersion() <= current) {
+                    continue;
+                }
+                log.info("Applying migration {}", migration);
+                migration.step.apply(connection, (done, total) -> progressListener.onProgress(migration, done, total));
+            }
+            checkForeignKeys(connection);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA user_version = " + latest);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            log.error("Database migration failed, schema stays at version {}", current, e);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            setForeignKeys(connection, true);
+        }
+        
+        log.info("Database schema migrated to version {} in {} ms", latest, (System.nanoTime() - start) / 1_000_000);
+        return latest;
+    }
+    
+    static int getUserVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    private static void createBaseTables(Connection connection, Progress progress) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Ingredients table with IFRA data
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS ingredients (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    name TEXT NOT NULL,
+                    description TEXT,
+                    category TEXT,
+                    cas_number TEXT,
+                    ifra_naturals_category TEXT,
+                    ifra_status TEXT,
+                    arduino_uid TEXT,
+                    arduino_pin INTEGER,
+                    arduino_uid_small TEXT,
+                    arduino_pin_small INTEGER,
+                    default_duration INTEGER,
+                    ms_per_gram_large INTEGER,
+                    ms_per_gram_small INTEGER,
+                    pump_threshold_grams REAL,
+                    concentration REAL,
+                    unit TEXT,
+                    cost_per_unit REAL,
+                    stock_quantity REAL,
+                    supplier TEXT,
+                    batch_number TEXT,
+                    master_ingredient_id INTEGER,
+                    active INTEGER DEFAULT 1,
+                    FOREIGN KEY (master_ingredient_id) REFERENCES ingredients(id) ON DELETE SET NULL
+                )
+            """);
+            
+            // Recipes table
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS recipes (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    name TEXT NOT NULL,
+                    description TEXT,
+                    category TEXT,
+                    created_at TEXT,
+                    updated_at TEXT,
+                    created_by TEXT,
+                    batch_size INTEGER,
+                    notes TEXT,
+                    active INTEGER DEFAULT 1
+                )
+            """);
+            
+            // Recipe Ingredients table
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS recipe_ingredients (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    recipe_id INTEGER NOT NULL,
+                    ingredient_id INTEGER NOT NULL,
+                    quantity REAL,
+                    unit TEXT,
+                    pulse_duration INTEGER,
+                    sequence_order INTEGER,
+                    notes TEXT,
+                    FOREIGN KEY (recipe_id) REFERENCES recipes(id) ON DELETE CASCADE,
+                    FOREIGN KEY (ingredient_id) REFERENCES ingredients(id) ON DELETE CASCADE
+                )
+            """);
+        }
+    }
+    
+    /**
+     * Columns added after the first release. Databases created since then already have them.
+     */
+    private static void addIngredientColumns(Connection connection, Progress progress) throws SQLException {
+        addColumnIfMissing(connection, "ingredients", "arduino_uid_small", "TEXT");
+        addColumnIfMissing(connection, "ingredients", "ms_per_gram_large", "INTEGER");
+        addColumnIfMissing(connection, "ingredients", "ms_per_gram_small", "INTEGER");
+        addColumnIfMissing(connection, "ingredients", "pump_threshold_grams", "REAL");
+        addColumnIfMissing(connection, "ingredients", "master_ingredient_id", "INTEGER");
+    }
+    
+    /**
+     * Early databases declared cas_number UNIQUE, which prevents several ingredients sharing a CAS.
+     * SQLite cannot drop a constraint, so the table is rebuilt and rows are copied in batches.
+     */
+    private static void removeUniqueCasNumber(Connection connection, Progress progress) throws SQLException {
+        String createSql;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT sql FROM sqlite_master WHERE type='table' AND name='ingredients'")) {
+            createSql = rs.next() ? rs.getString("sql") : null;
+        }
+        if (createSql == null || !createSql.contains("cas_number TEXT UNIQUE")) {
+            return;
+        }
+        log.info("Detected UNIQUE constraint on cas_number, rebuilding ingredients table");
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS ingredients_new");
+            stmt.execute("""
+                CREATE TABLE ingredients_new (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    name TEXT NOT NULL,
+                    description TEXT,
+                    category TEXT,
+                    cas_number TEXT,
+                    ifra_naturals_category TEXT,
+                    ifra_status TEXT,
+                    arduino_uid TEXT,
+                    arduino_pin INTEGER,
+                    arduino_uid_small TEXT,
+                    arduino_pin_small INTEGER,
+                    default_duration INTEGER,
+                    ms_per_gram_large INTEGER,
+                    ms_per_gram_small INTEGER,
+                    pump_threshold_grams REAL,
+                    concentration REAL,
+                    unit TEXT,
+                    cost_per_unit REAL,
+                    stock_quantity REAL,
+                    supplier TEXT,
+                    batch_number TEXT,
+                    master_ingredient_id INTEGER,
+                    active INTEGER DEFAULT 1,
+                    FOREIGN KEY (master_ingredient_id) REFERENCES ingredients(id) ON DELETE SET NULL
+                )
+            """);
+        }
+        
+        copyInBatches(connection, "ingredients", "ingredients_new", INGREDIENT_COLUMNS, progress);
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE ingredients");
+            stmt.execute("ALTER TABLE ingredients_new RENAME TO ingredients");
+        }
+        log.info("Successfully migrated ingredients table - removed UNIQUE constraint on cas_number");
+    }
+    
+    /**
+     * Indexes for the WHERE and ORDER BY clauses used by the repositories.
+     * Expression indexes must repeat the exact expression used in the queries (see IngredientIndex).
+     */
+    private static void createLookupIndexes(Connection connection, Progress progress) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Recipe ingredients are loaded per recipe in sequence order; ingredient_id serves deletes and FK cascades
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipe_ingredients_recipe ON recipe_ingredients(recipe_id, sequence_order)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipe_ingredients_ingredient ON recipe_ingredients(ingredient_id)");
+            
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_name ON ingredients(name)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_category ON ingredients(category, name)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_arduino_uid ON ingredients(arduino_uid, arduino_pin)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_master ON ingredients(master_ingredient_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_cas ON ingredients(lower(trim(cas_number)))");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_pin_large ON ingredients(lower(trim(arduino_uid)), arduino_pin)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_ingredients_pin_small ON ingredients(lower(trim(arduino_uid_small)), arduino_pin_small)");
+            
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipes_created ON recipes(created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipes_active ON recipes(active, created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipes_category ON recipes(category, created_at)");
+        }
+    }
+    
+    /**
+     * Hash of the CSV row an ingredient was last imported from (see IfraDataImporter.importDelta).
+     */
+    private static void addImportHash(Connection connection, Progress progress) throws SQLException {
+        addColumnIfMissing(connection, "ingredients", "import_hash", "TEXT");
+    }
+    
+    /**
+     * FTS5 index over the searchable ingredient columns (see IngredientRepositoryImpl.search).
+     * It is an external-content table: the text stays in ingredients and triggers keep the index in step.
+     * A later migration that rebuilds the ingredients table must recreate the triggers.
+     */
+    private static void createIngredientSearch(Connection connection, Progress progress) throws SQLException {
+        String columns = "name, cas_number, category, ifra_naturals_category, description";
+        String newValues = "new.name, new.cas_number, new.category, new.ifra_naturals_category, new.description";
+        String oldValues = "old.name, old.cas_number, old.category, old.ifra_naturals_category, old.description";
+        try (Statement stmt = connection.createStatement()) {
+            // unicode61 splits CAS numbers on '-' and folds case and accents
+            stmt.execute("""
+                CREATE VIRTUAL TABLE IF NOT EXISTS ingredients_fts USING fts5(
+                    %s,
+                    content = 'ingredients', content_rowid = 'id',
+                    tokenize = 'unicode61 remove_diacritics 2'
+                )
+            """.formatted(columns));
+            stmt.execute("""
+                CREATE TRIGGER IF NOT EXISTS ingredients_fts_insert AFTER INSERT ON ingredients BEGIN
+                    INSERT INTO ingredients_fts (rowid, %1$s) VALUES (new.id, %2$s);
+                END
+            """.formatted(columns, newValues));
+            stmt.execute("""
+                CREATE TRIGGER IF NOT EXISTS ingredients_fts_delete AFTER DELETE ON ingredients BEGIN
+                    INSERT INTO ingredients_fts (ingredients_fts, rowid, %1$s) VALUES ('delete', old.id, %2$s);
+                END
+            """.formatted(columns, oldValues));
+            stmt.execute("""
+                CREATE TRIGGER IF NOT EXISTS ingredients_fts_update AFTER UPDATE OF %1$s ON ingredients BEGIN
+                    INSERT INTO ingredients_fts (ingredients_fts, rowid, %1$s) VALUES ('delete', old.id, %2$s);
+                    INSERT INTO ingredients_fts (rowid, %1$s) VALUES (new.id, %3$s);
+                END
+            """.formatted(columns, oldValues, newValues));
+            // ORDER BY rank ranks with bm25, weighted towards name, then CAS number, then NCS category
+            stmt.execute("INSERT INTO ingredients_fts (ingredients_fts, rank) VALUES ('rank', 'bm25(10.0, 5.0, 1.0, 2.0, 1.0)')");
+            // Index the rows that existed before the triggers
+            stmt.execute("INSERT INTO ingredients_fts (ingredients_fts) VALUES ('rebuild')");
+        }
+    }
+    
+    /**
+     * Ledger of stock changes (see StockMovementRepositoryImpl). Rows are only ever appended.
+     */
+    private static void createStockMovements(Connection connection, Progress progress) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS stock_movements (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    ingredient_id INTEGER NOT NULL,
+                    recipe_id INTEGER,
+                    quantity REAL NOT NULL,
+                    stock_after REAL,
+                    reason TEXT,
+                    created_at TEXT,
+                    FOREIGN KEY (ingredient_id) REFERENCES ingredients(id) ON DELETE CASCADE,
+                    FOREIGN KEY (recipe_id) REFERENCES recipes(id) ON DELETE SET NULL
+                )
+            """);
+            // History per ingredient and per recipe, newest first
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_stock_movements_ingredient ON stock_movements(ingredient_id, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_stock_movements_recipe ON stock_movements(recipe_id, id)");
+        }
+    }
+    
+    /**
+     * Single-row counter bumped by every insert, update and delete on ingredients, so a copy of the
+     * catalog (see IngredientSnapshot) can tell whether it is still current with one indexed read.
+     */
+    private static void createCatalogVersion(Connection connection, Progress progress) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS catalog_version (
+                    id INTEGER PRIMARY KEY CHECK (id = 1),
+                    version INTEGER NOT NULL
+                )
+            """);
+            stmt.execute("INSERT OR IGNORE INTO catalog_version (id, version) VALUES (1, 0)");
+            for (String event : List.of("INSERT", "UPDATE", "DELETE")) {
+                stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS ingredients_version_%s AFTER %s ON ingredients BEGIN
+                        UPDATE catalog_version SET version = version + 1 WHERE id = 1;
+                    END
+                """.formatted(event.toLowerCase(), event));
+            }
+        }
+    }
+    
+    /**
+     * Immutable recipe versions (see RecipeRepositoryImpl.recordVersion). recipes.current_version points
+     * at the latest one; recipe_ingredients stays the materialized current formula, so loading a recipe
+     * does not read the history. Each version stores only the ingredient rows it added, changed or removed.
+     * Existing recipes get a version 1 holding their current ingredients.
+     */
+    private static void createRecipeVersions(Connection connection, Progress progress) throws SQLException {
+        addColumnIfMissing(connection, "recipes", "current_version", "INTEGER");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS recipe_versions (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    recipe_id INTEGER NOT NULL,
+                    version INTEGER NOT NULL,
+                    name TEXT,
+                    description TEXT,
+                    category TEXT,
+                    batch_size INTEGER,
+                    notes TEXT,
+                    created_at TEXT,
+                    UNIQUE (recipe_id, version),
+                    FOREIGN KEY (recipe_id) REFERENCES recipes(id) ON DELETE CASCADE
+                )
+            """);
+            // No foreign key on ingredient_id: history outlives deleted ingredients
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS recipe_version_changes (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    version_id INTEGER NOT NULL,
+                    change_type TEXT NOT NULL CHECK (change_type IN ('add', 'update', 'remove')),
+                    recipe_ingredient_id INTEGER NOT NULL,
+                    ingredient_id INTEGER,
+                    quantity REAL,
+                    unit TEXT,
+                    pulse_duration INTEGER,
+                    sequence_order INTEGER,
+                    notes TEXT,
+                    FOREIGN KEY (version_id) REFERENCES recipe_versions(id) ON DELETE CASCADE
+                )
+            """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_recipe_version_changes_version ON recipe_version_changes(version_id)");
+            // Versions are written once; only deleting the recipe removes them
+            for (String table : List.of("recipe_versions", "recipe_version_changes")) {
+                stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS %1$s_immutable BEFORE UPDATE ON %1$s BEGIN
+                        SELECT RAISE(ABORT, '%1$s rows are immutable');
+                    END
+                """.formatted(table));
+            }
+            
+            stmt.execute("""
+                INSERT INTO recipe_versions (recipe_id, version, name, description, category, batch_size, notes, created_at)
+                SELECT id, 1, name, description, category, batch_size, notes, coalesce(updated_at, created_at)
+                FROM recipes WHERE current_version IS NULL
+            """);
+            stmt.execute("""
+                INSERT INTO recipe_version_changes (version_id, change_type, recipe_ingredient_id, ingredient_id,
+                                                    quantity, unit, pulse_duration, sequence_order, notes)
+                SELECT v.id, 'add', ri.id, ri.ingredient_id, ri.quantity, ri.unit, ri.pulse_duration,
+                       ri.sequence_order, ri.notes
+                FROM recipe_ingredients ri
+                JOIN recipes r ON r.id = ri.recipe_id AND r.current_version IS NULL
+                JOIN recipe_versions v ON v.recipe_id = r.id AND v.version = 1
+                ORDER BY ri.recipe_id, ri.sequence_order, ri.id
+            """);
+            stmt.execute("UPDATE recipes SET current_version = 1 WHERE current_version IS NULL");
+        }
+    }
+    
+    static Set<String> getColumns(Connection connection, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name").toLowerCase());
+            }
+        }
+        return columns;
+    }
+    
+    static void addColumnIfMissing(Connection connection, String table, String column, String type) throws SQLException {
+        if (getColumns(connection, table).contains(column)) {
+            log.debug("Column {}.{} already exists", table, column);
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+        log.info("Added column {} to {} table", column, table);
+    }
+    
+    /**
+     * Copy all rows from one table to another in id order, COPY_BATCH_SIZE rows per statement,
+     * reporting progress after each batch.
+     */
+    static void copyInBatches(Connection connection, String from, String to, String columns, Progress progress)
+            throws SQLException {
+        long total;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + from)) {
+            total = rs.next() ? rs.getLong(1) : 0;
+        }
+        
+        String sql = "INSERT INTO " + to + " (" + columns + ") SELECT " + columns + " FROM " + from
+                + " WHERE id > ? ORDER BY id LIMIT " + COPY_BATCH_SIZE;
+        String maxIdSql = "SELECT MAX(id) FROM " + to;
+        long copied = 0;
+        long lastId = Long.MIN_VALUE;
+        try (PreparedStatement insert = connection.prepareStatement(sql);
+             PreparedStatement maxId = connection.prepareStatement(maxIdSql)) {
+            while (true) {
+                insert.setLong(1, lastId);
+                int rows = insert.executeUpdate();
+                if (rows == 0) {
+                    break;
+                }
+                copied += rows;
+                try (ResultSet rs = maxId.executeQuery()) {
+                    rs.next();
+                    lastId = rs.getLong(1);
+                }
+                progress.report(copied, total);
+            }
+        }
+    }
+    
+    private static void setForeignKeys(Connection connection, boolean enabled) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys=" + (enabled ? "ON" : "OFF"));
+        }
+    }
+    
+    private static void checkForeignKeys(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_check")) {
+            if (rs.next()) {
+                log.warn("Foreign key violations after migration, first in table {} (rowid {})",
+                        rs.getString("table"), rs.getLong("rowid"));
+            }
+        }
+    }
+}
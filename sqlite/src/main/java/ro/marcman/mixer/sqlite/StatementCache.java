@@ -0,0 +1,233 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of one physical connection, keyed by SQL text, so repository calls that run
+ * the same SQL reuse the parsed and planned statement instead of preparing it again.
+ * 
+ * prepare() hands out a handle. Closing the handle closes its result sets, clears parameters and
+ * batch, and keeps the statement for the next prepare() of the same SQL. While a handle is open its
+ * statement is not shared: preparing the same SQL again (a nested call) gets a statement of its own,
+ * which is closed as usual. Beyond maxSize statements, the least recently used ones are closed.
+ */
+@Slf4j
+final class StatementCache {
+    
+    private final Connection physical;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    // Access order: the eldest entry is the least recently used (guarded by this)
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            Entry entry = eldest.getValue();
+            entry.evicted = true;
+            if (entry.handle == null) {
+                closeQuietly(entry.statement);
+            }
+            return true;
+        }
+    };
+    
+    /**
+     * @param hits   Incremented when a cached statement is reused
+     * @param misses Incremented when a statement has to be prepared
+     */
+    StatementCache(Connection physical, int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+    }
+    
+    Connection getPhysical() {
+        return physical;
+    }
+    
+    /**
+     * Prepare a statement, reusing a cached one for the same SQL if it is free.
+     * 
+     * @param connection        Returned by the statement's getConnection() (the caller's handle)
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     */
+    synchronized PreparedStatement prepare(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : "N:" + sql;
+        Entry entry = entries.get(key);
+        if (entry != null && entry.handle != null) {
+            // In use further up the call stack
+            misses.incrementAndGet();
+            return physical.prepareStatement(sql, autoGeneratedKeys);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = new Entry(physical.prepareStatement(sql, autoGeneratedKeys));
+            entries.put(key, entry);
+        }
+        entry.handle = new Handle(entry, connection);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, entry.handle);
+    }
+    
+    /**
+     * Close every open handle, as closing a connection closes its statements. The statements stay cached.
+     */
+    synchronized void releaseAll() {
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (entry.handle != null) {
+                entry.handle.close();
+            }
+        }
+    }
+    
+    /**
+     * Close all cached statements.
+     */
+    synchronized void clear() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            // Evicted: releasing an open handle closes the statement and leaves the map alone
+            entry.evicted = true;
+            if (entry.handle != null) {
+                entry.handle.close();
+            } else {
+                closeQuietly(entry.statement);
+            }
+            it.remove();
+        }
+    }
+    
+    private synchronized void release(Entry entry) {
+        entry.handle = null;
+        if (entry.evicted) {
+            closeQuietly(entry.statement);
+            return;
+        }
+        try {
+            entry.statement.clearParameters();
+            entry.statement.clearBatch();
+        } catch (SQLException e) {
+            log.debug("Dropping prepared statement that could not be reset", e);
+            entries.values().remove(entry);
+            closeQuietly(entry.statement);
+        }
+    }
+    
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.debug("Error closing cached statement", e);
+        }
+    }
+    
+    private static final class Entry {
+        private final PreparedStatement statement;
+        private Handle handle;  // Open handle, null while the statement is free
+        private boolean evicted;
+        
+        private Entry(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+    
+    /**
+     * Statement handle: close() returns the statement to the cache, everything else goes to the statement.
+     */
+    private final class Handle implements InvocationHandler {
+        private final Entry entry;
+        private final Connection connection;
+        // Result sets still open; an open result set keeps the connection's read snapshot
+        private final List<ResultSet> resultSets = new ArrayList<>();
+        private boolean closed;
+        
+        private Handle(Entry entry, Connection connection) {
+            this.entry = entry;
+            this.connection = connection;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    close();
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || entry.statement.isClosed();
+                }
+                case "getConnection" -> {
+                    return connection;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Cached[" + entry.statement + "]";
+                }
+                default -> {
+                    if (closed) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(entry.statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (result instanceof ResultSet rs) {
+                        resultSets.removeIf(StatementCache::isClosedQuietly);
+                        resultSets.add(rs);
+                    }
+                    return result;
+                }
+            }
+        }
+        
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ResultSet rs : resultSets) {
+                closeQuietly(rs);
+            }
+            resultSets.clear();
+            release(entry);
+        }
+    }
+    
+    private static boolean isClosedQuietly(ResultSet rs) {
+        try {
+            return rs.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+}
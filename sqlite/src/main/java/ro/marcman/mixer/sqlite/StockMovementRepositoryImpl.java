@@ -0,0 +1,173 @@
+package ro.marcman.mixer.sqlite;
+
+import lombok.extern.slf4j.Slf4j;
+import ro.marcman.mixer.core.model.StockMovement;
+import ro.marcman.mixer.core.ports.repository.StockMovementRepository;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite implementation of the stock ledger.
+ * 
+ * Stock is changed with a relative UPDATE (stock_quantity = stock_quantity + ?) rather than by
+ * saving an ingredient read earlier, so concurrent changes are not lost and only one column is written.
+ * The unclamped result of that UPDATE gives the stock before the change; when it is negative, the stock
+ * is set to 0 in the same transaction and the ledger records the quantity that was actually removed.
+ * 
+ * record() joins a transaction the calling thread already has open (see
+ * CachingIngredientRepository.recordStockMovements) under a savepoint, so a failure still undoes only its own rows.
+ */
+@Slf4j
+public class StockMovementRepositoryImpl implements StockMovementRepository {
+    
+    private static final String APPLY_SQL = """
+        UPDATE ingredients SET stock_quantity = coalesce(stock_quantity, 0) + ?
+        WHERE id = ?
+        RETURNING stock_quantity
+        """;
+    
+    private static final String CLAMP_SQL = "UPDATE ingredients SET stock_quantity = 0 WHERE id = ?";
+    
+    private static final String INSERT_SQL = """
+        INSERT INTO stock_movements (ingredient_id, recipe_id, quantity, stock_after, reason, created_at)
+        VALUES (?, ?, ?, ?, ?, ?)
+        """;
+    
+    private final DatabaseManager dbManager;
+    
+    public StockMovementRepositoryImpl(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+    
+    @Override
+    public List<StockMovement> record(List<StockMovement> movements) {
+        List<StockMovement> recorded = new ArrayList<>();
+        if (movements == null || movements.isEmpty()) {
+            return recorded;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        
+        try (Connection conn = dbManager.getConnection()) {
+            boolean ownTransaction = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            Savepoint savepoint = ownTransaction ? null : conn.setSavepoint();
+            try (PreparedStatement apply = conn.prepareStatement(APPLY_SQL);
+                 PreparedStatement clamp = conn.prepareStatement(CLAMP_SQL);
+                 PreparedStatement insert = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (StockMovement movement : movements) {
+                    Double unclamped = apply(apply, movement);
+                    if (unclamped == null) {
+                        log.warn("Stock movement for unknown ingredient {} skipped", movement.getIngredientId());
+                        continue;
+                    }
+                    double quantity = movement.getQuantity();
+                    double stockAfter = unclamped;
+                    if (unclamped < 0) {
+                        // Only the stock there was (-(unclamped - quantity)) was consumed
+                        clamp.setLong(1, movement.getIngredientId());
+                        clamp.executeUpdate();
+                        quantity -= unclamped;
+                        stockAfter = 0.0;
+                    }
+                    StockMovement row = movement.toBuilder().quantity(quantity).stockAfter(stockAfter).createdAt(now).build();
+                    insert.setLong(1, row.getIngredientId());
+                    insert.setObject(2, row.getRecipeId());
+                    insert.setDouble(3, row.getQuantity());
+                    insert.setDouble(4, stockAfter);
+                    insert.setString(5, row.getReason());
+                    insert.setString(6, now.toString());
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            row.setId(keys.getLong(1));
+                        }
+                    }
+                    recorded.add(row);
+                }
+                if (ownTransaction) {
+                    conn.commit();
+                } else {
+                    conn.releaseSavepoint(savepoint);
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (ownTransaction) {
+                    conn.rollback();
+                } else {
+                    conn.rollback(savepoint);
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+            
+            log.info("Recorded {} stock movements", recorded.size());
+            return recorded;
+            
+        } catch (SQLException e) {
+            log.error("Error recording stock movements, none were applied", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Apply one movement to the ingredient's stock, without clamping it at zero.
+     * 
+     * @return The stock after the change (negative if more was consumed than there was),
+     *         or null if the ingredient does not exist
+     */
+    private static Double apply(PreparedStatement apply, StockMovement movement) throws SQLException {
+        apply.setDouble(1, movement.getQuantity());
+        apply.setLong(2, movement.getIngredientId());
+        try (ResultSet rs = apply.executeQuery()) {
+            return rs.next() ? rs.getDouble(1) : null;
+        }
+    }
+    
+    @Override
+    public List<StockMovement> findByIngredientId(Long ingredientId) {
+        return findMovements("ingredient_id = ?", ingredientId);
+    }
+    
+    @Override
+    public List<StockMovement> findByRecipeId(Long recipeId) {
+        return findMovements("recipe_id = ?", recipeId);
+    }
+    
+    private List<StockMovement> findMovements(String where, Object param) {
+        String sql = "SELECT * FROM stock_movements WHERE " + where + " ORDER BY id DESC";
+        List<StockMovement> movements = new ArrayList<>();
+        
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setObject(1, param);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    movements.add(mapResultSetToStockMovement(rs));
+                }
+            }
+            
+        } catch (SQLException e) {
+            log.error("Error finding stock movements by {}", where, e);
+        }
+        
+        return movements;
+    }
+    
+    private StockMovement mapResultSetToStockMovement(ResultSet rs) throws SQLException {
+        return StockMovement.builder()
+            .id(rs.getLong("id"))
+            .ingredientId(rs.getLong("ingredient_id"))
+            .recipeId(rs.getObject("recipe_id") != null ? rs.getLong("recipe_id") : null)
+            .quantity(rs.getDouble("quantity"))
+            .stockAfter(rs.getObject("stock_after") != null ? rs.getDouble("stock_after") : null)
+            .reason(rs.getString("reason"))
+            .createdAt(rs.getString("created_at") != null ? LocalDateTime.parse(rs.getString("created_at")) : null)
+            .build();
+    }
+}
@@ -0,0 +1,203 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingIngredientRepositoryTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    private CachingIngredientRepository repository;
+    private Ingredient master;
+    private Ingredient slave;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+        repository = new CachingIngredientRepository(new IngredientRepositoryImpl(dbManager));
+        
+        master = repository.save(Ingredient.builder()
+                .name("Linalool").casNumber("78-70-6").category("Floral")
+                .arduinoUid("0x1").arduinoPin(5)
+                .active(true).build());
+        slave = repository.save(Ingredient.builder()
+                .name("Aldehyde C-12").casNumber("112-54-9").category("Floral")
+                .masterIngredientId(master.getId())
+                .active(true).build());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void readsAfterFirstLoadDoNotTouchTheDatabase() {
+        repository.findAll();
+        dbManager.resetExecutedStatements();
+        
+        repository.findAll();
+        repository.findById(slave.getId());
+        repository.findByCategory("Floral");
+        repository.findByArduinoUid("0x1");
+        repository.findAllWithoutMasterApply();
+        
+        assertEquals(0, dbManager.getExecutedStatements());
+        assertEquals(1, repository.getMissCount());
+        assertEquals(5, repository.getHitCount());
+    }
+    
+    @Test
+    void resolvesMasterConfigurationLikeTheDatabaseRepository() {
+        Ingredient cached = repository.findById(slave.getId()).orElseThrow();
+        Ingredient raw = repository.findAllWithoutMasterApply().stream()
+                .filter(i -> i.getId().equals(slave.getId())).findFirst().orElseThrow();
+        
+        assertEquals("0x1", cached.getArduinoUid());
+        assertEquals(5, cached.getArduinoPin());
+        assertNull(raw.getArduinoUid());
+        assertEquals(new IngredientRepositoryImpl(dbManager).findAll(), repository.findAll());
+    }
+    
+    @Test
+    void resolvesMasterChainsAndCyclesLikeTheDatabaseRepository() {
+        Ingredient grandSlave = repository.save(Ingredient.builder()
+                .name("Grand slave").masterIngredientId(slave.getId()).active(true).build());
+        Ingredient a = repository.save(Ingredient.builder().name("A").arduinoUid("0xA").arduinoPin(1).active(true).build());
+        Ingredient b = repository.save(Ingredient.builder().name("B").arduinoUid("0xB").arduinoPin(2)
+                .masterIngredientId(a.getId()).active(true).build());
+        a.setMasterIngredientId(b.getId());
+        repository.save(a);
+        
+        assertEquals(5, repository.findById(grandSlave.getId()).orElseThrow().getArduinoPin());
+        assertEquals(new IngredientRepositoryImpl(dbManager).findAll(), repository.findAll());
+    }
+    
+    @Test
+    void pagesAndStreamsMatchTheDatabaseRepository() {
+        for (int i = 0; i < 12; i++) {
+            repository.save(Ingredient.builder().name("Ingredient " + (i % 4)).active(true).build());
+        }
+        IngredientRepositoryImpl database = new IngredientRepositoryImpl(dbManager);
+        
+        assertEquals(database.findPage(null, null, 5), repository.findPage(null, null, 5));
+        Ingredient last = repository.findPage(null, null, 5).get(4);
+        assertEquals(database.findPage(last.getName(), last.getId(), 5), repository.findPage(last.getName(), last.getId(), 5));
+        assertEquals(database.findPage("Ingredient 3", null, 50), repository.findPage("Ingredient 3", null, 50));
+        assertEquals(database.streamAll().toList(), repository.streamAll().toList());
+        assertEquals(database.count(), repository.count());
+        assertEquals(database.findCategories(), repository.findCategories());
+        
+        repository.findAll();
+        assertEquals(database.findPage(null, null, 5), repository.findPage(null, null, 5));
+        assertEquals(database.findPage(last.getName(), last.getId(), 5), repository.findPage(last.getName(), last.getId(), 5));
+        assertEquals(database.findPage("Ingredient 3", null, 50), repository.findPage("Ingredient 3", null, 50));
+        assertEquals(database.streamAll().toList(), repository.streamAll().toList());
+        assertEquals(database.count(), repository.count());
+        assertEquals(database.findCategories(), repository.findCategories());
+    }
+    
+    @Test
+    void pagingDoesNotLoadTheCatalog() {
+        repository.findPage(null, null, 1);
+        repository.count();
+        repository.findCategories();
+        
+        assertFalse(repository.isLoaded());
+        assertEquals(0, repository.getMissCount());
+    }
+    
+    @Test
+    void saveUpdatesOnlyTheCachedEntryAndReResolvesSlaves() {
+        repository.findAll();
+        
+        Ingredient changedMaster = repository.findById(master.getId()).orElseThrow();
+        changedMaster.setArduinoPin(9);
+        repository.save(changedMaster);
+        
+        assertEquals(9, repository.findById(slave.getId()).orElseThrow().getArduinoPin());
+        assertEquals(1, repository.getMissCount());
+    }
+    
+    @Test
+    void returnedIngredientsAreCopies() {
+        Ingredient loaded = repository.findById(master.getId()).orElseThrow();
+        loaded.setName("Changed without saving");
+        
+        assertEquals("Linalool", repository.findById(master.getId()).orElseThrow().getName());
+    }
+    
+    @Test
+    void deleteAndInvalidateAreVisibleToReads() {
+        repository.findAll();
+        
+        repository.deleteById(slave.getId());
+        assertFalse(repository.existsById(slave.getId()));
+        assertEquals(List.of(master.getId()),
+                repository.findByCategory("Floral").stream().map(Ingredient::getId).toList());
+        
+        repository.invalidate();
+        assertFalse(repository.findById(slave.getId()).orElseThrow().isActive());
+        assertEquals(2, repository.getMissCount());
+    }
+    
+    @Test
+    void indexedLookupsMatchTheDatabaseRepository() {
+        Ingredient small = repository.save(Ingredient.builder()
+                .name("Vanillin").casNumber(" 121-33-5").category("Gourmand")
+                .arduinoUidSmall("0X1 ").arduinoPinSmall(7)
+                .active(true).build());
+        IngredientRepositoryImpl database = new IngredientRepositoryImpl(dbManager);
+        
+        assertEquals(database.findByUidAndPin("0x1", 5), repository.findByUidAndPin("0x1", 5));
+        assertEquals(List.of(small.getId()), ids(repository.findByUidAndPin("0x1", 7)));
+        assertEquals(database.findByUidAndPin("0x1", 7), repository.findByUidAndPin("0x1", 7));
+        assertEquals(2, repository.countPinsByUid("0x1", null));
+        assertEquals(database.countPinsByUid("0x1", null), repository.countPinsByUid("0x1", null));
+        assertEquals(1, repository.countPinsByUid("0x1", small.getId()));
+        assertEquals(database.countPinsByUid("0x1", small.getId()), repository.countPinsByUid("0x1", small.getId()));
+        assertEquals(database.findByCasNumber("121-33-5"), repository.findByCasNumber("121-33-5"));
+        assertEquals(List.of(small.getId()), ids(repository.findByCasNumber("121-33-5")));
+        assertEquals(List.of(slave.getId()), ids(repository.findByMasterIngredientId(master.getId())));
+        assertEquals(database.findByMasterIngredientId(master.getId()),
+                repository.findByMasterIngredientId(master.getId()));
+    }
+    
+    @Test
+    void indexesFollowSavesWithoutReloading() {
+        repository.findAll();
+        
+        Ingredient moved = repository.findAllWithoutMasterApply().stream()
+                .filter(i -> i.getId().equals(master.getId())).findFirst().orElseThrow();
+        moved.setArduinoUid("0x2");
+        moved.setCasNumber("78-70-6B");
+        repository.save(moved);
+        
+        Ingredient detached = repository.findAllWithoutMasterApply().stream()
+                .filter(i -> i.getId().equals(slave.getId())).findFirst().orElseThrow();
+        detached.setMasterIngredientId(null);
+        repository.save(detached);
+        
+        assertTrue(repository.findByUidAndPin("0x1", 5).isEmpty());
+        assertEquals(List.of(master.getId()), ids(repository.findByUidAndPin("0x2", 5)));
+        assertEquals(0, repository.countPinsByUid("0x1", null));
+        assertEquals(1, repository.countPinsByUid("0x2", null));
+        assertTrue(repository.findByCasNumber("78-70-6").isEmpty());
+        assertTrue(repository.findByMasterIngredientId(master.getId()).isEmpty());
+        assertEquals(1, repository.getMissCount());
+    }
+    
+    private static List<Long> ids(List<Ingredient> ingredients) {
+        return ingredients.stream().map(Ingredient::getId).toList();
+    }
+}
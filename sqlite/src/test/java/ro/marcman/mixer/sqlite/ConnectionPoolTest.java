@@ -0,0 +1,176 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private DatabaseManager dbManager;
+    private IngredientRepositoryImpl repository;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new DatabaseManager(tempDir.resolve("test.db").toString());
+        repository = new IngredientRepositoryImpl(dbManager);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void closingAConnectionReturnsItForReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            repository.save(Ingredient.builder().name("Ingredient " + i).active(true).build());
+            repository.findAll();
+        }
+        
+        assertEquals(1, dbManager.getOpenedConnectionCount());
+        assertTrue(dbManager.getReusedConnectionCount() >= 19);
+        try (Connection conn = dbManager.getConnection()) {
+            assertFalse(conn.isClosed());
+        }
+    }
+    
+    @Test
+    void nestedCallsOnOneThreadShareTheConnection() throws Exception {
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            repository.save(Ingredient.builder().name("Rolled back").active(true).build());
+            assertEquals(1, count(conn));
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+        
+        assertTrue(repository.findAll().isEmpty());
+        assertTrue(dbManager.getNestedConnectionCount() > 0);
+        assertEquals(1, dbManager.getOpenedConnectionCount());
+    }
+    
+    @Test
+    void otherThreadsReadBesideAnOpenWriteTransaction() throws Exception {
+        repository.save(Ingredient.builder().name("Committed").active(true).build());
+        
+        try (Connection writer = dbManager.getConnection();
+             Statement stmt = writer.createStatement()) {
+            writer.setAutoCommit(false);
+            stmt.executeUpdate("INSERT INTO ingredients (name, active) VALUES ('Uncommitted', 1)");
+            
+            // WAL: a reader on its own connection sees the last committed state without waiting
+            int seenByReader = CompletableFuture.supplyAsync(() -> repository.findAll().size()).get();
+            assertEquals(1, seenByReader);
+            assertEquals(2, count(writer));
+            writer.commit();
+            writer.setAutoCommit(true);
+        }
+        
+        assertEquals(2, dbManager.getOpenedConnectionCount());
+        assertEquals(2, repository.findAll().size());
+    }
+    
+    @Test
+    void returningAConnectionRollsBackAnOpenTransaction() throws Exception {
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("INSERT INTO ingredients (name, active) VALUES ('Forgotten', 1)");
+        }
+        
+        try (Connection conn = dbManager.getConnection()) {
+            assertTrue(conn.getAutoCommit());
+            assertEquals(0, count(conn));
+        }
+    }
+    
+    @Test
+    void closedHandleCannotBeUsed() throws Exception {
+        Connection conn = dbManager.getConnection();
+        conn.close();
+        
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::createStatement);
+    }
+    
+    @Test
+    void repeatedQueriesReuseCachedStatements() {
+        Ingredient saved = repository.save(Ingredient.builder().name("Cached").active(true).build());
+        long missesBefore = dbManager.getStatementCacheMissCount();
+        
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Cached", repository.findById(saved.getId()).orElseThrow().getName());
+        }
+        
+        assertTrue(dbManager.getStatementCacheMissCount() - missesBefore <= 1);
+        assertTrue(dbManager.getStatementCacheHitCount() >= 49);
+        assertTrue(dbManager.getStatementCacheHitRatio() > 0.5);
+    }
+    
+    @Test
+    void sameSqlPreparedWhileInUseGetsItsOwnStatement() throws Exception {
+        repository.save(Ingredient.builder().name("A").active(true).build());
+        repository.save(Ingredient.builder().name("B").active(true).build());
+        String sql = "SELECT name FROM ingredients WHERE id = ?";
+        
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement outer = conn.prepareStatement(sql)) {
+            outer.setLong(1, 1);
+            try (ResultSet rs = outer.executeQuery()) {
+                assertTrue(rs.next());
+                try (PreparedStatement inner = conn.prepareStatement(sql)) {
+                    assertNotSame(outer, inner);
+                    inner.setLong(1, 2);
+                    try (ResultSet innerRs = inner.executeQuery()) {
+                        assertTrue(innerRs.next());
+                        assertEquals("B", innerRs.getString(1));
+                    }
+                }
+                assertEquals("A", rs.getString(1));
+            }
+        }
+    }
+    
+    @Test
+    void statementsLeftOpenAreResetWhenTheConnectionIsReturned() throws Exception {
+        repository.save(Ingredient.builder().name("Before").active(true).build());
+        
+        PreparedStatement leaked;
+        try (Connection conn = dbManager.getConnection()) {
+            leaked = conn.prepareStatement("SELECT name FROM ingredients");
+            assertTrue(leaked.executeQuery().next());
+        }
+        
+        assertTrue(leaked.isClosed());
+        assertThrows(SQLException.class, leaked::executeQuery);
+        // The unfinished result set was closed, so the connection does not keep reading an old snapshot
+        CompletableFuture.runAsync(() ->
+                repository.save(Ingredient.builder().name("After").active(true).build())).get();
+        try (Connection conn = dbManager.getConnection()) {
+            assertEquals(2, count(conn));
+        }
+    }
+    
+    private static int count(Connection conn) throws Exception {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ingredients")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ro.marcman.mixer.sqlite;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DatabaseManager for tests that counts every SQL statement executed through its connections
+ * and records the SQL text of each statement prepared or executed.
+ */
+class CountingDatabaseManager extends DatabaseManager {
+    
+    private final AtomicInteger executedStatements = new AtomicInteger();
+    private final List<String> recordedSql = new ArrayList<>();
+    
+    CountingDatabaseManager(String databasePath) {
+        super(databasePath);
+    }
+    
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = super.getConnection();
+        return proxy(Connection.class, connection, (proxy, method, args) -> {
+            if (method.getName().startsWith("prepare")) {
+                record((String) args[0]);
+            }
+            Object result = invoke(connection, method, args);
+            if (result instanceof PreparedStatement ps) {
+                return countingStatement(PreparedStatement.class, ps);
+            }
+            if (result instanceof Statement st) {
+                return countingStatement(Statement.class, st);
+            }
+            return result;
+        });
+    }
+    
+    int getExecutedStatements() {
+        return executedStatements.get();
+    }
+    
+    void resetExecutedStatements() {
+        executedStatements.set(0);
+    }
+    
+    /**
+     * SQL text of every statement prepared or executed so far, in order, without duplicates.
+     */
+    synchronized List<String> getRecordedSql() {
+        return new ArrayList<>(recordedSql);
+    }
+    
+    private synchronized void record(String sql) {
+        if (!recordedSql.contains(sql)) {
+            recordedSql.add(sql);
+        }
+    }
+    
+    private <T extends Statement> T countingStatement(Class<T> type, T statement) {
+        return proxy(type, statement, (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                executedStatements.incrementAndGet();
+                if (args != null && args.length > 0 && args[0] instanceof String sql) {
+                    record(sql);
+                }
+            }
+            return invoke(statement, method, args);
+        });
+    }
+    
+    private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+    
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvParserTest {
+    
+    @Test
+    void splitsPlainFields() throws Exception {
+        assertEquals(List.of(List.of("a", "b", ""), List.of("", "", "c")), parse("a,b,\n,,c\n"));
+    }
+    
+    @Test
+    void quotedFieldsKeepCommasQuotesAndLineBreaks() throws Exception {
+        List<List<String>> records = parse("\"Oil, rose\",\"say \"\"hi\"\"\",\"two\r\nlines\"\r\nnext,row");
+        
+        assertEquals(List.of("Oil, rose", "say \"hi\"", "two\r\nlines"), records.get(0));
+        assertEquals(List.of("next", "row"), records.get(1));
+        assertEquals(2, records.size());
+    }
+    
+    @Test
+    void reportsTheLineEachRecordStartsOn() throws Exception {
+        CsvParser parser = new CsvParser(new StringReader("h1,h2\r\n\"multi\nline\",x\nlast,y"));
+        
+        parser.next();
+        assertEquals(1, parser.getRecordLineNumber());
+        parser.next();
+        assertEquals(2, parser.getRecordLineNumber());
+        parser.next();
+        assertEquals(4, parser.getRecordLineNumber());
+        assertNull(parser.next());
+    }
+    
+    @Test
+    void skipsByteOrderMarkAndKeepsStrayQuotes() throws Exception {
+        assertEquals(List.of(List.of("name", "5\" tube")), parse("\uFEFFname,5\" tube\n"));
+    }
+    
+    @Test
+    void rawRecordsSplitLikeParsedRecords() throws Exception {
+        String csv = "\"a,\"\"b\"\"\",c\n\"x\ny\",5\" tube\r\n";
+        CsvParser parser = new CsvParser(new StringReader(csv));
+        
+        assertEquals("\"a,\"\"b\"\"\",c", parser.nextRecord());
+        assertEquals("\"x\ny\",5\" tube", parser.nextRecord());
+        assertNull(parser.nextRecord());
+        assertEquals(parse(csv), List.of(
+                CsvParser.splitFields("\"a,\"\"b\"\"\",c"),
+                CsvParser.splitFields("\"x\ny\",5\" tube")));
+    }
+    
+    private static List<List<String>> parse(String csv) throws Exception {
+        CsvParser parser = new CsvParser(new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        List<String> fields;
+        while ((fields = parser.next()) != null) {
+            records.add(fields);
+        }
+        return records;
+    }
+}
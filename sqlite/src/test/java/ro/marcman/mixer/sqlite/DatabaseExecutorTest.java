@@ -0,0 +1,175 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.Recipe;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseExecutorTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private DatabaseManager dbManager;
+    private DatabaseExecutor executor;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new DatabaseManager(tempDir.resolve("test.db").toString());
+        executor = new DatabaseExecutor(3);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+        dbManager.close();
+    }
+    
+    @Test
+    void concurrentReadsWithTheSameKeyRunOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        
+        CompletableFuture<Integer> first = executor.read("key", () -> {
+            runs.incrementAndGet();
+            await(release);
+            return 42;
+        });
+        CompletableFuture<Integer> second = executor.read("key", runs::incrementAndGet);
+        CompletableFuture<Integer> other = executor.read("other", () -> 7);
+        // Cancelling one caller's future leaves the shared query running for the others
+        CompletableFuture<Integer> cancelled = executor.read("key", runs::incrementAndGet);
+        cancelled.cancel(false);
+        release.countDown();
+        
+        assertEquals(42, first.get(5, TimeUnit.SECONDS));
+        assertEquals(42, second.get(5, TimeUnit.SECONDS));
+        assertEquals(7, other.get(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertEquals(2, executor.getCoalescedReadCount());
+        
+        // Finished: the next read queries again
+        assertEquals(2, executor.read("key", runs::incrementAndGet).get(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void writesRunOneAtATimeOnTheWriterThread() throws Exception {
+        CopyOnWriteArraySet<String> threads = new CopyOnWriteArraySet<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        
+        List<CompletableFuture<Integer>> writes = IntStream.range(0, 20)
+                .mapToObj(i -> executor.write(() -> {
+                    threads.add(Thread.currentThread().getName());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    running.decrementAndGet();
+                    return i;
+                }))
+                .toList();
+        
+        for (int i = 0; i < writes.size(); i++) {
+            assertEquals(i, writes.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, maxRunning.get());
+        assertEquals(Set.of("db-writer"), threads);
+    }
+    
+    @Test
+    void coalescedCallersGetTheirOwnCopy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        
+        CompletableFuture<List<String>> first = executor.read("key", () -> {
+            await(release);
+            return new ArrayList<>(List.of("a"));
+        }, ArrayList::new);
+        CompletableFuture<List<String>> second = executor.read("key", () -> new ArrayList<>(List.of("b")), ArrayList::new);
+        release.countDown();
+        
+        first.get(5, TimeUnit.SECONDS).add("changed");
+        assertEquals(List.of("a"), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getCoalescedReadCount());
+    }
+    
+    @Test
+    void readFailingWithAnErrorIsNotJoinedLater() throws Exception {
+        CompletableFuture<Object> failed = executor.read("key", () -> {
+            throw new AssertionError("boom");
+        });
+        
+        CompletionException error = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(AssertionError.class, error.getCause());
+        assertEquals("ok", executor.read("key", () -> "ok").get(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void failedReadCompletesExceptionallyAndIsNotShared() throws Exception {
+        CompletableFuture<Object> failed = executor.read("key", () -> {
+            throw new IllegalStateException("boom");
+        });
+        
+        CompletionException error = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertEquals("ok", executor.read("key", () -> "ok").get(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void asyncRepositoriesSeeTheirOwnCompletedWrites() throws Exception {
+        AsyncIngredientRepositoryImpl ingredients =
+                new AsyncIngredientRepositoryImpl(new IngredientRepositoryImpl(dbManager), executor);
+        AsyncRecipeRepositoryImpl recipes = new AsyncRecipeRepositoryImpl(new RecipeRepositoryImpl(dbManager), executor);
+        
+        Ingredient saved = ingredients.save(Ingredient.builder().name("Linalool").casNumber("78-70-6").active(true).build())
+                .get(5, TimeUnit.SECONDS);
+        List<Ingredient> found = ingredients.findAll().get(5, TimeUnit.SECONDS);
+        Recipe recipe = recipes.save(Recipe.builder().name("Fresh").active(true).build())
+                .thenCompose(r -> recipes.findById(r.getId()))
+                .get(5, TimeUnit.SECONDS)
+                .orElseThrow();
+        
+        assertEquals(List.of(saved.getId()), found.stream().map(Ingredient::getId).toList());
+        assertEquals(1, ingredients.search("linalool", 10).get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, recipes.findVersions(recipe.getId()).get(5, TimeUnit.SECONDS).size());
+        
+        recipes.deleteById(recipe.getId()).get(5, TimeUnit.SECONDS);
+        assertTrue(recipes.findAll().get(5, TimeUnit.SECONDS).isEmpty());
+    }
+    
+    @Test
+    void nullArgumentsGiveEmptyResultsInsteadOfThrowing() throws Exception {
+        AsyncIngredientRepositoryImpl ingredients =
+                new AsyncIngredientRepositoryImpl(new IngredientRepositoryImpl(dbManager), executor);
+        AsyncRecipeRepositoryImpl recipes = new AsyncRecipeRepositoryImpl(new RecipeRepositoryImpl(dbManager), executor);
+        
+        assertTrue(ingredients.findByCategory(null).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(ingredients.findById(null).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(ingredients.search(null, 10).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(ingredients.findByCasNumber(null).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(ingredients.findPage(null, null, 10).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(recipes.findById(null).get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(recipes.findVersions(null).get(5, TimeUnit.SECONDS).isEmpty());
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
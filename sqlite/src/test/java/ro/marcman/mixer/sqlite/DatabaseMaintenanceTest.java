@@ -0,0 +1,113 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseMaintenanceTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private DatabaseManager dbManager;
+    private IngredientRepositoryImpl repository;
+    private DatabaseMaintenance maintenance;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new DatabaseManager(tempDir.resolve("mixer.db").toString());
+        repository = new IngredientRepositoryImpl(dbManager);
+        maintenance = new DatabaseMaintenance(dbManager, tempDir.resolve("backups"));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        maintenance.stop();
+        dbManager.close();
+    }
+    
+    @Test
+    void backupIsAConsistentCopyTakenBesideAnOpenWriteTransaction() throws Exception {
+        repository.save(Ingredient.builder().name("Committed").active(true).build());
+        
+        Path backup;
+        try (Connection writer = dbManager.getConnection();
+             Statement stmt = writer.createStatement()) {
+            writer.setAutoCommit(false);
+            stmt.executeUpdate("INSERT INTO ingredients (name, active) VALUES ('Uncommitted', 1)");
+            // Runs on its own connection while this one holds the write transaction
+            backup = CompletableFuture.supplyAsync(maintenance::backup).get();
+            writer.rollback();
+            writer.setAutoCommit(true);
+        }
+        
+        assertNotNull(backup);
+        assertTrue(backup.getFileName().toString().matches("mixer-\\d{8}-\\d{6}\\.db"));
+        DatabaseManager restored = new DatabaseManager(backup.toString());
+        try {
+            List<Ingredient> rows = new IngredientRepositoryImpl(restored).findAll();
+            assertEquals(List.of("Committed"), rows.stream().map(Ingredient::getName).toList());
+        } finally {
+            restored.close();
+        }
+        assertEquals(1, maintenance.getStats().get(DatabaseMaintenance.BACKUP).getRuns());
+        assertEquals(0, maintenance.getStats().get(DatabaseMaintenance.BACKUP).getFailures());
+    }
+    
+    @Test
+    void oldBackupsAreRotatedAndRecentOnesSkipTheNextBackup() throws Exception {
+        maintenance.setBackupsToKeep(2);
+        Path backups = Files.createDirectories(tempDir.resolve("backups"));
+        for (String stamp : List.of("20240101-000000", "20240102-000000", "20240103-000000")) {
+            Path old = Files.writeString(backups.resolve("mixer-" + stamp + ".db"), "old");
+            Files.setLastModifiedTime(old, FileTime.fromMillis(0));
+        }
+        Files.writeString(backups.resolve("unrelated.txt"), "keep");
+        
+        assertTrue(maintenance.backupIfDue());
+        List<Path> kept = maintenance.listBackups();
+        assertEquals(2, kept.size());
+        assertEquals("mixer-20240103-000000.db", kept.get(1).getFileName().toString());
+        assertTrue(Files.exists(backups.resolve("unrelated.txt")));
+        
+        // The new backup is recent, so nothing is due
+        maintenance.setBackupInterval(Duration.ofHours(1));
+        assertFalse(maintenance.backupIfDue());
+        assertEquals(2, maintenance.listBackups().size());
+    }
+    
+    @Test
+    void checkpointAndOptimizeRecordTimings() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            repository.save(Ingredient.builder().name("Ingredient " + i).active(true).build());
+        }
+        
+        assertTrue(maintenance.checkpoint());
+        assertTrue(maintenance.optimize());
+        
+        DatabaseMaintenance.TaskStats checkpoint = maintenance.getStats().get(DatabaseMaintenance.CHECKPOINT);
+        assertEquals(1, checkpoint.getRuns());
+        assertNotNull(checkpoint.getLastRun());
+        assertTrue(checkpoint.getLastMillis() >= 0);
+        assertEquals(1, maintenance.getStats().get(DatabaseMaintenance.OPTIMIZE).getRuns());
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+            assertEquals(2, rs.getInt(1), "new databases use incremental auto-vacuum");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IfraDataImporterTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private DatabaseManager dbManager;
+    private IngredientRepositoryImpl repository;
+    private IfraDataImporter importer;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new DatabaseManager(tempDir.resolve("test.db").toString());
+        repository = new IngredientRepositoryImpl(dbManager);
+        importer = new IfraDataImporter(dbManager);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void bulkImportMapsColumnsByHeader() throws Exception {
+        Path csv = write("""
+                cas_number,name,ifra_naturals_category,category,description
+                8016-37-3,Myrrh oil,K2.12,Natural Extracts,"Warm, balsamic"
+                """);
+        
+        IfraDataImporter.ImportResult result = importer.importBulk(csv);
+        
+        assertEquals(1, result.getInserted());
+        Ingredient myrrh = repository.findByCasNumber("8016-37-3").get(0);
+        assertEquals("Myrrh oil", myrrh.getName());
+        assertEquals("K2.12", myrrh.getIfraNaturalsCategory());
+        assertEquals("Natural Extracts", myrrh.getCategory());
+        assertEquals("Warm, balsamic", myrrh.getDescription());
+        assertEquals("IFRA Approved", myrrh.getIfraStatus());
+    }
+    
+    @Test
+    void bulkImportSkipsDuplicatesAcrossBatchesAndRuns() throws Exception {
+        StringBuilder csv = new StringBuilder("name,cas_number,category,ifra_ncs,description\n");
+        for (int i = 0; i < 25; i++) {
+            csv.append("Ingredient ").append(i).append(",100-00-").append(i % 10).append(",Synthetic,,\n");
+        }
+        // Same CAS and name in another case, and a CAS shared with a different name
+        csv.append("INGREDIENT 3,100-00-3,Synthetic,,\n");
+        csv.append("Other name,100-00-3,Synthetic,,\n");
+        Path file = write(csv.toString());
+        importer.setBatchSize(10);
+        
+        IfraDataImporter.ImportResult first = importer.importBulk(file);
+        IfraDataImporter.ImportResult second = importer.importBulk(file);
+        
+        assertEquals(27, first.getRowsRead());
+        assertEquals(26, first.getInserted());
+        assertEquals(1, first.getDuplicates());
+        assertEquals(3, first.getBatches());
+        assertEquals(0, second.getInserted());
+        assertEquals(27, second.getDuplicates());
+        assertEquals(26, repository.findAll().size());
+    }
+    
+    @Test
+    void invalidRowsAreReportedWithTheirLineNumber() throws Exception {
+        Path csv = write("""
+                name,cas_number,category,ifra_ncs,description
+                Linalool,78-70-6,Synthetic,,
+                No CAS,,Synthetic,,
+                "Two
+                lines",,Synthetic,,
+                """);
+        
+        IfraDataImporter.ImportResult result = importer.importBulk(csv);
+        
+        assertEquals(1, result.getInserted());
+        assertEquals(2, result.getInvalid());
+        assertEquals(List.of("line 3: missing CAS number or name", "line 4: missing CAS number or name"),
+                result.getErrors());
+    }
+    
+    @Test
+    void parallelChunksAreWrittenInFileOrderWithTheirLineNumbers() throws Exception {
+        StringBuilder csv = new StringBuilder("name,cas_number,category,ifra_ncs,description\n");
+        for (int i = 0; i < 200; i++) {
+            if (i % 20 == 7) {
+                csv.append("\"Quoted\nname ").append(i).append("\",,Synthetic,,\n");
+            } else {
+                // Every row after the first 50 repeats a CAS number and name, in another case
+                String name = i < 50 ? "Ingredient " + i : "INGREDIENT " + (i % 50);
+                csv.append(name).append(",200-00-").append(i % 50).append(",Synthetic,,Row ").append(i).append('\n');
+            }
+        }
+        importer.setBatchSize(7);
+        importer.setParallelism(4);
+        
+        IfraDataImporter.ImportResult result = importer.importBulk(write(csv.toString()));
+        
+        assertEquals(200, result.getRowsRead());
+        assertEquals(10, result.getInvalid());
+        assertEquals(result.getRowsRead() - result.getInvalid(), result.getInserted() + result.getDuplicates());
+        // Row i starts on line i + 2, plus one for each quoted line break before it
+        assertEquals("line 9: missing CAS number or name", result.getErrors().get(0));
+        assertEquals("line 198: missing CAS number or name", result.getErrors().get(9));
+        // The first occurrence in the file wins
+        assertEquals("Row 0", repository.findByCasNumber("200-00-0").get(0).getDescription());
+        assertEquals("Row 9", repository.findByCasNumber("200-00-9").get(0).getDescription());
+    }
+    
+    @Test
+    void deltaImportTouchesOnlyChangedRowsAndKeepsPumpSettings() throws Exception {
+        importer.importDelta(write("""
+                cas_number,name,ifra_naturals_category,category,description
+                78-70-6,Linalool,,Synthetic,Floral
+                106-24-1,Geraniol,,Synthetic,Rosy
+                8016-37-3,Myrrh oil,K2.12,Natural,Balsamic
+                5989-27-5,Limonene,,Synthetic,Citrus
+                """));
+        Ingredient linalool = repository.findByCasNumber("78-70-6").get(0);
+        linalool.setArduinoUid("0xA1");
+        linalool.setArduinoPin(4);
+        linalool.setMsPerGramLarge(120);
+        repository.save(linalool);
+        
+        IfraDataImporter.ImportResult result = importer.importDelta(write("""
+                cas_number,name,ifra_naturals_category,category,description
+                78-70-6,Linalool,,Synthetic,"Floral, lavender"
+                106-24-1,Geraniol,,Synthetic,Rosy
+                8016-37-3,Myrrh resinoid,K2.12,Natural,Balsamic
+                97-53-0,Eugenol,,Synthetic,Clove
+                """));
+        
+        assertEquals(1, result.getInserted());
+        // Linalool changed; Myrrh was renamed, the only new name for its CAS number
+        assertEquals(2, result.getUpdated());
+        assertEquals(1, result.getUnchanged());
+        assertEquals(1, result.getDeactivated());
+        
+        Ingredient updated = repository.findById(linalool.getId()).orElseThrow();
+        assertEquals("Floral, lavender", updated.getDescription());
+        assertEquals("0xA1", updated.getArduinoUid());
+        assertEquals(4, updated.getArduinoPin());
+        assertEquals(120, updated.getMsPerGramLarge());
+        assertEquals("Myrrh resinoid", repository.findByCasNumber("8016-37-3").get(0).getName());
+        assertEquals(1, repository.findByCasNumber("8016-37-3").size());
+        assertFalse(repository.findByCasNumber("5989-27-5").get(0).isActive());
+    }
+    
+    @Test
+    void deltaImportAdoptsUnhashedRowsAndNeverDeactivatesHandMadeOnes() throws Exception {
+        repository.save(Ingredient.builder().name("Linalool").casNumber("78-70-6").category("Synthetic").active(true).build());
+        repository.save(Ingredient.builder().name("Linalool (Supplier B)").casNumber("78-70-6").active(true).build());
+        Path csv = write("""
+                cas_number,name,ifra_naturals_category,category,description
+                78-70-6,Linalool,,Synthetic,Floral
+                """);
+        
+        IfraDataImporter.ImportResult first = importer.importDelta(csv);
+        IfraDataImporter.ImportResult second = importer.importDelta(csv);
+        
+        assertEquals(0, first.getInserted());
+        assertEquals(1, first.getUpdated());
+        assertEquals(0, second.getUpdated());
+        assertEquals(1, second.getUnchanged());
+        assertEquals(0, second.getDeactivated());
+        assertTrue(repository.findByCasNumber("78-70-6").stream().allMatch(Ingredient::isActive));
+    }
+    
+    @Test
+    void casNumberInTheNameColumnIsSwappedBack() throws Exception {
+        Path csv = write("""
+                name,cas_number,category,ifra_ncs,description
+                2306-78-7,Nerolidyl acetate (isomer unspecified),Synthetic,,
+                """);
+        
+        importer.importBulk(csv);
+        
+        Ingredient ingredient = repository.findByCasNumber("2306-78-7").get(0);
+        assertEquals("Nerolidyl acetate (isomer unspecified)", ingredient.getName());
+    }
+    
+    @Test
+    void perRowImportUsesTheSameParser() throws Exception {
+        Path csv = write("""
+                cas_number,name,ifra_naturals_category,category,description
+                78-70-6,Linalool,,Synthetic,"Floral, fresh"
+                """);
+        
+        assertEquals(1, new IfraDataImporter(repository).importFromCsv(csv.toString()));
+        assertEquals("Floral, fresh", repository.findByCasNumber("78-70-6").get(0).getDescription());
+    }
+    
+    private Path write(String content) throws Exception {
+        Path file = Files.createTempFile(tempDir, "ifra", ".csv");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,51 @@
+package ro.marcman.mixer.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Compares per-row and bulk IFRA import over the CSV files in data/, each into a fresh database.
+ * The last column is the share of the bulk import spent in insert transactions; near 100% means
+ * parsing keeps up with the writer.
+ * 
+ * Usage: IfraImportBenchmark [data_dir] [batch_size]
+ */
+public class IfraImportBenchmark {
+    public static void main(String[] args) throws IOException {
+        Path dataDir = Paths.get(args.length > 0 ? args[0] : "data");
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : IfraDataImporter.DEFAULT_BATCH_SIZE;
+        
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dataDir)) {
+            files = listing.filter(p -> p.toString().endsWith(".csv")).sorted().toList();
+        }
+        Path workDir = Files.createTempDirectory("ifra-benchmark");
+        
+        System.out.printf(Locale.ROOT, "%-32s %8s %12s %12s %10s %8s%n", "file", "rows", "per-row/s", "bulk/s", "speedup", "writing");
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            
+            DatabaseManager perRowDb = new DatabaseManager(workDir.resolve(name + ".per-row.db").toString());
+            long start = System.nanoTime();
+            int perRowImported = new IfraDataImporter(new IngredientRepositoryImpl(perRowDb)).importFromCsv(file.toString());
+            double perRowSeconds = (System.nanoTime() - start) / 1e9;
+            perRowDb.close();
+            
+            DatabaseManager bulkDb = new DatabaseManager(workDir.resolve(name + ".bulk.db").toString());
+            IfraDataImporter bulkImporter = new IfraDataImporter(bulkDb);
+            bulkImporter.setBatchSize(batchSize);
+            IfraDataImporter.ImportResult result = bulkImporter.importBulk(file);
+            bulkDb.close();
+            
+            double perRowRate = perRowImported / perRowSeconds;
+            System.out.printf(Locale.ROOT, "%-32s %8d %12.0f %12.0f %9.1fx %7.0f%%%n", name, result.getRowsRead(),
+                    perRowRate, result.getRowsPerSecond(), result.getRowsPerSecond() / perRowRate,
+                    100.0 * result.getWriteMillis() / Math.max(1, result.getElapsedMillis()));
+        }
+    }
+}
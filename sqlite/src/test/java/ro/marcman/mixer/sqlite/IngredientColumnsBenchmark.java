@@ -0,0 +1,126 @@
+package ro.marcman.mixer.sqlite;
+
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.service.IngredientColumns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares catalog-wide statistics over List&lt;Ingredient&gt; (boxed fields, one object per row) with the
+ * same statistics over IngredientColumns, on a synthetic catalog. Each report is run for a warm-up
+ * round first; the figures are the average of the measured rounds.
+ * 
+ * Usage: IngredientColumnsBenchmark [ingredients] [rounds]
+ */
+public class IngredientColumnsBenchmark {
+    
+    private static final String[] CATEGORIES = {"Synthetic", "Floral", "Citrus", "Woody", "Musk", "Resin", "Spice"};
+    private static final String[] SUPPLIERS = {"Acme", "Givaudan", "Firmenich", "Symrise", "IFF"};
+    
+    // Results are accumulated here so the JIT cannot drop the work
+    static double sink;
+    
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        List<Ingredient> ingredients = catalog(size);
+        
+        long start = System.nanoTime();
+        IngredientColumns columns = IngredientColumns.of(ingredients);
+        // Figures depend on the JIT; report them with the JVM they came from
+        System.out.printf(Locale.ROOT, "%s %s%n", System.getProperty("java.vm.name"), Runtime.version());
+        System.out.printf(Locale.ROOT, "%d ingredients, columns built in %.1f ms%n%n", size, (System.nanoTime() - start) / 1e6);
+        
+        System.out.printf(Locale.ROOT, "%-24s %12s %12s %10s%n", "report", "list us", "columns us", "speedup");
+        compare("stats counts", rounds,
+                () -> ingredients.stream().filter(i -> "Synthetic".equals(i.getCategory())).count()
+                        + ingredients.stream().filter(i -> i.getIfraNaturalsCategory() != null
+                                && !i.getIfraNaturalsCategory().isEmpty()).count(),
+                () -> columns.countInCategory("Synthetic") + columns.countWithNcs());
+        compare("total stock value", rounds,
+                () -> ingredients.stream()
+                        .filter(i -> i.getStockQuantity() != null && i.getCostPerUnit() != null)
+                        .mapToDouble(i -> i.getStockQuantity() * i.getCostPerUnit()).sum(),
+                columns::totalStockValue);
+        compare("value by supplier", rounds,
+                () -> valueBy(ingredients, Ingredient::getSupplier),
+                () -> columns.stockValueBySupplier().values().stream().mapToDouble(Double::doubleValue).sum());
+        compare("low stock", rounds,
+                () -> ingredients.stream()
+                        .filter(i -> i.isActive() && i.getStockQuantity() != null && i.getStockQuantity() < 10.0)
+                        .count(),
+                () -> columns.lowStockRows(10.0).length);
+    }
+    
+    private static double valueBy(List<Ingredient> ingredients, Function<Ingredient, String> key) {
+        Map<String, Double> totals = new HashMap<>();
+        for (Ingredient i : ingredients) {
+            if (i.getStockQuantity() != null && i.getCostPerUnit() != null) {
+                totals.merge(Objects.toString(key.apply(i), ""), i.getStockQuantity() * i.getCostPerUnit(), Double::sum);
+            }
+        }
+        return totals.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+    
+    private static void compare(String name, int rounds, Report list, Report columns) {
+        double listValue = run(list, rounds);
+        double listMicros = micros(list, rounds);
+        double columnsValue = run(columns, rounds);
+        double columnsMicros = micros(columns, rounds);
+        if (Math.abs(listValue - columnsValue) > 1e-6 * Math.max(1, Math.abs(listValue))) {
+            throw new IllegalStateException(name + ": list gives " + listValue + ", columns " + columnsValue);
+        }
+        System.out.printf(Locale.ROOT, "%-24s %12.1f %12.1f %9.1fx%n", name, listMicros, columnsMicros, listMicros / columnsMicros);
+    }
+    
+    /**
+     * Warm-up round; returns the report's value.
+     */
+    private static double run(Report report, int rounds) {
+        double value = 0;
+        for (int i = 0; i < rounds; i++) {
+            value = report.run();
+            sink += value;
+        }
+        return value;
+    }
+    
+    private static double micros(Report report, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            sink += report.run();
+        }
+        return (System.nanoTime() - start) / 1e3 / rounds;
+    }
+    
+    @FunctionalInterface
+    private interface Report {
+        double run();
+    }
+    
+    private static List<Ingredient> catalog(int size) {
+        Random random = new Random(42);
+        List<Ingredient> ingredients = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ingredients.add(Ingredient.builder()
+                    .id((long) i + 1)
+                    .name("Ingredient " + i)
+                    .category(random.nextInt(10) == 0 ? null : CATEGORIES[random.nextInt(CATEGORIES.length)])
+                    .supplier(random.nextInt(5) == 0 ? null : SUPPLIERS[random.nextInt(SUPPLIERS.length)])
+                    .ifraNaturalsCategory(random.nextInt(3) == 0 ? "K2." + random.nextInt(40) : null)
+                    .stockQuantity(random.nextInt(4) == 0 ? null : random.nextDouble() * 1000)
+                    .costPerUnit(random.nextInt(3) == 0 ? null : random.nextDouble() * 5)
+                    .msPerGramLarge(random.nextInt(2) == 0 ? null : 20 + random.nextInt(10))
+                    .active(random.nextInt(20) != 0)
+                    .build());
+        }
+        return ingredients;
+    }
+}
@@ -0,0 +1,73 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.service.IngredientColumns;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngredientColumnsTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void columnsKeepNullsAndDictionaryEncodeStrings() {
+        IngredientColumns columns = IngredientColumns.of(List.of(
+                ingredient(1L, "Synthetic", "Acme", 100.0, 0.5).ifraNaturalsCategory("K2.12").msPerGramLarge(25).build(),
+                ingredient(2L, "Floral", null, 5.0, null).build(),
+                ingredient(3L, "Synthetic", "Acme", null, 2.0).build(),
+                ingredient(4L, null, "Other", 2.0, 10.0).active(false).build()));
+        
+        assertEquals(4, columns.size());
+        assertEquals(2, columns.countInCategory("Synthetic"));
+        assertEquals(0, columns.countInCategory("Citrus"));
+        assertEquals(1, columns.countWithNcs());
+        assertEquals(columns.categoryCode(0), columns.categoryCode(2));
+        assertEquals(IngredientColumns.NONE, columns.categoryCode(3));
+        assertEquals("Acme", columns.supplier(columns.supplierCode(2)));
+        assertNull(columns.supplier(columns.supplierCode(1)));
+        assertFalse(columns.hasStock(2));
+        assertFalse(columns.hasCost(1));
+        assertEquals(25, columns.msPerGramLarge(0, 20));
+        assertEquals(20, columns.msPerGramLarge(1, 20));
+        
+        // Only rows with both stock and cost have a value
+        assertEquals(100 * 0.5 + 2 * 10.0, columns.totalStockValue(), 1e-9);
+        assertEquals(50.0, columns.stockValueByCategory().get("Synthetic"));
+        assertEquals(20.0, columns.stockValueByCategory().get(null));
+        assertEquals(Map.of("Acme", 50.0, "Other", 20.0), columns.stockValueBySupplier());
+        // Inactive and unstocked ingredients are not low on stock
+        assertArrayEquals(new int[]{1}, columns.lowStockRows(10.0));
+        assertEquals(2L, columns.id(1));
+    }
+    
+    @Test
+    void cacheKeepsColumnsUntilTheNextWrite() {
+        DatabaseManager dbManager = new DatabaseManager(tempDir.resolve("test.db").toString());
+        try {
+            CachingIngredientRepository cache = new CachingIngredientRepository(new IngredientRepositoryImpl(dbManager));
+            Ingredient saved = cache.save(ingredient(null, "Synthetic", null, 1.0, 1.0).build());
+            
+            IngredientColumns columns = cache.getColumns();
+            assertSame(columns, cache.getColumns());
+            saved.setStockQuantity(3.0);
+            cache.save(saved);
+            
+            assertNotSame(columns, cache.getColumns());
+            assertEquals(3.0, cache.getColumns().totalStockValue());
+        } finally {
+            dbManager.close();
+        }
+    }
+    
+    private static Ingredient.IngredientBuilder ingredient(Long id, String category, String supplier, Double stock, Double cost) {
+        return Ingredient.builder().id(id).name("Ingredient " + id).category(category).supplier(supplier)
+                .stockQuantity(stock).costPerUnit(cost).active(true);
+    }
+}
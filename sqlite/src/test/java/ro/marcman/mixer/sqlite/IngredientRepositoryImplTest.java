@@ -0,0 +1,184 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngredientRepositoryImplTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    private IngredientRepositoryImpl repository;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+        repository = new IngredientRepositoryImpl(dbManager);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void findersResolveMultiLevelMasterChainsInOneQuery() {
+        Ingredient root = repository.save(pumped("Root", "0x1", 3));
+        Ingredient middle = repository.save(slaveOf("Middle", root));
+        Ingredient leaf = repository.save(slaveOf("Leaf", middle));
+        for (int i = 0; i < 20; i++) {
+            repository.save(slaveOf("Leaf " + i, i % 2 == 0 ? middle : root));
+        }
+        dbManager.resetExecutedStatements();
+        
+        Ingredient resolvedLeaf = repository.findAll().stream()
+                .filter(i -> i.getId().equals(leaf.getId())).findFirst().orElseThrow();
+        
+        assertEquals(1, dbManager.getExecutedStatements());
+        assertEquals("0x1", resolvedLeaf.getArduinoUid());
+        assertEquals(3, resolvedLeaf.getArduinoPin());
+        assertEquals(middle.getId(), resolvedLeaf.getMasterIngredientId());
+        assertEquals(3, repository.findById(leaf.getId()).orElseThrow().getArduinoPin());
+        assertTrue(repository.findByCategory("Floral").stream().allMatch(i -> Integer.valueOf(3).equals(i.getArduinoPin())));
+    }
+    
+    @Test
+    void masterCyclesStopBeforeTheLoop() {
+        Ingredient a = repository.save(pumped("A", "0xA", 1));
+        Ingredient b = repository.save(pumped("B", "0xB", 2));
+        a.setMasterIngredientId(b.getId());
+        repository.save(a);
+        b.setMasterIngredientId(a.getId());
+        repository.save(b);
+        Ingredient self = repository.save(pumped("Self", "0xC", 4));
+        self.setMasterIngredientId(self.getId());
+        repository.save(self);
+        
+        // Each of A and B resolves to the other, the last ingredient before the chain returns to itself
+        assertEquals(2, repository.findById(a.getId()).orElseThrow().getArduinoPin());
+        assertEquals(1, repository.findById(b.getId()).orElseThrow().getArduinoPin());
+        assertEquals(4, repository.findById(self.getId()).orElseThrow().getArduinoPin());
+        assertEquals(3, repository.findAll().size());
+    }
+    
+    @Test
+    void missingMasterKeepsOwnConfiguration() throws Exception {
+        Ingredient orphan = repository.save(pumped("Orphan", "0xD", 7));
+        try (var conn = dbManager.getConnection(); var stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = OFF");
+            stmt.executeUpdate("UPDATE ingredients SET master_ingredient_id = 999 WHERE id = " + orphan.getId());
+            stmt.execute("PRAGMA foreign_keys = ON");
+        }
+        
+        assertEquals(7, repository.findById(orphan.getId()).orElseThrow().getArduinoPin());
+    }
+    
+    @Test
+    void pagesWalkAllIngredientsInNameAndIdOrder() {
+        for (int i = 0; i < 25; i++) {
+            // Repeated names: the id breaks ties between pages
+            repository.save(Ingredient.builder().name("Ingredient " + (i % 10)).active(i % 3 != 0).build());
+        }
+        
+        List<Ingredient> paged = new ArrayList<>();
+        List<Ingredient> page = repository.findPage(null, null, 7);
+        while (!page.isEmpty()) {
+            paged.addAll(page);
+            Ingredient last = page.get(page.size() - 1);
+            page = repository.findPage(last.getName(), last.getId(), 7);
+        }
+        
+        List<Ingredient> expected = repository.findAll().stream()
+                .sorted(Comparator.comparing(Ingredient::getName).thenComparing(Ingredient::getId))
+                .toList();
+        assertEquals(expected, paged);
+        assertEquals(25, repository.count());
+    }
+    
+    @Test
+    void streamReadsResolvedRowsAndReturnsTheConnectionOnClose() {
+        Ingredient root = repository.save(pumped("Root", "0x1", 3));
+        repository.save(slaveOf("Slave", root));
+        
+        List<Ingredient> streamed;
+        try (Stream<Ingredient> stream = repository.streamAll()) {
+            streamed = stream.toList();
+        }
+        long nested = dbManager.getNestedConnectionCount();
+        repository.count();
+        
+        assertEquals(repository.findAll(), streamed);
+        assertEquals(3, streamed.get(1).getArduinoPin());
+        // A connection still held by the stream would make the next borrow a nested one
+        assertEquals(nested, dbManager.getNestedConnectionCount());
+    }
+    
+    @Test
+    void searchMatchesWordPrefixesAndRanksNamesFirst() throws Exception {
+        Ingredient root = repository.save(pumped("Linalool", "0x1", 3));
+        repository.save(slaveOf("Linalool (Supplier B)", root));
+        Ingredient described = repository.save(Ingredient.builder()
+                .name("Lavender oil").casNumber("8000-28-0").description("Rich in linalool and linalyl acetate")
+                .active(true).build());
+        repository.save(Ingredient.builder().name("Rose absolute").casNumber("8007-01-0").active(true).build());
+        
+        List<String> names = repository.search("linal", 10).stream().map(Ingredient::getName).toList();
+        
+        assertEquals(3, names.size());
+        assertEquals("Lavender oil", names.get(2));
+        assertEquals(List.of("Linalool (Supplier B)"), names(repository.search("linalool supp", 10)));
+        assertEquals(List.of("Lavender oil"), names(repository.search("8000-28", 10)));
+        assertEquals(1, repository.search("linal", 1).size());
+        assertTrue(repository.search("  \"* ", 10).isEmpty());
+        // Master configuration is applied to matches
+        assertEquals(3, repository.search("supplier", 10).get(0).getArduinoPin());
+        
+        // Triggers keep the index in step with updates and deletes
+        described.setName("Bergamot oil");
+        described.setDescription("Citrus");
+        repository.save(described);
+        assertEquals(List.of("Bergamot oil"), names(repository.search("berg", 10)));
+        assertEquals(2, repository.search("linal", 10).size());
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM ingredients WHERE id = ?")) {
+            pstmt.setLong(1, described.getId());
+            pstmt.executeUpdate();
+        }
+        assertTrue(repository.search("bergamot", 10).isEmpty());
+    }
+    
+    @Test
+    void ftsQueryQuotesWordsAndPrefixesTheLast() {
+        assertEquals("\"78\" \"70\"*", IngredientRepositoryImpl.toFtsQuery("78-70"));
+        assertEquals("\"ylang\" \"OR\" \"x\"*", IngredientRepositoryImpl.toFtsQuery("ylang OR \"x"));
+        assertEquals("\"Cumarină\"*", IngredientRepositoryImpl.toFtsQuery("Cumarină"));
+        assertNull(IngredientRepositoryImpl.toFtsQuery(" - "));
+        assertNull(IngredientRepositoryImpl.toFtsQuery(null));
+    }
+    
+    private static List<String> names(List<Ingredient> ingredients) {
+        return ingredients.stream().map(Ingredient::getName).toList();
+    }
+    
+    private static Ingredient pumped(String name, String uid, int pin) {
+        return Ingredient.builder().name(name).category("Floral").arduinoUid(uid).arduinoPin(pin).active(true).build();
+    }
+    
+    private static Ingredient slaveOf(String name, Ingredient master) {
+        return Ingredient.builder().name(name).category("Floral").masterIngredientId(master.getId()).active(true).build();
+    }
+}
@@ -0,0 +1,134 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.StockMovement;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngredientSnapshotTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    private IngredientRepositoryImpl repository;
+    private IngredientSnapshot snapshot;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+        repository = new IngredientRepositoryImpl(dbManager);
+        snapshot = new IngredientSnapshot(dbManager, tempDir.resolve("test.db.catalog"));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void roundTripsEveryColumn() {
+        Ingredient master = repository.save(Ingredient.builder()
+                .name("Linalool").description("Floral, woody – ß").category("Floral").casNumber("78-70-6")
+                .ifraNaturalsCategory("K2.12").ifraStatus("approved")
+                .arduinoUid("0x1").arduinoPin(5).arduinoUidSmall("0x2").arduinoPinSmall(6).defaultDuration(100)
+                .msPerGramLarge(20).msPerGramSmall(40).pumpThresholdGrams(10.0).concentration(12.5)
+                .unit("g").costPerUnit(0.3).stockQuantity(250.0).supplier("Acme").batchNumber("B1")
+                .active(true).build());
+        repository.save(Ingredient.builder().name("Slave").masterIngredientId(master.getId()).active(false).build());
+        List<Ingredient> rows = repository.findAllWithoutMasterApply();
+        
+        assertTrue(snapshot.write(snapshot.currentCatalogVersion(), rows));
+        IngredientSnapshot.Loaded loaded = snapshot.load();
+        
+        assertNotNull(loaded);
+        assertEquals(sorted(rows), sorted(loaded.getRows()));
+    }
+    
+    @Test
+    void staleOrDamagedSnapshotsAreNotLoaded() throws Exception {
+        Ingredient saved = repository.save(Ingredient.builder().name("A").active(true).build());
+        long version = snapshot.currentCatalogVersion();
+        assertTrue(snapshot.write(version, repository.findAllWithoutMasterApply()));
+        
+        saved.setStockQuantity(1.0);
+        repository.save(saved);
+        assertNull(snapshot.load());
+        assertFalse(snapshot.write(version, List.of()), "rows older than the database must not be written");
+        
+        assertTrue(snapshot.write(snapshot.currentCatalogVersion(), repository.findAllWithoutMasterApply()));
+        byte[] bytes = Files.readAllBytes(snapshot.getFile());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot.getFile(), bytes);
+        assertNull(snapshot.load());
+        
+        Files.write(snapshot.getFile(), new byte[]{1, 2, 3});
+        assertNull(snapshot.load());
+    }
+    
+    @Test
+    void cacheStartsFromTheSnapshotAndKeepsItCurrent() {
+        Ingredient master = repository.save(Ingredient.builder().name("Master").arduinoUid("0x1").arduinoPin(3).active(true).build());
+        Ingredient slave = repository.save(Ingredient.builder().name("Slave").masterIngredientId(master.getId()).active(true).build());
+        
+        // First start: loads from the database and writes the snapshot
+        CachingIngredientRepository first = new CachingIngredientRepository(repository, snapshot);
+        assertEquals(2, first.findAll().size());
+        assertTrue(Files.exists(snapshot.getFile()));
+        master.setArduinoPin(4);
+        first.save(master);
+        first.writeSnapshot();
+        
+        // Second start: no ingredient rows are read from the database
+        AtomicInteger databaseLoads = new AtomicInteger();
+        CachingIngredientRepository second = new CachingIngredientRepository(new IngredientRepositoryImpl(dbManager) {
+            @Override
+            public List<Ingredient> findAllWithoutMasterApply() {
+                databaseLoads.incrementAndGet();
+                return super.findAllWithoutMasterApply();
+            }
+        }, snapshot);
+        assertEquals(4, second.findById(slave.getId()).orElseThrow().getArduinoPin());
+        assertEquals(0, databaseLoads.get());
+        
+        // A write behind the cache's back makes the cache unsure; it writes no snapshot until reloaded
+        repository.save(Ingredient.builder().name("Elsewhere").active(true).build());
+        second.writeSnapshot();
+        assertNull(snapshot.load());
+    }
+    
+    @Test
+    void cacheFollowsTheCatalogVersionThroughItsOwnWrites() {
+        Ingredient a = repository.save(Ingredient.builder().name("A").stockQuantity(2.0).active(true).build());
+        CachingIngredientRepository cache = new CachingIngredientRepository(repository, snapshot);
+        cache.findAll();
+        
+        // Consuming more than the stock clamps it with a second UPDATE, bumping the version twice
+        StockMovementRepositoryImpl ledger = new StockMovementRepositoryImpl(dbManager);
+        cache.recordStockMovements(ledger, List.of(StockMovement.builder()
+                .ingredientId(a.getId()).quantity(-5.0).reason("mix").build()));
+        // Neither changes a row, so neither moves the version
+        cache.save(Ingredient.builder().id(9_999L).name("Missing").active(true).build());
+        cache.deleteById(9_999L);
+        assertTrue(cache.findById(9_999L).isEmpty());
+        
+        cache.writeSnapshot();
+        IngredientSnapshot.Loaded loaded = snapshot.load();
+        assertNotNull(loaded, "the cache must still know the database's version");
+        assertEquals(0.0, loaded.getRows().getFirst().getStockQuantity());
+    }
+    
+    private static List<Ingredient> sorted(List<Ingredient> rows) {
+        return rows.stream().sorted(Comparator.comparing(Ingredient::getId)).toList();
+    }
+}
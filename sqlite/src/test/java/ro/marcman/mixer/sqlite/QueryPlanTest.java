@@ -0,0 +1,198 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.model.StockMovement;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs every repository operation, then checks the EXPLAIN QUERY PLAN of each SQL statement they used.
+ * A query that filters rows but makes SQLite read a whole table fails the build. Scans of common table
+ * expressions (such as the master chain) only read rows the query already selected and are not counted.
+ * 
+ * When adding a repository method, call it from exerciseRepositories() so its SQL is checked too.
+ */
+class QueryPlanTest {
+    
+    // "SCAN t" without an index: every row of t is read
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (\\w+)$");
+    
+    // Table references, to map an alias in the plan back to its table
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+            "(?i)\\b(?:FROM|JOIN)\\s+(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?");
+    
+    /**
+     * Conditions that cannot use an index; statements containing them may scan.
+     */
+    private static final Set<String> FULL_SCAN_ALLOWED = Set.of(
+            // Leading-wildcard LIKE (RecipeRepositoryImpl.searchByName)
+            "FROM recipes WHERE name LIKE ?",
+            // findAll resolves the master chain of every ingredient; the WHERE is in the recursive step
+            "FROM (SELECT id FROM ingredients)"
+    );
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void filteredQueriesUseIndexes() throws Exception {
+        exerciseRepositories();
+        
+        List<String> failures = new ArrayList<>();
+        int checked = 0;
+        try (Connection conn = dbManager.getConnection()) {
+            Set<String> tables = tables(conn);
+            for (String sql : dbManager.getRecordedSql()) {
+                String normalized = sql.strip().replaceAll("\\s+", " ");
+                if (!isQuery(normalized) || !normalized.toUpperCase(Locale.ROOT).contains(" WHERE ")) {
+                    continue;
+                }
+                checked++;
+                List<String> plan = explain(conn, sql);
+                for (String step : plan) {
+                    Matcher m = FULL_SCAN.matcher(step.strip());
+                    if (m.matches() && tables.contains(tableOf(normalized, m.group(1)))
+                            && FULL_SCAN_ALLOWED.stream().noneMatch(normalized::contains)) {
+                        failures.add(normalized + "\n    plan: " + plan);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        assertTrue(checked > 10, "Expected the repositories to run filtered queries, checked " + checked);
+        assertTrue(failures.isEmpty(), "Full table scans:\n" + String.join("\n", failures));
+    }
+    
+    private void exerciseRepositories() {
+        IngredientRepositoryImpl ingredients = new IngredientRepositoryImpl(dbManager);
+        Ingredient master = ingredients.save(Ingredient.builder()
+                .name("Linalool").casNumber("78-70-6").category("Floral")
+                .arduinoUid("0x1").arduinoPin(5).arduinoUidSmall("0x1").arduinoPinSmall(6)
+                .active(true).build());
+        Ingredient slave = ingredients.save(Ingredient.builder()
+                .name("Linalool (Supplier B)").casNumber("78-70-6")
+                .masterIngredientId(master.getId())
+                .active(true).build());
+        ingredients.save(slave);
+        ingredients.findAll();
+        ingredients.findAllWithoutMasterApply();
+        ingredients.findById(slave.getId());
+        ingredients.findByCategory("Floral");
+        ingredients.findByArduinoUid("0x1");
+        ingredients.findByUidAndPin("0x1", 5);
+        ingredients.countPinsByUid("0x1", master.getId());
+        ingredients.findByCasNumber("78-70-6");
+        ingredients.findByMasterIngredientId(master.getId());
+        ingredients.existsById(master.getId());
+        ingredients.findPage(null, null, 10);
+        ingredients.findPage(master.getName(), master.getId(), 10);
+        try (Stream<Ingredient> all = ingredients.streamAll()) {
+            all.count();
+        }
+        ingredients.count();
+        ingredients.findCategories();
+        ingredients.search("linalool supp", 10);
+        
+        RecipeRepositoryImpl recipes = new RecipeRepositoryImpl(dbManager);
+        List<RecipeIngredient> rows = new ArrayList<>();
+        rows.add(RecipeIngredient.builder().ingredientId(master.getId()).quantity(1.0).sequenceOrder(1).build());
+        rows.add(RecipeIngredient.builder().ingredientId(slave.getId()).quantity(2.0).sequenceOrder(2).build());
+        Recipe recipe = recipes.save(Recipe.builder()
+                .name("Test").category("Floral").batchSize(100).active(true)
+                .ingredients(rows).build());
+        recipe.getIngredients().get(0).setQuantity(1.5);
+        recipes.save(recipe);
+        recipes.findAll();
+        recipes.findAllActive();
+        recipes.findById(recipe.getId());
+        recipes.findByCategory("Floral");
+        recipes.searchByName("Te");
+        recipes.existsById(recipe.getId());
+        recipes.findVersions(recipe.getId());
+        recipes.findVersion(recipe.getId(), 1);
+        recipes.restoreVersion(recipe.getId(), 1);
+        
+        StockMovementRepositoryImpl stock = new StockMovementRepositoryImpl(dbManager);
+        stock.record(List.of(StockMovement.builder()
+                .ingredientId(master.getId()).recipeId(recipe.getId()).quantity(-1.0).reason("mix").build()));
+        stock.findByIngredientId(master.getId());
+        stock.findByRecipeId(recipe.getId());
+        recipes.deleteById(recipe.getId());
+        
+        ingredients.deleteById(slave.getId());
+    }
+    
+    private static boolean isQuery(String sql) {
+        String upper = sql.toUpperCase(Locale.ROOT);
+        return upper.startsWith("SELECT") || upper.startsWith("WITH")
+                || upper.startsWith("UPDATE") || upper.startsWith("DELETE");
+    }
+    
+    private static Set<String> tables(Connection conn) throws Exception {
+        Set<String> tables = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT name FROM sqlite_master WHERE type = 'table'");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                tables.add(rs.getString(1).toLowerCase(Locale.ROOT));
+            }
+        }
+        return tables;
+    }
+    
+    /**
+     * Table behind a name shown in the plan: the name itself, or the table it aliases.
+     */
+    private static String tableOf(String sql, String name) {
+        Matcher m = TABLE_REFERENCE.matcher(sql);
+        while (m.find()) {
+            if (name.equalsIgnoreCase(m.group(2))) {
+                return m.group(1).toLowerCase(Locale.ROOT);
+            }
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+    
+    private static List<String> explain(Connection conn, String sql) throws Exception {
+        List<String> plan = new ArrayList<>();
+        // Placeholders may stay unbound: the plan does not depend on parameter values
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+}
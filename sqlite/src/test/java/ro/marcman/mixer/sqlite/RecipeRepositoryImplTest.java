@@ -0,0 +1,289 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.model.RecipeVersion;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecipeRepositoryImplTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    private IngredientRepositoryImpl ingredientRepository;
+    private RecipeRepositoryImpl recipeRepository;
+    private Ingredient master;
+    private Ingredient slave;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+        ingredientRepository = new IngredientRepositoryImpl(dbManager);
+        recipeRepository = new RecipeRepositoryImpl(dbManager);
+        
+        master = ingredientRepository.save(Ingredient.builder()
+                .name("Linalool").casNumber("78-70-6")
+                .arduinoUid("0x1").arduinoPin(5).msPerGramLarge(25)
+                .active(true).build());
+        slave = ingredientRepository.save(Ingredient.builder()
+                .name("Linalool (Supplier B)").casNumber("78-70-6")
+                .masterIngredientId(master.getId())
+                .active(true).build());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void findAllUsesConstantNumberOfQueries() {
+        saveRecipes(1, true);
+        dbManager.resetExecutedStatements();
+        assertEquals(1, recipeRepository.findAll().size());
+        int queriesForOneRecipe = dbManager.getExecutedStatements();
+        
+        saveRecipes(20, true);
+        dbManager.resetExecutedStatements();
+        List<Recipe> recipes = recipeRepository.findAll();
+        
+        assertEquals(21, recipes.size());
+        assertEquals(2, queriesForOneRecipe);
+        assertEquals(queriesForOneRecipe, dbManager.getExecutedStatements());
+        recipes.forEach(recipe -> assertEquals(2, recipe.getIngredients().size()));
+    }
+    
+    @Test
+    void findAllActiveUsesConstantNumberOfQueries() {
+        saveRecipes(10, true);
+        saveRecipes(5, false);
+        dbManager.resetExecutedStatements();
+        
+        List<Recipe> recipes = recipeRepository.findAllActive();
+        
+        assertEquals(10, recipes.size());
+        assertEquals(2, dbManager.getExecutedStatements());
+        recipes.forEach(recipe -> assertTrue(recipe.isActive()));
+    }
+    
+    @Test
+    void loadedIngredientsInheritMasterConfiguration() {
+        Recipe saved = saveRecipes(1, true).get(0);
+        
+        Recipe loaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        
+        RecipeIngredient first = loaded.getIngredients().get(0);
+        RecipeIngredient second = loaded.getIngredients().get(1);
+        assertEquals(master.getId(), first.getIngredient().getId());
+        assertEquals(slave.getId(), second.getIngredient().getId());
+        assertEquals("Linalool (Supplier B)", second.getIngredient().getName());
+        assertEquals("0x1", second.getIngredient().getArduinoUid());
+        assertEquals(5, second.getIngredient().getArduinoPin());
+        assertEquals(25, second.getIngredient().getMsPerGramLarge());
+        assertEquals(2.5, second.getQuantity());
+    }
+    
+    @Test
+    void searchAndCategoryFiltersOnlyLoadMatchingRecipes() {
+        saveRecipes(3, true);
+        
+        List<Recipe> byName = recipeRepository.searchByName("Recipe 1");
+        List<Recipe> byCategory = recipeRepository.findByCategory("Floral");
+        Optional<Recipe> missing = recipeRepository.findById(-1L);
+        
+        assertEquals(1, byName.size());
+        assertEquals(2, byName.get(0).getIngredients().size());
+        assertEquals(3, byCategory.size());
+        assertTrue(missing.isEmpty());
+    }
+    
+    @Test
+    void updateWritesOnlyChangedIngredientRowsInBatches() {
+        List<RecipeIngredient> rows = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            rows.add(RecipeIngredient.builder().ingredientId(i % 2 == 0 ? master.getId() : slave.getId())
+                    .quantity(1.0 + i).unit("g").sequenceOrder(i).build());
+        }
+        Recipe saved = recipeRepository.save(Recipe.builder()
+                .name("Big").category("Floral").batchSize(100).active(true).ingredients(rows).build());
+        Recipe loaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        List<Long> idsBefore = loaded.getIngredients().stream().map(RecipeIngredient::getId).toList();
+        assertEquals(idsBefore, saved.getIngredients().stream().map(RecipeIngredient::getId).toList());
+        
+        loaded.getIngredients().get(3).setQuantity(99.0);
+        loaded.getIngredients().remove(10);
+        loaded.getIngredients().add(RecipeIngredient.builder().ingredientId(master.getId())
+                .quantity(5.0).unit("g").sequenceOrder(60).build());
+        dbManager.resetExecutedStatements();
+        assertNotNull(recipeRepository.save(loaded));
+        
+        // Current version, stored rows, one batch each for delete/update/insert, last_insert_rowid,
+        // version row, change batch, header update
+        assertEquals(9, dbManager.getExecutedStatements());
+        Recipe reloaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        assertEquals(60, reloaded.getIngredients().size());
+        assertEquals(99.0, reloaded.getIngredients().get(3).getQuantity());
+        assertEquals(idsBefore.get(0), reloaded.getIngredients().get(0).getId());
+        assertFalse(reloaded.getIngredients().stream().anyMatch(ri -> ri.getId().equals(idsBefore.get(10))));
+        assertEquals(loaded.getIngredients().get(59).getId(), reloaded.getIngredients().get(59).getId());
+    }
+    
+    @Test
+    void rowsWithoutIdsAreMatchedByIngredientAndOrder() {
+        Recipe saved = saveRecipes(1, true).get(0);
+        List<Long> idsBefore = recipeRepository.findById(saved.getId()).orElseThrow()
+                .getIngredients().stream().map(RecipeIngredient::getId).toList();
+        
+        // Same rows rebuilt without ids, as the recipe form does for new rows
+        saved.getIngredients().forEach(ri -> ri.setId(null));
+        saved.getIngredients().get(1).setQuantity(3.0);
+        dbManager.resetExecutedStatements();
+        recipeRepository.save(saved);
+        
+        // Current version, stored rows, one update batch, version row, change batch, header update
+        assertEquals(6, dbManager.getExecutedStatements());
+        Recipe reloaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        assertEquals(idsBefore, reloaded.getIngredients().stream().map(RecipeIngredient::getId).toList());
+        assertEquals(3.0, reloaded.getIngredients().get(1).getQuantity());
+    }
+    
+    @Test
+    void failedSaveRollsBackHeaderAndIngredients() {
+        Recipe saved = saveRecipes(1, true).get(0);
+        
+        saved.setName("Renamed");
+        saved.getIngredients().get(0).setQuantity(50.0);
+        saved.getIngredients().add(RecipeIngredient.builder().ingredientId(999_999L)
+                .quantity(1.0).sequenceOrder(2).build());
+        
+        assertNull(recipeRepository.save(saved));
+        Recipe reloaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        assertEquals("Recipe 0", reloaded.getName());
+        assertEquals(1.0, reloaded.getIngredients().get(0).getQuantity());
+        assertEquals(2, reloaded.getIngredients().size());
+    }
+    
+    @Test
+    void eachChangingSaveAddsAVersionHoldingOnlyItsChanges() {
+        Recipe saved = saveRecipes(1, true).get(0);
+        assertEquals(1, saved.getCurrentVersion());
+        
+        saved.getIngredients().get(0).setQuantity(4.0);
+        recipeRepository.save(saved);
+        saved.getIngredients().remove(1);
+        saved.setNotes("Without the slave");
+        recipeRepository.save(saved);
+        
+        // Nothing changed: no new version and only the current version is read besides the stored rows
+        dbManager.resetExecutedStatements();
+        recipeRepository.save(saved);
+        assertEquals(3, dbManager.getExecutedStatements());
+        
+        List<RecipeVersion> versions = recipeRepository.findVersions(saved.getId());
+        assertEquals(List.of(3, 2, 1), versions.stream().map(RecipeVersion::getVersion).toList());
+        assertEquals(List.of(1, 1, 2), versions.stream().map(RecipeVersion::getIngredientChanges).toList());
+        assertEquals(3, recipeRepository.findById(saved.getId()).orElseThrow().getCurrentVersion());
+        
+        RecipeVersion first = recipeRepository.findVersion(saved.getId(), 1).orElseThrow();
+        assertEquals(List.of(1.0, 2.5), first.getIngredients().stream().map(RecipeIngredient::getQuantity).toList());
+        assertEquals("Linalool (Supplier B)", first.getIngredients().get(1).getIngredient().getName());
+        assertEquals(5, first.getIngredients().get(1).getIngredient().getArduinoPin());
+        RecipeVersion second = recipeRepository.findVersion(saved.getId(), 2).orElseThrow();
+        assertEquals(List.of(4.0, 2.5), second.getIngredients().stream().map(RecipeIngredient::getQuantity).toList());
+        RecipeVersion third = recipeRepository.findVersion(saved.getId(), 3).orElseThrow();
+        assertEquals(1, third.getIngredients().size());
+        assertEquals("Without the slave", third.getNotes());
+        assertTrue(recipeRepository.findVersion(saved.getId(), 4).isEmpty());
+    }
+    
+    @Test
+    void restoringAVersionSavesItAsTheNewestVersion() {
+        Recipe saved = saveRecipes(1, true).get(0);
+        saved.setName("Renamed");
+        saved.getIngredients().remove(1);
+        recipeRepository.save(saved);
+        
+        Recipe restored = recipeRepository.restoreVersion(saved.getId(), 1).orElseThrow();
+        
+        assertEquals(3, restored.getCurrentVersion());
+        Recipe reloaded = recipeRepository.findById(saved.getId()).orElseThrow();
+        assertEquals("Recipe 0", reloaded.getName());
+        assertEquals(List.of(1.0, 2.5), reloaded.getIngredients().stream().map(RecipeIngredient::getQuantity).toList());
+        assertEquals(3, recipeRepository.findVersions(saved.getId()).size());
+        assertTrue(recipeRepository.restoreVersion(saved.getId(), 9).isEmpty());
+    }
+    
+    @Test
+    void restoreWaitsForAConcurrentSave() throws Exception {
+        Recipe saved = saveRecipes(1, true).get(0);
+        saved.setName("Renamed");
+        
+        CompletableFuture<Optional<Recipe>> restore;
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            recipeRepository.save(saved);
+            restore = CompletableFuture.supplyAsync(() -> recipeRepository.restoreVersion(saved.getId(), 1));
+            Thread.sleep(200);
+            assertFalse(restore.isDone());
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+        
+        Recipe restored = restore.get(5, TimeUnit.SECONDS).orElseThrow();
+        assertEquals(3, restored.getCurrentVersion());
+        assertEquals("Recipe 0", recipeRepository.findById(saved.getId()).orElseThrow().getName());
+        assertEquals(List.of(1, 2, 3), recipeRepository.findVersions(saved.getId()).stream()
+                .map(RecipeVersion::getVersion).sorted().toList());
+    }
+    
+    @Test
+    void versionsAreImmutableAndDeletedWithTheRecipe() throws Exception {
+        Recipe saved = saveRecipes(1, true).get(0);
+        
+        try (Connection conn = dbManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            assertThrows(SQLException.class,
+                    () -> stmt.executeUpdate("UPDATE recipe_versions SET name = 'Changed'"));
+            assertThrows(SQLException.class,
+                    () -> stmt.executeUpdate("UPDATE recipe_version_changes SET quantity = 0"));
+        }
+        
+        recipeRepository.deleteById(saved.getId());
+        assertTrue(recipeRepository.findVersions(saved.getId()).isEmpty());
+        assertTrue(recipeRepository.findVersion(saved.getId(), 1).isEmpty());
+    }
+    
+    private List<Recipe> saveRecipes(int count, boolean active) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> recipeRepository.save(Recipe.builder()
+                        .name("Recipe " + i)
+                        .category("Floral")
+                        .batchSize(100)
+                        .active(active)
+                        .ingredients(new ArrayList<>(List.of(
+                                RecipeIngredient.builder().ingredientId(master.getId())
+                                        .quantity(1.0).unit("g").sequenceOrder(0).build(),
+                                RecipeIngredient.builder().ingredientId(slave.getId())
+                                        .quantity(2.5).unit("g").sequenceOrder(1).build())))
+                        .build()))
+                .toList();
+    }
+}
@@ -0,0 +1,129 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaMigratorTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void newDatabaseIsCreatedAtTheLatestVersion() throws Exception {
+        DatabaseManager dbManager = new DatabaseManager(tempDir.resolve("new.db").toString());
+        try (Connection conn = dbManager.getConnection()) {
+            assertEquals(new SchemaMigrator().getLatestVersion(), SchemaMigrator.getUserVersion(conn));
+            assertTrue(SchemaMigrator.getColumns(conn, "ingredients").contains("master_ingredient_id"));
+            assertFalse(SchemaMigrator.getColumns(conn, "recipe_ingredients").isEmpty());
+        } finally {
+            dbManager.close();
+        }
+    }
+    
+    @Test
+    void legacyDatabaseIsUpgradedWithoutLosingRows() throws Exception {
+        String url = "jdbc:sqlite:" + tempDir.resolve("legacy.db");
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            // Schema of the first releases: UNIQUE cas_number, no calibration or master columns
+            stmt.execute("""
+                CREATE TABLE ingredients (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, description TEXT, category TEXT,
+                    cas_number TEXT UNIQUE, ifra_naturals_category TEXT, ifra_status TEXT,
+                    arduino_uid TEXT, arduino_pin INTEGER, arduino_pin_small INTEGER, default_duration INTEGER,
+                    concentration REAL, unit TEXT, cost_per_unit REAL, stock_quantity REAL,
+                    supplier TEXT, batch_number TEXT, active INTEGER DEFAULT 1)
+                """);
+            stmt.execute("CREATE TABLE recipes (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "description TEXT, category TEXT, created_at TEXT, updated_at TEXT, created_by TEXT, "
+                    + "batch_size INTEGER, notes TEXT, active INTEGER DEFAULT 1)");
+            stmt.execute("CREATE TABLE recipe_ingredients (id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "recipe_id INTEGER NOT NULL, ingredient_id INTEGER NOT NULL, quantity REAL, unit TEXT, "
+                    + "pulse_duration INTEGER, sequence_order INTEGER, notes TEXT, "
+                    + "FOREIGN KEY (recipe_id) REFERENCES recipes(id) ON DELETE CASCADE, "
+                    + "FOREIGN KEY (ingredient_id) REFERENCES ingredients(id) ON DELETE CASCADE)");
+            for (int i = 1; i <= 2500; i++) {
+                stmt.execute("INSERT INTO ingredients (name, cas_number) VALUES ('Ingredient " + i + "', 'CAS-" + i + "')");
+            }
+            stmt.execute("INSERT INTO recipes (name) VALUES ('Recipe')");
+            stmt.execute("INSERT INTO recipe_ingredients (recipe_id, ingredient_id, quantity) VALUES (1, 42, 1.5)");
+        }
+        
+        List<Long> progress = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(url)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA foreign_keys=ON");
+            }
+            SchemaMigrator migrator = new SchemaMigrator(SchemaMigrator.MIGRATIONS,
+                    (migration, done, total) -> progress.add(done));
+            assertEquals(migrator.getLatestVersion(), migrator.migrate(conn));
+            
+            assertTrue(SchemaMigrator.getColumns(conn, "ingredients").contains("master_ingredient_id"));
+            assertEquals(2500, count(conn, "ingredients"));
+            // Rebuilding ingredients must not cascade into recipe_ingredients
+            assertEquals(1, count(conn, "recipe_ingredients"));
+            // Existing recipes start their history with their current formula
+            assertEquals(1, count(conn, "recipe_versions"));
+            assertEquals(1, count(conn, "recipe_version_changes"));
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("INSERT INTO ingredients (name, cas_number) VALUES ('Same CAS', 'CAS-1')");
+            }
+        }
+        assertEquals(List.of(1000L, 2000L, 2500L), progress);
+    }
+    
+    @Test
+    void currentDatabaseRunsNoMigrations() throws Exception {
+        List<Integer> applied = new ArrayList<>();
+        List<SchemaMigrator.Migration> migrations = List.of(
+                new SchemaMigrator.Migration(1, "First", (conn, progress) -> applied.add(1)),
+                new SchemaMigrator.Migration(2, "Second", (conn, progress) -> applied.add(2)));
+        SchemaMigrator migrator = new SchemaMigrator(migrations, (migration, done, total) -> { });
+        
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("current.db"))) {
+            assertEquals(2, migrator.migrate(conn));
+            assertEquals(2, migrator.migrate(conn));
+        }
+        assertEquals(List.of(1, 2), applied);
+    }
+    
+    @Test
+    void failedMigrationLeavesTheDatabaseUnchanged() throws Exception {
+        List<SchemaMigrator.Migration> migrations = List.of(
+                new SchemaMigrator.Migration(1, "Create table", (conn, progress) -> {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("CREATE TABLE created_by_v1 (id INTEGER)");
+                    }
+                }),
+                new SchemaMigrator.Migration(2, "Broken", (conn, progress) -> {
+                    throw new SQLException("boom");
+                }));
+        SchemaMigrator migrator = new SchemaMigrator(migrations, (migration, done, total) -> { });
+        
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("failed.db"))) {
+            assertThrows(SQLException.class, () -> migrator.migrate(conn));
+            assertEquals(0, SchemaMigrator.getUserVersion(conn));
+            assertTrue(SchemaMigrator.getColumns(conn, "created_by_v1").isEmpty());
+            assertTrue(conn.getAutoCommit());
+        }
+    }
+    
+    private static int count(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
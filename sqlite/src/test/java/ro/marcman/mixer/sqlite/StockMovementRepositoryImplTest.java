@@ -0,0 +1,117 @@
+package ro.marcman.mixer.sqlite;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.model.Recipe;
+import ro.marcman.mixer.core.model.StockMovement;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StockMovementRepositoryImplTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    private CountingDatabaseManager dbManager;
+    private IngredientRepositoryImpl ingredients;
+    private StockMovementRepositoryImpl repository;
+    
+    @BeforeEach
+    void setUp() {
+        dbManager = new CountingDatabaseManager(tempDir.resolve("test.db").toString());
+        ingredients = new IngredientRepositoryImpl(dbManager);
+        repository = new StockMovementRepositoryImpl(dbManager);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        dbManager.close();
+    }
+    
+    @Test
+    void recordDecrementsStockAndWritesTheLedger() {
+        Ingredient a = ingredients.save(stocked("A", 100.0));
+        Ingredient b = ingredients.save(stocked("B", 5.0));
+        Ingredient unstocked = ingredients.save(stocked("C", null));
+        Recipe recipe = new RecipeRepositoryImpl(dbManager).save(Recipe.builder().name("Mix").active(true).build());
+        
+        List<StockMovement> recorded = repository.record(List.of(
+                consume(a, recipe, 12.5), consume(b, recipe, 8.0), consume(unstocked, recipe, 1.0),
+                consume(Ingredient.builder().id(9999L).build(), recipe, 1.0)));
+        
+        assertEquals(3, recorded.size());
+        assertEquals(87.5, recorded.get(0).getStockAfter());
+        assertEquals(0.0, recorded.get(1).getStockAfter());
+        assertEquals(0.0, recorded.get(2).getStockAfter());
+        assertEquals(-12.5, recorded.get(0).getQuantity());
+        assertEquals(-5.0, recorded.get(1).getQuantity());
+        assertEquals(0.0, recorded.get(2).getQuantity());
+        assertNotNull(recorded.get(0).getId());
+        assertEquals(87.5, ingredients.findById(a.getId()).orElseThrow().getStockQuantity());
+        assertEquals(0.0, ingredients.findById(b.getId()).orElseThrow().getStockQuantity());
+        
+        repository.record(List.of(StockMovement.builder().ingredientId(a.getId()).quantity(20.0).reason("restock").build()));
+        List<StockMovement> history = repository.findByIngredientId(a.getId());
+        assertEquals(2, history.size());
+        assertEquals("restock", history.get(0).getReason());
+        assertEquals(107.5, history.get(0).getStockAfter());
+        assertEquals(-12.5, history.get(1).getQuantity());
+        assertEquals(recipe.getId(), history.get(1).getRecipeId());
+        assertNotNull(history.get(1).getCreatedAt());
+        assertEquals(3, repository.findByRecipeId(recipe.getId()).size());
+        assertEquals(-5.0, repository.findByIngredientId(b.getId()).get(0).getQuantity());
+    }
+    
+    @Test
+    void concurrentDecrementsAreNotLost() throws Exception {
+        Ingredient a = ingredients.save(stocked("A", 1000.0));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<StockMovement>>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                futures.add(executor.submit(() -> repository.record(List.of(consume(a, null, 1.5)))));
+            }
+            for (Future<List<StockMovement>> future : futures) {
+                assertEquals(1, future.get().size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertEquals(940.0, ingredients.findById(a.getId()).orElseThrow().getStockQuantity());
+        assertEquals(40, repository.findByIngredientId(a.getId()).size());
+    }
+    
+    @Test
+    void cacheFollowsRecordedMovements() {
+        CachingIngredientRepository cache = new CachingIngredientRepository(ingredients);
+        Ingredient a = cache.save(stocked("A", 10.0));
+        
+        cache.recordStockMovements(repository, List.of(consume(a, null, 4.0)));
+        
+        assertEquals(6.0, cache.findById(a.getId()).orElseThrow().getStockQuantity());
+    }
+    
+    private static Ingredient stocked(String name, Double stock) {
+        return Ingredient.builder().name(name).stockQuantity(stock).active(true).build();
+    }
+    
+    private static StockMovement consume(Ingredient ingredient, Recipe recipe, double grams) {
+        return StockMovement.builder()
+                .ingredientId(ingredient.getId())
+                .recipeId(recipe != null ? recipe.getId() : null)
+                .quantity(-grams)
+                .reason("mix")
+                .build();
+    }
+}
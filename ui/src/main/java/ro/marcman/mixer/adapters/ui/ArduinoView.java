@@ -5,9 +5,11 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
+import ro.marcman.mixer.serial.CommandPriority;
 import ro.marcman.mixer.serial.SerialListener;
 import ro.marcman.mixer.serial.SerialManager;
 import ro.marcman.mixer.serial.model.ArduinoCommand;
+import ro.marcman.mixer.serial.model.MasterEvent;
 import ro.marcman.mixer.serial.model.SerialResponse;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
@@ -191,21 +193,36 @@ public class ArduinoView extends VBox {
         getSerialManager().addListener(new SerialListener() {
             @Override
             public void onDataReceived(SerialResponse response) {
-                Platform.runLater(() -> {
+                onDataReceived(List.of(response));
+            }
+            
+            @Override
+            public void onDataReceived(List<SerialResponse> responses) {
+                // One append and one FX update for the whole batch
+                StringBuilder text = new StringBuilder();
+                String lastError = null;
+                for (SerialResponse response : responses) {
                     String rawResponse = response.getRawResponse();
                     
                     // Filter out normal CAN recovery messages
-                    if (isNormalCanRecovery(rawResponse)) {
+                    if (response.getEvent() instanceof MasterEvent.CanRecovery recovery && recovery.normal()) {
                         // Display as INFO, not error - these are NORMAL
-                        responseArea.appendText("[CAN INFO] " + rawResponse + "\n");
+                        text.append("[CAN INFO] ").append(rawResponse).append("\n");
                     } else {
-                        responseArea.appendText(rawResponse + "\n");
+                        text.append(rawResponse).append("\n");
                         
                         if (response.isError()) {
-                            updateStatus("Error: " + rawResponse, "error");
+                            lastError = rawResponse;
                         }
                     }
-                    
+                }
+                
+                String error = lastError;
+                Platform.runLater(() -> {
+                    responseArea.appendText(text.toString());
+                    if (error != null) {
+                        updateStatus("Error: " + error, "error");
+                    }
                     responseArea.setScrollTop(Double.MAX_VALUE);
                 });
             }
@@ -391,27 +408,6 @@ public class ArduinoView extends VBox {
         }
     }
     
-    /**
-     * Check if a message is a normal CAN recovery message (not an actual error)
-     */
-    private boolean isNormalCanRecovery(String message) {
-        if (message == null) return false;
-        
-        String msg = message.toLowerCase();
-        
-        // These are NORMAL messages during CAN auto-recovery
-        if (msg.contains("can recover") ||
-            msg.contains("eflg=0x40") ||
-            msg.contains("eflg before") ||
-            msg.contains("eflg after=0x0") ||
-            (msg.contains("tec=0") && msg.contains("rec=")) ||
-            (msg.contains("rec=") && !msg.contains("rec=127"))) {  // REC < 127 is normal
-            return true;
-        }
-        
-        return false;
-    }
-    
     private void showAlert(Alert.AlertType type, String title, String message) {
         Alert alert = new Alert(type);
         IconSupport.applyTo(alert);
@@ -455,9 +451,10 @@ public class ArduinoView extends VBox {
             try {
                 while (heartbeatActive && getSerialManager().isConnected()) {
                     // Send pulse: set pin 47 HIGH, wait, then LOW
-                    getSerialManager().sendRawCommand("set 47 1");
+                    getSerialManager().sendRawCommand("set 47 1", CommandPriority.MONITORING);
                     Thread.sleep(100); // Keep HIGH for 100ms
-                    getSerialManager().sendRawCommand("set 47 0");
+                    // LOW may wait for queue space: a refused LOW would leave the pin HIGH
+                    getSerialManager().sendRawCommand("set 47 0", CommandPriority.EXECUTION);
                     
                     // Wait 1 second before next heartbeat
                     Thread.sleep(1000);
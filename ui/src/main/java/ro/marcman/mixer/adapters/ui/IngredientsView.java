@@ -3,16 +3,22 @@ package ro.marcman.mixer.adapters.ui;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import ro.marcman.mixer.core.model.Ingredient;
+import ro.marcman.mixer.core.ports.repository.AsyncIngredientRepository;
 import ro.marcman.mixer.core.ports.repository.IngredientRepository;
+import ro.marcman.mixer.core.service.IngredientColumns;
 import ro.marcman.mixer.serial.SerialManager;
+import ro.marcman.mixer.sqlite.AsyncIngredientRepositoryImpl;
 import ro.marcman.mixer.sqlite.DatabaseManager;
-import ro.marcman.mixer.sqlite.IngredientRepositoryImpl;
+import ro.marcman.mixer.sqlite.CachingIngredientRepository;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
 import java.io.File;
@@ -20,21 +26,42 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Ingredients view - displays all IFRA ingredients from database
  */
 public class IngredientsView extends VBox {
     
+    // Most search results shown; the best-ranked come first
+    private static final int SEARCH_LIMIT = 1000;
+    // Catalog rows fetched per keyset page while scrolling
+    private static final int PAGE_SIZE = 200;
+    // Stocked ingredients below this many grams count as low in the stats bar
+    private static final double LOW_STOCK_GRAMS = 10.0;
+    
     private final DatabaseManager dbManager;
     private final IngredientRepository repository;
+    // Loads and searches run off the FX thread; results are applied with Platform.runLater
+    private final AsyncIngredientRepository asyncRepository;
     private SerialManager serialManager;
     
     private TableView<Ingredient> table;
     private TextField searchField;
     private ComboBox<String> categoryFilter;
     private Label statsLabel;
-    private ObservableList<Ingredient> allIngredients;
+    // Rows of the catalog loaded so far, in name order; pages are appended while scrolling (FX thread only)
+    private ObservableList<Ingredient> catalogPage;
+    // catalogPage as the table shows it, sorted by the clicked column headers without reordering catalogPage
+    private SortedList<Ingredient> catalogView;
+    // Keyset cursor: name and id of the last row fetched, whatever order the table shows
+    private String lastName;
+    private Long lastId;
+    private long catalogSize;
+    private boolean pageLoading;
+    private boolean lastPageLoaded;
+    // Incremented by every reload so that pages of an earlier load are dropped
+    private int catalogGeneration;
     
     public IngredientsView() {
         super(10);
@@ -42,7 +69,8 @@ public class IngredientsView extends VBox {
         
         // Initialize database
         this.dbManager = DatabaseManager.getInstance();
-        this.repository = new IngredientRepositoryImpl(dbManager);
+        this.repository = CachingIngredientRepository.getInstance();
+        this.asyncRepository = AsyncIngredientRepositoryImpl.create();
         
         buildUI();
         loadIngredients();
@@ -89,22 +117,17 @@ public class IngredientsView extends VBox {
         refreshButton.setStyle("-fx-font-weight: bold; -fx-background-color: #4CAF50; -fx-text-fill: white;");
         refreshButton.setTooltip(new Tooltip("Reload all ingredients from database to see latest changes"));
         refreshButton.setOnAction(e -> {
-            // Force database connection reset to ensure fresh data
-            dbManager.resetConnection();
+            // Drop cached ingredients to ensure fresh data
+            CachingIngredientRepository.getInstance().invalidate();
             // Clear existing items first
-            table.getItems().clear();
-            allIngredients = null;
-            // Reload from database
-            loadIngredients();
-            // Force a complete refresh
-            table.refresh();
-            Platform.runLater(() -> {
-                table.refresh();
-                showAlert(Alert.AlertType.INFORMATION, "Refreshed", 
+            table.setItems(FXCollections.observableArrayList());
+            // Reload from database; confirm once the reloaded rows are shown
+            loadIngredients(() -> showAlert(Alert.AlertType.INFORMATION, "Refreshed", 
                          "Ingredients reloaded from database.\n" +
                          "All data is now up to date.\n\n" +
-                         "If stock values still don't update, please restart the application.");
-            });
+                         "If stock values still don't update, please restart the application."));
+            // Force a complete refresh
+            table.refresh();
         });
         
         Button clearAllButton = new Button("🗑️ Clear All");
@@ -130,6 +153,18 @@ public class IngredientsView extends VBox {
         // Table
         table = new TableView<>();
         VBox.setVgrow(table, Priority.ALWAYS);
+        // Fetch the next page when the vertical scroll bar nears the end of the loaded rows
+        table.skinProperty().addListener((obs, oldSkin, skin) -> {
+            for (Node node : table.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL) {
+                    bar.valueProperty().addListener((o, old, value) -> {
+                        if (value.doubleValue() >= bar.getMax() * 0.9) {
+                            loadNextPage();
+                        }
+                    });
+                }
+            }
+        });
         
         // AMORSEAZA button column (first column, left side)
         TableColumn<Ingredient, Ingredient> amorseazaCol = new TableColumn<>("AMORSEAZA");
@@ -319,82 +354,182 @@ public class IngredientsView extends VBox {
         getChildren().addAll(title, statsBox, filterBar, deleteButtonsBar, table, actionBar, infoLabel);
     }
     
+    /**
+     * Load the first page of the catalog and its size in the background and show them when they arrive.
+     * Further pages are fetched as the table is scrolled (see loadNextPage).
+     */
     private void loadIngredients() {
+        loadIngredients(null);
+    }
+    
+    /**
+     * @param onLoaded Run on the FX thread once the first page is shown, or null; not run if the load fails
+     */
+    private void loadIngredients(Runnable onLoaded) {
+        statsLabel.setText("Loading...");
+        int generation = ++catalogGeneration;
+        catalogPage = null;
+        catalogView = null;
+        lastPageLoaded = false;
+        pageLoading = true;
+        asyncRepository.count()
+            .thenCombine(asyncRepository.findPage(null, null, PAGE_SIZE), CatalogStart::new)
+            .thenCombine(asyncRepository.findCategories(), CatalogStart::withCategories)
+            .whenComplete((start, error) -> Platform.runLater(() -> {
+                if (generation != catalogGeneration) {
+                    return;
+                }
+                pageLoading = false;
+                if (error != null) {
+                    showLoadError(error.getCause() != null ? error.getCause() : error);
+                } else if (showIngredients(start) && onLoaded != null) {
+                    onLoaded.run();
+                }
+            }));
+    }
+    
+    /**
+     * Fetch the page after the last loaded row, unless the table shows search or category results,
+     * a page is already on its way or every row has been loaded.
+     */
+    private void loadNextPage() {
+        if (catalogPage == null || catalogPage.isEmpty() || table.getItems() != catalogView
+                || pageLoading || lastPageLoaded) {
+            return;
+        }
+        int generation = catalogGeneration;
+        pageLoading = true;
+        asyncRepository.findPage(lastName, lastId, PAGE_SIZE).whenComplete((page, error) -> Platform.runLater(() -> {
+            if (generation != catalogGeneration) {
+                return;
+            }
+            pageLoading = false;
+            if (error != null) {
+                System.err.println("ERROR loading ingredients: " + error.getMessage());
+                return;
+            }
+            lastPageLoaded = page.size() < PAGE_SIZE;
+            advanceCursor(page);
+            catalogPage.addAll(page);
+            updateStats(catalogPage);
+        }));
+    }
+    
+    private void advanceCursor(List<Ingredient> page) {
+        if (!page.isEmpty()) {
+            Ingredient last = page.get(page.size() - 1);
+            lastName = last.getName();
+            lastId = last.getId();
+        }
+    }
+    
+    /**
+     * @return Whether the rows were shown; false if an error was shown instead
+     */
+    private boolean showIngredients(CatalogStart start) {
         try {
-            List<Ingredient> ingredients = repository.findAll();
-            
             // Create completely new ObservableList to ensure changes are detected
-            ObservableList<Ingredient> newList = FXCollections.observableArrayList(ingredients);
+            catalogPage = FXCollections.observableArrayList(start.firstPage());
+            catalogView = new SortedList<>(catalogPage);
+            // Bound to the table's comparator, so TableView sorts the view instead of catalogPage itself
+            catalogView.comparatorProperty().bind(table.comparatorProperty());
+            catalogSize = start.size();
+            lastPageLoaded = start.firstPage().size() < PAGE_SIZE;
+            lastName = null;
+            lastId = null;
+            advanceCursor(start.firstPage());
             
-            // Clear existing items and set new ones to force complete refresh
-            table.getItems().clear();
-            allIngredients = newList;
-            table.setItems(allIngredients);
+            // Set the new rows to force a complete refresh
+            table.setItems(catalogView);
             
             // Force refresh of all visible cells to update displayed values
             table.refresh();
             
             // Populate category filter
-            List<String> categories = ingredients.stream()
-                .map(Ingredient::getCategory)
-                .filter(c -> c != null && !c.isEmpty())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
-            
             categoryFilter.getItems().clear();
             categoryFilter.getItems().add("All categories");
-            categoryFilter.getItems().addAll(categories);
+            categoryFilter.getItems().addAll(start.categories());
             categoryFilter.setValue("All categories");
             
             // Update stats
-            updateStats(ingredients);
+            updateStats(catalogPage);
+            return true;
             
         } catch (Exception e) {
-            System.err.println("ERROR loading ingredients: " + e.getMessage());
-            e.printStackTrace();
-            showError("Error loading ingredients", e.getMessage());
-            
-            // Show placeholder with error
-            String dbPath = DatabaseManager.getInstance().getDatabasePath();
-            Label errorLabel = new Label("⚠️ Error loading ingredients from database:\n" + e.getMessage() +
-                "\n\nDatabase location: " + dbPath + "\n" +
-                "Try running: data\\import_ifra_full.bat");
-            errorLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: red;");
-            getChildren().add(errorLabel);
+            showLoadError(e);
+            return false;
         }
     }
     
+    private void showLoadError(Throwable e) {
+        System.err.println("ERROR loading ingredients: " + e.getMessage());
+        e.printStackTrace();
+        showError("Error loading ingredients", e.getMessage());
+        
+        // Show placeholder with error
+        String dbPath = DatabaseManager.getInstance().getDatabasePath();
+        Label errorLabel = new Label("⚠️ Error loading ingredients from database:\n" + e.getMessage() +
+            "\n\nDatabase location: " + dbPath + "\n" +
+            "Try running: data\\import_ifra_full.bat");
+        errorLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: red;");
+        getChildren().add(errorLabel);
+    }
+    
     private void filterIngredients() {
-        if (allIngredients == null) return;
+        if (catalogPage == null) return;
         
-        String searchText = searchField.getText().toLowerCase();
+        String searchText = searchField.getText().strip();
         String selectedCategory = categoryFilter.getValue();
         
-        List<Ingredient> filtered = allIngredients.stream()
+        if (searchText.isEmpty()) {
+            if (!isCategorySelected(selectedCategory)) {
+                table.setItems(catalogView);
+                updateStats(catalogPage);
+                return;
+            }
+            // Category filter: only that category's rows, read through idx_ingredients_category
+            asyncRepository.findByCategory(selectedCategory).whenComplete((matches, error) -> Platform.runLater(() -> {
+                // Filters changed while the query ran: a later filter shows its own results
+                if (!searchField.getText().strip().isEmpty() || !selectedCategory.equals(categoryFilter.getValue())) {
+                    return;
+                }
+                if (error != null) {
+                    System.err.println("ERROR filtering ingredients: " + error.getMessage());
+                    return;
+                }
+                table.setItems(FXCollections.observableArrayList(matches));
+                updateStats(matches);
+            }));
+            return;
+        }
+        // Search filter: ranked matches from the full-text index over name, CAS, categories and description
+        asyncRepository.search(searchText, SEARCH_LIMIT).whenComplete((matches, error) -> Platform.runLater(() -> {
+            // Typing on while the search ran: a later search shows its own results
+            if (!searchText.equals(searchField.getText().strip())) {
+                return;
+            }
+            if (error != null) {
+                System.err.println("ERROR searching ingredients: " + error.getMessage());
+                return;
+            }
+            showFiltered(matches, categoryFilter.getValue());
+        }));
+    }
+    
+    private static boolean isCategorySelected(String selectedCategory) {
+        return selectedCategory != null && !selectedCategory.equals("All categories");
+    }
+    
+    private void showFiltered(List<Ingredient> source, String selectedCategory) {
+        List<Ingredient> filtered = source.stream()
             .filter(ing -> {
                 // Category filter
-                if (selectedCategory != null && !selectedCategory.equals("All categories")) {
+                if (isCategorySelected(selectedCategory)) {
                     if (ing.getCategory() == null || !ing.getCategory().equals(selectedCategory)) {
                         return false;
                     }
                 }
                 
-                // Search filter
-                if (!searchText.isEmpty()) {
-                    String name = ing.getName() != null ? ing.getName().toLowerCase() : "";
-                    String cas = ing.getCasNumber() != null ? ing.getCasNumber().toLowerCase() : "";
-                    String cat = ing.getCategory() != null ? ing.getCategory().toLowerCase() : "";
-                    String ncs = ing.getIfraNaturalsCategory() != null ? ing.getIfraNaturalsCategory().toLowerCase() : "";
-                    String desc = ing.getDescription() != null ? ing.getDescription().toLowerCase() : "";
-                    
-                    return name.contains(searchText) || 
-                           cas.contains(searchText) || 
-                           cat.contains(searchText) ||
-                           ncs.contains(searchText) ||
-                           desc.contains(searchText);
-                }
-                
                 return true;
             })
             .collect(Collectors.toList());
@@ -406,12 +541,16 @@ public class IngredientsView extends VBox {
     private void clearFilters() {
         searchField.clear();
         categoryFilter.setValue("All categories");
-        table.setItems(allIngredients);
-        updateStats(allIngredients);
+        table.setItems(catalogView);
+        updateStats(catalogPage);
     }
     
     private void updateStats(List<Ingredient> ingredients) {
-        long total = ingredients.size();
+        if (ingredients == catalogPage) {
+            statsLabel.setText(String.format("📊 Total: %d ingredients  |  📋 Showing: %d of %d",
+                catalogSize, catalogPage.size(), catalogSize) + catalogTotals());
+            return;
+        }
         long withNcs = ingredients.stream()
             .filter(i -> i.getIfraNaturalsCategory() != null && !i.getIfraNaturalsCategory().isEmpty())
             .count();
@@ -422,14 +561,43 @@ public class IngredientsView extends VBox {
         statsLabel.setText(String.format(
             "📊 Total: %d ingredients  |  🧪 Synthetic: %d  |  🌿 Natural (NCS): %d  |  " +
             "📋 Showing: %d of %d",
-            allIngredients != null ? allIngredients.size() : 0,
+            catalogSize,
             synthetic,
             withNcs,
-            total,
-            allIngredients != null ? allIngredients.size() : 0
+            ingredients.size(),
+            catalogSize
         ));
     }
     
+    /**
+     * Whole-catalog figures from the cached columns. They need every ingredient in memory, so they are
+     * shown only once another view has loaded the shared cache; the table itself never loads it.
+     */
+    private String catalogTotals() {
+        CachingIngredientRepository cache = CachingIngredientRepository.getInstance();
+        if (!cache.isLoaded()) {
+            return "";
+        }
+        IngredientColumns columns = cache.getColumns();
+        return String.format("  |  🧪 Synthetic: %d  |  🌿 Natural (NCS): %d  |  💰 Stock value: %.2f  |  ⚠️ Low stock: %d",
+            columns.countInCategory("Synthetic"), columns.countWithNcs(),
+            columns.totalStockValue(), columns.lowStockRows(LOW_STOCK_GRAMS).length);
+    }
+    
+    /**
+     * Catalog size, first page and categories, fetched together when the view (re)loads.
+     */
+    private record CatalogStart(long size, List<Ingredient> firstPage, List<String> categories) {
+        
+        CatalogStart(long size, List<Ingredient> firstPage) {
+            this(size, firstPage, List.of());
+        }
+        
+        CatalogStart withCategories(List<String> categories) {
+            return new CatalogStart(size, firstPage, categories);
+        }
+    }
+    
     private void showIngredientDetails(Ingredient ingredient) {
         Alert alert = createAlert(Alert.AlertType.INFORMATION);
         alert.setTitle("Ingredient Details");
@@ -520,9 +688,17 @@ public class IngredientsView extends VBox {
     private Ingredient findIngredientByUidAndPin(String uidLarge, Integer pinLarge, 
                                                 String uidSmall, Long excludeId, Integer... pinSmall) {
         try {
-            List<Ingredient> allIngredients = repository.findAll();
+            // Only ingredients stored on one of the requested pins can match
+            Integer checkPin = pinSmall.length > 0 ? pinSmall[0] : null;
+            List<Ingredient> candidates = new ArrayList<>();
+            if (uidLarge != null && pinLarge != null) {
+                candidates.addAll(repository.findByUidAndPin(uidLarge, pinLarge));
+            }
+            if (uidSmall != null && checkPin != null) {
+                candidates.addAll(repository.findByUidAndPin(uidSmall, checkPin));
+            }
             
-            for (Ingredient ing : allIngredients) {
+            for (Ingredient ing : candidates) {
                 // Skip current ingredient being edited
                 if (excludeId != null && ing.getId() != null && ing.getId().equals(excludeId)) {
                     continue;
@@ -543,9 +719,8 @@ public class IngredientsView extends VBox {
                 }
                 
                 // Check Small Pump match
-                if (uidSmall != null) {
-                    Integer checkPin = pinSmall.length > 0 ? pinSmall[0] : null;
-                    if (checkPin != null && uidSmall.equals(ing.getArduinoUidSmall()) && 
+                if (uidSmall != null && checkPin != null) {
+                    if (uidSmall.equals(ing.getArduinoUidSmall()) && 
                         checkPin.equals(ing.getArduinoPinSmall())) {
                         return ing;
                     }
@@ -566,28 +741,8 @@ public class IngredientsView extends VBox {
      */
     private int countPinsForUid(String uid, Long excludeId) {
         try {
-            // Use findAllWithoutMasterApply to avoid double-counting ingredients with master configuration
-            List<Ingredient> allIngredients = repository.findAllWithoutMasterApply();
-            int count = 0;
-            
-            for (Ingredient ing : allIngredients) {
-                // Skip current ingredient being edited
-                if (excludeId != null && ing.getId() != null && ing.getId().equals(excludeId)) {
-                    continue;
-                }
-                
-                // Count Large pump pin if UID matches
-                if (uid.equals(ing.getArduinoUid()) && ing.getArduinoPin() != null) {
-                    count++;
-                }
-                
-                // Count Small pump pin if UID matches
-                if (uid.equals(ing.getArduinoUidSmall()) && ing.getArduinoPinSmall() != null) {
-                    count++;
-                }
-            }
-            
-            return count;
+            // Counts stored pins (master configuration not applied) to avoid double-counting slaves
+            return repository.countPinsByUid(uid, excludeId);
         } catch (Exception e) {
             System.err.println("Error counting pins for UID: " + e.getMessage());
             e.printStackTrace();
@@ -1339,11 +1494,15 @@ public class IngredientsView extends VBox {
         
         try {
             // Find all ingredients without any Arduino pins set (both arduino_pin and arduino_pin_small are null)
-            List<Ingredient> noPins = allIngredients.stream()
-                .filter(ing -> 
-                    (ing.getArduinoPin() == null) && (ing.getArduinoPinSmall() == null)
-                )
-                .collect(Collectors.toList());
+            // The table holds only the pages scrolled so far, so the catalog is streamed from the repository
+            List<Ingredient> noPins;
+            try (Stream<Ingredient> all = repository.streamAll()) {
+                noPins = all
+                    .filter(ing -> 
+                        (ing.getArduinoPin() == null) && (ing.getArduinoPinSmall() == null)
+                    )
+                    .collect(Collectors.toList());
+            }
         
             if (noPins.isEmpty()) {
                 isDeletingNoPins = false;
@@ -1408,9 +1567,8 @@ public class IngredientsView extends VBox {
                         
                         // Delete each ingredient without pins
                         for (Ingredient ing : noPins) {
-                            try {
-                                java.sql.Connection conn = dbMgr.getConnection();
-                                
+                            // Closing the connection returns it to the pool, also when a delete fails
+                            try (java.sql.Connection conn = dbMgr.getConnection()) {
                                 // Delete recipe-ingredient links first
                                 java.sql.PreparedStatement stmt = conn.prepareStatement(
                                     "DELETE FROM recipe_ingredients WHERE ingredient_id = ?"
@@ -1426,8 +1584,6 @@ public class IngredientsView extends VBox {
                                 stmt.executeUpdate();
                                 stmt.close();
                                 
-                                conn.close();
-                                
                                 deletedCount++;
                                 System.out.println("  ✅ Deleted: " + ing.getName() + " (ID: " + ing.getId() + ")");
                                 
@@ -1439,6 +1595,9 @@ public class IngredientsView extends VBox {
                         System.out.println("Successfully deleted " + deletedCount + " ingredients without pins");
                         System.out.println("Also deleted " + recipeIngredientsDeleted + " recipe-ingredient links");
                         
+                        // Rows were deleted with plain SQL, bypassing the ingredient cache
+                        CachingIngredientRepository.getInstance().invalidate();
+                        
                         // Refresh UI
                         loadIngredients();
                         
@@ -1448,7 +1607,7 @@ public class IngredientsView extends VBox {
                                  "Deleted:\n" +
                                  "  • " + deletedCount + " ingredients (no pins set)\n" +
                                  "  • " + recipeIngredientsDeleted + " recipe-ingredient links\n\n" +
-                                 "Remaining ingredients: " + (allIngredients != null ? allIngredients.size() : 0));
+                                 "Remaining ingredients: " + repository.count());
                         
                     } catch (Exception e) {
                         System.err.println("Error deleting ingredients without pins: " + e.getMessage());
@@ -1478,7 +1637,7 @@ public class IngredientsView extends VBox {
         confirmDialog.setHeaderText("This will DELETE ALL ingredients from the database!");
         confirmDialog.setContentText(
             "WARNING: This action will:\n" +
-            "  • Delete ALL " + (allIngredients != null ? allIngredients.size() : 0) + " ingredients\n" +
+            "  • Delete ALL " + catalogSize + " ingredients\n" +
             "  • Delete ALL recipes (they depend on ingredients)\n" +
             "  • Delete ALL recipe-ingredient links\n\n" +
             "This CANNOT be undone!\n\n" +
@@ -1497,21 +1656,24 @@ public class IngredientsView extends VBox {
                     // Execute SQL to clear all data using correct path
                     // Use singleton DatabaseManager to get connection
                     DatabaseManager dbMgr = DatabaseManager.getInstance();
-                    java.sql.Connection conn = dbMgr.getConnection();
-                    java.sql.Statement stmt = conn.createStatement();
-                    
-                    // Delete in correct order (respect foreign keys)
-                    int deletedRecipeIngredients = stmt.executeUpdate("DELETE FROM recipe_ingredients");
-                    int deletedRecipes = stmt.executeUpdate("DELETE FROM recipes");
-                    int deletedIngredients = stmt.executeUpdate("DELETE FROM ingredients");
-                    
-                    stmt.close();
-                    conn.close();
+                    int deletedRecipeIngredients;
+                    int deletedRecipes;
+                    int deletedIngredients;
+                    try (java.sql.Connection conn = dbMgr.getConnection();
+                         java.sql.Statement stmt = conn.createStatement()) {
+                        // Delete in correct order (respect foreign keys)
+                        deletedRecipeIngredients = stmt.executeUpdate("DELETE FROM recipe_ingredients");
+                        deletedRecipes = stmt.executeUpdate("DELETE FROM recipes");
+                        deletedIngredients = stmt.executeUpdate("DELETE FROM ingredients");
+                    }
                     
                     System.out.println("Deleted " + deletedRecipeIngredients + " recipe ingredients");
                     System.out.println("Deleted " + deletedRecipes + " recipes");
                     System.out.println("Deleted " + deletedIngredients + " ingredients");
                     
+                    // Rows were deleted with plain SQL, bypassing the ingredient cache
+                    CachingIngredientRepository.getInstance().invalidate();
+                    
                     // Refresh UI
                     loadIngredients();
                     
@@ -1715,11 +1877,8 @@ public class IngredientsView extends VBox {
      * Called automatically when tab is selected
      */
     public void refreshIngredients() {
-        // Force database connection reset to ensure fresh data
-        dbManager.resetConnection();
         // Clear existing items first
-        table.getItems().clear();
-        allIngredients = null;
+        table.setItems(FXCollections.observableArrayList());
         // Reload from database
         loadIngredients();
         // Force a complete refresh
@@ -16,13 +16,23 @@ import javafx.scene.layout.*;
 import ro.marcman.mixer.core.model.Ingredient;
 import ro.marcman.mixer.core.model.Recipe;
 import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.model.StockMovement;
+import ro.marcman.mixer.core.ports.repository.StockMovementRepository;
+import ro.marcman.mixer.serial.ResponseMatcher;
 import ro.marcman.mixer.serial.SerialManager;
+import ro.marcman.mixer.serial.model.SerialResponse;
 import ro.marcman.mixer.sqlite.DatabaseManager;
-import ro.marcman.mixer.sqlite.IngredientRepositoryImpl;
+import ro.marcman.mixer.sqlite.CachingIngredientRepository;
 import ro.marcman.mixer.sqlite.RecipeRepositoryImpl;
+import ro.marcman.mixer.sqlite.StockMovementRepositoryImpl;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import javafx.util.Callback;
 import javafx.scene.control.CheckBox;
@@ -34,7 +44,8 @@ public class MixControlView extends VBox {
     
     private final DatabaseManager dbManager = DatabaseManager.getInstance();
     private final RecipeRepositoryImpl recipeRepository = new RecipeRepositoryImpl(dbManager);
-    private final IngredientRepositoryImpl ingredientRepository = new IngredientRepositoryImpl(dbManager);
+    private final CachingIngredientRepository ingredientRepository = CachingIngredientRepository.getInstance();
+    private final StockMovementRepository stockMovementRepository = new StockMovementRepositoryImpl(dbManager);
     private SerialManager serialManager;
     
     private ComboBox<Recipe> recipeCombo;
@@ -54,9 +65,15 @@ public class MixControlView extends VBox {
     
     private final Map<RecipeIngredient, BooleanProperty> ingredientSelectionMap = new IdentityHashMap<>();
     
-    private boolean executing = false;
+    private volatile boolean executing = false;
+    // Command the execution thread is waiting on, cancelled by stop
+    private volatile CompletableFuture<SerialResponse> awaitedCommand;
     private static final int MAX_BATCH_SIZE = 64;
     private static final int MAX_DURATION_PER_COMMAND = 60000;
+    // Longest wait for the MASTER to acknowledge batchprep; without it the batch is not run
+    private static final long PREP_ACK_TIMEOUT_MS = 2000;
+    // Added to the pumping time when the MASTER does not report the batch done
+    private static final long RUN_COMPLETION_MARGIN_MS = 500;
     
     public MixControlView(SerialManager serialManager) {
         super(15);
@@ -823,30 +840,20 @@ public class MixControlView extends VBox {
             String batchPrepCommand = String.format("batchprep %s %d:%d", uidFormatted, scaledResult.selectedPin, chunkDuration);
             
             log(String.format("  [BATCH] PREPARE%s -> %s", suffix, batchPrepCommand));
-            boolean prepSent = serialManager.sendRawCommand(batchPrepCommand);
-            if (!prepSent) {
-                log("  ERROR: Failed to send batchprep command!");
+            if (prepareBatch(uidFormatted, batchPrepCommand) == CommandOutcome.FAILED) {
+                log("  ERROR: Failed to prepare batch!");
                 return false;
             }
             
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ignored) { }
-            
             log("  [BATCH] EXECUTE -> batchrun");
-            boolean runSent = serialManager.sendRawCommand("batchrun");
-            if (!runSent) {
-                log("  ERROR: Failed to send batchrun command! Aborting lot.");
+            if (runBatch(chunkDuration) == CommandOutcome.FAILED) {
+                log("  ERROR: batchrun failed! Aborting lot.");
                 serialManager.sendRawCommand("batchabort");
                 return false;
             }
             
             log(String.format("  Status: Segment executat (%d ms)%s", chunkDuration, suffix));
             
-            try {
-                Thread.sleep(chunkDuration + 200);
-            } catch (InterruptedException ignored) { }
-            
             remaining -= chunkDuration;
             partIndex++;
         }
@@ -1087,7 +1094,7 @@ public class MixControlView extends VBox {
                         String command = batchCmd.toString();
                         log(String.format("  Command: %s", command));
 
-                        boolean sent = serialManager.sendRawCommand(command);
+                        boolean sent = prepareBatch(uidFormatted, command) != CommandOutcome.FAILED;
                         if (sent) {
                             log(String.format("  ✅ Lot %d/%d pregătit (%d comenzi)",
                                 batchNumForUid, numBatchesForUidFinal, batch.size()));
@@ -1103,8 +1110,6 @@ public class MixControlView extends VBox {
                             return;
                         }
 
-                        Thread.sleep(50);
-
                         // Update progress
                         final int currentBatches = totalBatches;
                         final int totalItems = allCommands.size();
@@ -1120,30 +1125,28 @@ public class MixControlView extends VBox {
                 
                 if (executing) {
                     log(">>> Execut batchrun (execuție simultană)...");
-                    boolean runSent = serialManager.sendRawCommand("batchrun");
-                    if (!runSent) {
-                        log("❌ batchrun a eșuat - trimit batchabort");
-                        serialManager.sendRawCommand("batchabort");
-                        executing = false;
-                        Platform.runLater(() -> {
-                            statusLabel.setText("Batchrun failed");
-                            statusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
-                        });
-                        return;
-                    }
-                    Thread.sleep(100);
-                }
-
-                if (executing) {
                     log(String.format("\n========================================"));
                     log(String.format("ALL COMMANDS SENT! (%d commands)", sentCount));
                     log(String.format("Max pumping time: %d ms (%.2f seconds)", maxDuration, maxDuration/1000.0));
                     log("========================================");
                     log("Waiting for longest pump to complete...");
                     
-                    // Wait for the longest duration to complete
-                    Thread.sleep(maxDuration + 500);
-                    
+                    // Completes when the MASTER reports the batch done, or after the longest pump plus a margin
+                    if (runBatch(maxDuration) == CommandOutcome.FAILED) {
+                        if (executing) {
+                            log("❌ batchrun a eșuat - trimit batchabort");
+                            serialManager.sendRawCommand("batchabort");
+                            executing = false;
+                            Platform.runLater(() -> {
+                                statusLabel.setText("Batchrun failed");
+                                statusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+                            });
+                        }
+                        return;
+                    }
+                }
+
+                if (executing) {
                     // Consume stock AFTER successful execution
                     final int finalDesiredBatch = desiredBatchSize;
                     consumeStock(selected, ingredients, finalDesiredBatch);
@@ -1167,8 +1170,6 @@ public class MixControlView extends VBox {
                     });
                 }
                 
-            } catch (InterruptedException e) {
-                log("ERROR: Execution interrupted: " + e.getMessage());
             } finally {
                 executing = false;
                 Platform.runLater(() -> {
@@ -1182,6 +1183,10 @@ public class MixControlView extends VBox {
     
     private void stopExecution() {
         executing = false;
+        CompletableFuture<SerialResponse> awaited = awaitedCommand;
+        if (awaited != null) {
+            awaited.cancel(false);
+        }
         log("\nSTOP requested - halting execution...");
         statusLabel.setText("Execution stopped");
         statusLabel.setStyle("-fx-text-fill: orange; -fx-font-weight: bold;");
@@ -1190,6 +1195,68 @@ public class MixControlView extends VBox {
         }
     }
     
+    private enum CommandOutcome {
+        DONE,       // The MASTER confirmed the command
+        TIMED_OUT,  // No confirmation; the fallback wait has passed
+        FAILED      // Not sent, answered with an error, or execution stopped
+    }
+    
+    /**
+     * Send batchprep and wait for the MASTER to report the batch prepared for uid, at most
+     * PREP_ACK_TIMEOUT_MS. A batch that was not confirmed is FAILED: running it could pump nothing
+     * while stock is still consumed.
+     */
+    private CommandOutcome prepareBatch(String uid, String command) {
+        CommandOutcome outcome = awaitCommand(serialManager.sendRawAndAwait(command, ResponseMatcher.batchPrepared(uid),
+                Duration.ofMillis(PREP_ACK_TIMEOUT_MS)));
+        if (outcome == CommandOutcome.TIMED_OUT) {
+            log(String.format("  ERROR: MASTER did not confirm batchprep for %s within %d ms", uid, PREP_ACK_TIMEOUT_MS));
+            return CommandOutcome.FAILED;
+        }
+        return outcome;
+    }
+    
+    /**
+     * Send batchrun and wait until the MASTER reports the batch done. If it never does, this returns
+     * after the pumping time plus RUN_COMPLETION_MARGIN_MS, as the fixed wait did before.
+     */
+    private CommandOutcome runBatch(long pumpingMs) {
+        long fallbackMs = pumpingMs + RUN_COMPLETION_MARGIN_MS;
+        long start = System.currentTimeMillis();
+        CommandOutcome outcome = awaitCommand(serialManager.sendRawAndAwait("batchrun",
+                ResponseMatcher.batchComplete(), Duration.ofMillis(fallbackMs)));
+        if (outcome == CommandOutcome.DONE) {
+            log(String.format("  Batch done reported after %d ms", System.currentTimeMillis() - start));
+        } else if (outcome == CommandOutcome.TIMED_OUT) {
+            log(String.format("  No completion report from MASTER - waited %d ms", fallbackMs));
+        }
+        return outcome;
+    }
+    
+    private CommandOutcome awaitCommand(CompletableFuture<SerialResponse> future) {
+        awaitedCommand = future;
+        try {
+            if (!executing) {
+                future.cancel(false);
+            }
+            future.get();
+            return CommandOutcome.DONE;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return CommandOutcome.TIMED_OUT;
+            }
+            log("  ERROR: " + e.getCause().getMessage());
+            return CommandOutcome.FAILED;
+        } catch (CancellationException e) {
+            return CommandOutcome.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CommandOutcome.FAILED;
+        } finally {
+            awaitedCommand = null;
+        }
+    }
+    
     private static class ExecutionEstimates {
         long sequentialMs;
         long parallelMs;
@@ -1369,9 +1436,11 @@ public class MixControlView extends VBox {
         log(String.format("Consuming stock for %d g final product (scale factor: %.2f)", 
             desiredBatchSize, scaleFactor));
         
+        List<StockMovement> movements = new ArrayList<>();
+        Map<Long, String> names = new HashMap<>();
         for (RecipeIngredient ri : executedIngredients) {
             try {
-                // Load ingredient from database
+                // Pump configuration (msPerGram, master) comes from the cached ingredient
                 Ingredient ingredient = ingredientRepository.findById(ri.getIngredientId()).orElse(null);
                 if (ingredient == null) {
                     log("WARNING: Ingredient " + ri.getDisplayName() + " not found in database");
@@ -1380,26 +1449,32 @@ public class MixControlView extends VBox {
                 
                 // Calculate consumed grams (scaled) using msPerGram configuration
                 PumpComputationResult computation = computePumpResult(ri, ingredient, scaleFactor, originalBatchSize);
-                double consumedGrams = computation.grams;
-                
-                double currentStock = ingredient.getStockQuantity() != null ? ingredient.getStockQuantity() : 0.0;
-                double newStock = currentStock - consumedGrams;
-                
-                // Don't allow negative stock (should have been caught by checkStockAvailability)
-                if (newStock < 0) {
-                    newStock = 0;
-                }
-                
-                ingredient.setStockQuantity(newStock);
-                ingredientRepository.save(ingredient);
-                
-                log(String.format("  %s: %.2f g -> %.2f g (consumed %.2f g)",
-                    ri.getDisplayName(), currentStock, newStock, consumedGrams));
+                movements.add(StockMovement.builder()
+                    .ingredientId(ingredient.getId())
+                    .recipeId(recipe.getId())
+                    .quantity(-computation.grams)
+                    .reason("mix")
+                    .build());
+                names.put(ingredient.getId(), ri.getDisplayName());
                 
             } catch (Exception e) {
-                log("ERROR updating stock for " + ri.getDisplayName() + ": " + e.getMessage());
+                log("ERROR computing consumption for " + ri.getDisplayName() + ": " + e.getMessage());
+            }
+        }
+        
+        // One transaction decrements every stock in SQL and records the ledger rows;
+        // stock is clamped at 0 (shortages should have been caught by checkStockAvailability)
+        List<StockMovement> recorded = ingredientRepository.recordStockMovements(stockMovementRepository, movements);
+        if (recorded.size() < movements.size()) {
+            log("ERROR updating stock: " + (movements.size() - recorded.size()) + " ingredient(s) not updated");
+            if (recorded.isEmpty()) {
+                return;
             }
         }
+        for (StockMovement movement : recorded) {
+            log(String.format("  %s: consumed %.2f g -> %.2f g left",
+                names.get(movement.getIngredientId()), -movement.getQuantity(), movement.getStockAfter()));
+        }
         
         log("Stock quantities updated successfully!");
     }
@@ -12,14 +12,13 @@ import ro.marcman.mixer.core.ports.repository.IngredientRepository;
 import ro.marcman.mixer.serial.SerialListener;
 import ro.marcman.mixer.serial.SerialManager;
 import ro.marcman.mixer.serial.model.ArduinoCommand;
+import ro.marcman.mixer.serial.model.MasterEvent;
 import ro.marcman.mixer.serial.model.SerialResponse;
 import ro.marcman.mixer.sqlite.DatabaseManager;
-import ro.marcman.mixer.sqlite.IngredientRepositoryImpl;
+import ro.marcman.mixer.sqlite.CachingIngredientRepository;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Pin Mapper View - Displays UID pin allocation status
@@ -76,7 +75,7 @@ public class PinMapperView extends VBox {
         
         // Initialize database
         this.dbManager = DatabaseManager.getInstance();
-        this.repository = new IngredientRepositoryImpl(dbManager);
+        this.repository = CachingIngredientRepository.getInstance();
         
         buildUI();
     }
@@ -146,8 +145,9 @@ public class PinMapperView extends VBox {
         getChildren().addAll(title, statusBox, contentBox);
     }
     
-    private StringBuilder scanResponseBuffer = new StringBuilder();
-    private boolean isWaitingForScanResponse = false;
+    // Nodes reported so far by the discover in progress
+    private final List<NodeInfo> scannedNodes = new ArrayList<>();
+    private volatile boolean isWaitingForScanResponse = false;
     
     private void setupSerialListener() {
         if (serialManager == null) return;
@@ -155,21 +155,22 @@ public class PinMapperView extends VBox {
         serialManager.addListener(new SerialListener() {
             @Override
             public void onDataReceived(SerialResponse response) {
-                String rawResponse = response.getRawResponse();
-                if (rawResponse == null) return;
-                
                 // Only accumulate if we're waiting for a discover response
-                if (isWaitingForScanResponse) {
-                    scanResponseBuffer.append(rawResponse).append("\n");
-                    
-                    // Check if this is the last line of the discover response
-                    if (rawResponse.contains("Online count:")) {
-                        Platform.runLater(() -> {
-                            processScanResponse(response, scanResponseBuffer.toString());
-                            scanResponseBuffer.setLength(0); // Clear buffer
-                            isWaitingForScanResponse = false; // Reset flag
-                        });
+                if (!isWaitingForScanResponse) return;
+                
+                if (response.getEvent() instanceof MasterEvent.NodeTableRow row) {
+                    synchronized (scannedNodes) {
+                        scannedNodes.add(new NodeInfo(row.id(), row.uid(), row.firmware()));
+                    }
+                } else if (response.getEvent() instanceof MasterEvent.OnlineCount count) {
+                    // Last line of the discover response
+                    List<NodeInfo> nodes;
+                    synchronized (scannedNodes) {
+                        nodes = new ArrayList<>(scannedNodes);
+                        scannedNodes.clear();
                     }
+                    isWaitingForScanResponse = false;
+                    Platform.runLater(() -> processScanResponse(nodes, count.count()));
                 }
             }
             
@@ -193,32 +194,12 @@ public class PinMapperView extends VBox {
         });
     }
     
-    private void processScanResponse(SerialResponse response, String fullResponse) {
-        if (fullResponse == null || fullResponse.trim().isEmpty()) {
-            return;
-        }
-        
-        // Parse scan response to extract node information
-        // Expected format: "ID X: UID=0xY FW=Z.Z"
-        Pattern nodePattern = Pattern.compile("ID\\s+(\\d+):\\s+UID=(\\S+)\\s+FW=(\\S+)");
-        Matcher matcher = nodePattern.matcher(fullResponse);
-        
-        List<NodeInfo> nodes = new ArrayList<>();
-        while (matcher.find()) {
-            int id = Integer.parseInt(matcher.group(1));
-            String uid = matcher.group(2);
-            String firmware = matcher.group(3);
-            nodes.add(new NodeInfo(id, uid, firmware));
-        }
-        
-        // Check for "Online count"
-        Pattern countPattern = Pattern.compile("Online count:\\s*(\\d+)");
-        Matcher countMatcher = countPattern.matcher(fullResponse);
-        if (countMatcher.find()) {
-            int onlineCount = Integer.parseInt(countMatcher.group(1));
-            statusLabel.setText("Online nodes: " + onlineCount);
-            statusLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold; -fx-text-fill: #4CAF50;");
-        }
+    /**
+     * Show the nodes of a finished discover ("ID X: UID=0xY FW=Z.Z" rows, then "Online count: N").
+     */
+    private void processScanResponse(List<NodeInfo> nodes, int onlineCount) {
+        statusLabel.setText("Online nodes: " + onlineCount);
+        statusLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold; -fx-text-fill: #4CAF50;");
         
         // Update table and pin grids
         if (!nodes.isEmpty()) {
@@ -331,7 +312,9 @@ public class PinMapperView extends VBox {
         pinGridContainer.getChildren().clear();
         
         // Clear scan response buffer and set flag before starting new discover
-        scanResponseBuffer.setLength(0);
+        synchronized (scannedNodes) {
+            scannedNodes.clear();
+        }
         isWaitingForScanResponse = true;
         
         // Send discover command to get UID/ID/FW info
@@ -12,11 +12,14 @@ import javafx.stage.FileChooser;
 import ro.marcman.mixer.core.model.Ingredient;
 import ro.marcman.mixer.core.model.Recipe;
 import ro.marcman.mixer.core.model.RecipeIngredient;
+import ro.marcman.mixer.core.ports.repository.AsyncRecipeRepository;
+import ro.marcman.mixer.core.ports.repository.IngredientRepository;
 import ro.marcman.mixer.core.services.IngredientMatcher;
 import ro.marcman.mixer.core.services.PdfRecipeParser;
 import ro.marcman.mixer.core.services.QuantityCalculator;
+import ro.marcman.mixer.sqlite.AsyncRecipeRepositoryImpl;
 import ro.marcman.mixer.sqlite.DatabaseManager;
-import ro.marcman.mixer.sqlite.IngredientRepositoryImpl;
+import ro.marcman.mixer.sqlite.CachingIngredientRepository;
 import ro.marcman.mixer.sqlite.RecipeRepositoryImpl;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
@@ -34,7 +37,9 @@ public class RecipesView extends VBox {
     
     private final DatabaseManager dbManager = DatabaseManager.getInstance();
     private final RecipeRepositoryImpl recipeRepository = new RecipeRepositoryImpl(dbManager);
-    private final IngredientRepositoryImpl ingredientRepository = new IngredientRepositoryImpl(dbManager);
+    // Recipe list loads run off the FX thread
+    private final AsyncRecipeRepository asyncRecipeRepository = AsyncRecipeRepositoryImpl.create();
+    private final IngredientRepository ingredientRepository = CachingIngredientRepository.getInstance();
     private ro.marcman.mixer.serial.SerialManager serialManager;
     
     private TableView<Recipe> recipesTable;
@@ -137,17 +142,17 @@ public class RecipesView extends VBox {
     }
     
     private void loadRecipes() {
-        try {
-            List<Recipe> recipes = recipeRepository.findAll();
-            
+        asyncRecipeRepository.findAll().whenComplete((recipes, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                System.err.println("Error loading recipes: " + cause.getMessage());
+                cause.printStackTrace();
+                showAlert(Alert.AlertType.ERROR, "Error", "Failed to load recipes: " + cause.getMessage());
+                return;
+            }
             allRecipes = FXCollections.observableArrayList(recipes);
             recipesTable.setItems(allRecipes);
-            
-        } catch (Exception e) {
-            System.err.println("Error loading recipes: " + e.getMessage());
-            e.printStackTrace();
-            showAlert(Alert.AlertType.ERROR, "Error", "Failed to load recipes: " + e.getMessage());
-        }
+        }));
     }
     
     private void showRecipeDialog(Recipe existingRecipe) {
@@ -1919,7 +1924,6 @@ public class RecipesView extends VBox {
         ingredientsList.setPrefHeight(300);
         
         List<String> allIngredientNames = new ArrayList<>();
-        List<Ingredient> allIngredientsList = new ArrayList<>();
         List<Ingredient> filteredIngredientsList = new ArrayList<>(); // Only ingredients with matching CAS
         
         // Warning label if CAS number doesn't match
@@ -1928,23 +1932,10 @@ public class RecipesView extends VBox {
         casWarningLabel.setWrapText(true);
         
         try {
-            allIngredientsList = ingredientRepository.findAll();
-            
             // CRITICAL: Filter ingredients - ONLY show those with matching CAS number
             if (pdfCas != null && !pdfCas.trim().isEmpty()) {
-                String pdfCasTrimmed = pdfCas.trim();
-                
-                // STRICT FILTER: Only ingredients with EXACT CAS match (case-insensitive)
-                filteredIngredientsList = allIngredientsList.stream()
-                    .filter(ing -> {
-                        String ingCas = ing.getCasNumber();
-                        if (ingCas == null || ingCas.trim().isEmpty()) {
-                            return false; // Skip ingredients without CAS
-                        }
-                        String ingCasTrimmed = ingCas.trim();
-                        return pdfCasTrimmed.equalsIgnoreCase(ingCasTrimmed);
-                    })
-                    .collect(Collectors.toList());
+                // STRICT FILTER: Only ingredients with EXACT CAS match (trimmed, case-insensitive)
+                filteredIngredientsList = ingredientRepository.findByCasNumber(pdfCas);
                 
                 if (filteredIngredientsList.isEmpty()) {
                     casWarningLabel.setText("⚠ WARNING: No ingredients found with CAS number: " + pdfCas + "\n" +
@@ -3038,35 +3029,9 @@ public class RecipesView extends VBox {
         }
         
         try {
-            // Use findAllWithoutMasterApply to avoid double-counting ingredients with master configuration
-            List<Ingredient> allIngredients = ingredientRepository.findAllWithoutMasterApply();
-            int count = 0;
-            List<String> debugMatches = new ArrayList<>();
-            
-            for (Ingredient ing : allIngredients) {
-                // Skip current ingredient being edited
-                if (excludeId != null && ing.getId() != null && ing.getId().equals(excludeId)) {
-                    continue;
-                }
-                
-                // Count Large pump pin if UID matches
-                if (uid.equals(ing.getArduinoUid()) && ing.getArduinoPin() != null) {
-                    count++;
-                    debugMatches.add(ing.getName() + " (Large, pin=" + ing.getArduinoPin() + ", masterId=" + ing.getMasterIngredientId() + ")");
-                }
-                
-                // Count Small pump pin if UID matches
-                if (uid.equals(ing.getArduinoUidSmall()) && ing.getArduinoPinSmall() != null) {
-                    count++;
-                    debugMatches.add(ing.getName() + " (Small, pin=" + ing.getArduinoPinSmall() + ", masterId=" + ing.getMasterIngredientId() + ")");
-                }
-            }
-            
+            // Counts stored pins (master configuration not applied) to avoid double-counting slaves
+            int count = ingredientRepository.countPinsByUid(uid, excludeId);
             System.out.println("Counting pins for UID " + uid + ": found " + count + " pins");
-            if (!debugMatches.isEmpty()) {
-                System.out.println("Matches: " + String.join(", ", debugMatches));
-            }
-            
             return count;
         } catch (Exception e) {
             System.err.println("Error counting pins for UID: " + e.getMessage());
@@ -3125,9 +3090,17 @@ public class RecipesView extends VBox {
     private Ingredient findIngredientByUidAndPin(String uidLarge, Integer pinLarge, 
                                                 String uidSmall, Long excludeId, Integer... pinSmall) {
         try {
-            List<Ingredient> allIngredients = ingredientRepository.findAll();
+            // Only ingredients stored on one of the requested pins can match
+            Integer checkPin = pinSmall.length > 0 ? pinSmall[0] : null;
+            List<Ingredient> candidates = new ArrayList<>();
+            if (uidLarge != null && pinLarge != null) {
+                candidates.addAll(ingredientRepository.findByUidAndPin(uidLarge, pinLarge));
+            }
+            if (uidSmall != null && checkPin != null) {
+                candidates.addAll(ingredientRepository.findByUidAndPin(uidSmall, checkPin));
+            }
             
-            for (Ingredient ing : allIngredients) {
+            for (Ingredient ing : candidates) {
                 // Skip current ingredient being edited
                 if (excludeId != null && ing.getId() != null && ing.getId().equals(excludeId)) {
                     continue;
@@ -3148,9 +3121,8 @@ public class RecipesView extends VBox {
                 }
                 
                 // Check Small Pump match
-                if (uidSmall != null) {
-                    Integer checkPin = pinSmall.length > 0 ? pinSmall[0] : null;
-                    if (checkPin != null && uidSmall.equals(ing.getArduinoUidSmall()) && 
+                if (uidSmall != null && checkPin != null) {
+                    if (uidSmall.equals(ing.getArduinoUidSmall()) && 
                         checkPin.equals(ing.getArduinoPinSmall())) {
                         return ing;
                     }
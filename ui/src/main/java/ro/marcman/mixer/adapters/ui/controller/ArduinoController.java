@@ -10,6 +10,8 @@ import ro.marcman.mixer.serial.model.ArduinoCommand;
 import ro.marcman.mixer.serial.model.SerialResponse;
 import ro.marcman.mixer.adapters.ui.util.IconSupport;
 
+import java.util.List;
+
 /**
  * Controller for Arduino serial communication interface.
  * 
@@ -50,15 +52,31 @@ public class ArduinoController {
         serialManager.addListener(new SerialListener() {
             @Override
             public void onDataReceived(SerialResponse response) {
+                onDataReceived(List.of(response));
+            }
+            
+            @Override
+            public void onDataReceived(List<SerialResponse> responses) {
+                // One append and one FX update for the whole batch
+                StringBuilder text = new StringBuilder();
+                String lastError = null;
+                for (SerialResponse response : responses) {
+                    text.append(response.getRawResponse()).append("\n");
+                    if (response.isError()) {
+                        lastError = response.getRawResponse();
+                    }
+                }
+                
+                String error = lastError;
                 Platform.runLater(() -> {
-                    responseArea.appendText(response.getRawResponse() + "\n");
+                    responseArea.appendText(text.toString());
                     
                     // Auto-scroll to bottom
                     responseArea.setScrollTop(Double.MAX_VALUE);
                     
                     // Highlight errors
-                    if (response.isError()) {
-                        updateStatus("Error: " + response.getRawResponse(), "error");
+                    if (error != null) {
+                        updateStatus("Error: " + error, "error");
                     }
                 });
             }